@@ -0,0 +1,42 @@
+package org.nescent.VTO.lib;
+
+/**
+ * One benchmark for BenchmarkRunner.  setUp builds fresh state before every invocation and is not timed;
+ * run is the timed part and returns something derived from its work so it can't be optimized away.
+ */
+abstract class BenchmarkCase {
+
+	private final String name;
+
+	BenchmarkCase(String benchmarkName){
+		name = benchmarkName;
+	}
+
+	String getName(){
+		return name;
+	}
+
+	/**
+	 * Untimed; called before each invocation of run
+	 * @param size number of synthetic terms (or rows) to prepare
+	 */
+	abstract void setUp(int size) throws Exception;
+
+	/**
+	 * Timed
+	 * @return a value computed from the work done
+	 */
+	abstract Object run() throws Exception;
+
+	/**
+	 * @return the number of operations one call of run performs, used to report time per operation
+	 */
+	abstract int getOperations();
+
+	/**
+	 * Untimed; releases whatever setUp built so it doesn't count against the next invocation's heap
+	 */
+	void tearDown(){
+	}
+
+}
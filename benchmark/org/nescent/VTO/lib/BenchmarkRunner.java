@@ -0,0 +1,224 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the TaxonStore, Term and parser benchmarks at each requested size.  Every invocation gets fresh state
+ * from the case's untimed setUp and a GC beforehand; after warmup invocations the measured ones are reported
+ * as mean, standard deviation and minimum time per operation.
+ *
+ * Results can be written to a tab separated file and compared against one from an earlier run; a case whose
+ * mean is slower than its baseline by more than the tolerance is reported as a regression and the runner
+ * exits with status 1.
+ *
+ * Options: -sizes 10000,100000,1000000  -warmup 2  -iterations 5  -include regex  -out file  -baseline file
+ * -tolerance 0.2  -dir scratchDirectory
+ */
+public class BenchmarkRunner {
+
+	static final String DEFAULTSIZES = "10000,100000,1000000";
+
+	private int[] sizes;
+	private int warmup = 2;
+	private int iterations = 5;
+	private Pattern include = null;
+	private File out = null;
+	private File baseline = null;
+	private double tolerance = 0.2;
+	private File workDir;
+
+	private static volatile int sink;   //results are folded in here so the JIT can't discard the timed work
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);    //store and merger progress messages would swamp the results
+		final BenchmarkRunner runner = new BenchmarkRunner();
+		runner.processArgs(args);
+		final int regressions = runner.runAll();
+		System.exit((regressions > 0) ? 1 : 0);
+	}
+
+	private void processArgs(String[] args) throws IOException{
+		String sizeList = DEFAULTSIZES;
+		for (int i = 0; i+1 < args.length; i += 2){
+			final String option = args[i];
+			final String value = args[i+1];
+			if ("-sizes".equals(option))
+				sizeList = value;
+			else if ("-warmup".equals(option))
+				warmup = Integer.parseInt(value);
+			else if ("-iterations".equals(option))
+				iterations = Integer.parseInt(value);
+			else if ("-include".equals(option))
+				include = Pattern.compile(value);
+			else if ("-out".equals(option))
+				out = new File(value);
+			else if ("-baseline".equals(option))
+				baseline = new File(value);
+			else if ("-tolerance".equals(option))
+				tolerance = Double.parseDouble(value);
+			else if ("-dir".equals(option))
+				workDir = new File(value);
+			else
+				throw new IllegalArgumentException("Unknown option " + option);
+		}
+		final String[] sizeStrs = sizeList.split(",");
+		sizes = new int[sizeStrs.length];
+		for (int i = 0; i < sizeStrs.length; i++){
+			sizes[i] = Integer.parseInt(sizeStrs[i].trim());
+		}
+		if (workDir == null){
+			workDir = File.createTempFile("vtobench", "");
+			workDir.delete();
+		}
+		workDir.mkdirs();
+	}
+
+	private List<BenchmarkCase> getCases(){
+		final List<BenchmarkCase> result = new ArrayList<BenchmarkCase>();
+		for (StoreBenchmarks.StoreKind kind : StoreBenchmarks.StoreKind.values()){
+			result.addAll(new StoreBenchmarks(kind, workDir).getCases());
+		}
+		result.addAll(new ParseBenchmarks(workDir).getCases());
+		return result;
+	}
+
+	/**
+	 * @return number of regressions against the baseline
+	 */
+	private int runAll() throws IOException{
+		final Map<String,Double> baselineMeans = readBaseline();
+		final PrintWriter results = (out == null) ? null : new PrintWriter(new FileWriter(out));
+		int regressions = 0;
+		System.out.println(String.format("%-40s %9s %14s %12s %14s", "Benchmark", "Size", "Mean ns/op", "Stddev", "Min ns/op"));
+		try {
+			for (int size : sizes){
+				for (BenchmarkCase c : getCases()){
+					if (include != null && !include.matcher(c.getName()).find()){
+						continue;
+					}
+					final double[] nsPerOp;
+					try {
+						nsPerOp = measure(c, size);
+					}
+					catch (Throwable e){   //OutOfMemoryError at the largest sizes shouldn't stop the other cases
+						c.tearDown();
+						System.out.println(String.format("%-40s %9d  failed: %s", c.getName(), size, e));
+						continue;
+					}
+					final double mean = mean(nsPerOp);
+					String note = "";
+					final Double base = baselineMeans.get(key(c.getName(), size));
+					if (base != null){
+						final double change = (mean - base)/base;
+						note = String.format("  %+.1f%% vs baseline", change*100);
+						if (change > tolerance){
+							note += " REGRESSION";
+							regressions++;
+						}
+					}
+					System.out.println(String.format("%-40s %9d %14.1f %12.1f %14.1f%s", c.getName(), size, mean, stddev(nsPerOp, mean), min(nsPerOp), note));
+					if (results != null){
+						results.println(c.getName() + "\t" + size + "\t" + mean);
+						results.flush();
+					}
+				}
+			}
+		}
+		finally {
+			if (results != null){
+				results.close();
+			}
+		}
+		if (regressions > 0){
+			System.out.println(regressions + " benchmark(s) regressed by more than " + Math.round(tolerance*100) + "%");
+		}
+		return regressions;
+	}
+
+	private double[] measure(BenchmarkCase c, int size) throws Exception{
+		final double[] result = new double[iterations];
+		for (int i = 0; i < warmup + iterations; i++){
+			c.setUp(size);
+			System.gc();
+			final long start = System.nanoTime();
+			final Object value = c.run();
+			final long elapsed = System.nanoTime() - start;
+			sink ^= System.identityHashCode(value);
+			final int operations = Math.max(1, c.getOperations());
+			c.tearDown();
+			if (i >= warmup){
+				result[i-warmup] = ((double)elapsed)/operations;
+			}
+		}
+		return result;
+	}
+
+	private Map<String,Double> readBaseline() throws IOException{
+		final Map<String,Double> result = new HashMap<String,Double>();
+		if (baseline == null){
+			return result;
+		}
+		final BufferedReader r = new BufferedReader(new FileReader(baseline));
+		try {
+			String line = r.readLine();
+			while (line != null){
+				final String[] fields = line.split("\t");
+				if (fields.length == 3){
+					result.put(key(fields[0], Integer.parseInt(fields[1])), Double.parseDouble(fields[2]));
+				}
+				line = r.readLine();
+			}
+		}
+		finally {
+			r.close();
+		}
+		return result;
+	}
+
+	private static String key(String name, int size){
+		return name + "\t" + size;
+	}
+
+	private static double mean(double[] values){
+		double sum = 0;
+		for (double v : values){
+			sum += v;
+		}
+		return sum/values.length;
+	}
+
+	private static double stddev(double[] values, double mean){
+		if (values.length < 2){
+			return 0;
+		}
+		double sum = 0;
+		for (double v : values){
+			sum += (v-mean)*(v-mean);
+		}
+		return Math.sqrt(sum/(values.length-1));
+	}
+
+	private static double min(double[] values){
+		double result = Double.MAX_VALUE;
+		for (double v : values){
+			result = Math.min(result, v);
+		}
+		return result;
+	}
+
+}
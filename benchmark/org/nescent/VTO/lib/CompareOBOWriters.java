@@ -0,0 +1,152 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.OBOClass;
+
+/**
+ * Side by side timing and heap comparison of the stanza writer and the OBO-Edit serializer on a synthetic
+ * taxonomy (ranks, synonyms, xrefs, extinct and obsolete terms).  Not a junit test; run with a large heap, e.g.
+ * java -Xmx3g org.nescent.VTO.lib.CompareOBOWriters 500000
+ */
+public class CompareOBOWriters {
+
+	static final String[] RANKS = {"phylum", "class", "order", "family", "genus", "species"};
+
+	public static void main(String[] args) throws IOException {
+		final int size = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+		final OBOUtils u = buildStore(size);
+		final File streamed = File.createTempFile("streamed", ".obo");
+		final File serialized = File.createTempFile("serialized", ".obo");
+		streamed.deleteOnExit();
+		serialized.deleteOnExit();
+		System.out.println("Terms: " + size);
+
+		long base = settledHeap();
+		resetPeaks();
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		u.saveOBOSession(streamed.getPath());
+		report("stanza writer", start, base, allocated, streamed);
+
+		base = settledHeap();
+		resetPeaks();
+		allocated = allocatedBytes();
+		start = System.nanoTime();
+		u.serializeOBOSession(serialized.getPath());
+		report("OBO_1_2_Serializer", start, base, allocated, serialized);
+
+		System.out.println("Outputs identical (ignoring date): " + sameIgnoringDate(streamed, serialized));
+	}
+
+	static OBOUtils buildStore(int size){
+		final OBOUtils u = new OBOUtils();
+		u.setNameSpace("synthetic-taxonomy", "");
+		final OBOClass[] terms = new OBOClass[size];
+		for (int i = 0; i < size; i++){
+			final OBOClass c = u.makeTerm(String.format("TEST:%07d", i), "Taxon " + i);
+			terms[i] = c;
+			u.setRankFromName(c, RANKS[Math.min(depth(i), RANKS.length-1)]);
+			if (i > 0){
+				u.attachParent(c, terms[(i-1)/8]);
+			}
+			u.addXRef(c, u.createDbxref("NCBITaxon", Integer.toString(i+1), null, Dbxref.ANALOG));
+			if (i % 2 == 0){
+				u.addSynonym(c, u.makeSynonymWithXref("Taxon synonym " + i, "NCBITaxon", Integer.toString(i+1)));
+			}
+			if (i % 10 == 0){
+				u.addSynonym(c, u.makeSynonymWithType("common " + i, u.getCommonNameType()));
+			}
+			if (i % 20 == 0){
+				u.setExtinct(c);
+			}
+			if (i > 1 && i % 100 == 0){
+				u.obsoleteClass(c);
+				c.addConsiderReplacement(terms[i-1]);
+			}
+		}
+		return u;
+	}
+
+	private static int depth(int i){
+		int d = 0;
+		while (i > 0){
+			i = (i-1)/8;
+			d++;
+		}
+		return d;
+	}
+
+	private static long settledHeap(){
+		for (int i = 0; i < 3; i++){
+			System.gc();
+		}
+		final Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+
+	private static void resetPeaks(){
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			pool.resetPeakUsage();
+		}
+	}
+
+	//sum of the heap pools' peaks is an upper bound on the live heap during the write
+	private static long peakHeap(){
+		long result = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if (pool.getType() == MemoryType.HEAP){
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+
+	//bytes allocated by this thread so far, or -1 if the JVM doesn't track it
+	private static long allocatedBytes(){
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void report(String label, long start, long base, long allocated, File output){
+		final double seconds = (System.nanoTime() - start)/1E9;
+		final long peak = peakHeap();
+		final long allocatedNow = allocatedBytes();
+		System.out.println(label + ": " + seconds + " sec, " + output.length()/(1<<20) + " MB written, heap settled " +
+				base/(1<<20) + " MB, peak " + peak/(1<<20) + " MB (+" + (peak-base)/(1<<20) + " MB), allocated " +
+				((allocated < 0) ? "n/a" : (allocatedNow-allocated)/(1<<20) + " MB"));
+	}
+
+	private static boolean sameIgnoringDate(File a, File b) throws IOException{
+		final BufferedReader ra = new BufferedReader(new FileReader(a));
+		final BufferedReader rb = new BufferedReader(new FileReader(b));
+		try {
+			String la = ra.readLine();
+			String lb = rb.readLine();
+			while (la != null && lb != null){
+				if (!la.equals(lb) && !(la.startsWith("date:") && lb.startsWith("date:"))){
+					System.out.println("First difference: '" + la + "' vs '" + lb + "'");
+					return false;
+				}
+				la = ra.readLine();
+				lb = rb.readLine();
+			}
+			return la == null && lb == null;
+		}
+		finally {
+			ra.close();
+			rb.close();
+		}
+	}
+
+}
@@ -0,0 +1,402 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks of the source file parsers (NCBI taxdump, delimited columns, PBDB rows) on synthetic input.
+ * Input files are written once per size into the scratch directory and reused across invocations.
+ * The AmphibiaWeb cases repeat the rows of imports/AmphibiaWeb.txt (7046 rows) to the requested size, so
+ * -sizes 704600 reads it scaled up 100 times; they need to be run from the project directory.
+ */
+class ParseBenchmarks {
+
+	static final String PBDBHEADER = "authorizer|enterer|modifier|reference_no|taxon_no|taxon_name|spelling_reason|common_name|taxon_rank|" +
+			"original_taxon_no|original_taxon_name|original_taxon_rank|author1init|author1last|author2init|author2last|otherauthors|" +
+			"pubyr|pages|figures|parent_name|extant|preservation|type_taxon|type_specimen|type_body_part|part_details|comments|created";
+
+	static final File AMPHIBIAWEB = new File("imports", "AmphibiaWeb.txt");
+	static final List<ColumnType> AMPHIBIACOLUMNS = new ArrayList<ColumnType>();
+	static {
+		for (String rank : new String[]{"order", "family", "subfamily", "genus", "species"}){
+			AMPHIBIACOLUMNS.add(new ColumnType(rank));
+		}
+	}
+
+	static final int[] NCBIDIVISIONS = {10};
+	static final String SUBTREEROOT = "Taxon 10";   //a grandchild of the synthetic root, holding about 1/64 of the nodes
+
+	private final File workDir;
+
+	ParseBenchmarks(File dir){
+		workDir = dir;
+	}
+
+	List<BenchmarkCase> getCases(){
+		final List<BenchmarkCase> result = new ArrayList<BenchmarkCase>();
+		result.add(new ParseCase("NCBITaxdump.readNodes"){
+			@Override
+			Object run() throws IOException{
+				final NCBITaxdump dump = new NCBITaxdump(NCBIDIVISIONS);
+				dump.readNodes(nodesFile(size));
+				return dump.size();
+			}
+		});
+		result.add(new ParseCase("NCBITaxdump.readNames"){
+			private NCBITaxdump dump;
+			@Override
+			void setUp(int n) throws IOException{
+				super.setUp(n);
+				dump = new NCBITaxdump(NCBIDIVISIONS);
+				dump.readNodes(nodesFile(size));
+			}
+			@Override
+			Object run() throws IOException{
+				dump.readNames(namesFile(size));
+				return dump.getNameCount();
+			}
+		});
+		result.add(new ParseCase("NCBITaxdump.read(parallel)"){
+			@Override
+			Object run() throws IOException{
+				final NCBITaxdump dump = new NCBITaxdump(NCBIDIVISIONS);
+				dump.readParallel(taxdumpDir(size), Runtime.getRuntime().availableProcessors(), 1 << 20);
+				return dump.getNameCount();
+			}
+		});
+		result.add(new ParseCase("NCBITaxdump.readSubtree"){
+			@Override
+			Object run() throws IOException{
+				return NCBITaxdump.readSubtree(taxdumpDir(size), NCBIDIVISIONS, SUBTREEROOT, null, 1).getNameCount();
+			}
+		});
+		result.add(new SnapshotCase("NCBITaxdumpCache.read(snapshot)"){
+			@Override
+			Object run() throws IOException{
+				return NCBITaxdumpCache.read(taxdumpDir(size), NCBIDIVISIONS, 1, snapshotDir()).getNameCount();
+			}
+		});
+		result.add(new SnapshotCase("NCBITaxdumpCache.readSubtree(snapshot)"){
+			@Override
+			Object run() throws IOException{
+				return NCBITaxdumpCache.readSubtree(taxdumpDir(size), NCBIDIVISIONS, SUBTREEROOT, null, 1, snapshotDir()).getNameCount();
+			}
+		});
+		result.add(new ParseCase("ColumnReader.processCatalog"){
+			@Override
+			Object run(){
+				final ColumnReader reader = new ColumnReader("\t");
+				reader.setColumns(columns());
+				return reader.processCatalog(columnFile(size), true).size();
+			}
+		});
+		result.add(new CatalogCase("ColumnReader.processCatalog(AmphibiaWeb)", 1){
+			@Override
+			Object run(){
+				final ColumnReader reader = new ColumnReader("\t");
+				reader.setColumns(AMPHIBIACOLUMNS);
+				return reader.processCatalog(amphibiaFile(size), false).size();
+			}
+		});
+		result.add(new CatalogCase("ColumnReader.readCatalog(AmphibiaWeb)", 1));
+		//at least two threads, so the chunked reader is timed even on one processor
+		result.add(new CatalogCase("ColumnReader.readCatalog(AmphibiaWeb,parallel)", Math.max(2, Runtime.getRuntime().availableProcessors())));
+		//the split ColumnReader used before ColumnTokenizer, for comparison with the case below
+		result.add(new AmphibiaCase("Pattern.split(AmphibiaWeb)"){
+			@Override
+			Object run(){
+				final Pattern splitPattern = Pattern.compile("\t");
+				int length = 0;
+				for (String line : lines){
+					for (String field : splitPattern.split(line)){
+						if (field.length() > 2 && field.charAt(0) == '"' && field.charAt(field.length()-1) == '"')
+							field = field.substring(1, field.length()-1);
+						length += field.trim().length();
+					}
+				}
+				return length;
+			}
+		});
+		result.add(new AmphibiaCase("ColumnTokenizer(AmphibiaWeb)"){
+			@Override
+			Object run(){
+				final ColumnTokenizer tokens = new ColumnTokenizer("\t");
+				int length = 0;
+				for (String line : lines){
+					final int count = tokens.tokenize(line);
+					for (int i = 0; i < count; i++){
+						length += tokens.getTrimmed(i).length();
+					}
+				}
+				return length;
+			}
+		});
+		result.add(new ParseCase("PBDBItem.getValidInstance"){
+			private String[] lines;
+			@Override
+			void setUp(int n){
+				size = n;
+				lines = pbdbLines(n);
+			}
+			@Override
+			Object run(){
+				final Map<String,Integer> columns = PBDBItem.processHeaders(PBDBHEADER);
+				int count = 0;
+				for (String line : lines){
+					if (PBDBItem.getValidInstance(line, columns).isValid()){
+						count++;
+					}
+				}
+				return count;
+			}
+		});
+		return result;
+	}
+
+	//the dump files are named as the merger expects, one directory per size
+	private File taxdumpDir(int size){
+		return taxdumpDir(workDir, size);
+	}
+
+	static File taxdumpDir(File dir, int size){
+		return new File(dir, "taxdump-" + size);
+	}
+
+	private File snapshotDir(){
+		return new File(workDir, "snapshots");
+	}
+
+	private File nodesFile(int size){
+		return new File(taxdumpDir(size), NCBITaxdump.NODESFILENAME);
+	}
+
+	private File namesFile(int size){
+		return new File(taxdumpDir(size), NCBITaxdump.NAMESFILENAME);
+	}
+
+	private File columnFile(int size){
+		return new File(workDir, "columns-" + size + ".tsv");
+	}
+
+	private File amphibiaFile(int size){
+		return new File(workDir, "amphibiaweb-" + size + ".txt");
+	}
+
+	//the rows of AMPHIBIAWEB, without its header, repeated until there are size of them
+	static String[] amphibiaLines(int size) throws IOException{
+		final List<String> rows = new ArrayList<String>();
+		final BufferedReader br = new BufferedReader(new FileReader(AMPHIBIAWEB));
+		try {
+			br.readLine();
+			String raw = br.readLine();
+			while (raw != null){
+				rows.add(raw);
+				raw = br.readLine();
+			}
+		}
+		finally {
+			br.close();
+		}
+		final String[] result = new String[size];
+		for (int i = 0; i < size; i++){
+			result[i] = rows.get(i % rows.size());
+		}
+		return result;
+	}
+
+	static void writeLines(File f, String[] lines) throws IOException{
+		final BufferedWriter w = new BufferedWriter(new FileWriter(f));
+		try {
+			for (String line : lines){
+				w.write(line);
+				w.write('\n');
+			}
+		}
+		finally {
+			w.close();
+		}
+	}
+
+	static List<ColumnType> columns(){
+		final List<ColumnType> result = new ArrayList<ColumnType>();
+		for (String rank : new String[]{"class", "order", "family", "genus", "species", "synonym"}){
+			result.add(new ColumnType(rank));
+		}
+		final ColumnType xref = new ColumnType("xref");
+		xref.setXrefTemplate("NCBITaxon:*xref");
+		result.add(xref);
+		return result;
+	}
+
+	//writes the taxdump and column files for this size unless an earlier invocation already did
+	private void writeInputs(int size) throws IOException{
+		if (nodesFile(size).exists() && namesFile(size).exists() && columnFile(size).exists()){
+			return;
+		}
+		writeTaxdump(taxdumpDir(size), size);
+		final BufferedWriter rows = new BufferedWriter(new FileWriter(columnFile(size)));
+		try {
+			rows.write("class\torder\tfamily\tgenus\tspecies\tsynonym\txref\n");
+			for (int i = 1; i <= size; i++){
+				rows.write("Class" + (i % 7) + "\tOrder" + (i % 61) + "\tFamily" + (i % 503) + "\tGenus" + (i / 8) + "\tGenus" + (i / 8) + " species" + i +
+						"\tOld" + i + " name, Other" + i + " name\t" + i + "\n");
+			}
+		}
+		finally {
+			rows.close();
+		}
+	}
+
+	/**
+	 * Writes a division 10 dump of size nodes, eight children per node under taxid 1, named "Taxon i" with a synonym
+	 * on every fourth node
+	 */
+	static void writeTaxdump(File dir, int size) throws IOException{
+		dir.mkdirs();
+		final BufferedWriter nodes = new BufferedWriter(new FileWriter(new File(dir, NCBITaxdump.NODESFILENAME)));
+		final BufferedWriter names = new BufferedWriter(new FileWriter(new File(dir, NCBITaxdump.NAMESFILENAME)));
+		try {
+			for (int i = 1; i <= size; i++){
+				final int depth = StoreBenchmarks.depth(i-1);
+				final String rank = StoreBenchmarks.RANKS[Math.min(depth, StoreBenchmarks.RANKS.length-1)];
+				final int parent = (i == 1) ? 1 : (i-2)/8 + 1;
+				nodes.write(i + "\t|\t" + parent + "\t|\t" + rank + "\t|\t\t|\t10\t|\t1\t|\t1\t|\t1\t|\t1\t|\t1\t|\t1\t|\t0\t|\t\t|\n");
+				names.write(i + "\t|\tTaxon " + i + "\t|\t\t|\tscientific name\t|\n");
+				if (i % 4 == 0){
+					names.write(i + "\t|\tSynonym " + i + "\t|\t\t|\tsynonym\t|\n");
+				}
+			}
+		}
+		finally {
+			nodes.close();
+			names.close();
+		}
+	}
+
+	//rows in the PBDBHEADER layout; every field the parser reads is filled in
+	static String[] pbdbLines(int size){
+		final String[] result = new String[size];
+		for (int i = 0; i < size; i++){
+			final String[] fields = new String[29];
+			Arrays.fill(fields, "");
+			fields[0] = fields[1] = fields[2] = "A. Person";
+			fields[3] = Integer.toString(i % 1000);
+			fields[PBDBItem.TAXON_NO] = Integer.toString(i);
+			fields[PBDBItem.TAXON_NAME] = "Taxon " + i;
+			fields[PBDBItem.TAXON_RANK] = StoreBenchmarks.RANKS[Math.min(StoreBenchmarks.depth(i), StoreBenchmarks.RANKS.length-1)];
+			fields[PBDBItem.ORIGINAL_TAXON_NAME] = "Taxon " + i;
+			fields[PBDBItem.pubyr] = "1900";
+			fields[PBDBItem.PARENT_NAME] = (i == 0) ? "Root" : "Taxon " + ((i-1)/8);
+			fields[PBDBItem.EXTANT] = (i % 3 == 0) ? "no" : "yes";
+			fields[PBDBItem.created] = "2012-01-01";
+			final StringBuilder b = new StringBuilder(fields[0]);
+			for (int f = 1; f < fields.length; f++){
+				b.append('|').append(fields[f]);
+			}
+			result[i] = b.toString();
+		}
+		return result;
+	}
+
+	private abstract class ParseCase extends BenchmarkCase {
+		int size;
+
+		ParseCase(String name){
+			super(name);
+		}
+
+		@Override
+		void setUp(int n) throws IOException{
+			size = n;
+			writeInputs(n);
+		}
+
+		@Override
+		int getOperations(){
+			return size;
+		}
+	}
+
+	//streams the rows of an AMPHIBIAWEB file without keeping the items
+	private class CatalogCase extends ParseCase {
+		private final int parallelism;
+
+		CatalogCase(String name, int threads){
+			super(name);
+			parallelism = threads;
+		}
+
+		@Override
+		void setUp(int n) throws IOException{
+			size = n;
+			if (!amphibiaFile(n).exists()){
+				writeLines(amphibiaFile(n), amphibiaLines(n));
+			}
+		}
+
+		@Override
+		Object run() throws IOException{
+			final ColumnReader reader = new ColumnReader("\t");
+			reader.setColumns(AMPHIBIACOLUMNS);
+			reader.setParallelism(parallelism);
+			final Iterator<Item> items = reader.readCatalog(amphibiaFile(size), false);
+			int count = 0;
+			while (items.hasNext()){
+				items.next();
+				count++;
+			}
+			return count;
+		}
+	}
+
+	//rows of AMPHIBIAWEB held in memory, so only the splitting is timed
+	private abstract class AmphibiaCase extends ParseCase {
+		String[] lines;
+
+		AmphibiaCase(String name){
+			super(name);
+		}
+
+		@Override
+		void setUp(int n) throws IOException{
+			size = n;
+			lines = amphibiaLines(n);
+		}
+
+		@Override
+		void tearDown(){
+			lines = null;
+		}
+	}
+
+	//times reading the dump from a snapshot written by setUp, with nothing held in memory beforehand
+	private abstract class SnapshotCase extends ParseCase {
+
+		SnapshotCase(String name){
+			super(name);
+		}
+
+		@Override
+		void setUp(int n) throws IOException{
+			super.setUp(n);
+			NCBITaxdumpCache.read(taxdumpDir(size), NCBIDIVISIONS, 1, snapshotDir());
+			NCBITaxdumpCache.clear();
+		}
+
+		@Override
+		void tearDown(){
+			NCBITaxdumpCache.clear();
+		}
+	}
+
+}
@@ -0,0 +1,301 @@
+package org.nescent.VTO.lib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TaxonStore and Term benchmarks, run once per store implementation.  Synthetic taxonomies are built
+ * as a tree with eight children per node, named "Taxon i" with ids TEST:i.
+ */
+class StoreBenchmarks {
+
+	static final String PREFIX = "TEST";
+	static final String[] RANKS = {"phylum", "class", "order", "family", "genus", "species"};
+
+	enum StoreKind {
+		OBO, COMPACT;
+
+		TaxonStore create(File target){
+			if (this == COMPACT){
+				return new CompactStore(target.getAbsolutePath(), PREFIX, "test-namespace");
+			}
+			return new OBOStore(target.getAbsolutePath(), PREFIX, "test-namespace");
+		}
+	}
+
+	private final StoreKind kind;
+	private final File workDir;
+
+	/**
+	 * @param storeKind implementation to benchmark
+	 * @param dir scratch directory for the save benchmarks
+	 */
+	StoreBenchmarks(StoreKind storeKind, File dir){
+		kind = storeKind;
+		workDir = dir;
+	}
+
+	List<BenchmarkCase> getCases(){
+		final List<BenchmarkCase> result = new ArrayList<BenchmarkCase>();
+		result.add(new StoreCase("addTerm"){
+			@Override
+			void setUp(int size){
+				store = newStore();
+				names = names(size);
+			}
+			@Override
+			Object run(){
+				Term last = null;
+				for (String name : names){
+					last = store.addTerm(name, PREFIX);
+				}
+				return last;
+			}
+		});
+		result.add(new StoreCase("getTermbyName"){
+			@Override
+			void setUp(int size){
+				store = newStore();
+				names = names(size);
+				addTerms(store, names);
+			}
+			@Override
+			Object run(){
+				int found = 0;
+				for (int i = 0; i < names.length; i++){
+					if (store.getTermbyName(names[(int)((i * 7919L) % names.length)]) != null){   //stride through the names rather than in insertion order
+						found++;
+					}
+				}
+				return found;
+			}
+		});
+		result.add(new StoreCase("attachParent"){
+			@Override
+			void setUp(int size){
+				store = newStore();
+				terms = addTerms(store, names(size));
+			}
+			@Override
+			Object run(){
+				for (int i = 1; i < terms.length; i++){
+					store.attachParent(terms[i], terms[(i-1)/8]);
+				}
+				return terms[terms.length-1];
+			}
+		});
+		result.add(new StoreCase("makeSynonymWithXref"){
+			@Override
+			void setUp(int size){
+				store = newStore();
+				names = names(size);
+			}
+			@Override
+			Object run(){
+				SynonymI last = null;
+				for (int i = 0; i < names.length; i++){
+					last = store.makeSynonymWithXref(names[i], "NCBITaxon", Integer.toString(i));
+				}
+				return last;
+			}
+		});
+		result.add(new StoreCase("Term.addSynonym"){
+			private SynonymI[] synonyms;
+			@Override
+			void setUp(int size){
+				store = newStore();
+				terms = addTerms(store, names(size));
+				synonyms = new SynonymI[size];
+				for (int i = 0; i < size; i++){
+					synonyms[i] = store.makeSynonymWithXref("Synonym " + i, "NCBITaxon", Integer.toString(i));
+				}
+			}
+			@Override
+			Object run(){
+				for (int i = 0; i < terms.length; i++){
+					terms[i].addSynonym(synonyms[i]);
+				}
+				return terms[terms.length-1];
+			}
+		});
+		result.add(new StoreCase("trim"){
+			@Override
+			void setUp(int size){
+				store = buildTaxonomy(size);
+			}
+			@Override
+			Object run(){
+				store.trim("Taxon 1");    //an eighth of the tree
+				return store;
+			}
+			@Override
+			int getOperations(){
+				return 1;
+			}
+		});
+		result.add(new StoreCase("NCBIMerger.attach"){
+			private NCBIMerger merger;
+			private int size;
+			@Override
+			void setUp(int n) throws IOException{
+				size = n;
+				final File dumpDir = ParseBenchmarks.taxdumpDir(workDir, n);
+				if (!new File(dumpDir, NCBITaxdump.NAMESFILENAME).exists()){
+					ParseBenchmarks.writeTaxdump(dumpDir, n);
+				}
+				NCBITaxdumpCache.read(dumpDir, ParseBenchmarks.NCBIDIVISIONS, 1, null);    //so only building the tree is timed
+				store = newStore();
+				merger = new NCBIMerger();
+				merger.setSource(dumpDir);
+				merger.setTarget(store);
+				merger.setDivisions(ParseBenchmarks.NCBIDIVISIONS);
+			}
+			@Override
+			Object run(){
+				merger.attach("Life", "Taxon 1", PREFIX);
+				return store;
+			}
+			@Override
+			int getOperations(){
+				return size;
+			}
+			@Override
+			void tearDown(){
+				super.tearDown();
+				merger = null;
+				NCBITaxdumpCache.clear();
+			}
+		});
+		result.add(new SaveCase("saveStore"){
+			@Override
+			void save(){
+				store.saveStore();
+			}
+		});
+		result.add(new SaveCase("saveXref"){
+			@Override
+			void save(){
+				store.saveXref(PREFIX);
+			}
+		});
+		result.add(new SaveCase("saveColumnsFormat"){
+			@Override
+			void save(){
+				store.saveColumnsFormat(PREFIX);
+			}
+		});
+		result.add(new SaveCase("saveSynonymFormat"){
+			@Override
+			void save(){
+				store.saveSynonymFormat(PREFIX);
+			}
+		});
+		result.add(new SaveCase("saveAllColumnFormat"){
+			@Override
+			void save(){
+				store.saveAllColumnFormat(PREFIX);
+			}
+		});
+		return result;
+	}
+
+	private TaxonStore newStore(){
+		return kind.create(new File(workDir, "benchmark.obo"));
+	}
+
+	static String[] names(int size){
+		final String[] result = new String[size];
+		for (int i = 0; i < size; i++){
+			result[i] = "Taxon " + i;
+		}
+		return result;
+	}
+
+	static Term[] addTerms(TaxonStore store, String[] names){
+		final Term[] result = new Term[names.length];
+		for (int i = 0; i < names.length; i++){
+			result[i] = store.addTermbyID(String.format(PREFIX + ":%07d", i), names[i]);
+		}
+		return result;
+	}
+
+	static int depth(int i){
+		int result = 0;
+		while (i > 0){
+			i = (i-1)/8;
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * @return a tree of size terms with ranks, one synonym and one NCBI cross reference per term and an extinct taxon every 50 terms
+	 */
+	private TaxonStore buildTaxonomy(int size){
+		final TaxonStore store = newStore();
+		final Term[] terms = addTerms(store, names(size));
+		for (int i = 0; i < size; i++){
+			if (i > 0){
+				store.attachParent(terms[i], terms[(i-1)/8]);
+			}
+			store.setRankFromName(terms[i], RANKS[Math.min(depth(i), RANKS.length-1)]);
+			terms[i].addSynonym(store.makeSynonymWithXref("Synonym " + i, "NCBITaxon", Integer.toString(i)));
+			store.addXRefToTerm(terms[i], "NCBITaxon", Integer.toString(i));
+			if (i % 50 == 49){
+				store.setExtinct(terms[i]);
+			}
+		}
+		return store;
+	}
+
+	private abstract class StoreCase extends BenchmarkCase {
+		TaxonStore store;
+		String[] names;
+		Term[] terms;
+
+		StoreCase(String name){
+			super(name + "[" + kind + "]");
+		}
+
+		@Override
+		int getOperations(){
+			return (names != null) ? names.length : terms.length;
+		}
+
+		@Override
+		void tearDown(){
+			store = null;
+			names = null;
+			terms = null;
+		}
+	}
+
+	//saves are timed per call, on a taxonomy with everything the exports write
+	private abstract class SaveCase extends StoreCase {
+
+		SaveCase(String name){
+			super(name);
+		}
+
+		@Override
+		void setUp(int size){
+			store = buildTaxonomy(size);
+		}
+
+		@Override
+		Object run(){
+			save();
+			return store;
+		}
+
+		abstract void save();
+
+		@Override
+		int getOperations(){
+			return 1;
+		}
+	}
+
+}
@@ -25,6 +25,7 @@ import org.nescent.VTO.lib.CoLDBMerger;
 import org.nescent.VTO.lib.CoLMerger;
 import org.nescent.VTO.lib.ColumnMerger;
 import org.nescent.VTO.lib.ColumnType;
+import org.nescent.VTO.lib.CompactStore;
 import org.nescent.VTO.lib.IOCMerger;
 import org.nescent.VTO.lib.ITISMerger;
 import org.nescent.VTO.lib.Merger;
@@ -71,6 +72,10 @@ public class Builder {
 	final static String TARGETTAXONOMYSTR = "target";
 	final static String TARGETFORMATSTR = "format";
 	final static String TARGETROOTSTR = "root";
+	final static String VERIFYINDEXESSTR = "verifyIndexes";   //debugging aid - check store indexes against a full rebuild on every lookup
+	final static String RANKVOCABULARYSTR = "rankVocabulary";   //optional path or URL of a taxonomic rank ontology overriding the bundled copy
+	final static String STOREMODELSTR = "store";   //optional in-memory representation of the target: "compact" for primitive arrays
+	final static String COMPACTSTOREVALUE = "compact";
 
 	final static String ATTACHACTIONSTR = "attach";
 	final static String MERGEACTIONSTR = "merge";
@@ -85,6 +90,10 @@ public class Builder {
 	final static String PRESERVEIDSSTR = "preserveIds";
 	final static String PRESERVESYNONYMSSTR = "preserveSynonyms";
 	final static String UPDATEOBSOLETESSTR = "updateObsoletes";
+	final static String PARALLELISMSTR = "parallelism";   //number of threads parsing the source (NCBI and column formats); "auto" for one per processor
+	final static String AUTOPARALLELISMVALUE = "auto";
+	final static String CACHESTR = "cache";   //directory for snapshots of parsed NCBI dumps, reused by later runs
+	final static String DIVISIONSSTR = "divisions";   //NCBI divisions to load, as ids or division.dmp codes (e.g. "VRT,MAM"), or "all"
 
 	final static String PREFIXITEMSTR = "prefix";
 	final static String FILTERPREFIXITEMSTR = "filterprefix";
@@ -97,6 +106,7 @@ public class Builder {
 	final static String SUBACTIONSTR = "action";
 	final public static String XREFSUBACTION = "ADDXREFS";
 	final public static String SYNSUBACTION = "ADDSYNONYMS";
+	final public static String UPDATESUBACTION = "UPDATE";   //NCBI only: bring terms from an earlier attach up to date with a newer dump
 	
 
 	final private File optionsFile;
@@ -135,12 +145,18 @@ public class Builder {
 		final String targetRootStr = getAttribute(taxonomyRoot,TARGETROOTSTR);
 		final String targetPrefixStr = getAttribute(taxonomyRoot,PREFIXITEMSTR);
 		final String targetFilterPrefixStr = getAttribute(taxonomyRoot,FILTERPREFIXITEMSTR);
-		final TaxonStore target = getStore(targetStr, targetPrefixStr, targetFormatStr);
+		OBOStore.setRankVocabularyPath(getAttribute(taxonomyRoot,RANKVOCABULARYSTR));
+		final boolean compact = COMPACTSTOREVALUE.equalsIgnoreCase(getAttribute(taxonomyRoot,STOREMODELSTR));
+		final TaxonStore target = getStore(targetStr, targetPrefixStr, targetFormatStr, compact);
+		if (processBooleanAttribute(getAttribute(taxonomyRoot,VERIFYINDEXESSTR)) && target instanceof OBOStore){
+			((OBOStore)target).setVerifyIndexes(true);
+		}
 		logger.info("Building taxonomy to save at " + targetStr + " in the " + targetFormatStr + " format\n");
 		final NodeList actions = taxonomyRoot.getChildNodes();
 		for(int i=0;i<actions.getLength();i++){
 			processChildNode(actions.item(i),target,targetRootStr,targetFormatStr,targetPrefixStr);
 		}
+		NCBIMerger.clearCache();   //parsed dumps are only shared between the actions of one build
 		for(String reportStr : target.countTerms()){
 			logger.info(reportStr);
 		}
@@ -221,6 +237,9 @@ public class Builder {
 			targetPrefixStr = sourceFile.getName();
 		}
 		m.setPreserveSynonyms(processSynonymSourceAttribute(getAttribute(action,PRESERVESYNONYMSSTR)));
+		processParallelismAttribute(m,getAttribute(action,PARALLELISMSTR));
+		processDivisionsAttribute(m,getAttribute(action,DIVISIONSSTR));
+		processCacheAttribute(m,getAttribute(action,CACHESTR));
 			
 		m.setSource(sourceFile);
 		m.setTarget(target);
@@ -250,6 +269,48 @@ public class Builder {
 		throw new RuntimeException("Unrecognized Synonym processing attribute for Merge: " + synSourceStr);
 	}
 
+	void processParallelismAttribute(Merger m, String parallelismStr){
+		if (parallelismStr == null)
+			return;
+		final int parallelism;
+		if (AUTOPARALLELISMVALUE.equalsIgnoreCase(parallelismStr))
+			parallelism = Runtime.getRuntime().availableProcessors();
+		else {
+			try {
+				parallelism = Integer.parseInt(parallelismStr.trim());
+			}
+			catch (NumberFormatException e){
+				throw new RuntimeException("Unrecognized parallelism attribute: " + parallelismStr);
+			}
+		}
+		if (m instanceof NCBIMerger)
+			((NCBIMerger)m).setParallelism(parallelism);
+		else if (m instanceof ColumnMerger)
+			((ColumnMerger)m).setParallelism(parallelism);
+		else if (m instanceof UnderscoreJoinedNamesMerger)
+			((UnderscoreJoinedNamesMerger)m).setParallelism(parallelism);
+		else
+			logger.warn("Parallelism is not supported for this format - ignoring");
+	}
+
+	void processDivisionsAttribute(Merger m, String divisionsStr){
+		if (divisionsStr == null)
+			return;
+		if (m instanceof NCBIMerger)
+			((NCBIMerger)m).setDivisions(NCBIMerger.parseDivisions(divisionsStr));
+		else
+			logger.warn("Divisions are only meaningful for NCBI sources - ignoring");
+	}
+
+	void processCacheAttribute(Merger m, String cacheStr){
+		if (cacheStr == null)
+			return;
+		if (m instanceof NCBIMerger)
+			((NCBIMerger)m).setCacheDirectory(getSourceFile(cacheStr));
+		else
+			logger.warn("Caching is only supported for NCBI sources - ignoring");
+	}
+
 	private void processMergeAction(Node action, TaxonStore target, String targetPrefixStr){
 		final Map<Integer,String> synPrefixes = new HashMap<Integer,String>(); 
 		final List<ColumnType>columns = processAttachElement(action,synPrefixes);
@@ -266,6 +327,9 @@ public class Builder {
 		else
 			m.setSource(null); //CoL doesn't specify a fixed URL, we're not loading from one source - maybe this is too much of a special case
 		m.setTarget(target);
+		processParallelismAttribute(m,getAttribute(action,PARALLELISMSTR));
+		processDivisionsAttribute(m,getAttribute(action,DIVISIONSSTR));
+		processCacheAttribute(m,getAttribute(action,CACHESTR));
 		if (subAction == null){
 			m.setSubAction("SYNSUBACTION");
 		}
@@ -331,11 +395,13 @@ public class Builder {
 	}
 
 	
-	private TaxonStore getStore(String targetStr, String prefixStr, String formatStr) {
+	private TaxonStore getStore(String targetStr, String prefixStr, String formatStr, boolean compact) {
 		File targetFile = getSourceFile(targetStr);
 		if (targetFile.exists())
 			targetFile.delete();
 		if (OBOFORMATSTR.equals(formatStr)){
+			if (compact)
+				return new CompactStore(targetFile.getAbsolutePath(), prefixStr, prefixStr.toLowerCase() + NAMESPACESUFFIX);
 			return new OBOStore(targetFile.getAbsolutePath(), prefixStr, prefixStr.toLowerCase() + NAMESPACESUFFIX);
 		}
 		if (OWLFORMATSTR.equals(formatStr)){
@@ -351,6 +417,8 @@ public class Builder {
 				COLUMNFORMATSTR.equals(formatStr) ||
 				SYNONYMFORMATSTR.equals(formatStr) ||
 				ALLCOLUMNSFORMATSTR.equals(formatStr)){      
+			if (compact)
+				return new CompactStore(targetFile.getAbsolutePath(), prefixStr, prefixStr.toLowerCase() + NAMESPACESUFFIX);
 			return new OBOStore(targetFile.getAbsolutePath(), prefixStr, prefixStr.toLowerCase() + NAMESPACESUFFIX);
 		}
 		logger.error("Format " + formatStr + " not supported for merging");
@@ -1,18 +1,32 @@
 package org.nescent.VTO.lib;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.nescent.VTO.Builder;
-import org.nescent.VTO.lib.ITISMerger.ITISElement;
 import org.obo.datamodel.Synonym;
 
 public class ColumnMerger implements Merger,ColumnFormat {
 
 	private final static String INCERTAESEDIS = "Incertae sedis";
+
+	//ranks above species, highest first, with the columns each looks to for its parent, nearest first
+	private final static KnownField[] HIGHERRANKS = {KnownField.CLASS, KnownField.ORDER, KnownField.FAMILY, KnownField.SUBFAMILY, KnownField.GENUS};
+	private final static KnownField[][] PARENTRANKS = {
+		{},
+		{KnownField.CLASS},
+		{KnownField.ORDER},
+		{KnownField.FAMILY, KnownField.ORDER},   //order is weird, but not inconceivable
+		{KnownField.SUBFAMILY, KnownField.FAMILY, KnownField.ORDER}};
 	private final String columnSeparator; 
 	private final ColumnReader reader;
 
@@ -60,6 +74,13 @@ public class ColumnMerger implements Merger,ColumnFormat {
 		reader = new ColumnReader(columnSeparator);
 	}
 
+	/**
+	 * @param n number of threads parsing the source; 1 reads it on the calling thread
+	 */
+	public void setParallelism(int n){
+		reader.setParallelism(n);
+	}
+
 
 	@Override
 	public void setSource(File sourceFile){
@@ -94,28 +115,41 @@ public class ColumnMerger implements Merger,ColumnFormat {
 
 	@Override
 	public void merge(String prefix) {
-		ItemList items = reader.processCatalog(source, true);
-		if (Builder.SYNSUBACTION.equals(subAction)){
-			mergeSynonyms(items);
+		final ColumnReader.CatalogIterator items;
+		try {
+			items = reader.readCatalog(source, true, false);   //each row only touches its own species' term
+		}
+		catch (IOException e) {
+			logger.error(e);
+			return;
+		}
+		try {
+			if (Builder.SYNSUBACTION.equals(subAction)){
+				mergeSynonyms(items);
+			}
+			else {
+				mergeXrefs(items);
+			}
 		}
-		else {
-			mergeXrefs(items);
+		finally {
+			items.close();
 		}
 	}
 
 
-	private void mergeSynonyms(ItemList items){
-		for(Item item : items.getContents()){
-
+	private void mergeSynonyms(Iterator<Item> items){
+		while (items.hasNext()){
+			items.next();
 		}
 	}
 
-	private void mergeXrefs(ItemList items){
+	private void mergeXrefs(Iterator<Item> items){
 		int termCount = 0;
 		final ColumnType c = reader.getColumn(KnownField.SPECIES);
 		if (c == null)
 			return;
-		for(Item item : items.getContents()){
+		while (items.hasNext()){
+			final Item item = items.next();
 
 			final String genus = item.getFieldValue(KnownField.GENUS);
 			String species = item.getFieldValue(KnownField.SPECIES);
@@ -137,13 +171,16 @@ public class ColumnMerger implements Merger,ColumnFormat {
 
 
 	/**
+	 * Reads the source once, keeping each higher rank's names with the parents and extinct flag from the row
+	 * where the name first appears, and the rows that name species.  Terms are then added a rank at a time, so
+	 * smaller id values are assigned to higher level taxa, and each rank's names and parent names are looked up
+	 * in the target once.
 	 * @param targetParentName name of parent node for attached clade
 	 * @param sourceRootName name of root node (child of parent) for attached clade
 	 * @param prefix prefix for newly generated terms
 	 */
 	@Override
 	public void attach(String targetParentName, String sourceRootName, String prefix) {
-		ItemList items = reader.processCatalog(source, true);
 		Term attachTerm = null;
 		if (!"".equals(targetParentName)){
 			attachTerm = target.getTermbyName(targetParentName);
@@ -158,221 +195,250 @@ public class ColumnMerger implements Merger,ColumnFormat {
 				}
 			}
 		}
+		final List<Map<String,RankEntry>> rankNames = new ArrayList<Map<String,RankEntry>>();
+		for (int r = 0; r < HIGHERRANKS.length; r++){
+			rankNames.add(reader.hasColumn(HIGHERRANKS[r]) ? new LinkedHashMap<String,RankEntry>() : null);
+		}
+		final boolean hasSpecies = reader.hasColumn(KnownField.SPECIES);
+		final List<Item> speciesItems = new ArrayList<Item>();
+		final ColumnReader.CatalogIterator items;
+		try {
+			items = reader.readCatalog(source, true);
+		}
+		catch (IOException e) {
+			logger.error(e);
+			return;
+		}
+		try {
+			while (items.hasNext()){
+				final Item it = items.next();
+				for (int r = 0; r < HIGHERRANKS.length; r++){
+					if (rankNames.get(r) != null){
+						addRankName(it, r, rankNames.get(r));
+					}
+				}
+				if (hasSpecies && it.getName(KnownField.SPECIES) != null){
+					speciesItems.add(it);
+				}
+			}
+		}
+		finally {
+			items.close();
+		}
 		//does a "breadth first" traversal of the columns so smaller id values are assigned to higher level taxa
-		if (items.hasColumn(KnownField.CLASS)){
-			processClassColumn(items, attachTerm, prefix);
-		}
-		if (items.hasColumn(KnownField.ORDER)){
-			processOrderColumn(items, attachTerm, prefix);
-		}
-		if (items.hasColumn(KnownField.FAMILY)){
-			processFamilyColumn(items, attachTerm, prefix);
-		}
-		if (items.hasColumn(KnownField.SUBFAMILY)){
-			processSubFamilyColumn(items, attachTerm, prefix);
-		}	
-		if (items.hasColumn(KnownField.GENUS)){
-			processGenusColumn(items,attachTerm, prefix);
-		}	
-		if (items.hasColumn(KnownField.SPECIES)){
-			processSpeciesColumn(items,attachTerm, prefix);
-		}
-		else if (items.hasColumn(KnownField.DELIMITEDNAME)){
-		}	
+		for (int r = 0; r < HIGHERRANKS.length; r++){
+			if (rankNames.get(r) != null){
+				processRankColumn(r, rankNames.get(r), attachTerm, prefix);
+			}
+		}
+		if (hasSpecies){
+			processSpeciesColumn(speciesItems, prefix);
+		}
 		if (updateObsoletes){
 			target.processObsoletes();
 		}
 	}
 
-	private void processClassColumn(ItemList items, Term attachTerm, String prefix){
-		for (final Item it : items.getContents()){
-			final String className = it.getName(KnownField.CLASS);
-			if (className.length()>0 && !INCERTAESEDIS.equalsIgnoreCase(className)){
-				Term classTerm = target.getTermbyName(className);
-				if (classTerm == null){
-					classTerm = target.addTerm(className, prefix);
-					target.setRankFromName(classTerm,KnownField.CLASS.getCannonicalName());   //string from knownColumn?
-					if (attachTerm != null)  // this is weak, but allows construction of an ontology with multiple roots (so obviously wrong)
-						target.attachParent(classTerm, attachTerm);
+	/**
+	 * Notes the item's name at HIGHERRANKS[r] if it is the name's first appearance
+	 * @param it
+	 * @param r
+	 * @param names the rank's names so far, in order of first appearance
+	 */
+	private void addRankName(Item it, int r, Map<String,RankEntry> names){
+		final KnownField rank = HIGHERRANKS[r];
+		final String rankField = it.getName(rank);
+		if (rankField == null)
+			throw new RuntimeException("Empty " + rank.getCannonicalName() + " field in line: " + it);
+		final String name = (rank == KnownField.CLASS) ? rankField : stripDagger(rankField);   //class names aren't checked for a dagger
+		if (name.length()>0 && !INCERTAESEDIS.equalsIgnoreCase(name) && !names.containsKey(name)){
+			final String[] parentNames = new String[PARENTRANKS[r].length];
+			for (int p = 0; p < parentNames.length; p++){
+				if (it.hasColumn(PARENTRANKS[r][p])){
+					parentNames[p] = stripDagger(it.getName(PARENTRANKS[r][p]));
 				}
 			}
+			names.put(name, new RankEntry(rank != KnownField.CLASS && daggerPrefix(rankField), parentNames));
 		}
 	}
 
-	private void processOrderColumn(ItemList items, Term attachTerm, String prefix){
-		for (final Item it : items.getContents()){
-			final String orderField = it.getName(KnownField.ORDER);
-			if (orderField == null)
-				throw new RuntimeException("Empty order field in line: " + it);
-			final String orderName = stripDagger(it.getName(KnownField.ORDER));
-			final boolean isExtinct = daggerPrefix(it.getName(KnownField.ORDER));
-			if (orderName.length()>0 && !INCERTAESEDIS.equalsIgnoreCase(orderName)){
-				Term orderTerm = target.getTermbyName(orderName);
-				if (orderTerm == null){
-					orderTerm = target.addTerm(orderName, prefix);
-					target.setRankFromName(orderTerm,KnownField.ORDER.getCannonicalName());
-					if (it.hasColumn(KnownField.CLASS) && target.getTermbyName(stripDagger(it.getName(KnownField.CLASS))) != null){
-						final String parentName = stripDagger(it.getName(KnownField.CLASS));
-						target.attachParent(orderTerm,target.getTermbyName(parentName));
-					}
-					else if (attachTerm != null)
-						target.attachParent(orderTerm, attachTerm);
-					if (isExtinct){
-						target.setExtinct(orderTerm);
-					}
+	/**
+	 * Adds the rank's names that aren't already terms, each under the first of its parent names that is a term
+	 * (or a name added before it), or else under attachTerm
+	 * @param r
+	 * @param names
+	 * @param attachTerm
+	 * @param prefix
+	 */
+	private void processRankColumn(int r, Map<String,RankEntry> names, Term attachTerm, String prefix){
+		final Set<String> lookups = new HashSet<String>(names.keySet());
+		for (RankEntry entry : names.values()){
+			for (String parentName : entry.parentNames){
+				if (parentName != null){
+					lookups.add(parentName);
 				}
 			}
-		}		
-	}
-
-
-	private void processFamilyColumn(ItemList items, Term attachTerm, String prefix){
-		for (final Item it : items.getContents()){
-			final String familyName = stripDagger(it.getName(KnownField.FAMILY));
-			final boolean isExtinct = daggerPrefix(it.getName(KnownField.FAMILY));
-			if (familyName.length()>0 && !INCERTAESEDIS.equalsIgnoreCase(familyName)){
-				if (familyName != null){
-					if (target.getTermbyName(familyName) == null){
-						final Term familyTerm = target.addTerm(familyName, prefix);
-						target.setRankFromName(familyTerm,KnownField.FAMILY.getCannonicalName());
-						if (it.hasColumn(KnownField.ORDER) && target.getTermbyName(stripDagger(it.getName(KnownField.ORDER))) != null){
-							final String parentName = stripDagger(it.getName(KnownField.ORDER));
-							target.attachParent(familyTerm,target.getTermbyName(parentName));
-						}
-						else if (attachTerm != null)
-							target.attachParent(familyTerm, attachTerm);
-						if (isExtinct){
-							target.setExtinct(familyTerm);
-						}
-					}
+		}
+		final Map<String,Term> known = target.getTermsByNames(lookups);
+		final TermBatch batch = target.newBatch();
+		for (Map.Entry<String,RankEntry> e : names.entrySet()){
+			final String name = e.getKey();
+			if (known.containsKey(name)){
+				continue;
+			}
+			final int record = batch.addTerm(name, prefix);
+			batch.setRankFromName(record,HIGHERRANKS[r].getCannonicalName());   //string from knownColumn?
+			boolean attached = false;
+			for (String parentName : e.getValue().parentNames){
+				if (parentName != null && attachParent(batch, record, parentName, known)){
+					attached = true;
+					break;
 				}
 			}
-		}		
+			if (!attached && attachTerm != null)  // this is weak, but allows construction of an ontology with multiple roots (so obviously wrong)
+				batch.attachParent(record, attachTerm);
+			if (e.getValue().extinct){
+				batch.setExtinct(record);
+			}
+		}
+		batch.commit();
 	}
 
-
-	private void processSubFamilyColumn(ItemList items, Term attachTerm, String prefix){
-		for (Item it : items.getContents()){
-			final String subFamilyName = stripDagger(it.getName(KnownField.SUBFAMILY));
-			final boolean isExtinct = daggerPrefix(it.getName(KnownField.SUBFAMILY));
-			if (subFamilyName.length()>0 && !INCERTAESEDIS.equalsIgnoreCase(subFamilyName)){
-				if (target.getTermbyName(subFamilyName) == null){
-					final Term subFamilyTerm = target.addTerm(subFamilyName, prefix);
-					target.setRankFromName(subFamilyTerm, KnownField.SUBFAMILY.getCannonicalName());
-					if (it.hasColumn(KnownField.FAMILY) && target.getTermbyName(stripDagger(it.getName(KnownField.FAMILY))) != null){
-						final String parentName = stripDagger(it.getName(KnownField.FAMILY));
-						target.attachParent(subFamilyTerm,target.getTermbyName(parentName));
-					}
-					else if (it.hasColumn(KnownField.ORDER) && target.getTermbyName(stripDagger(it.getName(KnownField.ORDER))) != null){  //this is weird, but not inconceivable
-						final String parentName = stripDagger(it.getName(KnownField.ORDER));
-						target.attachParent(subFamilyTerm,target.getTermbyName(parentName));
-					}
-					else if (attachTerm != null)
-						target.attachParent(subFamilyTerm, attachTerm);
-					if (isExtinct){
-						target.setExtinct(subFamilyTerm);
-					}
-				}
-			}
+	/**
+	 * Attaches record to the batch's record named parentName or, failing that, to the target's term
+	 * @return false if neither has that name
+	 */
+	private boolean attachParent(TermBatch batch, int record, String parentName, Map<String,Term> known){
+		final int parentRecord = batch.getRecord(parentName);
+		if (parentRecord != TermBatch.NONE){
+			batch.attachParent(record, parentRecord);
+			return true;
 		}
+		final Term parentTerm = known.get(parentName);
+		if (parentTerm != null){
+			batch.attachParent(record, parentTerm);
+			return true;
+		}
+		return false;
 	}
 
-	private void processGenusColumn(ItemList items, Term attachTerm, String prefix){
-		for (final Item it : items.getContents()){
-			final String genusName = stripDagger(it.getName(KnownField.GENUS));
-			final boolean isExtinct = daggerPrefix(it.getName(KnownField.GENUS));
-			if (genusName.length()>0 && !INCERTAESEDIS.equalsIgnoreCase(genusName)){
-				if (genusName != null && target.getTermbyName(genusName) == null){
-					final Term genusTerm = target.addTerm(genusName, prefix);
-					target.setRankFromName(genusTerm, KnownField.GENUS.getCannonicalName());
-					if (it.hasColumn(KnownField.SUBFAMILY) && target.getTermbyName(stripDagger(it.getName(KnownField.SUBFAMILY))) != null){
-						final String parentName = stripDagger(it.getName(KnownField.SUBFAMILY));
-						target.attachParent(genusTerm,target.getTermbyName(parentName));
-					}
-					else if (it.hasColumn(KnownField.FAMILY) && target.getTermbyName(stripDagger(it.getName(KnownField.FAMILY))) != null){
-						final String parentName = stripDagger(it.getName(KnownField.FAMILY));
-						target.attachParent(genusTerm,target.getTermbyName(parentName));						
-					}
-					else if (it.hasColumn(KnownField.ORDER) && target.getTermbyName(stripDagger(it.getName(KnownField.ORDER))) != null){ 
-						final String parentName = stripDagger(it.getName(KnownField.ORDER));
-						target.attachParent(genusTerm,target.getTermbyName(parentName));
-					}
-					else if (attachTerm != null)
-						target.attachParent(genusTerm, attachTerm);
-					if (isExtinct){
-						target.setExtinct(genusTerm);
+	private void processSpeciesColumn(List<Item> items, String prefix){
+		final Set<String> lookups = new HashSet<String>();
+		for (final Item it : items){
+			if (it.hasColumn(KnownField.GENUS)){
+				final String parentName = stripDagger(it.getName(KnownField.GENUS));
+				lookups.add(parentName);
+				lookups.add(parentName + " " + stripDagger(it.getName(KnownField.SPECIES)));
+			}
+		}
+		final Map<String,Term> known = target.getTermsByNames(lookups);
+		final TermBatch batch = target.newBatch();
+		for (final Item it : items){
+			if (it.hasColumn(KnownField.GENUS)){
+				final String parentName = stripDagger(it.getName(KnownField.GENUS));
+				if (batch.getRecord(parentName) == TermBatch.NONE && !known.containsKey(parentName)){
+					continue;
+				}
+				final boolean isExtinct = daggerPrefix(it.getName(KnownField.SPECIES));
+				final String childName = stripDagger(it.getName(KnownField.SPECIES));
+				final String speciesName = parentName + " " + childName;
+				int speciesRecord = batch.getRecord(speciesName);
+				if (speciesRecord == TermBatch.NONE){
+					final Term speciesTerm = known.get(speciesName);
+					if (speciesTerm != null){  //already exists  - so just update xrefs and synonyms (? not sure about this - might be a homonymy)
+						if (isExtinct){
+							target.setExtinct(speciesTerm);
+						}
+						decorateSpeciesTerm(it,speciesTerm);
+						continue;
 					}
+					speciesRecord = batch.addTerm(speciesName, prefix);
+					batch.setRankFromName(speciesRecord,KnownField.SPECIES.getCannonicalName());
+					attachParent(batch, speciesRecord, parentName, known);
+				}
+				if (isExtinct){
+					batch.setExtinct(speciesRecord);
 				}
+				decorateSpeciesRecord(it,speciesName,speciesRecord,batch);
 			}
 		}
+		batch.commit();
 	}
 
 
-	private void processSpeciesColumn(ItemList items, Term attachTerm, String prefix){
-		for (final Item it : items.getContents()){
-			if (it.getName(KnownField.SPECIES) != null){
-				if (it.hasColumn(KnownField.GENUS) && target.getTermbyName(stripDagger(it.getName(KnownField.GENUS))) != null){
-					final String parentName = stripDagger(it.getName(KnownField.GENUS));
-					final boolean isExtinct = daggerPrefix(it.getName(KnownField.SPECIES));
-					final String childName = stripDagger(it.getName(KnownField.SPECIES));
-					final String speciesName = parentName + " " + childName;
-					Term speciesTerm;
-					if (target.getTermbyName(speciesName) == null){
-						speciesTerm = target.addTerm(speciesName, prefix);
-						target.setRankFromName(speciesTerm,KnownField.SPECIES.getCannonicalName());
-						target.attachParent(speciesTerm,target.getTermbyName(parentName));
-					}
-					else{
-						speciesTerm = target.getTermbyName(speciesName);  //already exists  - so just update xrefs and synonyms (? not sure about this - might be a homonymy)
-					}
-					if (isExtinct){
-						target.setExtinct(speciesTerm);
-					}
-					decorateSpeciesTerm(it,speciesTerm);
-				}
-			}
+	private void decorateSpeciesTerm(Item it, Term speciesTerm){
+		for (SynonymI syn : speciesSynonyms(it, speciesTerm.getLabel())){
+			speciesTerm.addSynonym(syn);
+		}
+		if (it.getComment() != null){
+			speciesTerm.setComment(it.getComment());
+		}
+		for (String[] components : speciesXRefs(it, speciesTerm.getLabel())){
+			target.addXRefToTerm(speciesTerm,components[0],components[1]);
 		}
 	}
 
+	private void decorateSpeciesRecord(Item it, String speciesName, int speciesRecord, TermBatch batch){
+		for (SynonymI syn : speciesSynonyms(it, speciesName)){
+			batch.addSynonym(speciesRecord, syn);
+		}
+		if (it.getComment() != null){
+			batch.setComment(speciesRecord, it.getComment());
+		}
+		for (String[] components : speciesXRefs(it, speciesName)){
+			batch.addXRef(speciesRecord,components[0],components[1]);
+		}
+	}
 
-	private void decorateSpeciesTerm(Item it, Term speciesTerm){
+	private List<SynonymI> speciesSynonyms(Item it, String speciesName){
+		final List<SynonymI> result = new ArrayList<SynonymI>();
 		for (String xRef : it.getSynonym_xrefs()){
 			String[] components = xRef.split(":");
 			if (components.length == 2){
 				Collection <String> synonymsForXRef = it.getSynonymsFromSource(xRef);
 				for (String syn : synonymsForXRef){
-					SynonymI newSyn = target.makeSynonymWithXref(syn, components[0], components[1]);	
-					speciesTerm.addSynonym(newSyn);
+					result.add(target.makeSynonymWithXref(syn, components[0], components[1]));
 				}
 			}
 			else {
-				throw new RuntimeException("While processing term " + speciesTerm.getLabel() + " encountered a mal-formed xref: " + xRef + " associated with synonyms");
+				throw new RuntimeException("While processing term " + speciesName + " encountered a mal-formed xref: " + xRef + " associated with synonyms");
 			}
 		}
 		for (String syn : it.getPlainSynonyms()){
-			speciesTerm.addSynonym(target.makeSynonym(syn));
+			result.add(target.makeSynonym(syn));
 		}
 		for (String commonName : it.getVernacularNames()){
-			speciesTerm.addSynonym(target.makeCommonName(commonName));   //TODO should be tagging these with appropriate synonym type
+			result.add(target.makeCommonName(commonName));   //TODO should be tagging these with appropriate synonym type
 		}
+		return result;
+	}
 
-		if (it.getComment() != null){
-			speciesTerm.setComment(it.getComment());
-		}
-		if (it.getFieldValue(KnownField.STATUS) != null){
-		}
+	private List<String[]> speciesXRefs(Item it, String speciesName){
+		final List<String[]> result = new ArrayList<String[]>();
 		for (String xref : it.getTermXRefs()){
 			String[] components = xref.split(":");
 			if (components.length == 2){
-				target.addXRefToTerm(speciesTerm,components[0],components[1]);
+				result.add(components);
 			}
 			else {
-				throw new RuntimeException("While processing term " + speciesTerm.getLabel() + " encountered a mal-formed xref: " + xref);
+				throw new RuntimeException("While processing term " + speciesName + " encountered a mal-formed xref: " + xref);
 			}
 		}
-
+		return result;
 	}
 
+	/**
+	 * A higher rank name as of the row where it first appears
+	 */
+	private static final class RankEntry {
+		final boolean extinct;
+		final String[] parentNames;   //null where the row has no such column
+
+		RankEntry(boolean isExtinct, String[] parents){
+			extinct = isExtinct;
+			parentNames = parents;
+		}
+	}
 
 	private boolean daggerPrefix(String name){
 		return (name.length()>0 && name.charAt(0) == '');
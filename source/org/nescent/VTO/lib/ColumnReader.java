@@ -33,13 +33,27 @@
 package org.nescent.VTO.lib;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 
@@ -56,7 +70,11 @@ public class ColumnReader {
 	static final String DESCRIPTIONSTR = "Description";
 	static final String STATUSSTR = "Status";
 
-	final Pattern splitPattern;
+	static final long CHUNKSIZE = 1 << 14;          //bytes per parallel chunk; larger chunks hold enough items to outlive young collections
+	static final int CHUNKSPERTHREAD = 4;           //chunks submitted ahead of the caller, per thread
+
+	final String splitString;
+	private int parallelism = 1;
 
 
 	private List<Integer> synonymFields = new ArrayList<Integer>();
@@ -66,11 +84,12 @@ public class ColumnReader {
 
 
 	/**
-	 * Constructor just sets the column delimiting character (generally tab or comma) as a string.
-	 * @param splitString
+	 * Constructor just sets the column delimiting character (generally tab or comma) as a string.  A single
+	 * character is taken literally and fields may be quoted (see ColumnTokenizer); a longer string is a regular expression.
+	 * @param columnSeparator
 	 */
-	public ColumnReader(String splitString){
-		splitPattern = Pattern.compile(splitString);
+	public ColumnReader(String columnSeparator){
+		splitString = columnSeparator;
 	}
 
 	/**
@@ -86,7 +105,7 @@ public class ColumnReader {
 
 
 	/**
-	 * 
+	 * Collects every row of a file; see readCatalog to process rows as they are read
 	 * @param f
 	 * @param headersFirst
 	 * @return list of items parsed from the spreadsheet file
@@ -94,127 +113,569 @@ public class ColumnReader {
 	public ItemList processCatalog(File f,boolean headersFirst) {
 		final ItemList result = new ItemList();
 		result.addColumns(headers);
-		String raw = "";
 		if (f != null){
+			final CatalogIterator items;
 			try {
-				final BufferedReader br = new BufferedReader(new FileReader(f));
-				if (headersFirst){  //ignore headers, fields are defined in the xml configuration
-					raw=br.readLine();
-				}
-				raw = br.readLine();
-				while (raw != null){
-					final String[] digest = splitPattern.split(raw);
-					if (checkEntry(digest)){
-						Item foo = processLine(digest,result);
-						result.addItem(foo);
-					}
-					else{
-						System.err.println("Bad line: " + raw);
-					}
-					raw = br.readLine();
-				}
+				items = readCatalog(f, headersFirst);
 			}
 			catch (IOException e) {
 				System.out.print(e);
 				return result;
 			}
+			while (items.hasNext()){
+				result.addItem(items.next());
+			}
 		}
 		return result; // for now
 	}
 
-	// what checks are needed?
-	private boolean checkEntry(String[] line){
-		if (line.length < 3)
-			return false;
-		return true;
+	/**
+	 * Opens a file for reading one row at a time, in file order.  The file is closed when the last row has been
+	 * read; a caller that stops early should close the iterator itself.
+	 * @param f
+	 * @param headersFirst true if the first line holds column headers, which are skipped
+	 * @return iterator over the items parsed from the file's rows, in file order
+	 * @throws IOException if the file can't be opened or its header line read
+	 */
+	public CatalogIterator readCatalog(File f, boolean headersFirst) throws IOException {
+		return readCatalog(f, headersFirst, true);
 	}
 
+	/**
+	 * Opens a file for reading one row at a time.  With a parallelism above one, the file is cut into line
+	 * aligned chunks which are parsed on a pool of that many threads, a few chunks ahead of the caller.
+	 * @param f
+	 * @param headersFirst true if the first line holds column headers, which are skipped
+	 * @param ordered false if the caller doesn't depend on the order of the rows; each parsed chunk's items are
+	 * then returned as soon as the chunk is ready
+	 * @return iterator over the items parsed from the file's rows; empty if f is null, as processCatalog's list was
+	 * @throws IOException if the file can't be opened or its header line read
+	 */
+	public CatalogIterator readCatalog(File f, boolean headersFirst, boolean ordered) throws IOException {
+		if (f == null){
+			logger.error("No source file to read a catalog from");
+			return new LineIterator(null, null, 0);
+		}
+		if (parallelism > 1){
+			return readCatalog(f, headersFirst, ordered, CHUNKSIZE);
+		}
+		final BufferedReader br = new BufferedReader(new FileReader(f));
+		try {
+			if (headersFirst){  //ignore headers, fields are defined in the xml configuration
+				br.readLine();
+			}
+		}
+		catch (IOException e) {
+			br.close();
+			throw e;
+		}
+		return new LineIterator(f, br, headersFirst ? 1 : 0);
+	}
 
+	//parallel read with chunks of about chunkSize bytes
+	CatalogIterator readCatalog(File f, boolean headersFirst, boolean ordered, long chunkSize) throws IOException {
+		return new ChunkIterator(f, chunkRanges(f, chunkSize), headersFirst, ordered);
+	}
 
-	private Item processLine(String[] digest, ItemList resultList){
-		final Item result = new Item(); 
-		for(int i = 0;i<headers.size();i++){   //this allows ignoring trailing fields that are undefined in the xml columns element
-			if (digest.length>i){ //this allows files that are (unfortunately) missing trailing empty fields (Excel can write tab files like this)
-				String rawColumn = digest[i]; 
-				if (rawColumn.length() > 2 && rawColumn.charAt(0) == '"' && rawColumn.charAt(rawColumn.length()-1) == '"')
-					rawColumn = rawColumn.substring(1,rawColumn.length()-1);
-				final String curColumn = rawColumn.trim();  //At least some sources have extra trailing white space in names 
-				KnownField f = headers.get(i).getFieldType();
-				switch(f){
-				case SYNONYM: {
-					if (!rawColumn.isEmpty()){
-						if (headers.get(i).getXrefTemplate() == null || headers.get(i).getXrefTemplate().isEmpty()){
-							String syns[] = rawColumn.split(",");
-							for(String syn : syns){
-								String trimmedSyn = syn.trim();
-								result.addPlainSynonym(trimmedSyn);
-							}
-						}
-						else {
-							String template = headers.get(i).getXrefTemplate();
-							while(template.indexOf("*xref") != -1){
-								final int p = template.indexOf("*xref");
-								template = template.substring(0,p) + rawColumn.trim() + template.substring(p+5);
-							}
-							String syns[] = rawColumn.split(",");
-							for(String syn : syns){
-								String trimmedSyn = syn.trim();
-								result.addSynonymWithXref(trimmedSyn,template);
-							}
-						}
-					}
+	/**
+	 * @param n number of threads readCatalog parses a file with; 1 or less reads it on the caller's thread
+	 */
+	public void setParallelism(int n){
+		parallelism = n;
+	}
+
+	/**
+	 * @param column
+	 * @return true if a column has been set with this field type
+	 */
+	public boolean hasColumn(KnownField column){
+		for (ColumnType c : headers){
+			if (c.getFieldType() == column)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Items from a file's rows, parsed as they are requested.  Bad lines are logged with their line number and
+	 * skipped, and a read error is logged and ends the iteration, as it ended processCatalog's list.  Names above
+	 * species are shared between the items, so each order, family or genus name is held once however many rows
+	 * repeat it.
+	 */
+	public abstract class CatalogIterator implements Iterator<Item>, Closeable {
+
+		final File file;
+		private Item nextItem = null;
+		private final StringPool higherNames = new StringPool(1 << 10);   //only touched by the caller's thread
+
+		private CatalogIterator(File f){
+			file = f;
+		}
+
+		/**
+		 * @return the next row's item, or null (closing the iterator) once there are no more
+		 */
+		abstract Item readItem();
+
+		@Override
+		public boolean hasNext() {
+			if (nextItem == null){
+				nextItem = readItem();
+			}
+			return nextItem != null;
+		}
 
-					break;
+		@Override
+		public Item next() {
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+			final Item result = nextItem;
+			nextItem = null;
+			result.internHigherNames(higherNames);
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Stops reading and releases the file
+		 */
+		@Override
+		public abstract void close();
+
+	}
+
+	//reads and parses on the caller's thread
+	private final class LineIterator extends CatalogIterator {
+
+		private BufferedReader br;   //null once closed
+		private int lineNumber;
+		private final ColumnTokenizer tokens = new ColumnTokenizer(splitString);
+
+		private LineIterator(File f, BufferedReader reader, int linesRead){
+			super(f);
+			br = reader;
+			lineNumber = linesRead;
+		}
+
+		@Override
+		Item readItem() {
+			while (br != null){
+				final String raw;
+				try {
+					raw = br.readLine();
 				}
-				case VERNACULAR: {
-					if (!rawColumn.isEmpty()){
-						String syns[] = rawColumn.split(",");
-						for(String syn : syns){
-							String trimmedSyn = syn.trim();
-							result.addVernacular(trimmedSyn);
-						}
+				catch (IOException e) {
+					logger.error("Error reading catalog", e);
+					close();
+					return null;
+				}
+				if (raw == null){
+					close();
+				}
+				else {
+					lineNumber++;
+					if (checkEntry(tokens.tokenize(raw))){
+						return processLine(tokens);
 					}
-					break;
+					reportBadLine(file, lineNumber, raw);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void close() {
+			if (br != null){
+				try {
+					br.close();
+				}
+				catch (IOException e) {
+					logger.error("Error closing catalog", e);
+				}
+				br = null;
+			}
+		}
+
+	}
+
+	/**
+	 * Parses chunks of the file on a thread pool, keeping CHUNKSPERTHREAD chunks per thread submitted ahead of
+	 * the caller.  Chunks are returned in file order or, if unordered, in the order they finish.  Chunks can't
+	 * know their first line number, so a chunk's bad lines are reported once every earlier chunk has been parsed.
+	 */
+	private final class ChunkIterator extends CatalogIterator {
+
+		private final List<long[]> ranges;
+		private final boolean skipHeader;
+		private final ExecutorService pool;
+		private final LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();   //in file order
+		private final CompletionService<Chunk> completions;    //null if ordered
+		private int submitted = 0;
+		private int taken = 0;
+
+		private final Map<Integer,Chunk> unreported = new HashMap<Integer,Chunk>();
+		private int reported = 0;
+		private int linesBefore = 0;    //lines in the chunks whose bad lines have been reported
+
+		private Chunk current = null;
+		private int position = 0;
+		private boolean closed = false;
+
+		private ChunkIterator(File f, List<long[]> chunkRanges, boolean headersFirst, boolean ordered){
+			super(f);
+			ranges = chunkRanges;
+			skipHeader = headersFirst;
+			pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread result = new Thread(r, "ColumnReader " + file.getName());
+					result.setDaemon(true);    //an abandoned iterator shouldn't keep the program running
+					return result;
 				}
-				case COMMENT: {
-					if (!rawColumn.isEmpty()){
-						result.setComment(rawColumn.trim());
+			});
+			completions = ordered ? null : new ExecutorCompletionService<Chunk>(pool);
+			submitChunks();
+		}
+
+		private void submitChunks(){
+			while (submitted < ranges.size() && submitted - taken < parallelism*CHUNKSPERTHREAD){
+				final int index = submitted++;
+				final long[] range = ranges.get(index);
+				final Callable<Chunk> task = new Callable<Chunk>(){
+					@Override
+					public Chunk call() throws IOException {
+						return parseChunk(file, index, range[0], range[1], skipHeader && index == 0);
 					}
-					break;
+				};
+				if (completions != null){
+					completions.submit(task);
 				}
-				case STATUS: {
-					break;
+				else {
+					pending.add(pool.submit(task));
 				}
-				case XREF: {
-					if (!rawColumn.isEmpty()){
-						String template = headers.get(i).getXrefTemplate();
-						if (template == null){
-							template = "*xref";
-						}
-						while(template.indexOf("*xref") != -1){
-							final int p = template.indexOf("*xref");
-							template = template.substring(0,p) + rawColumn.trim() + template.substring(p+5);
+			}
+		}
+
+		@Override
+		Item readItem() {
+			while (!closed){
+				if (current != null && position < current.items.size()){
+					return current.items.get(position++);
+				}
+				if (current != null){
+					current.items = null;     //let go of the chunk's items; its bad lines may still be waiting
+					current = null;
+				}
+				if (taken == ranges.size()){
+					close();
+					return null;
+				}
+				try {
+					current = await((completions != null) ? completions.take() : pending.removeFirst());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					logger.error("Interrupted while reading catalog");
+					close();
+					return null;
+				}
+				catch (IOException e) {
+					logger.error("Error reading catalog", e);
+					close();
+					return null;
+				}
+				taken++;
+				position = 0;
+				reportChunks(current);
+				submitChunks();
+			}
+			return null;
+		}
+
+		//reports bad lines for every chunk whose first line number is now known
+		private void reportChunks(Chunk parsed){
+			unreported.put(parsed.index, parsed);
+			while (unreported.containsKey(reported)){
+				final Chunk c = unreported.remove(reported);
+				for (int i = 0; i < c.badLines.size(); i++){
+					reportBadLine(file, linesBefore + c.badLines.get(i), c.badRaw.get(i));
+				}
+				linesBefore += c.lineCount;
+				reported++;
+			}
+		}
+
+		@Override
+		public void close() {
+			if (!closed){
+				pool.shutdownNow();
+				closed = true;
+				current = null;
+				pending.clear();
+				unreported.clear();
+			}
+		}
+
+	}
+
+	//items and bad lines from one chunk of a file; line numbers count from the chunk's first line, as 1
+	private static final class Chunk {
+		final int index;
+		List<Item> items = new ArrayList<Item>();
+		int lineCount = 0;
+		final List<Integer> badLines = new ArrayList<Integer>();
+		final List<String> badRaw = new ArrayList<String>();
+
+		Chunk(int chunkIndex){
+			index = chunkIndex;
+		}
+	}
+
+	private static Chunk await(Future<Chunk> f) throws IOException, InterruptedException{
+		try {
+			return f.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException){
+				throw (IOException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Parses the lines between two offsets; lines end at \n, \r or \r\n as for BufferedReader.readLine and the
+	 * bytes are decoded with the default charset, as FileReader decodes them
+	 * @param f
+	 * @param index the chunk's position in the file
+	 * @param start
+	 * @param end
+	 * @param skipFirst true to skip the chunk's first line (the header)
+	 * @return the chunk's items and bad lines
+	 * @throws IOException
+	 */
+	private Chunk parseChunk(File f, int index, long start, long end, boolean skipFirst) throws IOException {
+		if (end - start > Integer.MAX_VALUE){
+			throw new IOException("Line too long near offset " + start + " of " + f.getAbsolutePath());
+		}
+		final byte[] bytes = new byte[(int)(end - start)];
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			raf.seek(start);
+			raf.readFully(bytes);
+		}
+		finally {
+			raf.close();
+		}
+		final String text = new String(bytes, Charset.defaultCharset());
+		final Chunk result = new Chunk(index);
+		final ColumnTokenizer tokens = new ColumnTokenizer(splitString);
+		final int length = text.length();
+		int pos = 0;
+		while (pos < length){
+			int eol = pos;
+			char c = 0;
+			while (eol < length && (c = text.charAt(eol)) != '\n' && c != '\r'){
+				eol++;
+			}
+			final String raw = text.substring(pos, eol);
+			pos = eol + 1;
+			if (c == '\r' && pos < length && text.charAt(pos) == '\n'){
+				pos++;
+			}
+			result.lineCount++;
+			if (skipFirst && result.lineCount == 1){
+				continue;
+			}
+			if (checkEntry(tokens.tokenize(raw))){
+				result.items.add(processLine(tokens));
+			}
+			else {
+				result.badLines.add(result.lineCount);
+				result.badRaw.add(raw);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cuts a file into ranges of about chunkSize bytes, each ending just after a line break
+	 * @param f
+	 * @param chunkSize
+	 * @return start and end offsets of each range, in file order
+	 * @throws IOException
+	 */
+	static List<long[]> chunkRanges(File f, long chunkSize) throws IOException{
+		final List<long[]> result = new ArrayList<long[]>();
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final long length = raf.length();
+			final byte[] probe = new byte[8192];
+			long start = 0;
+			while (start < length){
+				long end = start + chunkSize;
+				if (end >= length){
+					end = length;
+				}
+				else {
+					end = lineEnd(raf, end, length, probe);
+				}
+				result.add(new long[]{start, end});
+				start = end;
+			}
+		}
+		finally {
+			raf.close();
+		}
+		return result;
+	}
+
+	//the offset just past the first line break at or after pos; a \r\n counts as one break
+	private static long lineEnd(RandomAccessFile raf, long pos, long length, byte[] probe) throws IOException{
+		while (pos < length){
+			raf.seek(pos);
+			final int read = raf.read(probe);
+			for (int i = 0; i < read; i++){
+				if (probe[i] == '\n'){
+					return pos + i + 1;
+				}
+				if (probe[i] == '\r'){
+					final long next = pos + i + 1;
+					if (next < length){
+						raf.seek(next);
+						if (raf.read() == '\n'){
+							return next + 1;
 						}
-						result.addXref(template);
 					}
-					break;
+					return next;
+				}
+			}
+			pos += read;
+		}
+		return length;
+	}
+
+	private static void reportBadLine(File f, int lineNumber, String raw){
+		logger.warn("Bad line " + lineNumber + " of " + f.getName() + ": " + raw);
+	}
+
+	// what checks are needed?
+	private boolean checkEntry(int fieldCount){
+		if (fieldCount < 3)
+			return false;
+		return true;
+	}
+
+
+
+	private Item processLine(ColumnTokenizer tokens){
+		final Item result = new Item(); 
+		//this allows ignoring trailing fields that are undefined in the xml columns element, and files that are
+		//(unfortunately) missing trailing empty fields (Excel can write tab files like this)
+		for(int i = 0;i<headers.size() && i<tokens.size();i++){
+			final ColumnType column = headers.get(i);
+			final KnownField f = column.getFieldType();
+			if (tokens.isEmpty(i)){
+				if (f.isTaxon()){
+					result.putName(f, "");
 				}
-				case DELIMITEDNAME: {
-					
-					break;
+				continue;
+			}
+			final String text = tokens.getText(i);
+			final int start = tokens.getStart(i);
+			final int end = tokens.getEnd(i);
+			switch(f){
+			case SYNONYM: {
+				if (column.getXrefTemplate() == null || column.getXrefTemplate().isEmpty()){
+					for (String syn : splitList(text, start, end)){
+						result.addPlainSynonym(syn);
+					}
 				}
-				default: {
-					if (f.isTaxon()){
-						result.putName(f,curColumn);
+				else {
+					final String xref = expandTrimmed(column, text, start, end);
+					for (String syn : splitList(text, start, end)){
+						result.addSynonymWithXref(syn,xref);
 					}
 				}
+				break;
+			}
+			case VERNACULAR: {
+				for (String syn : splitList(text, start, end)){
+					result.addVernacular(syn);
+				}
+				break;
+			}
+			case COMMENT: {
+				result.setComment(ColumnTokenizer.trim(text, start, end));
+				break;
+			}
+			case STATUS: {
+				break;
+			}
+			case XREF: {
+				result.addXref(expandTrimmed(column, text, start, end));
+				break;
+			}
+			case DELIMITEDNAME: {
 
+				break;
+			}
+			default: {
+				if (f.isTaxon()){   //At least some sources have extra trailing white space in names
+					result.putName(f,ColumnTokenizer.trim(text, start, end));
 				}
 			}
+
+			}
 		}
 		return result;
 	}
 
+	//the column's xref template filled in with the trimmed field
+	private static String expandTrimmed(ColumnType column, String text, int start, int end){
+		while (start < end && text.charAt(start) <= ' '){
+			start++;
+		}
+		while (end > start && text.charAt(end-1) <= ' '){
+			end--;
+		}
+		return column.expandXrefTemplate(text, start, end);
+	}
+
+	/**
+	 * Splits a comma separated list of names; as with String.split, empty names at the end of the list are dropped
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the names, trimmed
+	 */
+	static List<String> splitList(String text, int start, int end){
+		while (end > start && text.charAt(end-1) == ','){
+			end--;
+		}
+		final List<String> result = new ArrayList<String>();
+		if (end == start){
+			return result;
+		}
+		int from = start;
+		while (true){
+			int comma = text.indexOf(',', from);
+			if (comma == -1 || comma > end){
+				comma = end;
+			}
+			result.add(ColumnTokenizer.trim(text, from, comma));
+			if (comma == end){
+				return result;
+			}
+			from = comma+1;
+		}
+	}
+
 	public ColumnType getColumn(KnownField field) {
 		for (ColumnType c : headers){
 			if (field.getCannonicalName().equals(c.getType()))
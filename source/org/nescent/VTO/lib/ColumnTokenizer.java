@@ -0,0 +1,204 @@
+package org.nescent.VTO.lib;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a line of a delimited file into fields.  With a one character delimiter the line is scanned directly and
+ * quoting follows RFC 4180: a field that starts with a double quote runs to the matching closing quote, can hold
+ * the delimiter, and writes a quote as two.  Fields are left in place and read as a slice (getText, getStart,
+ * getEnd); only a quoted field with an escaped quote, or text after its closing quote, is copied.  A quote that
+ * is never closed is read as an ordinary character.  Records are lines, so a quoted line break isn't supported.
+ *
+ * A longer delimiter string is a regular expression, split as ColumnReader always split it, with no unquoting.
+ *
+ * Fields are counted as String.split counts them: trailing empty fields are dropped.  One tokenizer is reused
+ * for every line of a file and is not thread safe.
+ */
+final class ColumnTokenizer {
+
+	static final char QUOTE = '"';
+
+	private final char delimiter;
+	private final Pattern splitPattern;   //null for a one character delimiter
+
+	private String line;
+	private int count = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private String[] copies = new String[16];  //a field's text when it isn't a slice of the line
+	private final StringBuilder unescaped = new StringBuilder();
+
+	/**
+	 * @param splitString a single character delimiter, or a regular expression
+	 */
+	ColumnTokenizer(String splitString){
+		if (splitString.length() == 1){
+			delimiter = splitString.charAt(0);
+			splitPattern = null;
+		}
+		else {
+			delimiter = 0;
+			splitPattern = Pattern.compile(splitString);
+		}
+	}
+
+	/**
+	 * Splits a line, replacing the previous line's fields
+	 * @param raw
+	 * @return the number of fields
+	 */
+	int tokenize(String raw){
+		line = raw;
+		count = 0;
+		if (splitPattern != null){
+			for (String field : splitPattern.split(raw)){
+				addField(0, field.length(), field);
+			}
+			return count;
+		}
+		int lastNonEmpty = 0;     //count of fields up to the last one with any raw text
+		int pos = 0;
+		final int length = raw.length();
+		while (true){
+			final int next;
+			if (pos < length && raw.charAt(pos) == QUOTE){
+				next = quotedField(pos);
+			}
+			else {
+				final int d = raw.indexOf(delimiter, pos);
+				next = (d == -1) ? length : d;
+				addField(pos, next, null);
+			}
+			if (next > pos){
+				lastNonEmpty = count;
+			}
+			if (next >= length){
+				break;
+			}
+			pos = next+1;
+		}
+		count = lastNonEmpty;
+		return count;
+	}
+
+	//adds the field starting with a quote at start; returns the position of the delimiter after it, or the line's length
+	private int quotedField(int start){
+		final int length = line.length();
+		int close = line.indexOf(QUOTE, start+1);
+		boolean escaped = false;
+		while (close != -1 && close+1 < length && line.charAt(close+1) == QUOTE){
+			escaped = true;
+			close = line.indexOf(QUOTE, close+2);
+		}
+		if (close == -1){    //not a quoted field after all
+			final int d = line.indexOf(delimiter, start);
+			final int end = (d == -1) ? length : d;
+			addField(start, end, null);
+			return end;
+		}
+		int end = line.indexOf(delimiter, close+1);
+		if (end == -1){
+			end = length;
+		}
+		if (!escaped && end == close+1){
+			addField(start+1, close, null);
+			return end;
+		}
+		unescaped.setLength(0);
+		int from = start+1;
+		int q = line.indexOf(QUOTE, from);
+		while (q < close){
+			unescaped.append(line, from, q+1);
+			from = q+2;
+			q = line.indexOf(QUOTE, from);
+		}
+		unescaped.append(line, from, close);
+		unescaped.append(line, close+1, end);  //whatever follows the closing quote is kept as written
+		final String text = unescaped.toString();
+		addField(0, text.length(), text);
+		return end;
+	}
+
+	private void addField(int start, int end, String copy){
+		if (count == starts.length){
+			final int newSize = count*2;
+			starts = Arrays.copyOf(starts, newSize);
+			ends = Arrays.copyOf(ends, newSize);
+			copies = Arrays.copyOf(copies, newSize);
+		}
+		starts[count] = start;
+		ends[count] = end;
+		copies[count] = copy;
+		count++;
+	}
+
+	/**
+	 * @return the number of fields in the current line
+	 */
+	int size(){
+		return count;
+	}
+
+	/**
+	 * @param field
+	 * @return the string holding the field, between getStart and getEnd
+	 */
+	String getText(int field){
+		checkField(field);
+		return (copies[field] != null) ? copies[field] : line;
+	}
+
+	int getStart(int field){
+		checkField(field);
+		return starts[field];
+	}
+
+	int getEnd(int field){
+		checkField(field);
+		return ends[field];
+	}
+
+	boolean isEmpty(int field){
+		return getStart(field) == getEnd(field);
+	}
+
+	/**
+	 * @param field
+	 * @return the field's text
+	 */
+	String get(int field){
+		return getText(field).substring(getStart(field), getEnd(field));
+	}
+
+	/**
+	 * @param field
+	 * @return the field's text without leading and trailing white space
+	 */
+	String getTrimmed(int field){
+		return trim(getText(field), getStart(field), getEnd(field));
+	}
+
+	/**
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the text between start and end without leading and trailing white space, as String.trim would give it
+	 */
+	static String trim(String text, int start, int end){
+		while (start < end && text.charAt(start) <= ' '){
+			start++;
+		}
+		while (end > start && text.charAt(end-1) <= ' '){
+			end--;
+		}
+		return text.substring(start, end);
+	}
+
+	private void checkField(int field){
+		if (field < 0 || field >= count){
+			throw new IndexOutOfBoundsException("No field " + field + " in line with " + count + " fields");
+		}
+	}
+
+}
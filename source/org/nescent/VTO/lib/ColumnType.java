@@ -3,9 +3,12 @@ package org.nescent.VTO.lib;
 import org.apache.log4j.Logger;
 
 public class ColumnType {
+	static final String XREFMARKER = "*xref";
+
 	private String name;
 	private final String type;
 	private String xrefPrefix;
+	private String[] xrefPieces;  //the template split at each marker, so expansion needn't search it
 	private KnownField fieldType;
 
 	
@@ -51,6 +54,46 @@ public class ColumnType {
 
 	public void setXrefTemplate(String p){
 		xrefPrefix = p;
+		xrefPieces = (p == null) ? null : splitTemplate(p);
+	}
+
+	/**
+	 * Fills in the xref template with an id taken from a slice of text; every *xref in the template is replaced
+	 * by the id, and a column without a template gives the id itself.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the expanded template
+	 */
+	String expandXrefTemplate(String text, int start, int end){
+		if (xrefPieces == null){
+			return text.substring(start, end);
+		}
+		if (xrefPieces.length == 1){
+			return xrefPieces[0];
+		}
+		final StringBuilder b = new StringBuilder(xrefPrefix.length() + end - start);
+		b.append(xrefPieces[0]);
+		for (int i = 1; i < xrefPieces.length; i++){
+			b.append(text, start, end).append(xrefPieces[i]);
+		}
+		return b.toString();
+	}
+
+	private static String[] splitTemplate(String template){
+		int count = 1;
+		for (int p = template.indexOf(XREFMARKER); p != -1; p = template.indexOf(XREFMARKER, p + XREFMARKER.length())){
+			count++;
+		}
+		final String[] result = new String[count];
+		int from = 0;
+		for (int i = 0; i < count-1; i++){
+			final int p = template.indexOf(XREFMARKER, from);
+			result[i] = template.substring(from, p);
+			from = p + XREFMARKER.length();
+		}
+		result[count-1] = template.substring(from);
+		return result;
 	}
 	
 
@@ -0,0 +1,1339 @@
+package org.nescent.VTO.lib;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.Synonym;
+
+/**
+ * A TaxonStore that keeps taxa in parallel primitive arrays rather than as OBO-Edit objects.  A term is an int
+ * index; names, synonym texts and cross reference ids are StringPool indices; the hierarchy is held as parent,
+ * first-child and next-sibling arrays; the rank is a byte (rank vocabulary ordinal + 1) and extinct/obsolete
+ * are bitsets.  Synonyms and cross references are records in their own arrays, chained per term.  Rarely used
+ * data (comments, alt ids, second parents, consider links) lives in maps on the side.
+ *
+ * Nothing is converted to OBO until the store is saved: saveStore streams one detached OBOClass per term through
+ * OBOStanzaWriter, while the column and xref reports copy the store into an OBOStore first.  Term.asOBOClass()
+ * therefore returns null for terms from this store.
+ */
+public class CompactStore implements TaxonStore {
+
+	static final int NONE = -1;
+	//a store with fewer live terms is empty, so an attach can start a new root; OBOStore's threshold is 10 terms, 5 of them builtin
+	static final int EMPTYSIZE = 5;
+
+	private static final String[] SYNONYMTYPENAMES = {null, OBOUtils.COMMONNAME_TYPENAME, OBOUtils.MISSPELLING_TYPENAME, OBOUtils.NAMEUSAGE_TYPENAME};
+
+	static final Logger logger = Logger.getLogger(CompactStore.class.getName());
+
+	private final String defaultPrefix;
+	private final String targetFile;
+	private final String namespace;
+	private final String idSuffix = ":%07d";
+
+	private final RankVocabulary rankVocabulary = RankVocabulary.getShared();
+	private final StringPool strings = new StringPool(1 << 16);
+
+	/* Terms */
+	private int termCount = 0;
+	private int[] idPrefixes = new int[1024];   //pool index of the id prefix, or NONE when the id isn't PREFIX:%07d
+	private int[] idLocals = new int[1024];     //numeric part of the id, or the whole id's pool index when idPrefixes is NONE
+	private int[] names = new int[1024];
+	private int[] parents = new int[1024];      //first is_a parent, NONE for roots
+	private int[] firstChildren = new int[1024];  //children whose first parent is this term
+	private int[] nextSiblings = new int[1024];
+	private byte[] ranks = new byte[1024];      //rank ordinal + 1, 0 if the term has no rank
+	private int[] firstSynonyms = new int[1024];
+	private int[] firstXrefs = new int[1024];
+	private final BitSet extinct = new BitSet();
+	private final BitSet obsolete = new BitSet();
+	private final BitSet removed = new BitSet();     //trimmed; kept so a trimmed name can be reintroduced with its id and synonyms
+	private final BitSet pending = new BitSet();     //created but not indexed yet; a batch's terms are indexed once they are complete
+
+	private final Map<Integer,String> comments = new HashMap<Integer,String>();
+	private final Map<Integer,List<String>> altIDs = new HashMap<Integer,List<String>>();
+	private final Map<Integer,String> unlistedRanks = new HashMap<Integer,String>();   //rank ids that aren't in the rank vocabulary
+	private final Map<Integer,int[]> extraParents = new HashMap<Integer,int[]>();    //is_a parents after the first
+	private final Map<Integer,int[]> extraChildren = new HashMap<Integer,int[]>();   //inverse of extraParents
+	private final Map<Integer,int[]> considers = new HashMap<Integer,int[]>();
+
+	/* Synonym records */
+	private int synonymCount = 0;
+	private int[] synonymTexts = new int[1024];
+	private byte[] synonymTypes = new byte[1024];
+	private int[] synonymXrefDBs = new int[1024];
+	private int[] synonymXrefIDs = new int[1024];
+	private int[] nextSynonyms = new int[1024];
+
+	/* Cross reference records */
+	private int xrefCount = 0;
+	private int[] xrefDBs = new int[1024];
+	private int[] xrefIDs = new int[1024];
+	private int[] nextXrefs = new int[1024];
+
+	/* Indexes, maintained as in OBOUtils: obsolete and trimmed terms are not indexed */
+	private final IntTermIndex termNames = new IntTermIndex(1024);
+	private final IntTermIndex obsoleteNames = new IntTermIndex(16);   //lookupTermByName falls back to obsolete terms, as OBOUtils does
+	private final Map<Integer,IntTermIndex> termIDs = new HashMap<Integer,IntTermIndex>();   //prefix -> (id number -> term)
+	private final IntTermIndex irregularIDs = new IntTermIndex(16);   //ids that aren't PREFIX:%07d
+	private final Map<Integer,IntTermIndex> termXRefs = new HashMap<Integer,IntTermIndex>();   //database -> (database id -> term)
+	private final IntTermIndex termSynonyms = new IntTermIndex(1024);
+
+	/* Id allocation, as in OBOStore */
+	private final Map<String,Integer> idHighWater = new HashMap<String,Integer>();
+	private final Map<String,Integer> idCounters = new HashMap<String,Integer>();
+
+	private final IntTermIndex trimmedNames = new IntTermIndex(16);    //name -> trimmed term
+	private final Set<String> trimmedTaxonNameAsSynonym = new HashSet<String>();
+
+	/**
+	 * @param fileSpec - where this store will eventually write its contents
+	 * @param prefix - default prefix for adding terms (may be overridden in some cases)
+	 * @param oboNameSpace - default namespace for adding terms
+	 */
+	public CompactStore(final String fileSpec, final String prefix, final String oboNameSpace){
+		targetFile = fileSpec;
+		defaultPrefix = prefix;
+		namespace = oboNameSpace;
+	}
+
+	@Override
+	public String getDefaultPrefix() {
+		return defaultPrefix;
+	}
+
+	private Term wrap(int index){
+		return (index == NONE) ? null : new CompactTerm(this, index);
+	}
+
+	private int unwrap(Term t){
+		if (!(t instanceof CompactTerm) || ((CompactTerm)t).getStore() != this){
+			throw new IllegalArgumentException("Term " + t + " does not belong to this store");
+		}
+		return ((CompactTerm)t).getIndex();
+	}
+
+	private boolean isLive(int index){
+		return !removed.get(index) && !obsolete.get(index);
+	}
+
+	private boolean isIndexed(int index){
+		return isLive(index) && !pending.get(index);
+	}
+
+
+	/* Term creation */
+
+	private int makeTerm(String id, String name){
+		final int index = newTerm(id, name);
+		index(index);
+		return index;
+	}
+
+	//the term is pending until index is called
+	private int newTerm(String id, String name){
+		ensureTermCapacity(termCount+1);
+		final int index = termCount++;
+		final int colon = id.indexOf(':');
+		final String local = id.substring(colon+1);
+		if (colon > 0 && isGeneratedNumber(local)){
+			idPrefixes[index] = strings.intern(id.substring(0, colon));
+			idLocals[index] = Integer.parseInt(local);
+		}
+		else {
+			idPrefixes[index] = NONE;
+			idLocals[index] = strings.intern(id);
+		}
+		names[index] = strings.intern(name);
+		parents[index] = NONE;
+		firstChildren[index] = NONE;
+		nextSiblings[index] = NONE;
+		ranks[index] = 0;
+		firstSynonyms[index] = NONE;
+		firstXrefs[index] = NONE;
+		pending.set(index);
+		return index;
+	}
+
+	private void index(int index){
+		pending.clear(index);
+		indexTerm(index);
+	}
+
+	//true if local is what String.format("%07d") would produce for some int
+	private static boolean isGeneratedNumber(String local){
+		final int length = local.length();
+		if (length < 7 || length > 9 || (length > 7 && local.charAt(0) == '0')){
+			return false;
+		}
+		for (int i = 0; i < length; i++){
+			if (!Character.isDigit(local.charAt(i))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void ensureTermCapacity(int size){
+		if (size > names.length){
+			final int newSize = Math.max(size, names.length*2);
+			idPrefixes = Arrays.copyOf(idPrefixes, newSize);
+			idLocals = Arrays.copyOf(idLocals, newSize);
+			names = Arrays.copyOf(names, newSize);
+			parents = Arrays.copyOf(parents, newSize);
+			firstChildren = Arrays.copyOf(firstChildren, newSize);
+			nextSiblings = Arrays.copyOf(nextSiblings, newSize);
+			ranks = Arrays.copyOf(ranks, newSize);
+			firstSynonyms = Arrays.copyOf(firstSynonyms, newSize);
+			firstXrefs = Arrays.copyOf(firstXrefs, newSize);
+		}
+	}
+
+	@Override
+	public Term addTerm(final String name, String prefix) {
+		if (prefix == null){
+			throw new RuntimeException("Prefix supplied to addTerm was null");
+		}
+		final int added = createTerm(name, prefix);
+		index(added);
+		return wrap(added);
+	}
+
+	/**
+	 * Makes a pending term as addTerm does, reusing the id, extinct flag and synonyms of a trimmed term with the same name
+	 */
+	private int createTerm(final String name, String prefix){
+		final int nameIndex = strings.find(name);
+		final int oldTerm = (nameIndex == NONE) ? NONE : trimmedNames.get(nameIndex);
+		final int added;
+		if (oldTerm != NONE){
+			final String oldID = getID(oldTerm);
+			final String[] oldComponents = oldID.split(":");
+			if ((oldComponents.length > 1) && prefix.equals(oldComponents[0])){
+				added = newTerm(oldID, name);
+			}
+			else { //wrong prefix, need new id
+				added = newTerm(nextID(prefix), name);
+				recordID(getID(added));
+			}
+			if (extinct.get(oldTerm)){
+				extinct.set(added);
+			}
+			for (int s = firstSynonyms[oldTerm]; s != NONE; s = nextSynonyms[s]){
+				appendSynonym(added, synonymTexts[s], synonymTypes[s], synonymXrefDBs[s], synonymXrefIDs[s]);
+			}
+		}
+		else { 		// need to generate the ID
+			added = newTerm(nextID(prefix), name);
+			recordID(getID(added));
+		}
+		return added;
+	}
+
+	@Override
+	public Term addTermbyID(final String ID, final String name) {
+		final String[] idComponents = ID.split(":");
+		if (idComponents.length < 2){
+			throw new IllegalArgumentException("Provided ID: " + ID + " is not valid OBO syntax");
+		}
+		recordID(ID);
+		return wrap(makeTerm(ID, name));
+	}
+
+	@Override
+	public TermBatch newBatch() {
+		return new TermBatch(this){
+			@Override
+			Term[] commitRecords(){
+				return commitBatch(this);
+			}
+		};
+	}
+
+	//the batch's terms stay pending while their cross references and synonyms are added, then each is indexed once
+	private Term[] commitBatch(TermBatch batch){
+		final int size = batch.size();
+		ensureTermCapacity(termCount + size);
+		final int[] added = new int[size];
+		for (int r = 0; r < size; r++){
+			if (batch.getID(r) != null){
+				recordID(batch.getID(r));
+				added[r] = newTerm(batch.getID(r), batch.getName(r));
+			}
+			else {
+				added[r] = createTerm(batch.getName(r), batch.getPrefix(r));
+			}
+		}
+		for (int x = 0; x < batch.getXRefCount(); x++){
+			addXRef(added[batch.getXRefRecord(x)], batch.getXRefDB(x), batch.getXRefID(x));
+		}
+		for (int s = 0; s < batch.getSynonymCount(); s++){
+			addSynonym(added[batch.getSynonymRecord(s)], batch.getSynonym(s));
+		}
+		final Term[] result = new Term[size];
+		for (int r = 0; r < size; r++){
+			if (batch.getRank(r) != null){
+				final int ordinal = rankVocabulary.ordinalOfName(batch.getRank(r));
+				if (ordinal != RankVocabulary.NO_RANK){
+					setRank(added[r], ordinal, null);
+				}
+				else {
+					rankVocabulary.reportUnknownName(batch.getRank(r));
+				}
+			}
+			if (batch.isExtinct(r)){
+				extinct.set(added[r]);
+			}
+			index(added[r]);
+			result[r] = wrap(added[r]);
+		}
+		for (int l = 0; l < batch.getLinkCount(); l++){
+			attachParent(added[batch.getLinkChild(l)], unwrap(batch.getLinkParent(l, result)));
+		}
+		return result;
+	}
+
+	@Override
+	public void updateIDGenerator(final String prefix){
+		if (prefix == null)
+			throw new RuntimeException("ID generator received a null prefix");
+		idCounters.put(prefix, highWater(prefix)+1);
+	}
+
+	private void seedIDGenerator(){
+		idHighWater.clear();
+		idCounters.clear();
+		for (int i = 0; i < termCount; i++){
+			if (!removed.get(i)){
+				recordID(getID(i));
+			}
+		}
+		for (int i = removed.nextSetBit(0); i >= 0; i = removed.nextSetBit(i+1)){
+			recordID(getID(i));
+		}
+	}
+
+	private void recordID(final String id){
+		final int colonIndex = id.indexOf(':');
+		if (colonIndex == -1){
+			return;
+		}
+		final int index;
+		try{
+			index = Integer.parseInt(id.substring(colonIndex+1));
+		}
+		catch (NumberFormatException e){
+			return;  //this really is safe to silently ignore...
+		}
+		final String idPrefix = id.substring(0,colonIndex);
+		final Integer oldMark = idHighWater.get(idPrefix);
+		if (oldMark == null || index > oldMark){
+			idHighWater.put(idPrefix, index);
+		}
+		for (Map.Entry<String,Integer> e : idCounters.entrySet()){
+			if (id.startsWith(e.getKey()) && index >= e.getValue()){
+				e.setValue(index+1);
+			}
+		}
+	}
+
+	private int highWater(final String prefix){
+		int result = -1;
+		for (Map.Entry<String,Integer> e : idHighWater.entrySet()){
+			if ((e.getKey() + ':').startsWith(prefix) && e.getValue() > result){
+				result = e.getValue();
+			}
+		}
+		return result;
+	}
+
+	private String nextID(final String prefix){
+		Integer counter = idCounters.get(prefix);
+		if (counter == null){
+			counter = highWater(prefix)+1;
+		}
+		final String result = String.format(prefix+idSuffix,counter);
+		idCounters.put(prefix, counter+1);
+		return result;
+	}
+
+
+	/* Index maintenance */
+
+	private void indexTerm(int index){
+		if (obsolete.get(index)){
+			return;
+		}
+		idIndex(index, true).put(idKey(index), index);
+		if (names[index] == NONE){
+			logger.error("Term " + getID(index) + " has null for name");
+		}
+		else {
+			termNames.add(names[index], index);
+		}
+		for (int x = firstXrefs[index]; x != NONE; x = nextXrefs[x]){
+			indexXRef(index, x);
+		}
+		for (int s = firstSynonyms[index]; s != NONE; s = nextSynonyms[s]){
+			termSynonyms.add(synonymTexts[s], index);
+		}
+	}
+
+	private void unindexTerm(int index){
+		final IntTermIndex ids = idIndex(index, false);
+		if (ids != null && ids.get(idKey(index)) == index){
+			ids.remove(idKey(index), index);
+		}
+		if (names[index] != NONE){
+			termNames.remove(names[index], index);
+		}
+		for (int x = firstXrefs[index]; x != NONE; x = nextXrefs[x]){
+			final IntTermIndex dbIndex = termXRefs.get(xrefDBs[x]);
+			if (dbIndex != null){
+				dbIndex.remove(xrefIDs[x], index);
+			}
+		}
+		for (int s = firstSynonyms[index]; s != NONE; s = nextSynonyms[s]){
+			termSynonyms.remove(synonymTexts[s], index);
+		}
+	}
+
+	private void indexXRef(int index, int x){
+		IntTermIndex dbIndex = termXRefs.get(xrefDBs[x]);
+		if (dbIndex == null){
+			dbIndex = new IntTermIndex(1000);
+			termXRefs.put(xrefDBs[x], dbIndex);
+		}
+		dbIndex.add(xrefIDs[x], index);
+	}
+
+	private IntTermIndex idIndex(int index, boolean create){
+		if (idPrefixes[index] == NONE){
+			return irregularIDs;
+		}
+		IntTermIndex result = termIDs.get(idPrefixes[index]);
+		if (result == null && create){
+			result = new IntTermIndex(1024);
+			termIDs.put(idPrefixes[index], result);
+		}
+		return result;
+	}
+
+	private int idKey(int index){
+		return idLocals[index];
+	}
+
+	private int lookupID(String id){
+		if (id == null){
+			return NONE;
+		}
+		final int colon = id.indexOf(':');
+		final String local = id.substring(colon+1);
+		if (colon > 0 && isGeneratedNumber(local)){
+			final int prefix = strings.find(id.substring(0, colon));
+			final IntTermIndex ids = (prefix == NONE) ? null : termIDs.get(prefix);
+			return (ids == null) ? NONE : ids.get(Integer.parseInt(local));
+		}
+		final int key = strings.find(id);
+		return (key == NONE) ? NONE : irregularIDs.get(key);
+	}
+
+
+	/* Lookups */
+
+	@Override
+	public Term getTerm(String termID) {
+		return wrap(lookupID(termID));
+	}
+
+	@Override
+	public Collection<Term> getTerms() {
+		final Collection<Term> result = new HashSet<Term>(termCount*2);
+		for (int i = 0; i < termCount; i++){
+			if (isLive(i)){
+				result.add(wrap(i));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		int live = 0;
+		for (int i = 0; i < termCount; i++){
+			if (isLive(i) && ++live == EMPTYSIZE){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Term getTermbyName(String taxonName) {
+		if (taxonName == null){
+			throw new RuntimeException("termName is null");
+		}
+		final int key = strings.find(taxonName);
+		if (key == NONE){
+			return null;
+		}
+		final int result = termNames.get(key);
+		return wrap((result != NONE) ? result : obsoleteNames.get(key));
+	}
+
+	@Override
+	public Map<String,Term> getTermsByNames(Collection<String> taxonNames) {
+		final Map<String,Term> result = new HashMap<String,Term>(taxonNames.size());
+		for (String taxonName : taxonNames){
+			final Term t = getTermbyName(taxonName);
+			if (t != null){
+				result.put(taxonName, t);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean hasTermbyName(String taxonName) {
+		return getTermbyName(taxonName) != null;
+	}
+
+	@Override
+	public Collection<Term> getTermsBySynonym(String text) {
+		final int key = strings.find(text);
+		if (key == NONE){
+			return Collections.emptyList();
+		}
+		final int[] holders = termSynonyms.getAll(key);
+		final List<Term> result = new ArrayList<Term>(holders.length);
+		for (int h : holders){
+			result.add(wrap(h));
+		}
+		return result;
+	}
+
+	@Override
+	public Term getTermByXRef(String dbName, String dbID) {
+		if (dbName == null){
+			throw new RuntimeException("lookupTermByXref received null for database");
+		}
+		if (dbID == null){
+			throw new RuntimeException("lookupTermByXref received null for dbID");
+		}
+		final IntTermIndex dbIndex = termXRefs.get(strings.find(dbName));
+		final int key = strings.find(dbID);
+		if (dbIndex == null || key == NONE){
+			return null;
+		}
+		return wrap(dbIndex.get(key));
+	}
+
+	@Override
+	public Map<String, Term> getTermsByXRefs(String dbName, Collection<String> dbIDs) {
+		if (dbName == null){
+			throw new RuntimeException("lookupTermsByXrefs received null for database");
+		}
+		final Map<String,Term> result = new HashMap<String,Term>(dbIDs.size());
+		final IntTermIndex dbIndex = termXRefs.get(strings.find(dbName));
+		if (dbIndex != null){
+			for (String dbID : dbIDs){
+				final int key = strings.find(dbID);
+				final int holder = (key == NONE) ? NONE : dbIndex.get(key);
+				if (holder != NONE){
+					result.put(dbID, wrap(holder));
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/* Hierarchy */
+
+	@Override
+	public void attachParent(Term child, Term parent) {
+		attachParent(unwrap(child), unwrap(parent));
+	}
+
+	private void attachParent(int child, int parent){
+		if (parents[child] == NONE){
+			parents[child] = parent;
+			nextSiblings[child] = firstChildren[parent];
+			firstChildren[parent] = child;
+		}
+		else if (parents[child] != parent && !contains(extraParents.get(child), parent)){
+			extraParents.put(child, append(extraParents.get(child), parent));
+			extraChildren.put(parent, append(extraChildren.get(parent), child));
+		}
+	}
+
+	void removeParent(int child, Term parentTerm){
+		final int parent = unwrap(parentTerm);
+		if (parents[child] == parent){
+			unlinkChild(child);
+			final int[] others = extraParents.remove(child);
+			if (others != null){  //promote the next parent
+				for (int p : others){
+					extraChildren.put(p, without(extraChildren.get(p), child));
+				}
+				attachParent(child, others[0]);
+				for (int i = 1; i < others.length; i++){
+					attachParent(child, others[i]);
+				}
+			}
+		}
+		else if (contains(extraParents.get(child), parent)){
+			extraParents.put(child, without(extraParents.get(child), parent));
+			extraChildren.put(parent, without(extraChildren.get(parent), child));
+		}
+	}
+
+	//removes child from its first parent's child list
+	private void unlinkChild(int child){
+		final int parent = parents[child];
+		if (parent == NONE){
+			return;
+		}
+		if (firstChildren[parent] == child){
+			firstChildren[parent] = nextSiblings[child];
+		}
+		else {
+			int c = firstChildren[parent];
+			while (nextSiblings[c] != child){
+				c = nextSiblings[c];
+			}
+			nextSiblings[c] = nextSiblings[child];
+		}
+		parents[child] = NONE;
+		nextSiblings[child] = NONE;
+	}
+
+	private int[] childIndices(int parent){
+		int count = 0;
+		for (int c = firstChildren[parent]; c != NONE; c = nextSiblings[c]){
+			count++;
+		}
+		final int[] others = extraChildren.get(parent);
+		final int[] result = new int[count + ((others == null) ? 0 : others.length)];
+		int i = 0;
+		for (int c = firstChildren[parent]; c != NONE; c = nextSiblings[c]){
+			result[i++] = c;
+		}
+		if (others != null){
+			System.arraycopy(others, 0, result, i, others.length);
+		}
+		return result;
+	}
+
+	Set<Term> getChildren(int index){
+		final Set<Term> result = new HashSet<Term>();
+		for (int c : childIndices(index)){
+			result.add(wrap(c));
+		}
+		return result;
+	}
+
+	Term getParent(int index){
+		return (parents[index] == NONE) ? null : wrap(parents[index]);
+	}
+
+	List<Term> getAncestors(int index){
+		final List<Term> result = new ArrayList<Term>();
+		int parent = parents[index];
+		while (parent != NONE){
+			result.add(wrap(parent));
+			parent = parents[parent];
+		}
+		return result;
+	}
+
+	@Override
+	public void trim(String nodeStr) {
+		final int key = strings.find(nodeStr);
+		final int cladeRoot = (key == NONE) ? NONE : termNames.get(key);
+		if (cladeRoot == NONE){
+			logger.error("Clade root to trim " + nodeStr + " not found");
+		}
+		else {
+			int removedCount = 0;
+			unlinkChild(cladeRoot);
+			final List<Integer> stack = new ArrayList<Integer>();
+			stack.add(cladeRoot);
+			while (!stack.isEmpty()){
+				final int node = stack.remove(stack.size()-1);
+				for (int child : childIndices(node)){
+					removeParent(child, wrap(node));
+					stack.add(child);
+				}
+				if (names[node] != NONE){
+					trimmedNames.put(names[node], node);
+				}
+				unindexTerm(node);
+				removed.set(node);
+				removedCount++;
+			}
+			seedIDGenerator();
+			logger.info("Removed " + removedCount + " net nodes");
+		}
+	}
+
+	private static boolean contains(int[] values, int v){
+		if (values != null){
+			for (int x : values){
+				if (x == v){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int[] append(int[] values, int v){
+		if (values == null){
+			return new int[]{v};
+		}
+		final int[] result = Arrays.copyOf(values, values.length+1);
+		result[values.length] = v;
+		return result;
+	}
+
+	//returns null rather than an empty array so the maps don't keep empty entries
+	private static int[] without(int[] values, int v){
+		if (values == null){
+			return null;
+		}
+		int count = 0;
+		for (int x : values){
+			if (x != v){
+				count++;
+			}
+		}
+		if (count == 0){
+			return null;
+		}
+		final int[] result = new int[count];
+		int i = 0;
+		for (int x : values){
+			if (x != v){
+				result[i++] = x;
+			}
+		}
+		return result;
+	}
+
+
+	/* Term properties */
+
+	String getID(int index){
+		if (idPrefixes[index] == NONE){
+			return strings.get(idLocals[index]);
+		}
+		final StringBuilder b = new StringBuilder(16);
+		b.append(strings.get(idPrefixes[index])).append(':');
+		final String number = Integer.toString(idLocals[index]);
+		for (int i = number.length(); i < 7; i++){
+			b.append('0');
+		}
+		return b.append(number).toString();
+	}
+
+	String getName(int index){
+		return strings.get(names[index]);
+	}
+
+	boolean isExtinct(int index){
+		return extinct.get(index);
+	}
+
+	boolean isObsolete(int index){
+		return obsolete.get(index);
+	}
+
+	void setComment(int index, String comment){
+		comments.put(index, comment);
+	}
+
+	void createAltID(int index, String id){
+		List<String> ids = altIDs.get(index);
+		if (ids == null){
+			ids = new ArrayList<String>(1);
+			altIDs.put(index, ids);
+		}
+		if (!ids.contains(id)){
+			ids.add(id);
+		}
+	}
+
+	Set<String> getCrossReferences(int index){
+		final Set<String> result = new LinkedHashSet<String>();
+		for (int x = firstXrefs[index]; x != NONE; x = nextXrefs[x]){
+			result.add(strings.get(xrefDBs[x]) + ":" + strings.get(xrefIDs[x]));
+		}
+		return result;
+	}
+
+	//as OBOTerm.removeProperties, drops the rank and extinct values
+	void removeProperties(int index){
+		ranks[index] = 0;
+		unlistedRanks.remove(index);
+		extinct.clear(index);
+	}
+
+	@Override
+	public void setExtinct(Term term) {
+		if (term == null){
+			throw new RuntimeException("Null term passed to setExtinct");
+		}
+		extinct.set(unwrap(term));
+	}
+
+	@Override
+	public void resetExtinct(Term term) {
+		extinct.clear(unwrap(term));
+	}
+
+	@Override
+	public void obsoleteTerm(Term taxonTerm) {
+		obsolete(unwrap(taxonTerm));
+	}
+
+	private void obsolete(int index){
+		unindexTerm(index);
+		obsolete.set(index);
+		if (names[index] != NONE){
+			obsoleteNames.add(names[index], index);
+		}
+	}
+
+	@Override
+	public void addXRefToTerm(Term t, String dbName, String dbID) {
+		addXRef(unwrap(t), dbName, dbID);
+	}
+
+	private void addXRef(int index, String dbName, String dbID){
+		if (xrefCount == xrefDBs.length){
+			xrefDBs = Arrays.copyOf(xrefDBs, xrefCount*2);
+			xrefIDs = Arrays.copyOf(xrefIDs, xrefCount*2);
+			nextXrefs = Arrays.copyOf(nextXrefs, xrefCount*2);
+		}
+		final int x = xrefCount++;
+		xrefDBs[x] = strings.intern(dbName);
+		xrefIDs[x] = strings.intern(dbID);
+		nextXrefs[x] = NONE;
+		if (firstXrefs[index] == NONE){
+			firstXrefs[index] = x;
+		}
+		else {  //keep insertion order
+			int last = firstXrefs[index];
+			while (nextXrefs[last] != NONE){
+				if (xrefDBs[last] == xrefDBs[x] && xrefIDs[last] == xrefIDs[x]){
+					xrefCount--;   //already present, as adding an equal Dbxref to an OBOClass is a no-op
+					return;
+				}
+				last = nextXrefs[last];
+			}
+			if (xrefDBs[last] == xrefDBs[x] && xrefIDs[last] == xrefIDs[x]){
+				xrefCount--;
+				return;
+			}
+			nextXrefs[last] = x;
+		}
+		if (isIndexed(index) && xrefDBs[x] != NONE && xrefIDs[x] != NONE){
+			indexXRef(index, x);
+		}
+	}
+
+
+	/* Ranks */
+
+	@Override
+	public String getRankID(String rankName) {
+		return rankVocabulary.idOf(rankVocabulary.ordinalOfName(rankName));
+	}
+
+	@Override
+	public void setRankFromName(Term term, String rank) {
+		final int ordinal = rankVocabulary.ordinalOfName(rank);
+		if (ordinal != RankVocabulary.NO_RANK){
+			setRank(unwrap(term), ordinal, null);
+		}
+		else {
+			rankVocabulary.reportUnknownName(rank);
+		}
+	}
+
+	@Override
+	public void setRankFromID(Term term, String rankID) {
+		if (!rankID.contains(":")){
+			throw new IllegalArgumentException("createRankProperty received " + rankID + " which is not an OBO ID");
+		}
+		setRank(unwrap(term), rankVocabulary.ordinalOfID(rankID), rankID);
+	}
+
+	//a term holds one rank; setting another replaces it
+	private void setRank(int index, int ordinal, String rankID){
+		if (ordinal == RankVocabulary.NO_RANK || ordinal >= Byte.MAX_VALUE){
+			ranks[index] = 0;
+			unlistedRanks.put(index, rankID);
+		}
+		else {
+			ranks[index] = (byte)(ordinal+1);
+			unlistedRanks.remove(index);
+		}
+	}
+
+	@Override
+	public String getRankString(Term term) {
+		return rankVocabulary.nameOf(ranks[unwrap(term)]-1);
+	}
+
+	private String getRankPropertyID(int index){
+		if (ranks[index] != 0){
+			return rankVocabulary.idOf(ranks[index]-1);
+		}
+		return unlistedRanks.get(index);
+	}
+
+
+	/* Synonyms */
+
+	@Override
+	public SynonymI makeSynonym(String syn) {
+		trimmedNameCheck(syn);
+		return new CompactSynonym(syn, CompactSynonym.UNTYPED, null, null);
+	}
+
+	@Override
+	public SynonymI makeSynonymWithXref(String syn, String prefix, String xref) {
+		trimmedNameCheck(syn);
+		return new CompactSynonym(syn, CompactSynonym.UNTYPED, prefix, xref);
+	}
+
+	@Override
+	public SynonymI makeTypedSynonym(String synString, String typeString) {
+		final byte type = synonymType(typeString);
+		if (type == CompactSynonym.UNTYPED){  //fail, unknown type - just make a regular synonym
+			return makeSynonym(synString);
+		}
+		return new CompactSynonym(synString, type, null, null);
+	}
+
+	@Override
+	public SynonymI makeTypedSynonymWithXref(String synString, String typeString, String dbxprefix, String entryID) {
+		final byte type = synonymType(typeString);
+		if (type == CompactSynonym.UNTYPED){  //fail, unknown type - just make a regular synonym
+			return makeSynonym(synString);
+		}
+		trimmedNameCheck(synString);
+		return new CompactSynonym(synString, type, dbxprefix, entryID);
+	}
+
+	@Deprecated
+	@Override
+	public SynonymI makeCommonName(String commonName) {
+		return new CompactSynonym(commonName, CompactSynonym.COMMONNAME, null, null);
+	}
+
+	@Deprecated
+	@Override
+	public SynonymI makeCommonNameWithXref(String commonName, String dbxprefix, String entryID) {
+		return new CompactSynonym(commonName, CompactSynonym.COMMONNAME, dbxprefix, entryID);
+	}
+
+	private static byte synonymType(String typeName){
+		for (byte i = 1; i < SYNONYMTYPENAMES.length; i++){
+			if (SYNONYMTYPENAMES[i].equals(typeName)){
+				return i;
+			}
+		}
+		return CompactSynonym.UNTYPED;
+	}
+
+	private void trimmedNameCheck(String synString){
+		final int key = strings.find(synString);
+		if (key != NONE && trimmedNames.get(key) != NONE){
+			trimmedTaxonNameAsSynonym.add(synString);
+		}
+	}
+
+	/**
+	 * Adds s to a term unless the term already has a synonym with the same text and type, and a matching
+	 * cross reference when s has one (as OBOTerm.addSynonym)
+	 * @param index
+	 * @param s
+	 */
+	void addSynonym(int index, SynonymI s){
+		final int text;
+		final byte type;
+		final int xrefDB;
+		final int xrefID;
+		if (s instanceof CompactSynonym){
+			final CompactSynonym cs = (CompactSynonym)s;
+			text = strings.intern(cs.getText());
+			type = cs.getType();
+			xrefDB = strings.intern(cs.getXrefDB());
+			xrefID = strings.intern(cs.getXrefID());
+		}
+		else {
+			final Synonym syn = s.asOBOSynonym();
+			if (syn.getXrefs().size() > 1){
+				throw new RuntimeException("New synonym: '" + syn.getText() + "' should have an most one xref; " + syn.getXrefs().size() + " were found");
+			}
+			text = strings.intern(syn.getText());
+			type = (syn.getSynonymType() == null) ? CompactSynonym.UNTYPED : synonymType(syn.getSynonymType().getName());
+			if (syn.getXrefs().isEmpty()){
+				xrefDB = NONE;
+				xrefID = NONE;
+			}
+			else {
+				final Dbxref ref = syn.getXrefs().iterator().next();
+				xrefDB = strings.intern(ref.getDatabase());
+				xrefID = strings.intern(ref.getDatabaseID());
+			}
+		}
+		for (int old = firstSynonyms[index]; old != NONE; old = nextSynonyms[old]){
+			if (synonymTexts[old] == text && synonymTypes[old] == type){
+				if (xrefDB == NONE || (synonymXrefDBs[old] == xrefDB && synonymXrefIDs[old] == xrefID)){
+					return;
+				}
+			}
+		}
+		appendSynonym(index, text, type, xrefDB, xrefID);
+	}
+
+	private void appendSynonym(int index, int text, byte type, int xrefDB, int xrefID){
+		if (synonymCount == synonymTexts.length){
+			final int newSize = synonymCount*2;
+			synonymTexts = Arrays.copyOf(synonymTexts, newSize);
+			synonymTypes = Arrays.copyOf(synonymTypes, newSize);
+			synonymXrefDBs = Arrays.copyOf(synonymXrefDBs, newSize);
+			synonymXrefIDs = Arrays.copyOf(synonymXrefIDs, newSize);
+			nextSynonyms = Arrays.copyOf(nextSynonyms, newSize);
+		}
+		final int s = synonymCount++;
+		synonymTexts[s] = text;
+		synonymTypes[s] = type;
+		synonymXrefDBs[s] = xrefDB;
+		synonymXrefIDs[s] = xrefID;
+		nextSynonyms[s] = firstSynonyms[index];
+		firstSynonyms[index] = s;
+		if (isIndexed(index)){
+			termSynonyms.add(text, index);
+		}
+	}
+
+	Set<SynonymI> getSynonyms(int index){
+		final Set<SynonymI> result = new HashSet<SynonymI>();
+		for (int s = firstSynonyms[index]; s != NONE; s = nextSynonyms[s]){
+			result.add(new CompactSynonym(strings.get(synonymTexts[s]), synonymTypes[s], strings.get(synonymXrefDBs[s]), strings.get(synonymXrefIDs[s])));
+		}
+		return result;
+	}
+
+
+	/* Obsoletes */
+
+	@Override
+	public void processObsoletes() {
+		for (String oldName : trimmedTaxonNameAsSynonym){
+			final int oldTerm = trimmedNames.get(strings.find(oldName));
+			final String oldID = getID(oldTerm);
+			if (lookupID(oldID) == NONE){
+				final int added = makeTerm(oldID, oldName);
+				obsolete(added);
+				final int[] considerTerms = termSynonyms.getAll(strings.find(oldName));
+				if (considerTerms.length > 0){
+					considers.put(added, considerTerms);
+				}
+			}
+		}
+		trimmedTaxonNameAsSynonym.clear();
+	}
+
+
+	/* Reports */
+
+	@Override
+	public List<String> countTerms() {
+		final List<String> result = new ArrayList<String>();
+		final List<String> rankUsages = new ArrayList<String>();
+		final List<Integer> rankCounts = new ArrayList<Integer>();
+		final int ncbi = strings.find("NCBITaxon");
+		int liveCount = 0;
+		int synCount = 0;
+		int commonNameCount = 0;
+		int misspellingCount = 0;
+		int NCBIxrefCount = 0;
+		int extinctCount = 0;
+		for (int i = 0; i < termCount; i++){
+			if (!isLive(i)){
+				continue;
+			}
+			liveCount++;
+			for (int s = firstSynonyms[i]; s != NONE; s = nextSynonyms[s]){
+				synCount++;
+				if (synonymTypes[s] == CompactSynonym.COMMONNAME){
+					commonNameCount++;
+				}
+				if (synonymTypes[s] == CompactSynonym.MISSPELLING){
+					misspellingCount++;
+				}
+			}
+			for (int x = firstXrefs[i]; x != NONE; x = nextXrefs[x]){
+				if (ncbi != NONE && xrefDBs[x] == ncbi){
+					NCBIxrefCount++;
+				}
+			}
+			final String rankID = getRankPropertyID(i);
+			if (rankID != null){
+				final int rankPos = rankUsages.indexOf(rankID);
+				if (rankPos == -1){
+					rankUsages.add(rankID);
+					rankCounts.add(1);
+				}
+				else {
+					rankCounts.set(rankPos, rankCounts.get(rankPos)+1);
+				}
+			}
+			if (extinct.get(i)){
+				extinctCount++;
+			}
+		}
+		result.add("Taxon Terms " + liveCount);
+		result.add("Synonyms " + synCount);
+		result.add("Common Names " + commonNameCount);
+		result.add("Synonyms resulting from misspelling " + misspellingCount);
+		result.add("Extinct taxa " + extinctCount);
+		result.add("NCBI Taxa cross referenced " + NCBIxrefCount);
+		for (int i = 0; i < rankUsages.size(); i++){
+			result.add("Rank: " + rankVocabulary.nameOf(rankVocabulary.ordinalOfID(rankUsages.get(i))) + " count: " + rankCounts.get(i));
+		}
+		return result;
+	}
+
+
+	/* Saving */
+
+	/**
+	 * Writes the store as OBO, building one detached OBOClass at a time
+	 */
+	@Override
+	public void saveStore() {
+		final OBOUtils u = new OBOUtils();
+		u.setNameSpace(namespace, targetFile);
+		final List<Integer> order = new ArrayList<Integer>(termCount);
+		for (int i = 0; i < termCount; i++){
+			if (!removed.get(i)){
+				order.add(i);
+			}
+		}
+		final String[] ids = new String[termCount];
+		for (int i : order){
+			ids[i] = getID(i);
+		}
+		Collections.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return ids[a].compareToIgnoreCase(ids[b]);   //as OBOConstants.DEFAULT_ID_COMPARATOR
+			}
+		});
+		final OBOStanzaWriter writer = new OBOStanzaWriter(u.getSession());
+		try {
+			final Writer out = writer.open(targetFile);
+			try {
+				for (int i : order){
+					writer.writeStanza(toOBOClass(i, u), out);
+				}
+			}
+			finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			logger.error("An error occurred while writing the ontology to " + targetFile);
+			e.printStackTrace();
+		}
+	}
+
+	private OBOClass toOBOClass(int index, OBOUtils u){
+		final OBOClass c = u.makeDetachedTerm(getID(index), getName(index));
+		final List<String> alts = altIDs.get(index);
+		if (alts != null){
+			for (String alt : alts){
+				c.addSecondaryID(alt);
+			}
+		}
+		if (comments.containsKey(index)){
+			c.setComment(comments.get(index));
+		}
+		for (int s = firstSynonyms[index]; s != NONE; s = nextSynonyms[s]){
+			c.addSynonym(toOBOSynonym(s, u));
+		}
+		for (int x = firstXrefs[index]; x != NONE; x = nextXrefs[x]){
+			c.addDbxref(u.createDbxref(strings.get(xrefDBs[x]), strings.get(xrefIDs[x]), null, Dbxref.ANALOG));
+		}
+		if (parents[index] != NONE){
+			u.attachParent(c, stub(parents[index], u));
+			final int[] others = extraParents.get(index);
+			if (others != null){
+				for (int p : others){
+					u.attachParent(c, stub(p, u));
+				}
+			}
+		}
+		final String rankID = getRankPropertyID(index);
+		if (rankID != null){
+			c.addPropertyValue(u.createRankProperty(rankID));
+		}
+		if (extinct.get(index)){
+			u.setExtinct(c);
+		}
+		if (obsolete.get(index)){
+			c.setObsolete(true);
+			final int[] candidates = considers.get(index);
+			if (candidates != null){
+				for (int candidate : candidates){
+					c.addConsiderReplacement(stub(candidate, u));
+				}
+			}
+		}
+		return c;
+	}
+
+	private OBOClass stub(int index, OBOUtils u){
+		return u.makeDetachedTerm(getID(index), getName(index));
+	}
+
+	private Synonym toOBOSynonym(int s, OBOUtils u){
+		final String text = strings.get(synonymTexts[s]);
+		final String typeName = SYNONYMTYPENAMES[synonymTypes[s]];
+		if (synonymXrefDBs[s] != NONE){
+			final String db = strings.get(synonymXrefDBs[s]);
+			final String id = strings.get(synonymXrefIDs[s]);
+			if (typeName != null){
+				return u.makeSynonymWithTypeAndXref(text, u.lookupSynonymType(typeName), db, id);
+			}
+			return u.makeSynonymWithXref(text, db, id);
+		}
+		if (typeName != null){
+			return u.makeSynonymWithType(text, u.lookupSynonymType(typeName));
+		}
+		return u.makeSynonym(text);
+	}
+
+	/**
+	 * Copies this store into an OBOStore for the report formats, which walk OBO objects
+	 * @return a new OBOStore with the same terms, hierarchy and annotations
+	 */
+	OBOStore toOBOStore(){
+		final OBOStore result = new OBOStore(targetFile, defaultPrefix, namespace);
+		final Term[] copies = new Term[termCount];
+		for (int i = 0; i < termCount; i++){
+			if (!removed.get(i)){
+				copies[i] = result.addTermbyID(getID(i), getName(i));
+			}
+		}
+		for (int i = 0; i < termCount; i++){
+			final Term t = copies[i];
+			if (t == null){
+				continue;
+			}
+			for (int p : parentIndices(i)){
+				result.attachParent(t, copies[p]);
+			}
+			for (int s = firstSynonyms[i]; s != NONE; s = nextSynonyms[s]){
+				final String text = strings.get(synonymTexts[s]);
+				final String typeName = SYNONYMTYPENAMES[synonymTypes[s]];
+				final String db = strings.get(synonymXrefDBs[s]);
+				final String id = strings.get(synonymXrefIDs[s]);
+				if (typeName != null){
+					t.addSynonym((db == null) ? result.makeTypedSynonym(text, typeName) : result.makeTypedSynonymWithXref(text, typeName, db, id));
+				}
+				else {
+					t.addSynonym((db == null) ? result.makeSynonym(text) : result.makeSynonymWithXref(text, db, id));
+				}
+			}
+			for (int x = firstXrefs[i]; x != NONE; x = nextXrefs[x]){
+				result.addXRefToTerm(t, strings.get(xrefDBs[x]), strings.get(xrefIDs[x]));
+			}
+			final String rankID = getRankPropertyID(i);
+			if (rankID != null){
+				result.setRankFromID(t, rankID);
+			}
+			if (extinct.get(i)){
+				result.setExtinct(t);
+			}
+			if (comments.containsKey(i)){
+				t.setComment(comments.get(i));
+			}
+			final List<String> alts = altIDs.get(i);
+			if (alts != null){
+				for (String alt : alts){
+					t.createAltID(alt);
+				}
+			}
+		}
+		for (int i = obsolete.nextSetBit(0); i >= 0; i = obsolete.nextSetBit(i+1)){
+			if (copies[i] != null){
+				result.obsoleteTerm(copies[i]);
+				final int[] candidates = considers.get(i);
+				if (candidates != null){
+					for (int candidate : candidates){
+						if (copies[candidate] != null){
+							copies[i].asOBOClass().addConsiderReplacement(copies[candidate].asOBOClass());
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private int[] parentIndices(int index){
+		if (parents[index] == NONE){
+			return new int[0];
+		}
+		final int[] others = extraParents.get(index);
+		final int[] result = new int[1 + ((others == null) ? 0 : others.length)];
+		result[0] = parents[index];
+		if (others != null){
+			System.arraycopy(others, 0, result, 1, others.length);
+		}
+		return result;
+	}
+
+	@Override
+	public void saveXref(String targetFilterPrefixStr) {
+		toOBOStore().saveXref(targetFilterPrefixStr);
+	}
+
+	@Override
+	public void saveColumnsFormat(String targetFilterPrefixStr) {
+		toOBOStore().saveColumnsFormat(targetFilterPrefixStr);
+	}
+
+	@Override
+	public void saveSynonymFormat(String targetFilterPrefixStr) {
+		toOBOStore().saveSynonymFormat(targetFilterPrefixStr);
+	}
+
+	@Override
+	public void saveAllColumnFormat(String targetFilterPrefixStr) {
+		toOBOStore().saveAllColumnFormat(targetFilterPrefixStr);
+	}
+
+}
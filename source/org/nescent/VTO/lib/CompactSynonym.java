@@ -0,0 +1,62 @@
+package org.nescent.VTO.lib;
+
+import org.obo.datamodel.Synonym;
+
+/**
+ * Synonym handed out by a CompactStore.  It only holds the text, the synonym type and at most one cross
+ * reference until it is added to a term, at which point it is copied into the store's arrays.
+ */
+public class CompactSynonym implements SynonymI {
+
+	static final byte UNTYPED = 0;
+	static final byte COMMONNAME = 1;
+	static final byte MISSPELLING = 2;
+	static final byte NAMEUSAGE = 3;
+
+	private final String text;
+	private final byte type;
+	private final String xrefDB;
+	private final String xrefID;
+
+	CompactSynonym(String text, byte type, String xrefDB, String xrefID){
+		this.text = text;
+		this.type = type;
+		this.xrefDB = xrefDB;
+		this.xrefID = xrefID;
+	}
+
+	/**
+	 * Compact synonyms have no OBO counterpart until the store is saved
+	 * @return null
+	 */
+	@Override
+	public Synonym asOBOSynonym() {
+		return null;
+	}
+
+	@Override
+	public String getID() {
+		return null;
+	}
+
+	@Override
+	public String getText() {
+		return text;
+	}
+
+	byte getType(){
+		return type;
+	}
+
+	/**
+	 * @return database of the synonym's cross reference, null if it has none
+	 */
+	String getXrefDB(){
+		return xrefDB;
+	}
+
+	String getXrefID(){
+		return xrefID;
+	}
+
+}
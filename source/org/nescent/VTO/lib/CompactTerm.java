@@ -0,0 +1,153 @@
+package org.nescent.VTO.lib;
+
+import java.util.List;
+import java.util.Set;
+
+import org.obo.datamodel.OBOClass;
+import org.semanticweb.owlapi.model.OWLIndividual;
+
+/**
+ * A term in a CompactStore: just the store and the term's index into its arrays.  Two CompactTerms are
+ * equal when they name the same index in the same store.
+ */
+public class CompactTerm implements Term {
+
+	private final CompactStore store;
+	private final int index;
+
+	CompactTerm(CompactStore s, int i){
+		store = s;
+		index = i;
+	}
+
+	int getIndex(){
+		return index;
+	}
+
+	CompactStore getStore(){
+		return store;
+	}
+
+	/**
+	 * Compact terms have no OBO counterpart until the store is saved
+	 * @return null
+	 */
+	@Override
+	public OBOClass asOBOClass() {
+		return null;
+	}
+
+	@Override
+	public OWLIndividual asOWLIndividualTerm() {
+		return null;
+	}
+
+	/**
+	 * Cross references on compact terms don't carry synonyms
+	 * @return null
+	 */
+	@Override
+	public SynonymI getOldSynonym(String dbID) {
+		return null;
+	}
+
+	@Override
+	public void addSynonym(SynonymI s) {
+		store.addSynonym(index, s);
+	}
+
+	@Override
+	public void setComment(String comment) {
+		store.setComment(index, comment);
+	}
+
+	@Override
+	public String getLabel() {
+		return store.getName(index);
+	}
+
+	@Override
+	public Set<SynonymI> getSynonyms() {
+		return store.getSynonyms(index);
+	}
+
+	@Override
+	public String getID() {
+		return store.getID(index);
+	}
+
+	@Override
+	public Set<Term> getChildren() {
+		return store.getChildren(index);
+	}
+
+	@Override
+	public Set<String> getCrossReferences() {
+		return store.getCrossReferences(index);
+	}
+
+	@Override
+	public boolean hasAncestor(String name) {
+		for (Term t : getAncestors()){
+			if (name.equals(t.getLabel())){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isExtinct() {
+		return store.isExtinct(index);
+	}
+
+	@Override
+	public void removeProperties() {
+		store.removeProperties(index);
+	}
+
+	@Override
+	public void createAltID(String id) {
+		store.createAltID(index, id);
+	}
+
+	@Override
+	public List<Term> getAncestors() {
+		return store.getAncestors(index);
+	}
+
+	@Override
+	public Term getParent() {
+		return store.getParent(index);
+	}
+
+	@Override
+	public boolean isObsolete() {
+		return store.isObsolete(index);
+	}
+
+	@Override
+	public void removeParent(Term parent) {
+		store.removeParent(index, parent);
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if (o instanceof CompactTerm){
+			final CompactTerm other = (CompactTerm)o;
+			return other.index == index && other.store == store;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode(){
+		return index;
+	}
+
+	@Override
+	public String toString(){
+		return getID() + " " + getLabel();
+	}
+
+}
@@ -137,102 +137,121 @@ public class IOCMerger implements Merger {
 		}
 
 		if (items.hasColumn(KnownField.ORDER)){
+			final TermBatch batch = target.newBatch();
 			for (Item it : items.getContents()){
 				final String orderName = it.getName(KnownField.ORDER);
+				if (batch.getRecord(orderName) != TermBatch.NONE){  //added by an earlier item, already under parentTerm
+					continue;
+				}
 				Term orderTerm = target.getTermbyName(orderName);
 				if (orderTerm == null){
-					orderTerm = target.addTerm(orderName, prefix);
-					target.addXRefToTerm(orderTerm,"IOC",orderName);  // could be an alternate ID?					
-					target.setRankFromName(orderTerm,KnownField.ORDER.getCannonicalName());
-					target.attachParent(orderTerm,parentTerm);
+					final int orderRecord = batch.addTerm(orderName, prefix);
+					batch.addXRef(orderRecord,"IOC",orderName);  // could be an alternate ID?					
+					batch.setRankFromName(orderRecord,KnownField.ORDER.getCannonicalName());
+					batch.attachParent(orderRecord,parentTerm);
 				}
 				else if (parentTerm != null)
 					target.attachParent(orderTerm, parentTerm);
 			}
+			batch.commit();
 		}
 		if (items.hasColumn(KnownField.FAMILY)){
+			final TermBatch batch = target.newBatch();
 			for (Item it : items.getContents()){
 				final String familyName = it.getName(KnownField.FAMILY);
-				Term familyTerm = target.getTermbyName(familyName);
-				if (familyTerm == null){
-					familyTerm = target.addTerm(familyName, prefix);
-					target.addXRefToTerm(familyTerm,"IOC",familyName);  // could be an alternate ID?					
-					target.setRankFromName(familyTerm,KnownField.FAMILY.getCannonicalName());
-					if (it.hasColumn(KnownField.ORDER) && target.getTermbyName(it.getName(KnownField.ORDER)) != null){
+				if (!batch.hasName(familyName)){
+					final int familyRecord = batch.addTerm(familyName, prefix);
+					batch.addXRef(familyRecord,"IOC",familyName);  // could be an alternate ID?					
+					batch.setRankFromName(familyRecord,KnownField.FAMILY.getCannonicalName());
+					if (it.hasColumn(KnownField.ORDER) && batch.hasName(it.getName(KnownField.ORDER))){
 						final String parentName = it.getName(KnownField.ORDER);
-						target.attachParent(familyTerm,target.getTermbyName(parentName));
+						batch.attachParent(familyRecord,parentName);
 					}
 					else if (parentTerm != null)
-						target.attachParent(familyTerm, parentTerm);
+						batch.attachParent(familyRecord, parentTerm);
 				}
 			}
+			batch.commit();
 		}
 		if (items.hasColumn(KnownField.SUBFAMILY)){
+			final TermBatch batch = target.newBatch();
 			for (Item it : items.getContents()){
 				final String subFamilyName = it.getName(KnownField.SUBFAMILY);
-				Term subFamilyTerm = target.getTermbyName(subFamilyName);
-				if (subFamilyTerm == null){
-					subFamilyTerm = target.addTerm(subFamilyName, prefix);
-					target.setRankFromName(subFamilyTerm, KnownField.SUBFAMILY.getCannonicalName());
-					if (it.hasColumn(KnownField.FAMILY) && target.getTermbyName(it.getName(KnownField.FAMILY)) != null){
+				if (!batch.hasName(subFamilyName)){
+					final int subFamilyRecord = batch.addTerm(subFamilyName, prefix);
+					batch.setRankFromName(subFamilyRecord, KnownField.SUBFAMILY.getCannonicalName());
+					if (it.hasColumn(KnownField.FAMILY) && batch.hasName(it.getName(KnownField.FAMILY))){
 						final String parentName = it.getName(KnownField.FAMILY);
-						target.attachParent(subFamilyTerm,target.getTermbyName(parentName));
+						batch.attachParent(subFamilyRecord,parentName);
 					}
 					else if (parentTerm != null)
-						target.attachParent(subFamilyTerm, parentTerm);
+						batch.attachParent(subFamilyRecord, parentTerm);
 				}
 			}
+			batch.commit();
 		}	
 		if (items.hasColumn(KnownField.GENUS)){
+			final TermBatch batch = target.newBatch();
 			for (Item it : items.getContents()){
 				final String genusName = it.getName(KnownField.GENUS);
-				Term genusTerm = target.getTermbyName(genusName);
-				if (genusTerm == null){
-					genusTerm = target.addTerm(genusName, prefix);
-					target.addXRefToTerm(genusTerm,"IOC",genusName);  // could be an alternate ID?
-					target.setRankFromName(genusTerm, KnownField.GENUS.getCannonicalName());
-					if (it.hasColumn(KnownField.SUBFAMILY) && target.getTermbyName(it.getName(KnownField.SUBFAMILY)) != null){
+				if (!batch.hasName(genusName)){
+					final int genusRecord = batch.addTerm(genusName, prefix);
+					batch.addXRef(genusRecord,"IOC",genusName);  // could be an alternate ID?
+					batch.setRankFromName(genusRecord, KnownField.GENUS.getCannonicalName());
+					if (it.hasColumn(KnownField.SUBFAMILY) && batch.hasName(it.getName(KnownField.SUBFAMILY))){
 						final String parentName = it.getName(KnownField.SUBFAMILY);
-						target.attachParent(genusTerm,target.getTermbyName(parentName));
+						batch.attachParent(genusRecord,parentName);
 					}
-					else if (it.hasColumn(KnownField.FAMILY) && target.getTermbyName(it.getName(KnownField.FAMILY)) != null){
+					else if (it.hasColumn(KnownField.FAMILY) && batch.hasName(it.getName(KnownField.FAMILY))){
 						final String parentName = it.getName(KnownField.FAMILY);
-						target.attachParent(genusTerm,target.getTermbyName(parentName));						
+						batch.attachParent(genusRecord,parentName);						
 					}
 					else if (parentTerm != null)
-						target.attachParent(genusTerm, parentTerm);
+						batch.attachParent(genusRecord, parentTerm);
 				}
 			}
+			batch.commit();
 		}	
 		if (items.hasColumn(KnownField.SPECIES)){
+			final TermBatch batch = target.newBatch();
 			for (Item it : items.getContents()){
 				final String genusName = it.getName(KnownField.GENUS);
 				String capGenusName = genusName.substring(0,1).toUpperCase() + genusName.substring(1);
 				final String speciesName = capGenusName + " " + it.getName(KnownField.SPECIES);
-				Term speciesTerm = target.getTermbyName(speciesName); 
-				if (speciesTerm == null){
-					speciesTerm = target.addTerm(speciesName, prefix);
-					target.addXRefToTerm(speciesTerm,"IOC",speciesName);  // could be an alternate ID?
-					target.setRankFromName(speciesTerm,KnownField.SPECIES.getCannonicalName());
+				int speciesRecord = batch.getRecord(speciesName);
+				final Term speciesTerm = (speciesRecord == TermBatch.NONE) ? target.getTermbyName(speciesName) : null;
+				if (speciesRecord == TermBatch.NONE && speciesTerm == null){
+					speciesRecord = batch.addTerm(speciesName, prefix);
+					batch.addXRef(speciesRecord,"IOC",speciesName);  // could be an alternate ID?
+					batch.setRankFromName(speciesRecord,KnownField.SPECIES.getCannonicalName());
 				}
+				final Term genusTerm;
 				if (it.hasColumn(KnownField.GENUS) && target.getTermbyName(it.getName(KnownField.GENUS)) != null){
-					target.attachParent(speciesTerm,target.getTermbyName(genusName));
+					genusTerm = target.getTermbyName(genusName);
 				}
 				else if (parentTerm != null)
-					target.attachParent(speciesTerm, parentTerm);
+					genusTerm = parentTerm;
 				else {
 					throw new RuntimeException(speciesName + " has no parent");
 				}
+				if (speciesTerm != null)
+					target.attachParent(speciesTerm,genusTerm);
+				else
+					batch.attachParent(speciesRecord,genusTerm);
 				Collection<String> synSources = it.getSynonym_xrefs();
 				for (String synSource : synSources){
 					for(String syn : it.getSynonymsFromSource(synSource))
 						if (true) { //!syn.equals(speciesName)){
 							String[] sourceComps = synSource.split(":",2);
 							SynonymI s = target.makeSynonymWithXref(syn, sourceComps[0], sourceComps[1]);
-							speciesTerm.addSynonym(s);
+							if (speciesTerm != null)
+								speciesTerm.addSynonym(s);
+							else
+								batch.addSynonym(speciesRecord, s);
 						}
 				}		
 			}
+			batch.commit();
 		}
 		if (updateObsoletes){
 			target.processObsoletes();
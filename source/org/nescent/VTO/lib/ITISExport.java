@@ -0,0 +1,555 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Taxon units and synonyms from a pipe delimited ITIS export, read in one pass.  Only taxon unit ([TU]) records
+ * are kept as units, indexed by TSN; synonym ([SY]) records are buffered as pairs of TSNs and resolved against the
+ * units once the file is read.  Rank ([TT]) records name the kingdom specific rank ids, and author ([TA]) records
+ * are only kept when asked for; other records (notes, experts, publications, etc.) are skipped.
+ *
+ * Units are numbered in file order; a TSN that appears twice keeps the later record.  A unit's name joins its
+ * non-empty name and indicator fields with spaces (e.g., "Danio rerio", "Salix x sepulcralis").
+ *
+ * A subtree read keeps only the accepted descendants of one named unit and their synonyms.  The first pass keeps
+ * the numeric fields of every unit but no names; the subtree is then marked, the rest dropped, and a second pass
+ * only builds names for the units that remain.
+ */
+class ITISExport {
+
+	static final int NONE = -1;
+
+	private static final String TAXONUNITTAG = "[TU]";
+	private static final String SYNONYMTAG = "[SY]";
+	private static final String RANKTAG = "[TT]";
+	private static final String AUTHORTAG = "[TA]";
+
+	//[TU] fields
+	private static final int TSNFIELD = 1;
+	private static final int FIRSTNAMEFIELD = 2;    //unit_ind1, unit_name1, ... unit_name4
+	private static final int LASTNAMEFIELD = 9;
+	private static final int UNITNAME1FIELD = 3;
+	private static final int USAGEFIELD = 11;
+	private static final int PARENTTSNFIELD = 18;
+	private static final int KINGDOMFIELD = 21;
+	private static final int RANKFIELD = 22;
+
+	//[SY] fields
+	private static final int SYNONYMTSNFIELD = 2;
+	private static final int ACCEPTEDTSNFIELD = 3;
+
+	//[TT] fields
+	private static final int RANKKINGDOMFIELD = 1;
+	private static final int RANKIDFIELD = 2;
+	private static final int RANKNAMEFIELD = 3;
+
+	//[TA] fields
+	private static final int AUTHORIDFIELD = 1;
+	private static final int AUTHORFIELD = 2;
+
+	private static final int MAXFIELDS = RANKFIELD+1;    //no field past this one is read
+
+	//rank names for exports without [TT] records; these ids mean the same rank in the animal kingdom and most others
+	private static final int[] DEFAULTRANKIDS = {10, 20, 25, 27, 30, 40, 45, 50, 60, 70, 80, 90, 100, 110, 120, 130,
+		140, 150, 160, 170, 180, 190, 220, 230};
+	private static final String[] DEFAULTRANKNAMES = {"kingdom", "subkingdom", "infrakingdom", "superphylum", "phylum",
+		"subphylum", "infraphylum", "superclass", "class", "subclass", "infraclass", "superorder", "order", "suborder",
+		"infraorder", "superfamily", "family", "subfamily", "tribe", "subtribe", "genus", "subgenus", "species", "subspecies"};
+
+	//what processLine keeps from each record
+	private static final int FULL = 0;       //every unit with its name, synonyms, ranks and authors
+	private static final int SKELETON = 1;   //every unit without names (except the subtree root's), synonyms and ranks
+	private static final int NAMES = 2;      //only the names of units already kept
+
+	private final boolean keepAuthors;
+	private final String rootName;       //for a subtree read
+	private int mode = FULL;
+	private int rootUnit = NONE;
+
+	private int unitCount = 0;
+	private int[] tsns = new int[1024];
+	private int[] parentTSNs = new int[1024];
+	private short[] kingdoms = new short[1024];
+	private short[] rankIDs = new short[1024];
+	private BitSet accepted = new BitSet();
+	private String[] names = new String[1024];
+	private IntIntMap unitIndex = new IntIntMap(1024);
+
+	private int[] childOffsets = new int[1];    //children of unit i are childUnits[childOffsets[i]] to childUnits[childOffsets[i+1]-1]
+	private int[] childUnits = new int[0];
+
+	private int pairCount = 0;
+	private int[] synonymPairs = new int[256];   //synonym tsn, accepted tsn, ...
+
+	private int[] firstSynonyms = new int[0];
+	private int[] synonymUnits = new int[0];
+	private int[] nextSynonyms = new int[0];
+	private int synonymCount = 0;
+	private int unresolvedCount = 0;
+
+	private final List<String> rankNames = new ArrayList<String>();
+	private final IntIntMap rankIndex = new IntIntMap(64);    //kingdom and rank id -> rankNames index
+
+	private int authorCount = 0;
+	private String[] authors = new String[0];
+	private final IntIntMap authorIndex = new IntIntMap(16);
+
+	private final int[] fieldEnds = new int[MAXFIELDS];
+	private final StringBuilder nameBuilder = new StringBuilder();
+
+	static final Logger logger = Logger.getLogger(ITISExport.class.getName());
+
+	private ITISExport(boolean authors, String root){
+		keepAuthors = authors;
+		rootName = root;
+	}
+
+	/**
+	 * @param exportFile
+	 * @param authors true to keep the author records as well
+	 * @return units and resolved synonyms from the export
+	 * @throws IOException
+	 */
+	static ITISExport read(File exportFile, boolean authors) throws IOException{
+		final ITISExport result = new ITISExport(authors, null);
+		result.scan(exportFile);
+		result.linkChildren();
+		result.resolveSynonyms();
+		return result;
+	}
+
+	/**
+	 * Reads the accepted units under the unit named rootName, with the root and their synonyms
+	 * @param exportFile
+	 * @param rootName an accepted unit's name; if several units have it the first is used
+	 * @return the subtree, which is empty if no accepted unit has rootName
+	 * @throws IOException
+	 */
+	static ITISExport readSubtree(File exportFile, String rootName) throws IOException{
+		final ITISExport result = new ITISExport(false, rootName);
+		result.mode = SKELETON;
+		result.scan(exportFile);
+		result.linkChildren();
+		result.retainSubtree();
+		result.mode = NAMES;
+		result.scan(exportFile);
+		result.linkChildren();
+		result.resolveSynonyms();
+		return result;
+	}
+
+	private void scan(File exportFile) throws IOException{
+		final BufferedReader br = new BufferedReader(new FileReader(exportFile));
+		try {
+			String raw = br.readLine();
+			while (raw != null){
+				processLine(raw);
+				raw = br.readLine();
+			}
+		}
+		finally {
+			br.close();
+		}
+	}
+
+	private void processLine(String raw){
+		if (raw.startsWith(TAXONUNITTAG)){
+			splitFields(raw);
+			final String idStr = field(raw, TSNFIELD);
+			final int tsn;
+			try {
+				tsn = Integer.parseInt(idStr);
+			}
+			catch (NumberFormatException e){
+				throw new RuntimeException("Error processing ITIS id: " + idStr + " which was not an integer");
+			}
+			if (mode == NAMES){
+				final int unit = unitIndex.get(tsn);
+				if (unit != NONE){
+					names[unit] = buildName(raw);
+				}
+				return;
+			}
+			final int unit = addUnit(tsn);
+			parentTSNs[unit] = intField(raw, PARENTTSNFIELD);
+			kingdoms[unit] = (short)intField(raw, KINGDOMFIELD);
+			rankIDs[unit] = (short)intField(raw, RANKFIELD);
+			accepted.set(unit, fieldEquals(raw, USAGEFIELD, "valid") || fieldEquals(raw, USAGEFIELD, "accepted"));
+			if (mode == FULL){
+				names[unit] = buildName(raw);
+			}
+			else if (rootUnit == NONE && accepted.get(unit) && startsRoot(raw)){
+				names[unit] = buildName(raw);   //only the root's name is needed before the subtree is known
+				if (rootName.equals(names[unit])){
+					rootUnit = unit;
+				}
+			}
+		}
+		else if (mode == NAMES){
+			return;
+		}
+		else if (raw.startsWith(SYNONYMTAG)){
+			splitFields(raw);
+			final String idStr = field(raw, SYNONYMTSNFIELD);
+			final String idStr2 = field(raw, ACCEPTEDTSNFIELD);
+			try {
+				addSynonymPair(Integer.parseInt(idStr), Integer.parseInt(idStr2));
+			}
+			catch (NumberFormatException e){
+				logger.error("Failed to parse Synonym record; id1 = " + idStr + "; id2 = " + idStr2);
+			}
+		}
+		else if (raw.startsWith(RANKTAG)){
+			splitFields(raw);
+			final int key = rankKey(intField(raw, RANKKINGDOMFIELD), intField(raw, RANKIDFIELD));
+			rankIndex.put(key, rankNames.size());
+			rankNames.add(field(raw, RANKNAMEFIELD).trim().toLowerCase());
+		}
+		else if (keepAuthors && raw.startsWith(AUTHORTAG)){
+			splitFields(raw);
+			final String idStr = field(raw, AUTHORIDFIELD);
+			try {
+				addAuthor(Integer.parseInt(idStr), field(raw, AUTHORFIELD));
+			}
+			catch (NumberFormatException e){
+				logger.error("Failed to parse first field in author record; id1 = " + idStr);
+			}
+		}
+	}
+
+	//records where each of the first MAXFIELDS fields ends; fields past the end of the line are empty
+	private void splitFields(String raw){
+		int f = 0;
+		for (int i = raw.indexOf('|'); i >= 0 && f < MAXFIELDS; i = raw.indexOf('|', i+1)){
+			fieldEnds[f++] = i;
+		}
+		while (f < MAXFIELDS){
+			fieldEnds[f++] = raw.length();
+		}
+	}
+
+	private int fieldStart(String raw, int f){
+		return (f == 0) ? 0 : Math.min(fieldEnds[f-1]+1, raw.length());
+	}
+
+	private String field(String raw, int f){
+		return raw.substring(fieldStart(raw, f), fieldEnds[f]);
+	}
+
+	private boolean fieldEquals(String raw, int f, String value){
+		final int start = fieldStart(raw, f);
+		return fieldEnds[f] - start == value.length() && raw.regionMatches(true, start, value, 0, value.length());
+	}
+
+	//true if the unit's first name field begins the subtree root's name
+	private boolean startsRoot(String raw){
+		final int start = fieldStart(raw, UNITNAME1FIELD);
+		final int length = fieldEnds[UNITNAME1FIELD] - start;
+		return length > 0 && length <= rootName.length() && raw.regionMatches(start, rootName, 0, length);
+	}
+
+	//parses an unsigned int field without making a string; empty or malformed fields are 0
+	private int intField(String raw, int f){
+		int result = 0;
+		for (int i = fieldStart(raw, f); i < fieldEnds[f]; i++){
+			final char c = raw.charAt(i);
+			if (c < '0' || c > '9'){
+				return 0;
+			}
+			result = result*10 + (c - '0');
+		}
+		return result;
+	}
+
+	private String buildName(String raw){
+		nameBuilder.setLength(0);
+		for (int f = FIRSTNAMEFIELD; f <= LASTNAMEFIELD; f++){
+			int start = fieldStart(raw, f);
+			int end = fieldEnds[f];
+			while (start < end && raw.charAt(start) == ' '){
+				start++;
+			}
+			while (end > start && raw.charAt(end-1) == ' '){
+				end--;
+			}
+			if (start < end){
+				if (nameBuilder.length() > 0){
+					nameBuilder.append(' ');
+				}
+				nameBuilder.append(raw, start, end);
+			}
+		}
+		return nameBuilder.toString();
+	}
+
+	private int addUnit(int tsn){
+		final int existing = unitIndex.get(tsn);
+		if (existing != NONE){
+			return existing;
+		}
+		if (unitCount == tsns.length){
+			final int newSize = unitCount*2;
+			tsns = Arrays.copyOf(tsns, newSize);
+			parentTSNs = Arrays.copyOf(parentTSNs, newSize);
+			kingdoms = Arrays.copyOf(kingdoms, newSize);
+			rankIDs = Arrays.copyOf(rankIDs, newSize);
+			names = Arrays.copyOf(names, newSize);
+		}
+		tsns[unitCount] = tsn;
+		unitIndex.put(tsn, unitCount);
+		return unitCount++;
+	}
+
+	private void addSynonymPair(int synonymTSN, int acceptedTSN){
+		if (2*pairCount == synonymPairs.length){
+			synonymPairs = Arrays.copyOf(synonymPairs, synonymPairs.length*2);
+		}
+		synonymPairs[2*pairCount] = synonymTSN;
+		synonymPairs[2*pairCount+1] = acceptedTSN;
+		pairCount++;
+	}
+
+	private void addAuthor(int authorID, String author){
+		if (authorCount == authors.length){
+			authors = Arrays.copyOf(authors, Math.max(16, authorCount*2));
+		}
+		authors[authorCount] = author;
+		authorIndex.put(authorID, authorCount);
+		authorCount++;
+	}
+
+	private static int rankKey(int kingdom, int rankID){
+		return kingdom*10000 + rankID;
+	}
+
+	//indexes the accepted units under each unit, in file order
+	private void linkChildren(){
+		final int[] parents = new int[unitCount];
+		childOffsets = new int[unitCount+1];
+		for (int unit = 0; unit < unitCount; unit++){
+			final int parent = accepted.get(unit) ? unitIndex.get(parentTSNs[unit]) : NONE;
+			parents[unit] = (parent == unit) ? NONE : parent;
+			if (parents[unit] != NONE){
+				childOffsets[parents[unit]+1]++;
+			}
+		}
+		for (int unit = 0; unit < unitCount; unit++){
+			childOffsets[unit+1] += childOffsets[unit];
+		}
+		childUnits = new int[childOffsets[unitCount]];
+		final int[] filled = Arrays.copyOf(childOffsets, unitCount);
+		for (int unit = 0; unit < unitCount; unit++){
+			if (parents[unit] != NONE){
+				childUnits[filled[parents[unit]]++] = unit;
+			}
+		}
+	}
+
+	//keeps the root, its accepted descendants and their synonyms, in file order, and drops the other units
+	private void retainSubtree(){
+		final BitSet kept = new BitSet(unitCount);
+		if (rootUnit != NONE){
+			final int[] queue = new int[unitCount];
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = rootUnit;
+			kept.set(rootUnit);
+			while (head < tail){
+				final int unit = queue[head++];
+				for (int c = childOffsets[unit]; c < childOffsets[unit+1]; c++){
+					if (!kept.get(childUnits[c])){
+						kept.set(childUnits[c]);
+						queue[tail++] = childUnits[c];
+					}
+				}
+			}
+		}
+		final BitSet subtree = (BitSet)kept.clone();
+		int keptPairs = 0;
+		for (int p = 0; p < pairCount; p++){
+			final int acceptedUnit = unitIndex.get(synonymPairs[2*p+1]);
+			if (acceptedUnit != NONE && subtree.get(acceptedUnit)){
+				final int synonymUnit = unitIndex.get(synonymPairs[2*p]);
+				if (synonymUnit != NONE){
+					kept.set(synonymUnit);
+				}
+				synonymPairs[2*keptPairs] = synonymPairs[2*p];
+				synonymPairs[2*keptPairs+1] = synonymPairs[2*p+1];
+				keptPairs++;
+			}
+		}
+		pairCount = keptPairs;
+		final int newCount = kept.cardinality();
+		final int[] newTSNs = new int[newCount];
+		final int[] newParentTSNs = new int[newCount];
+		final short[] newKingdoms = new short[newCount];
+		final short[] newRankIDs = new short[newCount];
+		final BitSet newAccepted = new BitSet(newCount);
+		final IntIntMap newIndex = new IntIntMap(newCount);
+		int next = 0;
+		for (int unit = kept.nextSetBit(0); unit >= 0; unit = kept.nextSetBit(unit+1)){
+			newTSNs[next] = tsns[unit];
+			newParentTSNs[next] = parentTSNs[unit];
+			newKingdoms[next] = kingdoms[unit];
+			newRankIDs[next] = rankIDs[unit];
+			newAccepted.set(next, accepted.get(unit));
+			newIndex.put(tsns[unit], next);
+			next++;
+		}
+		rootUnit = (rootUnit == NONE) ? NONE : newIndex.get(tsns[rootUnit]);
+		unitCount = newCount;
+		tsns = newTSNs;
+		parentTSNs = newParentTSNs;
+		kingdoms = newKingdoms;
+		rankIDs = newRankIDs;
+		accepted = newAccepted;
+		names = new String[newCount];
+		unitIndex = newIndex;
+	}
+
+	//chains each accepted unit's synonyms, in file order, by walking the pairs backwards
+	private void resolveSynonyms(){
+		firstSynonyms = new int[unitCount];
+		Arrays.fill(firstSynonyms, NONE);
+		synonymUnits = new int[pairCount];
+		nextSynonyms = new int[pairCount];
+		for (int p = pairCount-1; p >= 0; p--){
+			final int synonym = unitIndex.get(synonymPairs[2*p]);
+			final int acceptedUnit = unitIndex.get(synonymPairs[2*p+1]);
+			if (synonym == NONE || acceptedUnit == NONE){
+				logger.debug("Couldn't add synonym; primary id = " + synonymPairs[2*p+1] + "; synonym id = " + synonymPairs[2*p]);
+				unresolvedCount++;
+				continue;
+			}
+			synonymUnits[synonymCount] = synonym;
+			nextSynonyms[synonymCount] = firstSynonyms[acceptedUnit];
+			firstSynonyms[acceptedUnit] = synonymCount;
+			synonymCount++;
+		}
+		synonymPairs = null;
+		if (unresolvedCount > 0){
+			logger.warn("Couldn't resolve " + unresolvedCount + " of " + pairCount + " ITIS synonym records");
+		}
+	}
+
+	/**
+	 * @return number of taxon units
+	 */
+	int size(){
+		return unitCount;
+	}
+
+	int getTSN(int unit){
+		return tsns[unit];
+	}
+
+	String getName(int unit){
+		return names[unit];
+	}
+
+	boolean isAccepted(int unit){
+		return accepted.get(unit);
+	}
+
+	/**
+	 * @param unit
+	 * @return the parent unit, or NONE for a root, an unaccepted unit or a parent that wasn't read
+	 */
+	int getParent(int unit){
+		if (!accepted.get(unit)){
+			return NONE;
+		}
+		final int parent = unitIndex.get(parentTSNs[unit]);
+		return (parent == unit) ? NONE : parent;
+	}
+
+	/**
+	 * @param unit
+	 * @return lower case rank name, from the export's rank records or the usual ITIS rank ids, or null if unknown
+	 */
+	String getRank(int unit){
+		final int r = rankIndex.get(rankKey(kingdoms[unit], rankIDs[unit]));
+		if (r != NONE){
+			return rankNames.get(r);
+		}
+		final int d = Arrays.binarySearch(DEFAULTRANKIDS, rankIDs[unit]);
+		return (d >= 0) ? DEFAULTRANKNAMES[d] : null;
+	}
+
+	/**
+	 * @param unit
+	 * @return accepted child units in file order
+	 */
+	int[] getChildren(int unit){
+		return Arrays.copyOfRange(childUnits, childOffsets[unit], childOffsets[unit+1]);
+	}
+
+	/**
+	 * @param tsn
+	 * @return the unit with this TSN, or NONE
+	 */
+	int unitForTSN(int tsn){
+		return unitIndex.get(tsn);
+	}
+
+	/**
+	 * @return root unit of a subtree read, or NONE
+	 */
+	int getRoot(){
+		return rootUnit;
+	}
+
+	boolean hasSynonyms(int unit){
+		return firstSynonyms[unit] != NONE;
+	}
+
+	/**
+	 * @param unit
+	 * @return the synonym units of an accepted unit, in the order of their synonym records
+	 */
+	int[] getSynonyms(int unit){
+		int count = 0;
+		for (int s = firstSynonyms[unit]; s != NONE; s = nextSynonyms[s]){
+			count++;
+		}
+		final int[] result = new int[count];
+		count = 0;
+		for (int s = firstSynonyms[unit]; s != NONE; s = nextSynonyms[s]){
+			result[count++] = synonymUnits[s];
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of synonym records that named two units
+	 */
+	int getSynonymCount(){
+		return synonymCount;
+	}
+
+	/**
+	 * @return number of synonym records naming a TSN with no unit
+	 */
+	int getUnresolvedCount(){
+		return unresolvedCount;
+	}
+
+	/**
+	 * @param authorID
+	 * @return the author string of an author record, or null if there was none or authors weren't kept
+	 */
+	String getAuthor(int authorID){
+		final int a = authorIndex.get(authorID);
+		return (a == NONE) ? null : authors[a];
+	}
+
+}
@@ -1,13 +1,12 @@
 package org.nescent.VTO.lib;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.nescent.VTO.Builder;
@@ -19,7 +18,8 @@ import org.nescent.VTO.Builder;
  */
 public class ITISMerger implements Merger{
 
-    static final Pattern pipePattern = Pattern.compile("\\|");   //try this pattern as it matches the documentation
+	static final private String ITISDBNAME = "ITIS";
+	static final private String SUBSPECIESRANK = "subspecies";
 
 	private File source;
 	private TaxonStore target;
@@ -86,260 +86,187 @@ public class ITISMerger implements Merger{
     @Override
     public void merge(String prefix) {
     	logger.info("Loading ITIS export " + source.getAbsolutePath());
-    	final Map<Integer,ITISElement> taxonTable = new HashMap<Integer,ITISElement>();
-    	final List <ITISElement> itisList = buildITISList(source);
-    	fillTaxonTable(itisList,taxonTable);
-    	gatherSynonyms(itisList,taxonTable);
+    	final ITISExport export = readExport();
+    	if (export == null){
+    		return;
+    	}
     	logger.info("Finished loading");
+    	final List<String> primaryNames = new ArrayList<String>();
+    	for (int unit = 0; unit < export.size(); unit++){
+    		if (export.hasSynonyms(unit)){
+    			primaryNames.add(export.getName(unit));
+    		}
+    	}
+    	final Map<String,Term> matchingTerms = target.getTermsByNames(primaryNames);
 		int termCount = 0;
 		int synCount = 0;
-        for (Integer itisID : taxonTable.keySet()){
-        	ITISElement curElement = taxonTable.get(itisID);
-        	String primaryName = curElement.getName();
-        	Term matchingTerm = target.getTermbyName(primaryName);
-        	if (matchingTerm != null){
-        		termCount++;
-            	List<ITISElement> synList = curElement.getSynonyms();
-            	for (ITISElement syn : synList){
-            		String synName = syn.getName();
-            		if (synName != null){
-            			SynonymI newSyn = target.makeSynonymWithXref(synName, prefix, itisID.toString());
-            			matchingTerm.addSynonym(newSyn);
-            			synCount++;
-            		}
-            		else {
-            			throw new RuntimeException("ITIS synonym without name");
-            		}
-            		
-            	}        		
-        	}
-			if (termCount % 1000 == 0){
-				logger.info("Processed " + termCount + " terms; added " + synCount + " synonyms");
+		for (int unit = 0; unit < export.size(); unit++){
+			if (!export.hasSynonyms(unit)){
+				continue;
 			}
-        }
-    }
-    
-	private List<ITISElement> buildITISList(File nf){
-		List <ITISElement> result = new ArrayList<ITISElement>();
-        try {
-            final BufferedReader br = new BufferedReader(new FileReader(nf));
-            String raw = br.readLine();
-            while (raw != null){
-            	ITISElement e = processLine(raw);
-            	result.add(e);
-            	raw = br.readLine();
-            }
-        }
-        catch (Exception e) {
-            System.out.print(e);
-            return result;
-        }
-        return result;
-	}
-
-    private ITISElement processLine(String raw){
-        final String[] digest = pipePattern.split(raw);
-        String eTypeStr = digest[0];
-        ElementType eType = ElementType.NOTE;
-        if ("[TU]".equals(eTypeStr)){
-        	eType = ElementType.TAXONUNIT;
-        }
-        if ("[SY]".equals(eTypeStr)){
-        	eType = ElementType.SYNONYM;
-        }
-        if ("[TA]".equals(eTypeStr)){
-        	eType = ElementType.AUTHOR;
-        }
-        ITISElement result = new ITISElement(eType);
-        switch (eType) {
-        case TAXONUNIT: {
-            String idStr = digest[1];
-            if (idStr != null){
-            	try {
-            		int idNum = Integer.parseInt(idStr);
-            		result.setID(idNum);
-            	}
-            	catch (NumberFormatException e){
-            		throw new RuntimeException("Error processing ITIS id: " + idStr + " which was not an integer");
-            	}
-            }
-        	String name1 = digest[3];
-        	String name2 = digest[4];
-        	String taxonomicStatus = digest[11];  //TODO filter based on these?
-        	String itisStatus = digest[13];
-        	if (name2 != null){
-        		name1 = name1 + name2;
-        	}
-        	result.setName(name1);
-        	result.makeSynTable();
-        	break;
-        }
-        case SYNONYM: {
-            String idStr = digest[2];
-            if (idStr != null){
-            	try {
-            		int idNum = Integer.parseInt(idStr);
-            		result.setID(idNum);
-            	}
-            	catch (NumberFormatException e){
-            		logger.error("Failed to parse first field in Synonym record; id1 = " + idStr);
-            	}
-            }
-            String idStr2 = digest[3];
-            if (idStr != null){
-            	try {
-            		int idNum = Integer.parseInt(idStr2);
-            		result.setID2(idNum);
-            	}
-            	catch (NumberFormatException e){
-            		logger.error("Failed to parse second field in Synonym record; id1 = " + idStr + "; id2 = " + idStr2);
-            	}
-            }
-        	break;
-        }
-        case AUTHOR: {
-            String idStr = digest[1];
-            if (idStr != null){
-            	try {
-            		int idNum = Integer.parseInt(idStr);
-            		result.setID(idNum);
-            	}
-            	catch (NumberFormatException e){
-            		logger.error("Failed to parse first field in author record; id1 = " + idStr);
-            	}
-            }
-            result.setAuthorString(digest[2]);
-            result.setPubCode(digest[3]);
-         	break;
-        }
-        }
-        
-    	return result;
-    }
-    
-    private void fillTaxonTable(List<ITISElement> itisList,Map<Integer,ITISElement> taxonTable){
-    	for(ITISElement e : itisList){
-    		if (e.getType() == ElementType.TAXONUNIT){
-    			taxonTable.put(e.getID(), e);
-    		}
-    	}
-    }
-    
-    private void gatherSynonyms(List<ITISElement> itisList,Map<Integer,ITISElement> taxonTable){
-    	for(ITISElement e : itisList){
-    		if (e.getType() == ElementType.SYNONYM){
-    			ITISElement primary = taxonTable.get(e.getID2());
-    			ITISElement syn = taxonTable.get(e.getID());
-    			if (primary == null || syn == null){
-    				System.err.println("Couldn't add synonym; primary id = " + e.getID2() + "; primary = " 
-    						+ primary + "; synonym id = " + e.getID() + "; synonym = " + syn);
-    			}
-    			else
-    				primary.addSynonym(syn);
-    		}
-    	}    	
+			final Term matchingTerm = matchingTerms.get(export.getName(unit));
+			if (matchingTerm != null){
+				termCount++;
+				final String itisID = Integer.toString(export.getTSN(unit));
+				for (int syn : export.getSynonyms(unit)){
+					SynonymI newSyn = target.makeSynonymWithXref(export.getName(syn), prefix, itisID);
+					matchingTerm.addSynonym(newSyn);
+					synCount++;
+				}
+				if (termCount % 1000 == 0){
+					logger.info("Processed " + termCount + " terms; added " + synCount + " synonyms");
+				}
+			}
+		}
+		logger.info("Matched " + termCount + " terms; added " + synCount + " synonyms");
     }
-    
 
-	@Override
-	public void attach(String parent, String cladeRoot, String prefix) {
-    	final Map<Integer,ITISElement> taxonTable = new HashMap<Integer,ITISElement>();
-    	final List <ITISElement> itisList = buildITISList(source);
-    	fillTaxonTable(itisList,taxonTable);
-    	gatherSynonyms(itisList,taxonTable);
-		if (updateObsoletes){
-			target.processObsoletes();
+	//reads the taxon units and synonyms from the source file; null if it can't be read
+	private ITISExport readExport(){
+		final ITISExport result;
+		try {
+			result = ITISExport.read(source, false);
 		}
-
-    	throw new RuntimeException("ITIS Merger does not implement attach yet!");
-		// TODO finish
-		
+		catch (IOException e) {
+			logger.error(e);
+			return null;
+		}
+		logger.info("Taxon unit count = " + result.size());
+		logger.info("Synonym count = " + result.getSynonymCount());
+		return result;
 	}
 
-	
-	enum ElementType{
-		TAXONUNIT,
-		SYNONYM,
-		AUTHOR,
-		NOTE
-	}
-	
-	
-	static class ITISElement{
-		private ElementType etype;
-		private int id;
-		private int id2;
-		private String name;
-		private List<ITISElement> synonyms;
-		
-		ITISElement(ElementType e){
-			etype = e;
-		}
-		
-		ElementType getType(){
-			return etype;
-		}
-		
-		int getID(){
-			return id;
-		}
-		
-		void setID(int i){
-			id = i;
-		}
-		
-		int getID2(){
-			return id2;
-		}
-		
-		void setID2(int i){
-			id2 = i;
-		}
-		
-		String getName(){
-			return name;
+	/**
+	 * Adds the accepted units under cladeRoot to the target, breadth first, with the root under parent.  Each term
+	 * gets its unit's ITIS rank and a cross reference to its TSN, and the unit's synonyms.  Subspecies become
+	 * synonyms of their species, and a name already in the target gets its parent's name as a suffix.
+	 */
+	@Override
+	public void attach(String parent, String cladeRoot, String prefix) {
+		final ITISExport export;
+		try {
+			export = ITISExport.readSubtree(source, cladeRoot);
 		}
-		
-		void setName(String s){
-			name = s;
+		catch (IOException e) {
+			logger.error(e);
+			return;
 		}
-		
-		String getAuthorString(){
-			return name;
+		logger.info("Taxon unit count = " + export.size());
+		Term parentTerm = null;
+		if (!"".equals(parent)){
+			parentTerm = target.getTermbyName(parent);
+			if (parentTerm == null){   //parent is unknown
+				if (!target.isEmpty()){
+					logger.error("Can not attach " + source.getAbsolutePath() + " specified parent: " + parent + " is unknown to " + target);
+					return;
+				}
+				else { // attachment will be added first to provide a root for an otherwise empty target
+					parentTerm = target.addTerm(parent, prefix);
+					logger.info("Assigning " + parent + " as root");
+				}
+			}
 		}
-		
-		void setAuthorString(String s){
-			name = s;
+		final int rootUnit = export.getRoot();
+		if (rootUnit == ITISExport.NONE){
+			logger.warn("Root " + cladeRoot + " is not an accepted ITIS taxon unit");
 		}
-		
-		String getPubCode(){
-			return name;
+		logger.info("Building tree");
+		final Term rootTerm = target.addTerm(cladeRoot, prefix);
+		if (parentTerm != null){
+			target.attachParent(rootTerm, parentTerm);
 		}
-		
-		void setPubCode(String s){
-			name = s;
+		int count = 1;
+		if (rootUnit != ITISExport.NONE){
+			final String rootID = Integer.toString(export.getTSN(rootUnit));
+			target.addXRefToTerm(rootTerm, ITISDBNAME, rootID);
+			if (export.getRank(rootUnit) != null){
+				target.setRankFromName(rootTerm, export.getRank(rootUnit));
+			}
+			for (int syn : export.getSynonyms(rootUnit)){
+				rootTerm.addSynonym(target.makeSynonymWithXref(export.getName(syn), ITISDBNAME, rootID));
+			}
+			List<Term> parentTerms = Collections.singletonList(rootTerm);
+			int[] parentUnits = {rootUnit};
+			while (!parentTerms.isEmpty()){
+				final List<Term> childTerms = new ArrayList<Term>();
+				final int[] childUnits = addLevel(export, parentTerms, parentUnits, prefix, childTerms);
+				count += childUnits.length;
+				logger.info("Count = " + count);
+				parentTerms = childTerms;
+				parentUnits = childUnits;
+			}
 		}
-		
-		void makeSynTable(){
-			synonyms = new ArrayList<ITISElement>();
+		logger.info("Finished building tree; root = " + cladeRoot);
+		if (updateObsoletes){
+			target.processObsoletes();
 		}
-		
-		void addSynonym(ITISElement e){
-			if (ElementType.TAXONUNIT == getType()){
-				synonyms.add(e);
+		logger.info("Done; count = " + count);
+	}
+
+	/**
+	 * Adds the children of one level's units as one TermBatch
+	 * @param export
+	 * @param parentTerms the level's terms
+	 * @param parentUnits the units the level's terms were made from
+	 * @param prefix
+	 * @param childTerms receives the terms made for the next level
+	 * @return the units the next level's terms were made from
+	 */
+	private int[] addLevel(ITISExport export, List<Term> parentTerms, int[] parentUnits, String prefix, List<Term> childTerms){
+		final List<String> childNames = new ArrayList<String>();
+		for (int parentUnit : parentUnits){
+			for (int child : export.getChildren(parentUnit)){
+				childNames.add(export.getName(child));
 			}
-			else
-				throw new IllegalArgumentException("Can't add a synonym to element of type " + getType());
 		}
-		
-		List<ITISElement> getSynonyms(){
-			if (ElementType.TAXONUNIT == getType()){
-				return synonyms;
+		final Map<String,Term> known = target.getTermsByNames(childNames);
+		final TermBatch batch = target.newBatch();
+		int[] childUnits = new int[childNames.size()];
+		int[] records = new int[childNames.size()];
+		int childCount = 0;
+		for (int i = 0; i < parentUnits.length; i++){
+			final Term parentTerm = parentTerms.get(i);
+			for (int child : export.getChildren(parentUnits[i])){
+				final String childName = export.getName(child);
+				final String childID = Integer.toString(export.getTSN(child));
+				final String rank = export.getRank(child);
+				if (SUBSPECIESRANK.equals(rank)){
+					//merge subspecies as synonyms of their parent species (following CoF/TTO practice), as NCBIMerger does
+					parentTerm.addSynonym(target.makeSynonymWithXref(childName, ITISDBNAME, childID));
+					for (int syn : export.getSynonyms(child)){
+						parentTerm.addSynonym(target.makeSynonymWithXref(export.getName(syn), ITISDBNAME, childID));
+					}
+					continue;
+				}
+				final int record;
+				if (known.get(childName) == null && batch.getRecord(childName) == TermBatch.NONE){
+					record = batch.addTerm(childName, prefix);
+				}
+				else {  //a homonym of a term already added; the parent's name tells them apart
+					final String newChildName = childName + " (" + export.getName(parentUnits[i]) + ")";
+					if (batch.hasName(newChildName)){   //checks the target's terms as well as the batch, as NCBIMerger does
+						throw new RuntimeException("Unresolvable duplication " + childName + " " + newChildName);
+					}
+					record = batch.addTerm(newChildName, prefix);
+				}
+				batch.addXRef(record, ITISDBNAME, childID);
+				if (rank != null){
+					batch.setRankFromName(record, rank);
+				}
+				for (int syn : export.getSynonyms(child)){
+					batch.addSynonym(record, target.makeSynonymWithXref(export.getName(syn), ITISDBNAME, childID));
+				}
+				batch.attachParent(record, parentTerm);
+				childUnits[childCount] = child;
+				records[childCount] = record;
+				childCount++;
 			}
-			else
-				throw new IllegalArgumentException("Can't retrieve synonyms from element of type " + getType());
 		}
-	
+		batch.commit();
+		for (int i = 0; i < childCount; i++){
+			childTerms.add(batch.getTerm(records[i]));
+		}
+		return Arrays.copyOf(childUnits, childCount);
 	}
 
 
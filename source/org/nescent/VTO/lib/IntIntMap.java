@@ -0,0 +1,95 @@
+package org.nescent.VTO.lib;
+
+import java.util.Arrays;
+
+/**
+ * Open addressed int to int map for tables keyed by source database ids (NCBI taxids and the like), so large
+ * dumps can be indexed without boxing every key and value.  Keys may be any int except Integer.MIN_VALUE.
+ */
+class IntIntMap {
+
+	static final int NONE = -1;
+
+	private static final int EMPTY = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int[] values;
+	private int count = 0;
+
+	IntIntMap(int initialSize){
+		final int size = StringPool.tableSizeFor(initialSize);
+		keys = new int[size];
+		Arrays.fill(keys, EMPTY);
+		values = new int[size];
+	}
+
+	/**
+	 * @param key
+	 * @return the value stored under key or NONE
+	 */
+	int get(int key){
+		final int mask = keys.length-1;
+		int slot = StringPool.spread(key*0x9E3779B9) & mask;
+		while (keys[slot] != EMPTY){
+			if (keys[slot] == key){
+				return values[slot];
+			}
+			slot = (slot+1) & mask;
+		}
+		return NONE;
+	}
+
+	boolean containsKey(int key){
+		return get(key) != NONE;
+	}
+
+	/**
+	 * Stores value under key, replacing any earlier value
+	 * @param key
+	 * @param value
+	 */
+	void put(int key, int value){
+		if (key == EMPTY){
+			throw new IllegalArgumentException("IntIntMap can not hold the key " + key);
+		}
+		final int mask = keys.length-1;
+		int slot = StringPool.spread(key*0x9E3779B9) & mask;
+		while (keys[slot] != EMPTY){
+			if (keys[slot] == key){
+				values[slot] = value;
+				return;
+			}
+			slot = (slot+1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		count++;
+		if (count*2 > keys.length){
+			rehash(keys.length*2);
+		}
+	}
+
+	int size(){
+		return count;
+	}
+
+	private void rehash(int size){
+		final int[] oldKeys = keys;
+		final int[] oldValues = values;
+		keys = new int[size];
+		Arrays.fill(keys, EMPTY);
+		values = new int[size];
+		final int mask = size-1;
+		for (int i = 0; i < oldKeys.length; i++){
+			if (oldKeys[i] != EMPTY){
+				int slot = StringPool.spread(oldKeys[i]*0x9E3779B9) & mask;
+				while (keys[slot] != EMPTY){
+					slot = (slot+1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+}
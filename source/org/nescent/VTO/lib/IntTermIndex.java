@@ -0,0 +1,210 @@
+package org.nescent.VTO.lib;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The int counterpart of TermIndex used by CompactStore: maps an int key (usually a StringPool index) to the
+ * index of the term holding it.  The first term indexed under a key holds it and later ones are shadowed, to
+ * be promoted if the holder is removed.  Holders live in an open addressed int table; shadows are rare and kept
+ * in a map on the side.
+ */
+class IntTermIndex {
+
+	static final int NONE = -1;
+
+	private int[] keys;
+	private int[] holders;
+	private boolean[] used;
+	private int count = 0;
+	private final Map<Integer,int[]> shadowed = new HashMap<Integer,int[]>();
+
+	IntTermIndex(int initialSize){
+		final int size = StringPool.tableSizeFor(initialSize);
+		keys = new int[size];
+		holders = new int[size];
+		used = new boolean[size];
+	}
+
+	/**
+	 * @param key
+	 * @return the term holding key or NONE
+	 */
+	int get(int key){
+		final int slot = find(key);
+		return (slot < 0) ? NONE : holders[slot];
+	}
+
+	/**
+	 * @param key
+	 * @return the holder followed by any shadowed terms; empty if no term carries key
+	 */
+	int[] getAll(int key){
+		final int holder = get(key);
+		if (holder == NONE){
+			return new int[0];
+		}
+		final int[] shadows = shadowed.get(key);
+		if (shadows == null){
+			return new int[]{holder};
+		}
+		final int[] result = new int[shadows.length+1];
+		result[0] = holder;
+		System.arraycopy(shadows, 0, result, 1, shadows.length);
+		return result;
+	}
+
+	/**
+	 * @param key
+	 * @param term indexed under key; shadowed if another term already holds key
+	 */
+	void add(int key, int term){
+		final int slot = find(key);
+		if (slot < 0){
+			insert(key, term);
+		}
+		else if (holders[slot] != term){
+			final int[] shadows = shadowed.get(key);
+			if (shadows == null){
+				shadowed.put(key, new int[]{term});
+			}
+			else if (indexOf(shadows, term) < 0){
+				final int[] grown = Arrays.copyOf(shadows, shadows.length+1);
+				grown[shadows.length] = term;
+				shadowed.put(key, grown);
+			}
+		}
+	}
+
+	/**
+	 * Makes term the holder of key, replacing any holder (as a map put would)
+	 * @param key
+	 * @param term
+	 */
+	void put(int key, int term){
+		final int slot = find(key);
+		if (slot < 0){
+			insert(key, term);
+		}
+		else {
+			holders[slot] = term;
+		}
+	}
+
+	/**
+	 * Removes term from key, promoting the first shadowed term if term was the holder
+	 * @param key
+	 * @param term
+	 */
+	void remove(int key, int term){
+		final int slot = find(key);
+		if (slot < 0){
+			return;
+		}
+		final int[] shadows = shadowed.get(key);
+		if (holders[slot] == term){
+			if (shadows == null){
+				delete(slot);
+			}
+			else {
+				holders[slot] = shadows[0];
+				dropShadow(key, shadows, 0);
+			}
+		}
+		else if (shadows != null){
+			final int pos = indexOf(shadows, term);
+			if (pos >= 0){
+				dropShadow(key, shadows, pos);
+			}
+		}
+	}
+
+	int size(){
+		return count;
+	}
+
+	private void dropShadow(int key, int[] shadows, int pos){
+		if (shadows.length == 1){
+			shadowed.remove(key);
+		}
+		else {
+			final int[] shrunk = new int[shadows.length-1];
+			System.arraycopy(shadows, 0, shrunk, 0, pos);
+			System.arraycopy(shadows, pos+1, shrunk, pos, shadows.length-pos-1);
+			shadowed.put(key, shrunk);
+		}
+	}
+
+	private static int indexOf(int[] values, int v){
+		for (int i = 0; i < values.length; i++){
+			if (values[i] == v){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int find(int key){
+		final int mask = keys.length-1;
+		int slot = StringPool.spread(key*0x9E3779B9) & mask;
+		while (used[slot]){
+			if (keys[slot] == key){
+				return slot;
+			}
+			slot = (slot+1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(int key, int term){
+		if ((count+1)*2 > keys.length){
+			rehash(keys.length*2);
+		}
+		final int mask = keys.length-1;
+		int slot = StringPool.spread(key*0x9E3779B9) & mask;
+		while (used[slot]){
+			slot = (slot+1) & mask;
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		holders[slot] = term;
+		count++;
+	}
+
+	//backward shift deletion keeps the linear probe chains intact without tombstones
+	private void delete(int slot){
+		final int mask = keys.length-1;
+		used[slot] = false;
+		count--;
+		int hole = slot;
+		int next = (slot+1) & mask;
+		while (used[next]){
+			final int home = StringPool.spread(keys[next]*0x9E3779B9) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)){
+				keys[hole] = keys[next];
+				holders[hole] = holders[next];
+				used[hole] = true;
+				used[next] = false;
+				hole = next;
+			}
+			next = (next+1) & mask;
+		}
+	}
+
+	private void rehash(int size){
+		final int[] oldKeys = keys;
+		final int[] oldHolders = holders;
+		final boolean[] oldUsed = used;
+		keys = new int[size];
+		holders = new int[size];
+		used = new boolean[size];
+		count = 0;
+		for (int i = 0; i < oldKeys.length; i++){
+			if (oldUsed[i]){
+				insert(oldKeys[i], oldHolders[i]);
+			}
+		}
+	}
+
+}
@@ -14,52 +14,68 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 /**
- * 
+ * One row of a column source.  Names are held in an array indexed by the field's ordinal, and the synonym,
+ * vernacular and cross reference sets are only created when something is added to them, since most rows
+ * have none; until then the getters return empty sets.
  * @author pmidford
  *
  */
 public class Item {
 	
+	private static final int FIELDCOUNT = KnownField.values().length;
 	
-	private final Map<KnownField,String> names;  //maps a rank term to a taxon name
-	private final Set<String> synonyms;  //synonyms w/o xrefs
-	private final Map<String,Set<String>> synonyms_xref;  //maps a synonym source (xref) to a synonym  
-	private final Set<String> xrefs; //xrefs 
-	private final Set<String> commonNames;
+	private final String[] names = new String[FIELDCOUNT];  //maps a rank term (by ordinal) to a taxon name
+	private int namesPresent = 0;  //bit per ordinal, as a name may be put as null
+	private Set<String> synonyms = null;  //synonyms w/o xrefs
+	private Map<String,Set<String>> synonyms_xref = null;  //maps a synonym source (xref) to a synonym  
+	private Set<String> xrefs = null; //xrefs 
+	private Set<String> commonNames = null;
 	private String comment = null;  //Maybe this should be a set (OWL can handle multiple comments, OBO?)
     private boolean is_extinct;  // may not use this
     
     public Item(){
-        names = new HashMap<KnownField,String>();
-        synonyms = new HashSet<String>();
-        synonyms_xref = new HashMap<String,Set<String>>();
-        commonNames = new HashSet<String>();
-        xrefs = new HashSet<String>();
         is_extinct = false;
     }
     
     public void putName(KnownField rank, String name){
-    	names.put(rank, name);
+    	names[rank.ordinal()] = name;
+    	namesPresent |= 1 << rank.ordinal();
     }
     
     public boolean hasColumn(KnownField rank){
     	if (!rank.isTaxon())
     		throw new IllegalArgumentException("Unknown rank");
-    	return names.containsKey(rank);
+    	return (namesPresent & (1 << rank.ordinal())) != 0;
     }
 
     public String getName(KnownField rank){
     	if (!rank.isTaxon())
     		throw new IllegalArgumentException("Unknown rank");
-    	return names.get(rank);
+    	return names[rank.ordinal()];
     }
     
     public String getFieldValue(KnownField field){
-    	return names.get(field);
+    	return names[field.ordinal()];
+    }
+    
+    /**
+     * Replaces the names above species with the pool's copies, so rows naming the same genus, family, etc. share
+     * one string
+     * @param pool
+     */
+    void internHigherNames(StringPool pool){
+    	for (int i = 0; i < KnownField.SPECIES.ordinal(); i++){
+    		if (names[i] != null){
+    			names[i] = pool.get(pool.intern(names[i]));
+    		}
+    	}
     }
     
     
     public void addSynonymWithXref(String syn, String xref){
+    	if (synonyms_xref == null){
+    		synonyms_xref = new HashMap<String,Set<String>>();
+    	}
     	if (synonyms_xref.containsKey(xref)){
     		synonyms_xref.get(xref).add(syn);
     	}
@@ -72,36 +88,44 @@ public class Item {
     
     
     public Collection<String> getSynonym_xrefs(){
+    	if (synonyms_xref == null)
+    		return Collections.emptySet();
     	return synonyms_xref.keySet();
     }
     
     public Set<String> getPlainSynonyms(){
-    	return synonyms;
+    	return emptyIfNull(synonyms);
     }
 
     public void addPlainSynonym(String rawColumn) {
+    	if (synonyms == null){
+    		synonyms = new HashSet<String>();
+    	}
     	synonyms.add(rawColumn);
 	}
     
     public void addVernacular(String name){
+    	if (commonNames == null){
+    		commonNames = new HashSet<String>();
+    	}
     	commonNames.add(name);
     }
     
     public void addVernacularWithXref(String name, String xref){
     	addSynonymWithXref(name,xref);
-    	commonNames.add(name);
+    	addVernacular(name);
     }
     
     public Set<String> getVernacularNames(){
-    	return commonNames;
+    	return emptyIfNull(commonNames);
     }
     
     public Set<String> getTermXRefs(){
-    	return xrefs;
+    	return emptyIfNull(xrefs);
     }
     
     public Collection <String> getSynonymsFromSource(String source){
-    	if (synonyms_xref.containsKey(source))
+    	if (synonyms_xref != null && synonyms_xref.containsKey(source))
     		return synonyms_xref.get(source);
     	else
     		return Collections.emptySet();
@@ -110,7 +134,7 @@ public class Item {
     public Collection <String> getVernacularFromSource(String source){
     	final Set<String> result = new HashSet<String>();
     	for (String s : getSynonymsFromSource(source)){
-    		if (commonNames.contains(s)){
+    		if (getVernacularNames().contains(s)){
     			result.add(s);
     		}
     	}
@@ -119,6 +143,9 @@ public class Item {
     
     
     public void addXref(String xref){
+    	if (xrefs == null){
+    		xrefs = new HashSet<String>();
+    	}
     	xrefs.add(xref);
     }
     
@@ -130,6 +157,12 @@ public class Item {
     	return comment;
     }
     
+    private static Set<String> emptyIfNull(Set<String> s){
+    	if (s == null)
+    		return Collections.emptySet();
+    	return s;
+    }
+    
     
     public String toString(){
     	StringBuilder b = new StringBuilder(200);
@@ -137,24 +170,26 @@ public class Item {
     		if (field.isTaxon()){
     			if (b.length() > 0)
     				b.append("; ");
-    			if (names.containsKey(field)){
-    				b.append(field + ": " + names.get(field));
+    			if (hasColumn(field)){
+    				b.append(field + ": " + getName(field));
     			}
     		}
     	}
-    	if (!synonyms_xref.isEmpty()  || !synonyms.isEmpty()){
+    	if (synonyms_xref != null  || synonyms != null){
     		b.append("; Synonyms: ");
-    		for(Entry<String, Set<String>> e : synonyms_xref.entrySet()){
-    			b.append( e.getKey()+ ": ");
-    			for(String syn : e.getValue()){
-    				b.append(syn + ", ");
+    		if (synonyms_xref != null){
+    			for(Entry<String, Set<String>> e : synonyms_xref.entrySet()){
+    				b.append( e.getKey()+ ": ");
+    				for(String syn : e.getValue()){
+    					b.append(syn + ", ");
+    				}
     			}
     		}
-    		for(String syn : synonyms){
+    		for(String syn : getPlainSynonyms()){
     			b.append(":" + syn + ", ");
     		}
     	}
-    	if (!xrefs.isEmpty()){
+    	if (xrefs != null){
     		b.append("; xrefs: ");
     		for(String x : xrefs){
     			b.append(x);
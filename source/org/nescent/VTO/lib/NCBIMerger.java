@@ -33,16 +33,13 @@
 
 package org.nescent.VTO.lib;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.nescent.VTO.Builder;
@@ -54,22 +51,18 @@ import org.nescent.VTO.Builder;
  */
 public class NCBIMerger implements Merger {
 
-	static final private String NAMESFILENAME = "names.dmp";
-	static final private String NODESFILENAME = "nodes.dmp";
-	
 	//These codes are defined in division.dmp, which should accompany the other dump files
-	static final private String NCBIVERTEBRATE = "10";
-	static final private String NCBIMAMMAL = "2";
-	static final private String NCBIPRIMATE = "5";
-	static final private String NCBIRODENT = "6";
-	static final private String NCBIINVERTEBRATE = "1";
-	
-	static final private String SCIENTIFICNAMETYPE = "scientific name";
-	static final private String SYNONYMNAMETYPE = "synonym";
+	static final private int NCBIVERTEBRATE = 10;
+	static final private int NCBIMAMMAL = 2;
+	static final private int NCBIPRIMATE = 5;
+	static final private int NCBIRODENT = 6;
+	static final private int NCBIINVERTEBRATE = 1;
+	static final private int[] DIVISIONSINSCOPE = {NCBIVERTEBRATE, NCBIMAMMAL, NCBIRODENT, NCBIPRIMATE, NCBIINVERTEBRATE};
+	//division.dmp codes, indexed by division id, for naming divisions in scripts
+	static final private String[] DIVISIONCODES = {"BCT", "INV", "MAM", "PHG", "PLN", "PRI", "ROD", "SYN", "UNA", "VRL", "VRT", "ENV"};
+	static final private String ALLDIVISIONS = "all";
 	
 	static final private String NCBIDBNAME = "NCBITaxon";
-	
-    static final Pattern tabpipetabPattern = Pattern.compile("\t|\t");   //try this pattern as it matches the documentation
 
     private int count = 0;
     private File source;
@@ -79,12 +72,11 @@ public class NCBIMerger implements Merger {
     private SynonymSource preserveSynonyms;
     private String subAction = Builder.SYNSUBACTION;  // default (currently only implemented) merging behavior is to merge synonyms
     private boolean updateObsoletes = false;
+    private int parallelism = 1;
+    private int[] divisions = DIVISIONSINSCOPE;
+    private File cacheDirectory = null;
     
-	private final Map <String,Integer> namesInScope = new HashMap<String,Integer>(50000);
-	private final Map <Integer,String> termToName = new HashMap<Integer,String>(50000);
-	private final Map <Integer,Set<String>> synonymsInScope = new HashMap<Integer,Set<String>>(50000);
-	
-	private final Map<Integer,Integer> homonyms = new HashMap<Integer,Integer>();
+	private NCBITaxdump taxdump;
 
     
 	static Logger logger = Logger.getLogger(NCBIMerger.class.getName());
@@ -117,6 +109,64 @@ public class NCBIMerger implements Merger {
 		updateObsoletes = v;
 	}
 
+	/**
+	 * @param n number of threads parsing nodes.dmp and names.dmp; 1 reads them in turn on the calling thread
+	 */
+	public void setParallelism(int n){
+		parallelism = n;
+	}
+
+	/**
+	 * @param d division ids of the nodes to load, or null for every division; defaults to the animal divisions
+	 */
+	public void setDivisions(int[] d){
+		divisions = d;
+	}
+
+	/**
+	 * @param dir directory for binary snapshots of parsed dumps, which later runs read instead of the dump files; null for none
+	 */
+	public void setCacheDirectory(File dir){
+		cacheDirectory = dir;
+	}
+
+	/**
+	 * Lets go of parsed dumps kept for reuse by later actions
+	 */
+	public static void clearCache(){
+		NCBITaxdumpCache.clear();
+	}
+
+	/**
+	 * @param divisionList comma separated division ids or division.dmp codes (e.g. "VRT,MAM" or "10,2"), or "all"
+	 * @return the division ids, or null for all
+	 */
+	public static int[] parseDivisions(String divisionList){
+		if (ALLDIVISIONS.equalsIgnoreCase(divisionList.trim()))
+			return null;
+		final String[] items = divisionList.split(",");
+		final int[] result = new int[items.length];
+		for (int i = 0; i < items.length; i++){
+			final String item = items[i].trim();
+			result[i] = -1;
+			for (int d = 0; d < DIVISIONCODES.length; d++){
+				if (DIVISIONCODES[d].equalsIgnoreCase(item))
+					result[i] = d;
+			}
+			if (result[i] == -1){
+				try {
+					result[i] = Integer.parseInt(item);
+				}
+				catch (NumberFormatException e){
+					throw new RuntimeException("Unrecognized NCBI division: " + item);
+				}
+				if (result[i] < 0)
+					throw new RuntimeException("Unrecognized NCBI division: " + item);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @param sourceDirectory until most mergers, the NCBI dump is a set of files in a common directory
 	 */
@@ -151,130 +201,303 @@ public class NCBIMerger implements Merger {
      * @param prefix
      */
     public void merge(String prefix) {
-		final File namesFile = new File(source.getAbsolutePath()+'/'+NAMESFILENAME);
-		final File nodesFile = new File(source.getAbsolutePath()+'/'+NODESFILENAME);
-		final Set <Integer> nodesInScope = new HashSet<Integer>(10000);
-		final Map<Integer,String> nodeRanks = new HashMap<Integer,String>(10000);
-		final Map<Integer,Set<Integer>> nodeChildren = new HashMap<Integer,Set<Integer>>(10000);
-		buildScopedNodesList(nodesFile,nodesInScope,nodeRanks,nodeChildren);
-		Map <String,Integer> namesInScope = new HashMap<String,Integer>(nodesInScope.size());
-		Map <Integer,String> termToName = new HashMap<Integer,String>(nodesInScope.size());
-		Map <Integer,Set<String>> synonymsInScope = new HashMap<Integer,Set<String>>(nodesInScope.size());
-		buildScopedNamesList(namesFile,nodesInScope,namesInScope, termToName, synonymsInScope);
-		logger.info("Node count = " + nodesInScope.size());
-		logger.info("Name count = " + namesInScope.size());
-		logger.info("Synonym count = " + synonymsInScope.size());
+    	if (Builder.UPDATESUBACTION.equals(subAction)){
+    		update(prefix);
+    		return;
+    	}
+		final NCBITaxdump dump = readTaxdump();
+		if (dump == null){
+			return;
+		}
+		mergeSynonyms(dump);
+	}
+
+	/**
+	 * Adds the dump's synonyms to the target.  Each taxon with synonyms is matched to a term by its NCBITaxon xref,
+	 * as attach leaves them, in one lookup for the whole dump; only taxa without an xref match are looked up by name.
+	 * @param dump
+	 */
+	private void mergeSynonyms(NCBITaxdump dump){
+		final int[] synonymNodes = new int[dump.getSynonymNodeCount()];
+		final List<String> taxIDs = new ArrayList<String>(synonymNodes.length);
+		int synonymNodeCount = 0;
+		for (int node = 0; node < dump.size(); node++){
+			if (!dump.getSynonyms(node).isEmpty()){
+				synonymNodes[synonymNodeCount++] = node;
+				taxIDs.add(Integer.toString(dump.getTaxID(node)));
+			}
+		}
+		final Map<String,Term> byTaxID = target.getTermsByXRefs(NCBIDBNAME, taxIDs);
+		final List<String> unmatchedNames = new ArrayList<String>();
+		for (int i = 0; i < synonymNodeCount; i++){
+			if (!byTaxID.containsKey(taxIDs.get(i)) && dump.getName(synonymNodes[i]) != null){
+				unmatchedNames.add(dump.getName(synonymNodes[i]));
+			}
+		}
+		final Map<String,Term> byName = target.getTermsByNames(unmatchedNames);
+		int xrefHits = 0;
 		int nameHits = 0;
-        for(Integer termid : synonymsInScope.keySet()){
-        	String primaryName = termToName.get(termid);
-        	Term primaryTerm = target.getTermbyName(primaryName);
-        	for (String syn : synonymsInScope.get(termid)){
-        		SynonymI newSyn = target.makeSynonymWithXref(syn, NCBIDBNAME, Integer.toString(termid));
-        		primaryTerm.addSynonym(newSyn);
-        	}
-        }
- 		logger.info("Count of names matching NCBI names = " + nameHits);
-	}
-
-
-	private void buildScopedNodesList(File nf, Set<Integer> nodes, Map<Integer,String> ranks, Map<Integer,Set<Integer>> children){
-        try {
-            final BufferedReader br = new BufferedReader(new FileReader(nf));
-            String raw = br.readLine();
-            while (raw != null){
-                final String[] digest = tabpipetabPattern.split(raw);
-                final String divisionCode = digest[8];
-                if (withinScope(divisionCode)){
-                    final Integer nodeVal = Integer.parseInt(digest[0]);
-                	nodes.add(nodeVal);                	
-                    final Integer parentVal = Integer.parseInt(digest[2]);
-                    if (children.containsKey(parentVal)){
-                    	children.get(parentVal).add(nodeVal);
-                    }
-                    else {
-                    	Set<Integer> childSet = new HashSet<Integer>();
-                    	childSet.add(nodeVal);
-                    	children.put(parentVal,childSet);
-                    }
-                    String nodeRank = digest[4];
-                    ranks.put(nodeVal, nodeRank);
-                }
-                raw = br.readLine();
-            }
-            br.close();
-        }
-        catch (Exception e) {
-            logger.error(e);
-            return;
-        }
-        return;
+		int misses = 0;
+		for (int i = 0; i < synonymNodeCount; i++){
+			final int node = synonymNodes[i];
+			Term primaryTerm = byTaxID.get(taxIDs.get(i));
+			if (primaryTerm != null){
+				xrefHits++;
+			}
+			else if (dump.getName(node) != null && (primaryTerm = byName.get(dump.getName(node))) != null){
+				nameHits++;
+			}
+			else {
+				misses++;
+				continue;
+			}
+			for (String syn : dump.getSynonyms(node)){
+				SynonymI newSyn = target.makeSynonymWithXref(syn, NCBIDBNAME, taxIDs.get(i));
+				primaryTerm.addSynonym(newSyn);
+			}
+		}
+ 		logger.info("NCBI taxa with synonyms: " + xrefHits + " matched by " + NCBIDBNAME + " xref, " + nameHits +
+ 				" by name, " + misses + " unmatched");
 	}
-	
-	//The division code, read as a string is checked here; ignore any node not in a taxonomy division of interest
-	private static boolean withinScope(String code){
-		return NCBIVERTEBRATE.equals(code) || 
-		       NCBIMAMMAL.equals(code) || 
-		       NCBIRODENT.equals(code) || 
-		       NCBIPRIMATE.equals(code) || 
-		       NCBIINVERTEBRATE.equals(code);
+
+	/**
+	 * Brings the NCBI part of the target up to date with a newer dump, working from the NCBITaxon xrefs attach
+	 * leaves on the terms it adds.  Ids NCBI has merged (merged.dmp) are redirected, nodes that are new or have a
+	 * new parent are added or moved, and deleted nodes (delnodes.dmp) are obsoleted; terms that already agree with
+	 * the dump are left alone.
+	 * @param prefix for the ids of new terms
+	 */
+	private void update(String prefix){
+		taxdump = readTaxdump();
+		if (taxdump == null){
+			return;
+		}
+		final int redirected = redirectMerged(new File(source, NCBITaxdump.MERGEDFILENAME));
+		final int countBefore = count;
+		final Term[] terms = termsForNodes();
+		final List<Integer> moveCandidates = new ArrayList<Integer>();
+		for (int node = 0; node < taxdump.size(); node++){
+			if (terms[node] == null){
+				addIfNew(node, prefix);
+			}
+			else if (!hasParentTerm(node, terms)){
+				moveCandidates.add(node);
+			}
+		}
+		int moved = 0;
+		for (int node : moveCandidates){    //after the additions, so a node can move under a new parent
+			if (moveIfChanged(node)){
+				moved++;
+			}
+		}
+		final int obsoleted = obsoleteDeleted(new File(source, NCBITaxdump.DELNODESFILENAME));
+		logger.info("NCBI update: " + redirected + " merged ids redirected, " + (count - countBefore) + " terms added, " +
+				moved + " moved, " + obsoleted + " obsoleted");
 	}
-	
-	private void buildScopedNamesList(File nf, Set<Integer> nodes, Map<String,Integer> names, Map<Integer,String> termToName, Map<Integer,Set<String>> synonyms) {
-		try{
-            final BufferedReader br = new BufferedReader(new FileReader(nf));
-            String raw = br.readLine();
-            while (raw != null){
-                final String[] digest = tabpipetabPattern.split(raw);
-                final Integer nodeNum = Integer.parseInt(digest[0]);
-                final String name = digest[2].trim();  //Unfortunately, there are some names with leading spaces in NCBI...
-                final String nameType = digest[6];
-                if (nodes.contains(nodeNum) && SCIENTIFICNAMETYPE.equalsIgnoreCase(nameType)){
-                	names.put(name,nodeNum);
-                	termToName.put(nodeNum,name);
-                }
-                if (nodes.contains(nodeNum) && SYNONYMNAMETYPE.equalsIgnoreCase(nameType)){
-                	if (synonyms.containsKey(nodeNum)){
-                		synonyms.get(nodeNum).add(name);
-                	}
-                	else{
-                		Set<String> synSet = new HashSet<String>();
-                		synSet.add(name);
-                		synonyms.put(nodeNum,synSet);
-                	}
-                }
-                raw = br.readLine();
-            }
-            br.close();
-		}
-		catch (Exception e){
-			logger.error(e);
+
+	//the merged term is obsoleted in favor of the term for its new id; if there's none, it just takes the new id
+	private int redirectMerged(File mergedFile){
+		final int[] pairs = readTaxIDs(mergedFile, 2);
+		int redirected = 0;
+		for (int i = 0; i+1 < pairs.length; i += 2){
+			final Term oldTerm = termForTaxID(pairs[i]);
+			if (oldTerm == null){
+				continue;
+			}
+			final Term newTerm = termForTaxID(pairs[i+1]);
+			if (newTerm == null){
+				target.addXRefToTerm(oldTerm, NCBIDBNAME, Integer.toString(pairs[i+1]));
+			}
+			else if (!newTerm.getID().equals(oldTerm.getID())){
+				newTerm.addSynonym(target.makeSynonymWithXref(oldTerm.getLabel(), NCBIDBNAME, Integer.toString(pairs[i])));
+				retire(oldTerm, newTerm);
+			}
+			else {
+				continue;
+			}
+			redirected++;
+		}
+		return redirected;
+	}
+
+	//each node's term as the target holds it before the update, from one bulk xref lookup; null where there's none
+	private Term[] termsForNodes(){
+		final List<String> taxIDs = new ArrayList<String>(taxdump.size());
+		for (int node = 0; node < taxdump.size(); node++){
+			taxIDs.add(Integer.toString(taxdump.getTaxID(node)));
+		}
+		final Map<String,Term> byTaxID = target.getTermsByXRefs(NCBIDBNAME, taxIDs);
+		final Term[] result = new Term[taxdump.size()];
+		for (int node = 0; node < result.length; node++){
+			result[node] = byTaxID.get(taxIDs.get(node));
+		}
+		return result;
+	}
+
+	//true if the node's term already has its parent node's term as its parent, or the node has no attached parent
+	private boolean hasParentTerm(int node, Term[] terms){
+		final int parentNode = attachedParent(node);
+		if (parentNode == NCBITaxdump.NONE){
+			return true;
+		}
+		final Term currentParent = terms[node].getParent();
+		return currentParent != null && terms[parentNode] != null && currentParent.getID().equals(terms[parentNode].getID());
+	}
+
+	//adds the node and its descendants if it has no term but its parent does
+	private void addIfNew(int node, String prefix){
+		if (termForTaxID(taxdump.getTaxID(node)) != null || isHomonymSubgenus(node)){
+			return;
+		}
+		final int parentNode = attachedParent(node);
+		if (parentNode == NCBITaxdump.NONE){
 			return;
 		}
+		final Term parentTerm = termForTaxID(taxdump.getTaxID(parentNode));
+		if (parentTerm == null || hasSynonym(parentTerm, taxdump.getName(node))){   //outside the attached clade, or already a synonym (e.g. a subspecies)
+			return;
+		}
+		final Level level = new Level();
+		level.add(parentTerm, parentNode, node);
+		addDescendants(level, target, prefix, true);
+	}
+
+	//reattaches the node's term if its parent in the dump isn't its parent in the target; looks both up again, since additions may have changed them
+	private boolean moveIfChanged(int node){
+		final int parentNode = attachedParent(node);
+		if (parentNode == NCBITaxdump.NONE){
+			return false;
+		}
+		final Term term = termForTaxID(taxdump.getTaxID(node));
+		if (term == null){
+			return false;
+		}
+		final Term parentTerm = termForTaxID(taxdump.getTaxID(parentNode));
+		if (parentTerm == null){
+			return false;
+		}
+		final Term currentParent = term.getParent();
+		if (currentParent != null && currentParent.getID().equals(parentTerm.getID())){
+			return false;
+		}
+		if (currentParent != null){
+			term.removeParent(currentParent);
+		}
+		target.attachParent(term, parentTerm);
+		return true;
+	}
+
+	private int obsoleteDeleted(File delnodesFile){
+		int obsoleted = 0;
+		for (int taxID : readTaxIDs(delnodesFile, 1)){
+			final Term term = termForTaxID(taxID);
+			if (term != null){
+				retire(term, null);
+				obsoleted++;
+			}
+		}
+		return obsoleted;
+	}
+
+	/**
+	 * Detaches and obsoletes a term, as PBDBPostProcess does for deleted taxa
+	 * @param term
+	 * @param heir receives the term's remaining children; null to give them to the term's parent
+	 */
+	private void retire(Term term, Term heir){
+		final Term parent = term.getParent();
+		if (heir == null){
+			heir = parent;
+		}
+		for (Term child : term.getChildren()){
+			child.removeParent(term);
+			if (heir != null){
+				target.attachParent(child, heir);
+			}
+		}
+		if (parent != null){
+			term.removeParent(parent);
+		}
+		term.removeProperties();
+		target.obsoleteTerm(term);
+	}
+
+	private Term termForTaxID(int taxID){
+		return target.getTermByXRef(NCBIDBNAME, Integer.toString(taxID));
+	}
+
+	private boolean hasSynonym(Term term, String text){
+		for (SynonymI syn : term.getSynonyms()){
+			if (syn.getText().equals(text)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//the file's leading taxid columns; none if it's missing, as older dumps may lack merged.dmp or delnodes.dmp
+	private int[] readTaxIDs(File f, int columns){
+		if (!f.exists()){
+			logger.warn("No " + f.getName() + " in " + source + "; skipping that part of the update");
+			return new int[0];
+		}
+		try {
+			return NCBITaxdump.readTaxIDs(f, columns);
+		}
+		catch (IOException e) {
+			logger.error(e);
+			return new int[0];
+		}
+	}
+
+	//reads the scoped taxdump from the source directory; null if it can't be read
+	private NCBITaxdump readTaxdump(){
+		final NCBITaxdump result;
+		try {
+			result = NCBITaxdumpCache.read(source, divisions, parallelism, cacheDirectory);
+		}
+		catch (IOException e) {
+			logger.error(e);
+			return null;
+		}
+		logger.info("Node count = " + result.size());
+		logger.info("Name count = " + result.getNameCount());
+		logger.info("Synonym count = " + result.getSynonymNodeCount());
+		return result;
+	}
+
+	//reads the clade under rootName (and the attachment node, for its id) from the source directory; null if it can't be read
+	private NCBITaxdump readTaxdump(String rootName, String attachment){
+		final NCBITaxdump result;
+		try {
+			result = NCBITaxdumpCache.readSubtree(source, divisions, rootName, attachment, parallelism, cacheDirectory);
+		}
+		catch (IOException e) {
+			logger.error(e);
+			return null;
+		}
+		logger.info("Node count = " + result.size());
+		logger.info("Name count = " + result.getNameCount());
+		logger.info("Synonym count = " + result.getSynonymNodeCount());
+		return result;
 	}
 
-	
 
 	/**
 	 * 
 	 */
 	@Override
 	public void attach(String attachment, String rootName, String prefix) {
-		final File namesFile = new File(source.getAbsolutePath()+'/'+NAMESFILENAME);
-		final File nodesFile = new File(source.getAbsolutePath()+'/'+NODESFILENAME);
-		final Set <Integer> nodesInScope = new HashSet<Integer>(10000);
-		final Map<Integer,String> nodeRanks = new HashMap<Integer,String>(10000);
-		final Map<Integer,Set<Integer>> nodeChildren = new HashMap<Integer,Set<Integer>>(10000);
-		buildScopedNodesList(nodesFile,nodesInScope,nodeRanks,nodeChildren);
-		buildScopedNamesList(namesFile,nodesInScope,namesInScope, termToName,synonymsInScope);
-		logger.info("Node count = " + nodesInScope.size());
-		logger.info("Name count = " + namesInScope.size());
-		logger.info("Synonym count = " + synonymsInScope.size());
+		taxdump = readTaxdump(rootName, attachment);
+		if (taxdump == null){
+			return;
+		}
 		Term parentTerm = null;
 		if (!"".equals(attachment)){
 			parentTerm = target.getTermbyName(attachment);
 			if (parentTerm == null){   //parent is unknown
 				if (!target.isEmpty()){
-					logger.error("Can not attach " + namesFile.getAbsolutePath() + " specified parent: " + attachment + " is unknown to " + target);
+					logger.error("Can not attach " + source.getAbsolutePath() + " specified parent: " + attachment + " is unknown to " + target);
 					return;
 				}
 				else { // attachment will be added first to provide a root for an otherwise empty target
@@ -283,29 +506,21 @@ public class NCBIMerger implements Merger {
 				}
 			}
 		}
-        final Integer rootID = namesInScope.get(rootName);
+        final int rootNode = taxdump.nodeForName(rootName);
+        if (rootNode == NCBITaxdump.NONE){
+        	logger.warn("Root " + rootName + " not found in the NCBI divisions in scope");
+        }
         logger.info("Building tree");
 		Term rootTerm = addTermWithPreservingIDcheck(prefix,rootName);
 		target.attachParent(rootTerm, parentTerm);
         
-        addChildren(rootTerm, rootID, target,nodeChildren, termToName, nodeRanks, prefix);
+		if (rootNode != NCBITaxdump.NONE){
+			final Level children = new Level();
+			children.addChildren(rootTerm, rootNode);
+			addDescendants(children, target, prefix, false);
+		}
         logger.info("Finished building tree; parent = " + parentTerm.getLabel() + "; root = " + rootName);
-        for(Integer termid : synonymsInScope.keySet()){
-        	String primaryName = termToName.get(termid);
-        	if (primaryName == null){
-        		//logger.warn("No termname for id " + termid);
-        		continue;
-        	}
-        	Term primaryTerm = target.getTermbyName(primaryName);
-        	if (primaryTerm == null){
-        	//	logger.warn("No term for name " + primaryName);
-        		continue;
-        	}
-        	for (String syn : synonymsInScope.get(termid)){
-        		SynonymI newSyn = target.makeSynonymWithXref(syn, NCBIDBNAME, Integer.toString(termid));
-        		primaryTerm.addSynonym(newSyn);
-        	}
-        }
+        mergeSynonyms(taxdump);
 		if (updateObsoletes){
 			target.processObsoletes();
 		}
@@ -313,109 +528,238 @@ public class NCBIMerger implements Merger {
 	}
 
 	/**
-	 * 
-	 * @param parent the node in the target ontology
-	 * @param parentID the NCBI id of the parent in the NCBI tables
+	 * Builds the tree below a level of children breadth first, so deep lineages don't deepen the stack.  Each
+	 * level's names (and, when skipping known children, taxids) are resolved against the target in one batch,
+	 * and the level's new terms are added to the target as one TermBatch.
+	 * @param level children to add, with the parent terms they go under
 	 * @param target holds the target taxonomy (where the tree is being built/extended)
-	 * @param nodeChildren parent-child relations in the NCBI tables
-	 * @param termToName
-	 * @param nodeRanks
 	 * @param prefix
+	 * @param skipKnown true to leave out children that already have a term (with their NCBI xref), as an update does
+	 */
+	private void addDescendants(Level level, TaxonStore target, String prefix, boolean skipKnown) {
+		while (level.size() > 0){
+			final Map<String,Term> known = target.getTermsByNames(level.getNames());
+			final Map<String,Term> knownIDs;
+			if (skipKnown){
+				knownIDs = target.getTermsByXRefs(NCBIDBNAME, level.getTaxIDs());
+			}
+			else {
+				knownIDs = Collections.emptyMap();
+			}
+			final TermBatch batch = target.newBatch();
+			final int[] records = new int[level.size()];
+			for (int i = 0; i < level.size(); i++){
+				final int childNode = level.getChild(i);
+				records[i] = TermBatch.NONE;
+				if (knownIDs.containsKey(Integer.toString(taxdump.getTaxID(childNode)))){
+					continue;
+				}
+				records[i] = addChild(level.getParentTerm(i), taxdump.getName(level.getParent(i)), childNode, known, batch, prefix);
+			}
+			batch.commit();
+			final Level next = new Level();
+			for (int i = 0; i < level.size(); i++){
+				if (records[i] != TermBatch.NONE){
+					next.addChildren(batch.getTerm(records[i]), level.getChild(i));
+				}
+			}
+			level = next;
+		}
+	}
+
+	/**
+	 * 
+	 * @param parentTerm
+	 * @param parentName
+	 * @param childNode
+	 * @param known target terms for the names in the child's level
+	 * @param batch the level's new terms, which the child's name is also checked against
+	 * @param prefix
+	 * @return the child's record in the batch, or TermBatch.NONE if it became a synonym of the parent or was left out
 	 */
-	private void addChildren(Term parentTerm, Integer parentID, TaxonStore target, Map<Integer, Set<Integer>> nodeChildren, Map<Integer, String> termToName, Map<Integer, String> nodeRanks, String prefix) {
-		if (parentTerm == null)
-			throw new RuntimeException("parent is null");		
-		Set<Integer> children = nodeChildren.get(parentID);
-		if (children != null){
-			//logger.info("Parent is " + parentID + " has " + children.size() + " children");
-			final String parentName = termToName.get(parentID);
-			if (parentName == null)
+	private int addChild(Term parentTerm, String parentName, int childNode, Map<String,Term> known, TermBatch batch, String prefix){
+		final String childName = taxdump.getName(childNode);
+		if (childName == null){
+			logger.warn("NCBI node " + taxdump.getTaxID(childNode) + " has no scientific name");
+			return TermBatch.NONE;
+		}
+		final String childID = Integer.toString(taxdump.getTaxID(childNode));
+		int childRecord = TermBatch.NONE;
+		if (known.get(childName) == null && batch.getRecord(childName) == TermBatch.NONE){
+			final String rankStr = taxdump.getRank(childNode);
+			if (!"no rank".equals(rankStr)){
+				if ("subspecies".equals(rankStr)){
+					//merge subspecies as synonyms of their parent species (following CoF/TTO practice)
+					SynonymI subSyn = target.makeSynonymWithXref(childName, NCBIDBNAME, childID);
+					parentTerm.addSynonym(subSyn);
+				}
+				else {
+					//standard case - make a child term and attach
+					childRecord = addRecordWithPreservingIDcheck(batch,prefix,childName);
+					batch.addXRef(childRecord,NCBIDBNAME,childID);  // could be an alternate ID?
+					batch.setRankFromName(childRecord,rankStr);
+					batch.attachParent(childRecord, parentTerm);
+					count++;
+				}
+			}
+			else if ("species".equals(target.getRankString(parentTerm))) {  
+				//a rankless term with a species as a parent is treated as a subspecies
+				SynonymI subSyn = target.makeSynonymWithXref(childName, NCBIDBNAME, childID);
+				parentTerm.addSynonym(subSyn);
+			}
+			else {  
+				// for now, we'll go ahead and add other rankless terms
+				childRecord = addRecordWithPreservingIDcheck(batch,prefix,childName);
+				batch.addXRef(childRecord,NCBIDBNAME,childID);  // could be an alternate ID?
+				batch.setRankFromName(childRecord,rankStr);
+				batch.attachParent(childRecord, parentTerm);
+				count++;
+			}
+		}
+		else {  //node with child's name already exists.  For now, we'll add the parent's name as a suffix
+			String newChildName = childName + " (" + parentName + ")";
+			if (target.getTermbyName(newChildName) != null){
+				throw new RuntimeException("Unresolvable duplication " + childName + " " + newChildName);
+			}
+			childRecord = addRecordWithPreservingIDcheck(batch,prefix,childName);
+			batch.addXRef(childRecord,NCBIDBNAME,childID);  // could be an alternate ID?
+			String rankStr = taxdump.getRank(childNode);
+			if (rankStr != null && !"no rank".equals(rankStr)){
+				batch.setRankFromName(childRecord,rankStr);
+				batch.attachParent(childRecord, parentTerm);
+	        	count++;
+			}
+			else {
+				batch.attachParent(childRecord, parentTerm);
+	        	count++;						
+			}
+		}
+    	if (count % 1000 == 0)
+    		logger.info("Count = " + count + " term = " + childName);
+		return childRecord;
+	}
+
+	//a subgenus with its genus's name, which attach leaves out
+	private boolean isHomonymSubgenus(int node){
+		final int parent = taxdump.getParent(node);
+		return parent != NCBITaxdump.NONE && "genus".equals(taxdump.getRank(parent)) &&
+				taxdump.getName(parent) != null && taxdump.getName(parent).equals(taxdump.getName(node));
+	}
+
+	//the node's parent as attach placed it, skipping a homonym subgenus
+	private int attachedParent(int node){
+		final int parent = taxdump.getParent(node);
+		if (parent != NCBITaxdump.NONE && isHomonymSubgenus(parent)){
+			return taxdump.getParent(parent);
+		}
+		return parent;
+	}
+
+	//the genus's same-named child (a subgenus) is dropped and its children are promoted to the genus
+	private int[] replaceWithChildren(int[] children, int homonymChild){
+		final int[] grandChildren = taxdump.getChildren(homonymChild);
+		final int[] result = new int[children.length - 1 + grandChildren.length];
+		int i = 0;
+		for (int child : children){
+			if (child != homonymChild){
+				result[i++] = child;
+			}
+		}
+		System.arraycopy(grandChildren, 0, result, i, grandChildren.length);
+		return result;
+	}
+
+	/**
+	 * One level of the breadth first build: child nodes, each with the node it is listed under and the term it
+	 * goes under.
+	 */
+	private final class Level {
+		private final List<Term> parentTerms = new ArrayList<Term>();
+		private int[] parents = new int[16];
+		private int[] children = new int[16];
+		private int size = 0;
+
+		/**
+		 * Adds the node's children, except that a genus's same-named child (a subgenus) is replaced by its own children
+		 * @param parentTerm
+		 * @param parentNode
+		 */
+		void addChildren(Term parentTerm, int parentNode){
+			if (parentTerm == null)
+				throw new RuntimeException("parent is null");
+			int[] nodeChildren = taxdump.getChildren(parentNode);
+			if (nodeChildren.length == 0){
+				return;
+			}
+			if (taxdump.getName(parentNode) == null)
 				throw new RuntimeException("parent name is null");
-			
 			//this checks for a common source of homonymy - child of genus node has same name as parent of genus rank
-			Integer homonymChild = null;
-			for (Integer childID : children){
-				String childName = termToName.get(childID);
-				if (parentName.equals(childName)){
-					String parentRank = nodeRanks.get(parentID);
-					if ("genus".equals(parentRank)){
-						homonymChild = childID;
-					}
+			int homonymChild = NCBITaxdump.NONE;
+			for (int childNode : nodeChildren){
+				if (isHomonymSubgenus(childNode)){
+					homonymChild = childNode;
 				}
 			}
-			if (homonymChild != null){
-				Set<Integer> subgenusChildren = nodeChildren.get(homonymChild);
-				children.addAll(subgenusChildren);
-				children.remove(homonymChild);
-			}
-			
-			for (Integer childID : children){
-				String childName = termToName.get(childID);
-				Term childTerm = target.getTermbyName(childName);
-				if (childTerm == null){
-					final String rankStr = nodeRanks.get(childID);
-					if (!"no rank".equals(rankStr)){
-						if ("subspecies".equals(rankStr)){
-							//merge subspecies as synonyms of their parent species (following CoF/TTO practice)
-							SynonymI subSyn = target.makeSynonymWithXref(childName, NCBIDBNAME, childID.toString());
-							parentTerm.addSynonym(subSyn);
-						}
-						else {
-							//standard case - make a child term and attach
-							childTerm = addTermWithPreservingIDcheck(prefix,childName);
-							target.addXRefToTerm(childTerm,NCBIDBNAME,childID.toString());  // could be an alternate ID?
-							target.setRankFromName(childTerm,rankStr);
-							target.attachParent(childTerm, parentTerm);
-							count++;
-							addChildren(childTerm,childID,target,nodeChildren,termToName, nodeRanks, prefix);
-						}
-					}
-					else if ("species".equals(target.getRankString(parentTerm))) {  
-						//a rankless term with a species as a parent is treated as a subspecies
-						SynonymI subSyn = target.makeSynonymWithXref(childName, NCBIDBNAME, childID.toString());
-						parentTerm.addSynonym(subSyn);
-					}
-					else {  
-						// for now, we'll go ahead and add other rankless terms
-						childTerm = addTermWithPreservingIDcheck(prefix,childName);
-						target.addXRefToTerm(childTerm,NCBIDBNAME,childID.toString());  // could be an alternate ID?
-						target.setRankFromName(childTerm,rankStr);
-						target.attachParent(childTerm, parentTerm);
-						count++;
-						addChildren(childTerm,childID,target,nodeChildren,termToName, nodeRanks, prefix);
-
-					}
-				}
-				else {  //node with child's name already exists.  For now, we'll add the parent's name as a suffix
-					String newChildName = childName + " (" + parentName + ")";
-					if (target.getTermbyName(newChildName) != null){
-						throw new RuntimeException("Unresolvable duplication " + childName + " " + newChildName);
-					}
-					childTerm = addTermWithPreservingIDcheck(prefix,childName);
-					target.addXRefToTerm(childTerm,NCBIDBNAME,childID.toString());  // could be an alternate ID?
-					String rankStr = nodeRanks.get(childID);
-					if (rankStr != null && !"no rank".equals(rankStr)){
-						target.setRankFromName(childTerm,rankStr);
-						target.attachParent(childTerm, parentTerm);
-			        	count++;
-					}
-					else {
-						target.attachParent(childTerm, parentTerm);
-			        	count++;						
-					}
-					addChildren(childTerm,childID,target,nodeChildren,termToName, nodeRanks, prefix);
+			if (homonymChild != NCBITaxdump.NONE){
+				nodeChildren = replaceWithChildren(nodeChildren, homonymChild);
+			}
+			for (int childNode : nodeChildren){
+				add(parentTerm, parentNode, childNode);
+			}
+		}
+
+		void add(Term parentTerm, int parentNode, int childNode){
+			if (size == children.length){
+				parents = Arrays.copyOf(parents, size*2);
+				children = Arrays.copyOf(children, size*2);
+			}
+			parentTerms.add(parentTerm);
+			parents[size] = parentNode;
+			children[size] = childNode;
+			size++;
+		}
+
+		int size(){
+			return size;
+		}
+
+		Term getParentTerm(int i){
+			return parentTerms.get(i);
+		}
+
+		int getParent(int i){
+			return parents[i];
+		}
+
+		int getChild(int i){
+			return children[i];
+		}
+
+		List<String> getNames(){
+			final List<String> result = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++){
+				final String name = taxdump.getName(children[i]);
+				if (name != null){
+					result.add(name);
 				}
+			}
+			return result;
+		}
 
-	        	if (count % 1000 == 0)
-	        		logger.info("Count = " + count + " term = " + childName);
+		List<String> getTaxIDs(){
+			final List<String> result = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++){
+				result.add(Integer.toString(taxdump.getTaxID(children[i])));
 			}
+			return result;
 		}
 	}
 
 	private Term addTermWithPreservingIDcheck(String prefix, String attachment){
 		Term parentTerm;
-		if (preserveID && namesInScope.containsKey(attachment)) {
-			final String newid = prefix + ":" + namesInScope.get(attachment).toString();
+		final int node = taxdump.nodeForName(attachment);
+		if (preserveID && node != NCBITaxdump.NONE) {
+			final String newid = prefix + ":" + taxdump.getTaxID(node);
 			parentTerm=target.addTermbyID(newid, attachment);
 		}
 		else{
@@ -424,6 +768,14 @@ public class NCBIMerger implements Merger {
 		return parentTerm;
 	}
 
+	private int addRecordWithPreservingIDcheck(TermBatch batch, String prefix, String name){
+		final int node = taxdump.nodeForName(name);
+		if (preserveID && node != NCBITaxdump.NONE) {
+			return batch.addTermbyID(prefix + ":" + taxdump.getTaxID(node), name);
+		}
+		return batch.addTerm(name, prefix);
+	}
+
 
 	
 }
@@ -0,0 +1,1263 @@
+package org.nescent.VTO.lib;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The part of an NCBI taxonomy dump (nodes.dmp, names.dmp) that falls in a set of divisions.  The dump files are
+ * memory mapped and split on the literal "\t|\t" field separator directly in the mapped bytes, so no line
+ * Strings are built and names are only decoded for nodes in scope.  Nodes are int indices (in file order) into
+ * parallel arrays of taxid, parent taxid and rank; taxids and scientific names are looked up through open
+ * addressed tables.
+ *
+ * With a parallelism above one, both files are cut into line aligned chunks which are parsed at the same time
+ * on a thread pool.  Node chunks hold every node with its division and name chunks hold the offsets of every
+ * scientific name and synonym; the chunks are then merged in file order, which is where the division scope and
+ * the node scope of names are applied.
+ *
+ * A subtree read keeps only the descendants of one named node: the node graph is built from nodes.dmp, the
+ * subtree is marked and the rest dropped, and names are then only decoded for the nodes that remain.
+ *
+ * A dump can also be written as a binary snapshot of its tables (see writeSnapshot) which is read back without
+ * parsing the text files.
+ */
+class NCBITaxdump {
+
+	static final int NONE = -1;
+
+	static final String NAMESFILENAME = "names.dmp";
+	static final String NODESFILENAME = "nodes.dmp";
+	static final String MERGEDFILENAME = "merged.dmp";
+	static final String DELNODESFILENAME = "delnodes.dmp";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] SCIENTIFICNAMETYPE = "scientific name".getBytes(UTF8);
+	private static final byte[] SYNONYMNAMETYPE = "synonym".getBytes(UTF8);
+
+	private static final int MAXSEGMENT = 1 << 30;   //files are mapped in pieces of at most this many bytes
+	private static final int MINCHUNK = 1 << 20;     //smaller parallel chunks cost more in task overhead than they save
+	private static final int CHUNKSPERTHREAD = 4;    //a few chunks per thread evens out uneven chunks
+
+	private static final byte OTHERNAME = 0;
+	private static final byte SCIENTIFICNAME = 1;
+	private static final byte SYNONYMNAME = 2;
+
+	//nodes.dmp and names.dmp columns used here
+	private static final int TAXIDFIELD = 0;
+	private static final int PARENTFIELD = 1;
+	private static final int RANKFIELD = 2;
+	private static final int DIVISIONFIELD = 4;
+	private static final int NAMEFIELD = 1;
+	private static final int NAMECLASSFIELD = 3;
+
+	private final boolean[] divisionsInScope;   //null keeps every division
+
+	private int nodeCount = 0;
+	private int[] taxIDs = new int[1024];
+	private int[] parentTaxIDs = new int[1024];
+	private short[] ranks = new short[1024];
+	private IntIntMap nodeIndex = new IntIntMap(1024);
+	private final RankTable rankTable = new RankTable();
+
+	private int[] childOffsets = new int[1];    //children of node i are childNodes[childOffsets[i]] to childNodes[childOffsets[i+1]-1]
+	private int[] childNodes = new int[0];
+
+	private String[] scientificNames = new String[0];
+	private final StringPool names = new StringPool(1024);
+	private int[] nameNodes = new int[1024];    //name pool index -> node; a later node with the same name replaces an earlier one
+	private int[] firstSynonyms = new int[0];
+	private int synonymCount = 0;
+	private String[] synonymTexts = new String[256];
+	private int[] nextSynonyms = new int[256];
+	private int synonymNodeCount = 0;
+
+	private byte[] scratch = new byte[256];
+
+	static final Logger logger = Logger.getLogger(NCBITaxdump.class.getName());
+
+	/**
+	 * @param divisions division codes (see division.dmp) of the nodes to keep, or null to keep all of them
+	 */
+	NCBITaxdump(int[] divisions){
+		divisionsInScope = scopeOf(divisions);
+	}
+
+	private NCBITaxdump(boolean[] scope){
+		divisionsInScope = scope;
+	}
+
+	private static boolean[] scopeOf(int[] divisions){
+		if (divisions == null){
+			return null;
+		}
+		int max = 0;
+		for (int d : divisions){
+			max = Math.max(max, d);
+		}
+		final boolean[] result = new boolean[max+1];
+		for (int d : divisions){
+			result[d] = true;
+		}
+		return result;
+	}
+
+	/**
+	 * Reads nodes.dmp and names.dmp from a taxdump directory
+	 * @param directory
+	 * @param divisions division codes of the nodes to keep
+	 * @return the scoped dump
+	 * @throws IOException
+	 */
+	static NCBITaxdump read(File directory, int[] divisions) throws IOException{
+		final NCBITaxdump result = new NCBITaxdump(divisions);
+		result.readNodes(new File(directory, NODESFILENAME));
+		result.readNames(new File(directory, NAMESFILENAME));
+		return result;
+	}
+
+	/**
+	 * Reads nodes.dmp and names.dmp from a taxdump directory, parsing chunks of both files at once
+	 * @param directory
+	 * @param divisions division codes of the nodes to keep
+	 * @param parallelism number of parsing threads; 1 or less reads each file in turn on this thread
+	 * @return the scoped dump
+	 * @throws IOException
+	 */
+	static NCBITaxdump read(File directory, int[] divisions, int parallelism) throws IOException{
+		if (parallelism <= 1){
+			return read(directory, divisions);
+		}
+		final NCBITaxdump result = new NCBITaxdump(divisions);
+		result.readParallel(directory, parallelism, MINCHUNK);
+		return result;
+	}
+
+	/**
+	 * Reads the subtree of the dump under rootName
+	 * @param directory
+	 * @param divisions division codes of the nodes to keep, or null for all divisions
+	 * @param rootName scientific name of the subtree's root; if several nodes in scope share it, the last in names.dmp
+	 * @param attachmentName scientific name of another node to keep without its descendants (the node the subtree
+	 * will be attached to), or null
+	 * @param parallelism number of parsing threads
+	 * @return the subtree; empty if rootName isn't the name of a node in scope
+	 * @throws IOException
+	 */
+	static NCBITaxdump readSubtree(File directory, int[] divisions, String rootName, String attachmentName, int parallelism) throws IOException{
+		final NCBITaxdump result = new NCBITaxdump(divisions);
+		if (parallelism > 1){
+			result.readParallel(directory, parallelism, MINCHUNK, new NameMatcher(rootName, attachmentName));
+			return result;
+		}
+		final File namesFile = new File(directory, NAMESFILENAME);
+		final NameMatcher subtreeNames = new NameMatcher(rootName, attachmentName);
+		final int[] starts = new int[NAMECLASSFIELD+1];
+		final int[] ends = new int[NAMECLASSFIELD+1];
+		final int[] nameStarts = new int[NAMEFIELD+1];
+		final int[] nameEnds = new int[NAMEFIELD+1];
+		scan(namesFile, new LineHandler(){     //only compares bytes, nothing is decoded
+			@Override
+			public void line(ByteBuffer b, int start, int end) {
+				if (split(b, start, end, nameStarts, nameEnds) <= NAMEFIELD || !subtreeNames.matches(b, nameStarts[NAMEFIELD], nameEnds[NAMEFIELD])){
+					return;    //most lines go no further than the name
+				}
+				if (split(b, start, end, starts, ends) > NAMECLASSFIELD && nameKind(b, starts[NAMECLASSFIELD], ends[NAMECLASSFIELD]) == SCIENTIFICNAME){
+					subtreeNames.add(b, starts[NAMEFIELD], ends[NAMEFIELD], parseInt(b, starts[TAXIDFIELD], ends[TAXIDFIELD]));
+				}
+			}
+		});
+		result.readNodes(new File(directory, NODESFILENAME));
+		result.retainSubtree(subtreeNames);
+		result.readNames(namesFile);
+		return result;
+	}
+
+	/**
+	 * Adds the nodes in scope from nodes.dmp.  Call this before readNames, which only keeps names of known nodes.
+	 * @param nodesFile
+	 * @throws IOException
+	 */
+	void readNodes(File nodesFile) throws IOException{
+		final NodeChunk chunk = new NodeChunk();
+		scan(nodesFile, chunk);
+		addNodes(chunk);
+		linkChildren();
+	}
+
+	/**
+	 * Adds scientific names and synonyms of nodes already read
+	 * @param namesFile
+	 * @throws IOException
+	 */
+	void readNames(File namesFile) throws IOException{
+		startNames();
+		final int[] starts = new int[NAMECLASSFIELD+1];
+		final int[] ends = new int[NAMECLASSFIELD+1];
+		final int[] taxIDStarts = new int[TAXIDFIELD+1];
+		final int[] taxIDEnds = new int[TAXIDFIELD+1];
+		scan(namesFile, new LineHandler(){
+			@Override
+			public void line(ByteBuffer b, int start, int end) {
+				split(b, start, end, taxIDStarts, taxIDEnds);
+				if (nodeIndex.get(parseInt(b, taxIDStarts[TAXIDFIELD], taxIDEnds[TAXIDFIELD])) == NONE){
+					return;    //out of scope, so the rest of the line needn't be split
+				}
+				if (split(b, start, end, starts, ends) <= NAMECLASSFIELD){
+					logger.error("Short line in names file: " + decode(b, start, end));
+					return;
+				}
+				final int node = nodeIndex.get(parseInt(b, starts[TAXIDFIELD], ends[TAXIDFIELD]));
+				if (node == NONE){
+					return;
+				}
+				final byte kind = nameKind(b, starts[NAMECLASSFIELD], ends[NAMECLASSFIELD]);
+				if (kind != OTHERNAME){
+					addName(node, kind, decodeTrimmed(b, starts[NAMEFIELD], ends[NAMEFIELD]));  //some NCBI names have leading spaces
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads nodes.dmp and names.dmp from directory in line aligned chunks of at least minChunk bytes
+	 * @param directory
+	 * @param parallelism number of parsing threads
+	 * @param minChunk
+	 * @throws IOException
+	 */
+	void readParallel(File directory, int parallelism, long minChunk) throws IOException{
+		readParallel(directory, parallelism, minChunk, null);
+	}
+
+	//subtreeNames, if not null, restricts the read to a subtree as in readSubtree
+	private void readParallel(File directory, int parallelism, long minChunk, NameMatcher subtreeNames) throws IOException{
+		final File nodesFile = new File(directory, NODESFILENAME);
+		final File namesFile = new File(directory, NAMESFILENAME);
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		try {
+			final List<Future<NodeChunk>> nodeChunks = new ArrayList<Future<NodeChunk>>();
+			for (final long[] range : chunkRanges(nodesFile, parallelism*CHUNKSPERTHREAD, minChunk)){
+				nodeChunks.add(pool.submit(new Callable<NodeChunk>(){
+					@Override
+					public NodeChunk call() throws IOException {
+						final NodeChunk chunk = new NodeChunk();
+						scanRange(nodesFile, range[0], range[1], chunk);
+						return chunk;
+					}
+				}));
+			}
+			final List<Future<NameChunk>> nameChunks = new ArrayList<Future<NameChunk>>();
+			for (final long[] range : chunkRanges(namesFile, parallelism*CHUNKSPERTHREAD, minChunk)){
+				nameChunks.add(pool.submit(new Callable<NameChunk>(){
+					@Override
+					public NameChunk call() throws IOException {
+						final NameChunk chunk = new NameChunk();
+						chunk.buffer = scanRange(namesFile, range[0], range[1], chunk);
+						return chunk;
+					}
+				}));
+			}
+			for (Future<NodeChunk> f : nodeChunks){   //names are still being parsed while the nodes are merged
+				addNodes(await(f));
+			}
+			linkChildren();
+			if (subtreeNames != null){
+				for (Future<NameChunk> f : nameChunks){
+					final NameChunk chunk = await(f);
+					for (int i = 0; i < chunk.count; i++){
+						if (chunk.kinds[i] == SCIENTIFICNAME){
+							subtreeNames.add(chunk.buffer, chunk.nameStarts[i], chunk.nameEnds[i], chunk.taxIDs[i]);
+						}
+					}
+				}
+				retainSubtree(subtreeNames);
+			}
+			startNames();
+			for (int i = 0; i < nameChunks.size(); i++){
+				addNames(await(nameChunks.get(i)));
+				nameChunks.set(i, null);     //let go of each chunk's mapping once it's merged
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static <T> T await(Future<T> f) throws IOException{
+		try {
+			return f.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading NCBI dump");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException){
+				throw (IOException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads the leading taxid columns of a file such as merged.dmp (old and new taxid) or delnodes.dmp (taxid)
+	 * @param f
+	 * @param columns number of leading columns to read
+	 * @return the ids, columns per line
+	 * @throws IOException
+	 */
+	static int[] readTaxIDs(File f, final int columns) throws IOException{
+		final TaxIDRows rows = new TaxIDRows(columns);
+		scan(f, rows);
+		return Arrays.copyOf(rows.ids, rows.count);
+	}
+
+	/**
+	 * @param rootName
+	 * @param attachmentName may be null
+	 * @return the part of this dump that readSubtree would read, sharing this dump's name Strings
+	 */
+	NCBITaxdump subtree(String rootName, String attachmentName){
+		final NCBITaxdump result = new NCBITaxdump(divisionsInScope);
+		for (int r = 0; r < rankTable.size(); r++){
+			result.rankTable.code(rankTable.getName(r));     //same codes, so ranks can be copied as they are
+		}
+		result.nodeCount = nodeCount;
+		result.taxIDs = taxIDs;               //retainSubtree replaces these rather than writing to them
+		result.parentTaxIDs = parentTaxIDs;
+		result.ranks = ranks;
+		result.nodeIndex = nodeIndex;
+		result.childOffsets = childOffsets;
+		result.childNodes = childNodes;
+		final int[] kept = result.retainSubtree(nodeForName(rootName), (attachmentName == null) ? NONE : nodeForName(attachmentName));
+		result.startNames();
+		for (int node = 0; node < kept.length; node++){
+			if (scientificNames[kept[node]] != null){
+				result.addName(node, SCIENTIFICNAME, scientificNames[kept[node]]);
+			}
+			for (String synonym : getSynonyms(kept[node])){
+				result.addName(node, SYNONYMNAME, synonym);
+			}
+		}
+		for (int node = 0; node < kept.length; node++){
+			if (scientificNames[kept[node]] != null && nodeForName(scientificNames[kept[node]]) == kept[node]){
+				result.preferNameNode(node);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the node and name tables in the layout readSnapshot expects.  Names are written as UTF-8 into a
+	 * single block after the tables so a subtree read can decode just the names it keeps.
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeSnapshot(DataOutputStream out) throws IOException{
+		out.writeInt(rankTable.size());
+		for (int r = 0; r < rankTable.size(); r++){
+			final byte[] raw = rankTable.getName(r).getBytes(UTF8);
+			out.writeInt(raw.length);
+			out.write(raw);
+		}
+		out.writeInt(nodeCount);
+		for (int i = 0; i < nodeCount; i++){
+			out.writeInt(taxIDs[i]);
+		}
+		for (int i = 0; i < nodeCount; i++){
+			out.writeInt(parentTaxIDs[i]);
+		}
+		for (int i = 0; i < nodeCount; i++){
+			out.writeInt(ranks[i]);
+		}
+		int offset = 0;       //scientific names then synonyms, in node order
+		for (int i = 0; i < nodeCount; i++){
+			out.writeInt((scientificNames[i] == null) ? NONE : offset);
+			if (scientificNames[i] != null){
+				offset += utf8Length(scientificNames[i]);
+			}
+		}
+		for (int i = 0; i < nodeCount; i++){
+			out.writeInt((scientificNames[i] == null) ? 0 : utf8Length(scientificNames[i]));
+		}
+		int synonymEntry = 0;
+		for (int i = 0; i < nodeCount; i++){
+			out.writeInt(synonymEntry);
+			synonymEntry += getSynonyms(i).size();
+		}
+		out.writeInt(synonymEntry);
+		for (int i = 0; i < nodeCount; i++){
+			for (String synonym : getSynonyms(i)){
+				out.writeInt(offset);
+				offset += utf8Length(synonym);
+			}
+		}
+		for (int i = 0; i < nodeCount; i++){
+			for (String synonym : getSynonyms(i)){
+				out.writeInt(utf8Length(synonym));
+			}
+		}
+		//nodes that win a scientific name shared with an earlier node, which node order alone would get wrong
+		final int[] nameUses = new int[names.size()];
+		for (int i = 0; i < nodeCount; i++){
+			if (scientificNames[i] != null){
+				nameUses[names.find(scientificNames[i])]++;
+			}
+		}
+		int sharedCount = 0;
+		for (int key = 0; key < nameUses.length; key++){
+			if (nameUses[key] > 1){
+				sharedCount++;
+			}
+		}
+		out.writeInt(sharedCount);
+		for (int key = 0; key < nameUses.length; key++){
+			if (nameUses[key] > 1){
+				out.writeInt(nameNodes[key]);
+			}
+		}
+		out.writeInt(offset);
+		for (int i = 0; i < nodeCount; i++){
+			if (scientificNames[i] != null){
+				out.write(scientificNames[i].getBytes(UTF8));
+			}
+		}
+		for (int i = 0; i < nodeCount; i++){
+			for (String synonym : getSynonyms(i)){
+				out.write(synonym.getBytes(UTF8));
+			}
+		}
+	}
+
+	/**
+	 * Reads tables written by writeSnapshot, starting at b's position
+	 * @param b
+	 * @param divisions the division scope the snapshot was written for
+	 * @param rootName if not null, only the subtree under this name is kept, as in readSubtree
+	 * @param attachmentName
+	 * @return the dump
+	 */
+	static NCBITaxdump readSnapshot(ByteBuffer b, int[] divisions, String rootName, String attachmentName){
+		final NCBITaxdump result = new NCBITaxdump(divisions);
+		final int rankCount = b.getInt();
+		for (int r = 0; r < rankCount; r++){
+			final byte[] raw = new byte[b.getInt()];
+			b.get(raw);
+			result.rankTable.code(new String(raw, UTF8));
+		}
+		final int count = b.getInt();
+		final int[] snapshotTaxIDs = readInts(b, count);
+		final int[] snapshotParents = readInts(b, count);
+		final int[] snapshotRanks = readInts(b, count);
+		final int[] nameOffsets = readInts(b, count);
+		final int[] nameLengths = readInts(b, count);
+		final int[] synonymEntries = readInts(b, count+1);
+		final int[] synonymOffsets = readInts(b, synonymEntries[count]);
+		final int[] synonymLengths = readInts(b, synonymEntries[count]);
+		final int[] sharedNameNodes = readInts(b, b.getInt());
+		final int blobLength = b.getInt();
+		final int blob = b.position();
+		b.position(blob + blobLength);
+		result.taxIDs = snapshotTaxIDs;
+		result.parentTaxIDs = snapshotParents;
+		result.ranks = new short[Math.max(count, 1)];
+		result.nodeIndex = new IntIntMap(Math.max(count, 1));
+		for (int i = 0; i < count; i++){
+			result.ranks[i] = (short)snapshotRanks[i];
+			result.nodeIndex.put(snapshotTaxIDs[i], i);
+		}
+		result.nodeCount = count;
+		result.linkChildren();
+		int[] kept;
+		if (rootName == null){
+			kept = new int[count];
+			for (int i = 0; i < count; i++){
+				kept[i] = i;
+			}
+		}
+		else {
+			final NameMatcher subtreeNames = new NameMatcher(rootName, attachmentName);
+			for (int i = 0; i < count; i++){
+				if (nameOffsets[i] != NONE){
+					subtreeNames.add(b, blob + nameOffsets[i], blob + nameOffsets[i] + nameLengths[i], snapshotTaxIDs[i]);
+				}
+			}
+			for (int node : sharedNameNodes){     //matched again so they're the last match, as in names.dmp order
+				subtreeNames.add(b, blob + nameOffsets[node], blob + nameOffsets[node] + nameLengths[node], snapshotTaxIDs[node]);
+			}
+			kept = result.retainSubtree(subtreeNames);
+		}
+		result.startNames();
+		for (int node = 0; node < kept.length; node++){
+			final int i = kept[node];
+			if (nameOffsets[i] != NONE){
+				result.addName(node, SCIENTIFICNAME, result.decode(b, blob + nameOffsets[i], blob + nameOffsets[i] + nameLengths[i]));
+			}
+			for (int s = synonymEntries[i]; s < synonymEntries[i+1]; s++){
+				result.addName(node, SYNONYMNAME, result.decode(b, blob + synonymOffsets[s], blob + synonymOffsets[s] + synonymLengths[s]));
+			}
+		}
+		for (int i : sharedNameNodes){
+			final int node = result.nodeIndex.get(snapshotTaxIDs[i]);
+			if (node != NONE){
+				result.preferNameNode(node);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of nodes in scope
+	 */
+	int size(){
+		return nodeCount;
+	}
+
+	/**
+	 * @return number of distinct scientific names of nodes in scope
+	 */
+	int getNameCount(){
+		return names.size();
+	}
+
+	/**
+	 * @return number of nodes in scope with at least one synonym
+	 */
+	int getSynonymNodeCount(){
+		return synonymNodeCount;
+	}
+
+	/**
+	 * @param taxID
+	 * @return the node with this taxid, or NONE if it isn't in scope
+	 */
+	int nodeForTaxID(int taxID){
+		return nodeIndex.get(taxID);
+	}
+
+	/**
+	 * @param name
+	 * @return the node with this scientific name (the last in names.dmp if it's shared), or NONE
+	 */
+	int nodeForName(String name){
+		final int nameKey = names.find(name);
+		return (nameKey == StringPool.NONE) ? NONE : nameNodes[nameKey];
+	}
+
+	int getTaxID(int node){
+		return taxIDs[node];
+	}
+
+	/**
+	 * @param node
+	 * @return the parent node, or NONE for a root or a parent outside the scoped divisions
+	 */
+	int getParent(int node){
+		final int parent = nodeIndex.get(parentTaxIDs[node]);
+		return (parent == node) ? NONE : parent;
+	}
+
+	String getRank(int node){
+		return rankTable.getName(ranks[node]);
+	}
+
+	/**
+	 * @param node
+	 * @return scientific name or null if names.dmp had none
+	 */
+	String getName(int node){
+		return scientificNames[node];
+	}
+
+	/**
+	 * @param node
+	 * @return child nodes in scope, in taxid order
+	 */
+	int[] getChildren(int node){
+		return Arrays.copyOfRange(childNodes, childOffsets[node], childOffsets[node+1]);
+	}
+
+	/**
+	 * @param node
+	 * @return distinct synonyms of the node in names.dmp order
+	 */
+	List<String> getSynonyms(int node){
+		if (firstSynonyms[node] == NONE){
+			return Collections.emptyList();
+		}
+		final List<String> result = new ArrayList<String>();
+		for (int s = firstSynonyms[node]; s != NONE; s = nextSynonyms[s]){
+			result.add(synonymTexts[s]);
+		}
+		return result;
+	}
+
+	//keeps the chunk's nodes that are in the scoped divisions
+	private void addNodes(NodeChunk chunk){
+		final int[] rankCodes = new int[chunk.ranks.size()];
+		for (int r = 0; r < rankCodes.length; r++){
+			rankCodes[r] = rankTable.code(chunk.ranks.getName(r));
+		}
+		for (int i = 0; i < chunk.count; i++){
+			final int division = chunk.divisions[i];
+			if (divisionsInScope == null || (division < divisionsInScope.length && divisionsInScope[division])){
+				addNode(chunk.taxIDs[i], chunk.parentIDs[i], rankCodes[chunk.rankCodes[i]]);
+			}
+		}
+	}
+
+	private void addNode(int taxID, int parentID, int rank){
+		if (nodeCount == taxIDs.length){
+			final int newSize = nodeCount*2;
+			taxIDs = Arrays.copyOf(taxIDs, newSize);
+			parentTaxIDs = Arrays.copyOf(parentTaxIDs, newSize);
+			ranks = Arrays.copyOf(ranks, newSize);
+		}
+		taxIDs[nodeCount] = taxID;
+		parentTaxIDs[nodeCount] = parentID;
+		ranks[nodeCount] = (short)rank;
+		nodeIndex.put(taxID, nodeCount);
+		nodeCount++;
+	}
+
+	//builds the child lists by counting then filling, so each node's children stay in file (taxid) order
+	private void linkChildren(){
+		childOffsets = new int[nodeCount+1];
+		final int[] parents = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++){
+			parents[i] = getParent(i);
+			if (parents[i] != NONE){
+				childOffsets[parents[i]+1]++;
+			}
+		}
+		for (int i = 0; i < nodeCount; i++){
+			childOffsets[i+1] += childOffsets[i];
+		}
+		childNodes = new int[childOffsets[nodeCount]];
+		final int[] fill = Arrays.copyOf(childOffsets, nodeCount);
+		for (int i = 0; i < nodeCount; i++){
+			if (parents[i] != NONE){
+				childNodes[fill[parents[i]]++] = i;
+			}
+		}
+	}
+
+	private int[] retainSubtree(NameMatcher subtreeNames){
+		return retainSubtree(subtreeNames.lastNode(0, nodeIndex), subtreeNames.lastNode(1, nodeIndex));
+	}
+
+	/**
+	 * Drops every node but root's descendants and the attachment node, keeping file order.  Call before names
+	 * are added.
+	 * @param root node whose subtree is kept, or NONE to drop everything
+	 * @param attachment node kept without its children, or NONE
+	 * @return the earlier index of each kept node
+	 */
+	private int[] retainSubtree(int root, int attachment){
+		final boolean[] keep = new boolean[nodeCount];
+		if (root != NONE){
+			final int[] stack = new int[nodeCount];
+			int top = 0;
+			stack[top++] = root;
+			keep[root] = true;
+			while (top > 0){
+				final int node = stack[--top];
+				for (int c = childOffsets[node]; c < childOffsets[node+1]; c++){
+					if (!keep[childNodes[c]]){    //a cycle in a damaged dump would otherwise never end
+						keep[childNodes[c]] = true;
+						stack[top++] = childNodes[c];
+					}
+				}
+			}
+			if (attachment != NONE){
+				keep[attachment] = true;
+			}
+		}
+		int kept = 0;
+		for (int i = 0; i < nodeCount; i++){
+			if (keep[i]){
+				kept++;
+			}
+		}
+		final int[] keptTaxIDs = new int[Math.max(kept, 1)];
+		final int[] keptParents = new int[keptTaxIDs.length];
+		final short[] keptRanks = new short[keptTaxIDs.length];
+		final int[] keptNodes = new int[kept];
+		nodeIndex = new IntIntMap(keptTaxIDs.length);
+		int next = 0;
+		for (int i = 0; i < nodeCount; i++){
+			if (keep[i]){
+				keptNodes[next] = i;
+				keptTaxIDs[next] = taxIDs[i];
+				keptParents[next] = parentTaxIDs[i];
+				keptRanks[next] = ranks[i];
+				nodeIndex.put(taxIDs[i], next);
+				next++;
+			}
+		}
+		taxIDs = keptTaxIDs;
+		parentTaxIDs = keptParents;
+		ranks = keptRanks;
+		nodeCount = kept;
+		linkChildren();
+		return keptNodes;
+	}
+
+	private void startNames(){
+		scientificNames = Arrays.copyOf(scientificNames, nodeCount);
+		firstSynonyms = Arrays.copyOf(firstSynonyms, nodeCount);
+		Arrays.fill(firstSynonyms, NONE);
+	}
+
+	//keeps the chunk's names of nodes in scope
+	private void addNames(NameChunk chunk){
+		for (int i = 0; i < chunk.count; i++){
+			final int node = nodeIndex.get(chunk.taxIDs[i]);
+			if (node != NONE){
+				addName(node, chunk.kinds[i], decodeTrimmed(chunk.buffer, chunk.nameStarts[i], chunk.nameEnds[i]));
+			}
+		}
+	}
+
+	private void addName(int node, byte kind, String name){
+		if (kind == SCIENTIFICNAME){
+			scientificNames[node] = name;
+			final int nameKey = names.intern(name);
+			if (nameKey >= nameNodes.length){
+				nameNodes = Arrays.copyOf(nameNodes, Math.max(nameKey+1, nameNodes.length*2));
+			}
+			nameNodes[nameKey] = node;
+		}
+		else {
+			addSynonym(node, name);
+		}
+	}
+
+	//makes node the one nodeForName returns for its scientific name
+	private void preferNameNode(int node){
+		nameNodes[names.find(scientificNames[node])] = node;
+	}
+
+	//synonyms are kept once per node, as the old per-node HashSet did
+	private void addSynonym(int node, String synonym){
+		int last = NONE;
+		for (int s = firstSynonyms[node]; s != NONE; s = nextSynonyms[s]){
+			if (synonymTexts[s].equals(synonym)){
+				return;
+			}
+			last = s;
+		}
+		if (synonymCount == synonymTexts.length){
+			synonymTexts = Arrays.copyOf(synonymTexts, synonymCount*2);
+			nextSynonyms = Arrays.copyOf(nextSynonyms, synonymCount*2);
+		}
+		synonymTexts[synonymCount] = synonym;
+		nextSynonyms[synonymCount] = NONE;
+		if (last == NONE){
+			firstSynonyms[node] = synonymCount;
+			synonymNodeCount++;
+		}
+		else {
+			nextSynonyms[last] = synonymCount;
+		}
+		synonymCount++;
+	}
+
+	private static byte nameKind(ByteBuffer b, int start, int end){
+		if (equalsIgnoreCase(b, start, end, SCIENTIFICNAMETYPE)){
+			return SCIENTIFICNAME;
+		}
+		if (equalsIgnoreCase(b, start, end, SYNONYMNAMETYPE)){
+			return SYNONYMNAME;
+		}
+		return OTHERNAME;
+	}
+
+	/**
+	 * The leading taxid columns of each line of a small dump file
+	 */
+	private static final class TaxIDRows implements LineHandler {
+		private final int[] starts;
+		private final int[] ends;
+		int count = 0;
+		int[] ids = new int[256];
+
+		TaxIDRows(int columns){
+			starts = new int[columns];
+			ends = new int[columns];
+		}
+
+		@Override
+		public void line(ByteBuffer b, int start, int end) {
+			if (split(b, start, end, starts, ends) < starts.length){
+				logger.error("Short line: " + decodeLine(b, start, end));
+				return;
+			}
+			if (count + starts.length > ids.length){
+				ids = Arrays.copyOf(ids, ids.length*2);
+			}
+			for (int i = 0; i < starts.length; i++){
+				final int id = parseInt(b, starts[i], ends[i]);
+				if (id < 0){
+					logger.error("Bad taxon id: " + decodeLine(b, start, end));
+					return;    //count isn't advanced, so the partial row is overwritten
+				}
+				ids[count+i] = id;
+			}
+			count += starts.length;
+		}
+	}
+
+	/**
+	 * Taxids whose scientific name is one of a few names, in the order they're matched; used to find the nodes a
+	 * subtree read keeps before any names are decoded
+	 */
+	private static final class NameMatcher {
+		private final byte[][] names;
+		private final List<List<Integer>> taxIDs = new ArrayList<List<Integer>>();
+
+		NameMatcher(String... names){
+			this.names = new byte[names.length][];
+			for (int i = 0; i < names.length; i++){
+				this.names[i] = (names[i] == null) ? null : names[i].getBytes(UTF8);
+				taxIDs.add(new ArrayList<Integer>());
+			}
+		}
+
+		//true if the trimmed name field is any of the names
+		boolean matches(ByteBuffer b, int start, int end){
+			return matchIndex(b, start, end, 0) != NONE;
+		}
+
+		//records taxID against each name the trimmed name field matches
+		void add(ByteBuffer b, int start, int end, int taxID){
+			for (int i = matchIndex(b, start, end, 0); i != NONE; i = matchIndex(b, start, end, i+1)){
+				taxIDs.get(i).add(taxID);
+			}
+		}
+
+		private int matchIndex(ByteBuffer b, int start, int end, int from){
+			while (start < end && (b.get(start) & 0xff) <= ' '){
+				start++;
+			}
+			while (end > start && (b.get(end-1) & 0xff) <= ' '){
+				end--;
+			}
+			for (int i = from; i < names.length; i++){
+				if (names[i] != null && names[i].length == end-start && regionMatches(b, start, names[i])){
+					return i;
+				}
+			}
+			return NONE;
+		}
+
+		//the last node in nodeIndex matched by the i'th name, as nodeForName would return
+		int lastNode(int i, IntIntMap nodeIndex){
+			final List<Integer> matched = taxIDs.get(i);
+			for (int m = matched.size()-1; m >= 0; m--){
+				final int node = nodeIndex.get(matched.get(m));
+				if (node != NONE){
+					return node;
+				}
+			}
+			return NONE;
+		}
+	}
+
+	/**
+	 * Distinct rank names, numbered in order of first appearance
+	 */
+	private static final class RankTable {
+		private final List<String> names = new ArrayList<String>();
+		private final List<byte[]> bytes = new ArrayList<byte[]>();
+
+		int code(ByteBuffer b, int start, int end){
+			final int length = end-start;
+			for (int r = 0; r < bytes.size(); r++){
+				final byte[] candidate = bytes.get(r);
+				if (candidate.length == length && regionMatches(b, start, candidate)){
+					return r;
+				}
+			}
+			final byte[] raw = new byte[length];
+			for (int i = 0; i < length; i++){
+				raw[i] = b.get(start+i);
+			}
+			return add(raw);
+		}
+
+		int code(String name){
+			final int r = names.indexOf(name);
+			return (r >= 0) ? r : add(name.getBytes(UTF8));
+		}
+
+		private int add(byte[] raw){
+			bytes.add(raw);
+			names.add(new String(raw, UTF8));
+			return names.size()-1;
+		}
+
+		String getName(int code){
+			return names.get(code);
+		}
+
+		int size(){
+			return names.size();
+		}
+	}
+
+	/**
+	 * Every node of part of nodes.dmp, with its division so scope can be applied when chunks are merged
+	 */
+	private static final class NodeChunk implements LineHandler {
+		private final int[] starts = new int[DIVISIONFIELD+1];
+		private final int[] ends = new int[DIVISIONFIELD+1];
+		int count = 0;
+		int[] taxIDs = new int[1024];
+		int[] parentIDs = new int[1024];
+		int[] divisions = new int[1024];
+		int[] rankCodes = new int[1024];
+		final RankTable ranks = new RankTable();
+
+		@Override
+		public void line(ByteBuffer b, int start, int end) {
+			if (split(b, start, end, starts, ends) <= DIVISIONFIELD){
+				logger.error("Short line in nodes file: " + decodeLine(b, start, end));
+				return;
+			}
+			final int taxID = parseInt(b, starts[TAXIDFIELD], ends[TAXIDFIELD]);
+			final int parentID = parseInt(b, starts[PARENTFIELD], ends[PARENTFIELD]);
+			final int division = parseInt(b, starts[DIVISIONFIELD], ends[DIVISIONFIELD]);
+			if (taxID < 0 || parentID < 0 || division < 0){
+				logger.error("Bad taxon id or division in nodes file: " + decodeLine(b, start, end));
+				return;
+			}
+			if (count == taxIDs.length){
+				final int newSize = count*2;
+				taxIDs = Arrays.copyOf(taxIDs, newSize);
+				parentIDs = Arrays.copyOf(parentIDs, newSize);
+				divisions = Arrays.copyOf(divisions, newSize);
+				rankCodes = Arrays.copyOf(rankCodes, newSize);
+			}
+			taxIDs[count] = taxID;
+			parentIDs[count] = parentID;
+			divisions[count] = division;
+			rankCodes[count] = ranks.code(b, starts[RANKFIELD], ends[RANKFIELD]);
+			count++;
+		}
+	}
+
+	/**
+	 * Scientific names and synonyms of part of names.dmp, as offsets into the chunk's mapping; they are only
+	 * decoded when the chunk is merged and the taxid turns out to be in scope
+	 */
+	private static final class NameChunk implements LineHandler {
+		private final int[] starts = new int[NAMECLASSFIELD+1];
+		private final int[] ends = new int[NAMECLASSFIELD+1];
+		ByteBuffer buffer;
+		int count = 0;
+		int[] taxIDs = new int[1024];
+		int[] nameStarts = new int[1024];
+		int[] nameEnds = new int[1024];
+		byte[] kinds = new byte[1024];
+
+		@Override
+		public void line(ByteBuffer b, int start, int end) {
+			if (split(b, start, end, starts, ends) <= NAMECLASSFIELD){
+				logger.error("Short line in names file: " + decodeLine(b, start, end));
+				return;
+			}
+			final byte kind = nameKind(b, starts[NAMECLASSFIELD], ends[NAMECLASSFIELD]);
+			if (kind == OTHERNAME){
+				return;
+			}
+			if (count == taxIDs.length){
+				final int newSize = count*2;
+				taxIDs = Arrays.copyOf(taxIDs, newSize);
+				nameStarts = Arrays.copyOf(nameStarts, newSize);
+				nameEnds = Arrays.copyOf(nameEnds, newSize);
+				kinds = Arrays.copyOf(kinds, newSize);
+			}
+			taxIDs[count] = parseInt(b, starts[TAXIDFIELD], ends[TAXIDFIELD]);
+			nameStarts[count] = starts[NAMEFIELD];
+			nameEnds[count] = ends[NAMEFIELD];
+			kinds[count] = kind;
+			count++;
+		}
+	}
+
+	/* Byte level scanning */
+
+	//reads count big endian ints from b's position onwards
+	private static int[] readInts(ByteBuffer b, int count){
+		final int[] result = new int[count];
+		b.asIntBuffer().get(result);
+		b.position(b.position() + 4*count);
+		return result;
+	}
+
+	//the length of s.getBytes(UTF8) without encoding it
+	static int utf8Length(String s){
+		int result = 0;
+		for (int i = 0; i < s.length(); i++){
+			final char c = s.charAt(i);
+			if (c < 0x80){
+				result++;
+			}
+			else if (c < 0x800){
+				result += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i+1 < s.length() && Character.isLowSurrogate(s.charAt(i+1))){
+				result += 4;
+				i++;
+			}
+			else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE){
+				result++;     //an unpaired surrogate is encoded as '?'
+			}
+			else {
+				result += 3;
+			}
+		}
+		return result;
+	}
+
+	private interface LineHandler {
+		/**
+		 * @param b mapped file segment
+		 * @param start offset of the first byte of the line
+		 * @param end offset just past the last byte, excluding the line terminator
+		 */
+		void line(ByteBuffer b, int start, int end);
+	}
+
+	/**
+	 * Maps f a segment at a time and hands each line to handler.  A line that runs past the end of a
+	 * segment starts the next one.
+	 */
+	private static void scan(File f, LineHandler handler) throws IOException{
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long length = channel.size();
+			long position = 0;
+			while (position < length){
+				final int segmentLength = (int)Math.min(MAXSEGMENT, length - position);
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, segmentLength);
+				final int lineStart = scanLines(buffer, segmentLength, handler);
+				if (position + segmentLength == length){
+					if (lineStart < segmentLength){   //no newline at the end of the file
+						handler.line(buffer, lineStart, segmentLength);
+					}
+					position = length;
+				}
+				else if (lineStart == 0){
+					throw new IOException("Line longer than " + MAXSEGMENT + " bytes in " + f.getAbsolutePath());
+				}
+				else {
+					position += lineStart;
+				}
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps one line aligned chunk of f (see chunkRanges) and hands each of its lines to handler
+	 * @return the chunk's mapping
+	 */
+	private static ByteBuffer scanRange(File f, long start, long end, LineHandler handler) throws IOException{
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final int length = (int)(end - start);
+			final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+			final int lineStart = scanLines(buffer, length, handler);
+			if (lineStart < length){   //only the last chunk of a file without a final newline
+				handler.line(buffer, lineStart, length);
+			}
+			return buffer;
+		}
+		finally {
+			raf.close();    //the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 * Hands each newline terminated line of b to handler
+	 * @return offset just past the last newline
+	 */
+	private static int scanLines(ByteBuffer b, int length, LineHandler handler){
+		int lineStart = 0;
+		for (int i = 0; i < length; i++){
+			if (b.get(i) == '\n'){
+				handler.line(b, lineStart, (i > lineStart && b.get(i-1) == '\r') ? i-1 : i);
+				lineStart = i+1;
+			}
+		}
+		return lineStart;
+	}
+
+	/**
+	 * Cuts f into about count pieces of at least minChunk bytes that each end just after a newline (or at the
+	 * end of the file)
+	 * @return {start, end} byte offsets of each piece
+	 */
+	static List<long[]> chunkRanges(File f, int count, long minChunk) throws IOException{
+		final List<long[]> result = new ArrayList<long[]>();
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final long length = raf.length();
+			final long chunkSize = Math.min(MAXSEGMENT, Math.max(minChunk, (length + count - 1)/count));
+			final byte[] probe = new byte[8192];
+			long start = 0;
+			while (start < length){
+				long end = Math.min(length, start + chunkSize);
+				while (end < length){    //move the end past the next newline
+					raf.seek(end);
+					final int read = raf.read(probe);
+					int newline = -1;
+					for (int i = 0; i < read && newline < 0; i++){
+						if (probe[i] == '\n'){
+							newline = i;
+						}
+					}
+					if (newline >= 0){
+						end += newline + 1;
+						break;
+					}
+					end += read;
+				}
+				end = Math.min(end, length);
+				if (end - start > MAXSEGMENT){
+					throw new IOException("Line longer than " + MAXSEGMENT + " bytes in " + f.getAbsolutePath());
+				}
+				result.add(new long[]{start, end});
+				start = end;
+			}
+		}
+		finally {
+			raf.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the fields of a dump line, which are separated by "\t|\t"; the last field ends with "\t|".
+	 * Stops once starts is full.
+	 * @return number of fields found
+	 */
+	static int split(ByteBuffer b, int start, int end, int[] starts, int[] ends){
+		int count = 0;
+		int fieldStart = start;
+		int i = start;
+		while (i < end && count < starts.length){
+			if (b.get(i) == '\t' && i+1 < end && b.get(i+1) == '|' && (i+2 == end || b.get(i+2) == '\t')){
+				starts[count] = fieldStart;
+				ends[count] = i;
+				count++;
+				i += 3;
+				fieldStart = i;
+			}
+			else {
+				i++;
+			}
+		}
+		if (count < starts.length && fieldStart < end){
+			starts[count] = fieldStart;
+			ends[count] = end;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the non-negative decimal value of the bytes, or -1 if they aren't all digits
+	 */
+	static int parseInt(ByteBuffer b, int start, int end){
+		if (start >= end || end - start > 9){
+			return -1;
+		}
+		int result = 0;
+		for (int i = start; i < end; i++){
+			final int digit = b.get(i) - '0';
+			if (digit < 0 || digit > 9){
+				return -1;
+			}
+			result = result*10 + digit;
+		}
+		return result;
+	}
+
+	private static boolean regionMatches(ByteBuffer b, int start, byte[] expected){
+		for (int i = 0; i < expected.length; i++){
+			if (b.get(start+i) != expected[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//expected is lower case ASCII
+	private static boolean equalsIgnoreCase(ByteBuffer b, int start, int end, byte[] expected){
+		if (end - start != expected.length){
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++){
+			final byte c = b.get(start+i);
+			if (c != expected[i] && (c < 'A' || c > 'Z' || c + ('a'-'A') != expected[i])){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//as String.trim(), UTF-8 continuation bytes are never <= ' '
+	private String decodeTrimmed(ByteBuffer b, int start, int end){
+		while (start < end && (b.get(start) & 0xff) <= ' '){
+			start++;
+		}
+		while (end > start && (b.get(end-1) & 0xff) <= ' '){
+			end--;
+		}
+		return decode(b, start, end);
+	}
+
+	//for messages from chunk threads, which can't share the scratch buffer
+	private static String decodeLine(ByteBuffer b, int start, int end){
+		final byte[] raw = new byte[end-start];
+		for (int i = 0; i < raw.length; i++){
+			raw[i] = b.get(start+i);
+		}
+		return new String(raw, UTF8);
+	}
+
+	private String decode(ByteBuffer b, int start, int end){
+		final int length = end-start;
+		if (length > scratch.length){
+			scratch = new byte[Math.max(length, scratch.length*2)];
+		}
+		for (int i = 0; i < length; i++){
+			scratch[i] = b.get(start+i);
+		}
+		return new String(scratch, 0, length, UTF8);
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Parsed NCBI dumps, kept so a dump directory named by several actions is only parsed once.  Dumps are keyed by
+ * directory, division scope and the size and modification time of nodes.dmp and names.dmp, so an updated dump is
+ * parsed again.
+ *
+ * A dump read in full is held in memory until clear() (Builder clears it after each build) and subtree reads are
+ * copied from it.  Given a snapshot directory, a full read is also written there as a binary snapshot, which later
+ * runs memory map instead of parsing the text files; a subtree read from a snapshot only decodes the names it keeps.
+ */
+class NCBITaxdumpCache {
+
+	private static final int MAGIC = 0x4E434249;    //"NCBI"
+	private static final int VERSION = 1;
+	private static final String SNAPSHOTPREFIX = "ncbi-";
+	private static final String SNAPSHOTSUFFIX = ".taxdump";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Map<String,NCBITaxdump> dumps = new HashMap<String,NCBITaxdump>();
+
+	static final Logger logger = Logger.getLogger(NCBITaxdumpCache.class.getName());
+
+	/**
+	 * @param directory
+	 * @param divisions division codes of the nodes to keep, or null for all
+	 * @param parallelism number of parsing threads if the text files have to be parsed
+	 * @param snapshotDirectory where binary snapshots are kept, or null for none
+	 * @return the scoped dump, which may be shared with other callers
+	 * @throws IOException
+	 */
+	static synchronized NCBITaxdump read(File directory, int[] divisions, int parallelism, File snapshotDirectory) throws IOException{
+		final String key = key(directory, divisions);
+		NCBITaxdump result = dumps.get(key);
+		if (result != null){
+			logger.info("Reusing NCBI dump already read from " + directory);
+			return result;
+		}
+		if (snapshotDirectory != null){
+			result = readSnapshot(snapshotFile(snapshotDirectory, directory, divisions), key, divisions, null, null);
+		}
+		if (result == null){
+			result = NCBITaxdump.read(directory, divisions, parallelism);
+			if (snapshotDirectory != null){
+				writeSnapshot(result, snapshotFile(snapshotDirectory, directory, divisions), key);
+			}
+		}
+		dumps.put(key, result);
+		return result;
+	}
+
+	/**
+	 * Reads the subtree under rootName, as NCBITaxdump.readSubtree.  Without a snapshot directory, the text files
+	 * are only parsed for the subtree unless the whole dump is already in memory; with one, the whole dump is
+	 * parsed and snapshotted once so later reads of the same dump don't parse it again.
+	 * @param directory
+	 * @param divisions division codes of the nodes to keep, or null for all
+	 * @param rootName
+	 * @param attachmentName may be null
+	 * @param parallelism
+	 * @param snapshotDirectory where binary snapshots are kept, or null for none
+	 * @return the subtree
+	 * @throws IOException
+	 */
+	static synchronized NCBITaxdump readSubtree(File directory, int[] divisions, String rootName, String attachmentName, int parallelism, File snapshotDirectory) throws IOException{
+		final String key = key(directory, divisions);
+		NCBITaxdump full = dumps.get(key);
+		if (full != null){
+			logger.info("Reusing NCBI dump already read from " + directory);
+			return full.subtree(rootName, attachmentName);
+		}
+		if (snapshotDirectory == null){
+			return NCBITaxdump.readSubtree(directory, divisions, rootName, attachmentName, parallelism);
+		}
+		final File snapshot = snapshotFile(snapshotDirectory, directory, divisions);
+		final NCBITaxdump result = readSnapshot(snapshot, key, divisions, rootName, attachmentName);
+		if (result != null){
+			return result;
+		}
+		full = NCBITaxdump.read(directory, divisions, parallelism);
+		writeSnapshot(full, snapshot, key);
+		dumps.put(key, full);
+		return full.subtree(rootName, attachmentName);
+	}
+
+	/**
+	 * Lets go of the dumps held in memory; snapshots are kept
+	 */
+	static synchronized void clear(){
+		dumps.clear();
+	}
+
+	//changes whenever either dump file is replaced or edited
+	static String key(File directory, int[] divisions) throws IOException{
+		final File nodes = new File(directory, NCBITaxdump.NODESFILENAME);
+		final File names = new File(directory, NCBITaxdump.NAMESFILENAME);
+		return directory.getCanonicalPath() + "|" + nodes.length() + ":" + nodes.lastModified() + "|" +
+				names.length() + ":" + names.lastModified() + "|" + scope(divisions);
+	}
+
+	private static String scope(int[] divisions){
+		if (divisions == null){
+			return "all";
+		}
+		final int[] sorted = divisions.clone();
+		Arrays.sort(sorted);
+		return Arrays.toString(sorted);
+	}
+
+	//one file per dump directory and scope; a newer dump overwrites its snapshot
+	static File snapshotFile(File snapshotDirectory, File directory, int[] divisions) throws IOException{
+		final String name = directory.getCanonicalPath() + "|" + scope(divisions);
+		return new File(snapshotDirectory, SNAPSHOTPREFIX + Integer.toHexString(name.hashCode()) + SNAPSHOTSUFFIX);
+	}
+
+	//null if there's no usable snapshot for key
+	private static NCBITaxdump readSnapshot(File snapshot, String key, int[] divisions, String rootName, String attachmentName){
+		if (!snapshot.exists()){
+			return null;
+		}
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+			try {
+				final FileChannel channel = raf.getChannel();
+				if (channel.size() > Integer.MAX_VALUE){
+					logger.warn("NCBI snapshot " + snapshot + " is too large to map; parsing the dump instead");
+					return null;
+				}
+				final ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (b.getInt() != MAGIC || b.getInt() != VERSION){
+					logger.warn(snapshot + " is not an NCBI snapshot this version can read; parsing the dump instead");
+					return null;
+				}
+				final byte[] snapshotKey = new byte[b.getInt()];
+				b.get(snapshotKey);
+				if (!key.equals(new String(snapshotKey, UTF8))){
+					logger.info("NCBI snapshot " + snapshot + " is out of date");
+					return null;
+				}
+				final NCBITaxdump result = NCBITaxdump.readSnapshot(b, divisions, rootName, attachmentName);
+				logger.info("Read NCBI dump from snapshot " + snapshot);
+				return result;
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch (IOException e){
+			logger.warn("Could not read NCBI snapshot " + snapshot + "; parsing the dump instead", e);
+			return null;
+		}
+		catch (RuntimeException e){    //a truncated or damaged snapshot runs off the end of the buffer
+			logger.warn("Could not read NCBI snapshot " + snapshot + "; parsing the dump instead", e);
+			return null;
+		}
+	}
+
+	//written to a temporary file first so a failed write never leaves a partial snapshot under the real name
+	private static void writeSnapshot(NCBITaxdump dump, File snapshot, String key){
+		final File dir = snapshot.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		final File temp = new File(dir, snapshot.getName() + ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				final byte[] rawKey = key.getBytes(UTF8);
+				out.writeInt(rawKey.length);
+				out.write(rawKey);
+				dump.writeSnapshot(out);
+			}
+			finally {
+				out.close();
+			}
+			if (snapshot.exists() && !snapshot.delete()){
+				throw new IOException("Could not replace " + snapshot);
+			}
+			if (!temp.renameTo(snapshot)){
+				throw new IOException("Could not rename " + temp + " to " + snapshot);
+			}
+			logger.info("Wrote NCBI snapshot " + snapshot);
+		}
+		catch (IOException e){
+			logger.warn("Could not write NCBI snapshot " + snapshot, e);
+			temp.delete();
+		}
+	}
+
+}
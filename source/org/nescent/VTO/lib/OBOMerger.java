@@ -1,9 +1,11 @@
 package org.nescent.VTO.lib;
 
 import java.io.File;
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -85,55 +87,60 @@ public class OBOMerger implements Merger {
 
 
 
+	/**
+	 * Adds the synonyms of each (non-obsolete) term in the source to the target term with the same name.  The source
+	 * is streamed a stanza at a time rather than loaded into a session, since only names and synonyms are needed.
+	 */
 	@Override
 	public void merge(String prefix) {
-		logger.info("Loading OBO file " + sourceFile);
-		sourceUtils = new OBOUtils(sourceFile.getAbsolutePath());
-		logger.info("Finished loading");
+		logger.info("Reading OBO file " + sourceFile);
 		int termCount = 0;
 		int synCount = 0;
 		target.updateIDGenerator(prefix);
-		Collection <OBOClass> allTerms = sourceUtils.getTerms();
-		for (OBOClass term : allTerms){
-			Term matchingTerm = target.getTermbyName(term.getName());
-			if (matchingTerm != null){
-				termCount++;
-				//SynonymI s = target.makeSynonymWithXref(term.getName(), prefix, term.getID());
-				//matchingTerm.addSynonym(s);
-				// add synonyms from term
-				for (Synonym syn : term.getSynonyms()){
-					if (sourceUtils.isKnownSynonymType(syn.getSynonymType())) {
-						final String stypeName = syn.getSynonymType().getName();
-						if (!syn.getXrefs().isEmpty()){  //assumes one xref per synonym (probably safe, but noted)
-							final Dbxref ref = syn.getXrefs().iterator().next();
-							SynonymI newSyn = target.makeTypedSynonymWithXref(syn.getText(), stypeName, ref.getDatabase(), ref.getDatabaseID());
-							matchingTerm.addSynonym(newSyn);
-							synCount++;
-						}
-						else{ //no xrefs
-							SynonymI newSyn = target.makeTypedSynonym(syn.getText(), stypeName);
-							matchingTerm.addSynonym(newSyn);
+		try {
+			final OBOStanzaReader reader = new OBOStanzaReader(sourceFile);
+			try {
+				OBOStanzaReader.Stanza term = reader.next();
+				while (term != null){
+					final Term matchingTerm = (term.isObsolete() || term.getName() == null) ? null : target.getTermbyName(term.getName());
+					if (matchingTerm != null){
+						termCount++;
+						// add synonyms from term
+						for (OBOStanzaReader.StanzaSynonym syn : term.getSynonyms()){
+							matchingTerm.addSynonym(copySynonym(syn));
 							synCount++;
 						}
 					}
-					else {  //not a common name
-						if (!syn.getXrefs().isEmpty()){  //assumes one xref per synonym (probably safe, but noted)
-							final Dbxref ref = syn.getXrefs().iterator().next();
-							SynonymI newSyn = target.makeSynonymWithXref(syn.getText(), ref.getDatabase(), ref.getDatabaseID());
-							matchingTerm.addSynonym(newSyn);
-							synCount++;
-						}
-						else{ //no xrefs
-							SynonymI newSyn = target.makeSynonym(syn.getText());
-							matchingTerm.addSynonym(newSyn);
-							synCount++;
-						}
+					if (termCount % 1000 == 0){
+						logger.info("Processed " + termCount + " terms; added " + synCount + " synonyms");
 					}
+					term = reader.next();
 				}
 			}
-			if (termCount % 1000 == 0){
-				logger.info("Processed " + termCount + " terms; added " + synCount + " synonyms");
+			finally {
+				reader.close();
 			}
+		} catch (IOException e) {
+			logger.error("An error occurred while reading from: " + sourceFile);
+			e.printStackTrace();
+		}
+		logger.info("Finished merging " + termCount + " terms; added " + synCount + " synonyms");
+	}
+
+	private SynonymI copySynonym(OBOStanzaReader.StanzaSynonym syn){
+		final boolean typed = OBOUtils.isKnownSynonymTypeID(syn.getTypeID()) && syn.getTypeName() != null;
+		if (!syn.getXrefs().isEmpty()){  //assumes one xref per synonym (probably safe, but noted)
+			final OBOStanzaReader.Reference ref = syn.getXrefs().get(0);
+			if (typed){
+				return target.makeTypedSynonymWithXref(syn.getText(), syn.getTypeName(), ref.getDatabase(), ref.getDatabaseID());
+			}
+			return target.makeSynonymWithXref(syn.getText(), ref.getDatabase(), ref.getDatabaseID());
+		}
+		else{ //no xrefs
+			if (typed){
+				return target.makeTypedSynonym(syn.getText(), syn.getTypeName());
+			}
+			return target.makeSynonym(syn.getText());
 		}
 	}
 
@@ -161,9 +168,11 @@ public class OBOMerger implements Merger {
 			if (targetParent == null){
 				throw new RuntimeException("Can not attach to unknown parent: " + targetParentName);
 			}
-			Term targetRoot = copyTerm(sourceRoot,prefix);
-			target.attachParent(targetRoot, targetParent);
-			addChildren(sourceRoot,targetRoot,target,prefix);
+			final TermBatch batch = target.newBatch();
+			final int targetRoot = copyTerm(sourceRoot,prefix,batch);
+			batch.attachParent(targetRoot, targetParent);
+			addChildren(sourceRoot,targetRoot,batch,prefix);
+			batch.commit();
 		}
 		if (updateObsoletes){
 			target.processObsoletes();
@@ -180,57 +189,75 @@ public class OBOMerger implements Merger {
 		if (target.getTermbyName(sourceRootName) != null){
 			logger.error("Can not attach " + sourceFile.getAbsolutePath() + " specified root: " + sourceRootName + " already exists in " + target);
 		}
-		Term targetRoot;
+		final TermBatch batch = target.newBatch();
+		final int targetRoot;
 		// this should be copyTerm
 		if (preserveID){
-			targetRoot = target.addTermbyID(sourceRoot.getID(),sourceRootName);
+			targetRoot = batch.addTermbyID(sourceRoot.getID(),sourceRootName);
 		}
 		else {
-			targetRoot = target.addTerm(sourceRootName,prefix);
+			targetRoot = batch.addTerm(sourceRootName,prefix);
 		}			
 		logger.info("Assigning " + sourceRootName + " as root");
 		if (sourceUtils.getRankString(sourceRoot) != null)
-			target.setRankFromName(targetRoot, sourceUtils.getRankString(sourceRoot));
-		addChildren(sourceRoot,targetRoot,target,prefix);
+			batch.setRankFromName(targetRoot, sourceUtils.getRankString(sourceRoot));
+		addChildren(sourceRoot,targetRoot,batch,prefix);
+		batch.commit();
 	}
 
 
 
-	// Note: parentClass is from the obo tree being attached, parentTerm is the copy in the target tree
-	// so parentTerm.asOBOClass != parentClass
-	private void addChildren(OBOClass sourceParent, Term targetParent, TaxonStore target, String prefix){
-		final Collection<Link> childLinks = sourceParent.getChildren();
-		for(Link l : childLinks){
+	// Note: sourceParent is from the obo tree being attached, targetParent is its record in the batch.
+	// The clade is copied depth first, children in the order they are listed, as the recursive copy did; an
+	// explicit stack keeps deep trees from deepening the call stack
+	private void addChildren(OBOClass sourceParent, int targetParent, TermBatch batch, String prefix){
+		final List<OBOClass> pendingClasses = new ArrayList<OBOClass>();
+		final List<Integer> pendingParents = new ArrayList<Integer>();
+		pushChildren(sourceParent, targetParent, pendingClasses, pendingParents);
+		while (!pendingClasses.isEmpty()){
+			final int last = pendingClasses.size()-1;
+			final OBOClass childClass = pendingClasses.remove(last);
+			final int parentRecord = pendingParents.remove(last);
+			final int childRecord = copyTerm(childClass,prefix,batch);
+			batch.attachParent(childRecord, parentRecord);
+			pushChildren(childClass, childRecord, pendingClasses, pendingParents);
+		}
+	}
+
+	//pushes the is_a children last first, so the first listed is copied next
+	private void pushChildren(OBOClass sourceParent, int targetParent, List<OBOClass> pendingClasses, List<Integer> pendingParents){
+		final List<OBOClass> children = new ArrayList<OBOClass>();
+		for(Link l : sourceParent.getChildren()){
 			OBOProperty lType = l.getType();
 			if (OBOUtils.ISA_PROPERTY.equals(lType.getID())){
-				OBOClass childClass = (OBOClass)l.getChild();
-				Term childTerm = copyTerm(childClass,prefix);
-				
-				target.attachParent(childTerm, targetParent);
-				addChildren(childClass,childTerm,target,prefix);			
+				children.add((OBOClass)l.getChild());
 			}
 		}
+		for (int i = children.size()-1; i >= 0; i--){
+			pendingClasses.add(children.get(i));
+			pendingParents.add(targetParent);
+		}
 	}
 
-	private Term copyTerm(OBOClass sourceClass, String prefix){
-		Term targetTerm = null;
+	private int copyTerm(OBOClass sourceClass, String prefix, TermBatch batch){
+		int targetTerm;
 		if (preserveID){
-			targetTerm = target.addTermbyID(sourceClass.getID(),sourceClass.getName());
+			targetTerm = batch.addTermbyID(sourceClass.getID(),sourceClass.getName());
 		}
 		else{
 			final String[] idFields = sourceClass.getID().split(":");
 			if (idFields.length == 2){
-				targetTerm = target.addTerm(sourceClass.getName(),prefix);				
-				target.addXRefToTerm(targetTerm,idFields[0],idFields[1]);  // could be an alternate ID, no, not best practice according to Allan
+				targetTerm = batch.addTerm(sourceClass.getName(),prefix);				
+				batch.addXRef(targetTerm,idFields[0],idFields[1]);  // could be an alternate ID, no, not best practice according to Allan
 			}
 			else{
 				logger.warn("Could not split OBOID " + sourceClass.getID() + " to generate xref in target term");
-				targetTerm = target.addTerm(sourceClass.getName(),prefix);				
+				targetTerm = batch.addTerm(sourceClass.getName(),prefix);				
 			}
 		}
 		if (sourceClass.getDbxrefs() != null){
 			for (Dbxref d : sourceClass.getDbxrefs()){
-				target.addXRefToTerm(targetTerm, d.getDatabase(), d.getDatabaseID());
+				batch.addXRef(targetTerm, d.getDatabase(), d.getDatabaseID());
 			}
 		}
 		for (Synonym syn : sourceClass.getSynonyms()){
@@ -239,29 +266,29 @@ public class OBOMerger implements Merger {
 				if (!syn.getXrefs().isEmpty()){  //assumes one xref per synonym (probably safe, but noted)
 					final Dbxref ref = syn.getXrefs().iterator().next();
 					SynonymI newSyn = target.makeTypedSynonymWithXref(syn.getText(), stypeName, ref.getDatabase(), ref.getDatabaseID());
-					targetTerm.addSynonym(newSyn);
+					batch.addSynonym(targetTerm, newSyn);
 				}
 				else{ //no xrefs
 					SynonymI newSyn = target.makeTypedSynonym(syn.getText(),stypeName);
-					targetTerm.addSynonym(newSyn);
+					batch.addSynonym(targetTerm, newSyn);
 				}
 			}
 			else {  //not a common name
 				if (!syn.getXrefs().isEmpty()){  //assumes one xref per synonym (probably safe, but noted)
 					final Dbxref ref = syn.getXrefs().iterator().next();
 					SynonymI newSyn = target.makeSynonymWithXref(syn.getText(), ref.getDatabase(), ref.getDatabaseID());
-					targetTerm.addSynonym(newSyn);
+					batch.addSynonym(targetTerm, newSyn);
 				}
 				else{ //no xrefs
 					SynonymI newSyn = target.makeSynonym(syn.getText());
-					targetTerm.addSynonym(newSyn);
+					batch.addSynonym(targetTerm, newSyn);
 				}
 			}
 		}
 		if (sourceUtils.getRankString(sourceClass) != null)
-			target.setRankFromName(targetTerm, sourceUtils.getRankString(sourceClass));
+			batch.setRankFromName(targetTerm, sourceUtils.getRankString(sourceClass));
 		if (sourceUtils.isExtinct(sourceClass))
-			sourceUtils.setExtinct(targetTerm.asOBOClass());
+			batch.setExtinct(targetTerm);
 		return targetTerm;
 	}
 
@@ -0,0 +1,492 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the [Term] stanzas of an OBO file one at a time, keeping only what a synonym merge needs (id, name,
+ * synonyms, xrefs, rank and obsolete flag).  Unlike loading the file through OBOUtils, nothing beyond the
+ * current stanza and the header's synonym type names is held, so memory use doesn't grow with the file.
+ * Other stanza types ([Typedef], [Instance]) and tags are skipped.
+ */
+class OBOStanzaReader {
+
+	static final int BUFFERSIZE = 1 << 16;
+
+	private static final String TERMHEADER = "[Term]";
+	private static final String RANKPREFIX = OBOUtils.RANK_PROPERTY + " ";
+
+	static final Logger logger = Logger.getLogger(OBOStanzaReader.class.getName());
+
+	private final BufferedReader reader;
+	private final Map<String,String> synonymTypeNames = new HashMap<String,String>();  //synonymtypedef id -> name
+	private String pending;       //first line of the next stanza, read while finishing the previous one
+	private int lineNumber = 0;
+
+	/**
+	 * Opens source and reads its header
+	 * @param source
+	 * @throws IOException
+	 */
+	OBOStanzaReader(File source) throws IOException{
+		this(new InputStreamReader(new FileInputStream(source)));
+	}
+
+	OBOStanzaReader(Reader source) throws IOException{
+		reader = new BufferedReader(source, BUFFERSIZE);
+		pending = readHeader();
+	}
+
+	/**
+	 * @param typeID id from a synonymtypedef in the header (e.g., COMMONNAME)
+	 * @return the name the header gives the type, or null if the header doesn't define it
+	 */
+	String getSynonymTypeName(String typeID){
+		return synonymTypeNames.get(typeID);
+	}
+
+	/**
+	 * @return the next term stanza, or null at the end of the file
+	 * @throws IOException
+	 */
+	Stanza next() throws IOException{
+		while (pending != null && !TERMHEADER.equals(pending)){
+			pending = nextStanzaHeader();
+		}
+		if (pending == null){
+			return null;
+		}
+		final Stanza result = new Stanza();
+		String line = readLine();
+		while (line != null && !isStanzaHeader(line)){
+			readTag(line, result);
+			line = readLine();
+		}
+		pending = line;
+		if (result.id == null){
+			throw new IOException("Term stanza without an id ending at line " + lineNumber);
+		}
+		return result;
+	}
+
+	void close() throws IOException{
+		reader.close();
+	}
+
+	private String readHeader() throws IOException{
+		String line = readLine();
+		while (line != null && !isStanzaHeader(line)){
+			final int colon = line.indexOf(':');
+			if (colon > 0 && "synonymtypedef".equals(line.substring(0, colon))){
+				final Cursor c = new Cursor(line, colon+1);
+				final String typeID = c.token();
+				final String typeName = c.quoted();
+				if (typeID != null && typeName != null){
+					synonymTypeNames.put(typeID, typeName);
+				}
+			}
+			line = readLine();
+		}
+		return line;
+	}
+
+	private String nextStanzaHeader() throws IOException{
+		String line = readLine();
+		while (line != null && !isStanzaHeader(line)){
+			line = readLine();
+		}
+		return line;
+	}
+
+	//returns lines trimmed; blank and comment lines are dropped
+	private String readLine() throws IOException{
+		String line = reader.readLine();
+		while (line != null){
+			lineNumber++;
+			line = line.trim();
+			if (line.length() > 0 && line.charAt(0) != '!'){
+				return line;
+			}
+			line = reader.readLine();
+		}
+		return null;
+	}
+
+	private static boolean isStanzaHeader(String line){
+		return line.charAt(0) == '[' && line.charAt(line.length()-1) == ']';
+	}
+
+	private void readTag(String line, Stanza s){
+		final int colon = line.indexOf(':');
+		if (colon < 1){
+			logger.warn("Skipping line " + lineNumber + " without a tag: " + line);
+			return;
+		}
+		final String tag = line.substring(0, colon);
+		final Cursor c = new Cursor(line, colon+1);
+		if ("id".equals(tag)){
+			s.id = c.value();
+		}
+		else if ("name".equals(tag)){
+			s.name = c.value();
+		}
+		else if ("synonym".equals(tag)){
+			readSynonym(c, s, true);
+		}
+		else if ("exact_synonym".equals(tag) || "narrow_synonym".equals(tag) || "broad_synonym".equals(tag) || "related_synonym".equals(tag)){
+			readSynonym(c, s, false);   //OBO 1.0 style, scope is in the tag and there is no type
+		}
+		else if ("xref".equals(tag) || "xref_analog".equals(tag)){
+			final Reference r = Reference.parse(c.rawToken());
+			if (r != null){
+				s.addXref(r);
+			}
+		}
+		else if ("is_obsolete".equals(tag)){
+			s.obsolete = "true".equals(c.value());
+		}
+		else if (OBOUtils.PROPERTYVALUE_TAG.equals(tag)){
+			final String value = c.value();
+			if (value != null && value.startsWith(RANKPREFIX)){
+				s.rankID = value.substring(RANKPREFIX.length()).trim();
+			}
+		}
+	}
+
+	private void readSynonym(Cursor c, Stanza s, boolean hasScope){
+		final String text = c.quoted();
+		if (text == null){
+			logger.warn("Skipping synonym without quoted text at line " + lineNumber);
+			return;
+		}
+		String typeID = null;
+		if (hasScope){
+			c.token();    //scope
+			if (!c.atRefList()){
+				typeID = c.token();
+			}
+		}
+		final StanzaSynonym syn = new StanzaSynonym(text, typeID, (typeID == null) ? null : synonymTypeNames.get(typeID));
+		for (String ref : c.refList()){
+			final Reference r = Reference.parse(ref);
+			if (r != null){
+				syn.addXref(r);
+			}
+		}
+		s.addSynonym(syn);
+	}
+
+
+	/**
+	 * The parts of a term stanza the mergers use
+	 */
+	static class Stanza {
+		private String id;
+		private String name;
+		private String rankID;
+		private boolean obsolete = false;
+		private List<StanzaSynonym> synonyms = null;
+		private List<Reference> xrefs = null;
+
+		String getID(){
+			return id;
+		}
+
+		String getName(){
+			return name;
+		}
+
+		/**
+		 * @return the rank id from the has_rank property value (e.g., TAXRANK:0000006) or null
+		 */
+		String getRankID(){
+			return rankID;
+		}
+
+		boolean isObsolete(){
+			return obsolete;
+		}
+
+		List<StanzaSynonym> getSynonyms(){
+			if (synonyms == null){
+				return Collections.emptyList();
+			}
+			return synonyms;
+		}
+
+		List<Reference> getXrefs(){
+			if (xrefs == null){
+				return Collections.emptyList();
+			}
+			return xrefs;
+		}
+
+		private void addSynonym(StanzaSynonym syn){
+			if (synonyms == null){
+				synonyms = new ArrayList<StanzaSynonym>(2);
+			}
+			synonyms.add(syn);
+		}
+
+		private void addXref(Reference r){
+			if (xrefs == null){
+				xrefs = new ArrayList<Reference>(2);
+			}
+			xrefs.add(r);
+		}
+	}
+
+	static class StanzaSynonym {
+		private final String text;
+		private final String typeID;
+		private final String typeName;
+		private List<Reference> xrefs = null;
+
+		StanzaSynonym(String text, String typeID, String typeName){
+			this.text = text;
+			this.typeID = typeID;
+			this.typeName = typeName;
+		}
+
+		String getText(){
+			return text;
+		}
+
+		/**
+		 * @return the synonym type's id (e.g., COMMONNAME), or null if the synonym is untyped
+		 */
+		String getTypeID(){
+			return typeID;
+		}
+
+		/**
+		 * @return the synonym type's name as declared in the file header, or null
+		 */
+		String getTypeName(){
+			return typeName;
+		}
+
+		/**
+		 * @return xrefs in the order they appear in the file
+		 */
+		List<Reference> getXrefs(){
+			if (xrefs == null){
+				return Collections.emptyList();
+			}
+			return xrefs;
+		}
+
+		private void addXref(Reference r){
+			if (xrefs == null){
+				xrefs = new ArrayList<Reference>(1);
+			}
+			xrefs.add(r);
+		}
+	}
+
+	static class Reference {
+		private final String database;
+		private final String databaseID;
+
+		Reference(String db, String id){
+			database = db;
+			databaseID = id;
+		}
+
+		String getDatabase(){
+			return database;
+		}
+
+		String getDatabaseID(){
+			return databaseID;
+		}
+
+		//ref is an escaped DB:ID, split at the first unescaped colon; anything without one has no database and is dropped
+		private static Reference parse(String ref){
+			if (ref == null){
+				return null;
+			}
+			int colon = -1;
+			for (int i = 0; i < ref.length() && colon < 0; i++){
+				if (ref.charAt(i) == '\\'){
+					i++;
+				}
+				else if (ref.charAt(i) == ':'){
+					colon = i;
+				}
+			}
+			if (colon < 1){
+				return null;
+			}
+			return new Reference(Cursor.unescape(ref.substring(0, colon)), Cursor.unescape(ref.substring(colon+1)));
+		}
+	}
+
+
+	/**
+	 * Scans the value part of a tag line, undoing the serializer's escapes (\n, \t, \W and backslash
+	 * followed by any other character) and stopping at an unescaped '!' comment or '{' modifier list.
+	 */
+	private static class Cursor {
+		private final String line;
+		private int pos;
+
+		Cursor(String line, int start){
+			this.line = line;
+			pos = start;
+		}
+
+		//rest of the line, unescaped and trimmed
+		String value(){
+			final StringBuilder b = new StringBuilder(line.length() - pos);
+			while (pos < line.length() && line.charAt(pos) != '!' && line.charAt(pos) != '{'){
+				pos = append(b, pos);
+			}
+			return b.toString().trim();
+		}
+
+		//next whitespace delimited token, unescaped
+		String token(){
+			final String raw = rawToken();
+			return (raw == null) ? null : unescape(raw);
+		}
+
+		//next whitespace delimited token with escapes left in place
+		String rawToken(){
+			skipSpace();
+			if (atEnd()){
+				return null;
+			}
+			final int start = pos;
+			while (pos < line.length() && !Character.isWhitespace(line.charAt(pos))){
+				pos += (line.charAt(pos) == '\\') ? 2 : 1;
+			}
+			pos = Math.min(pos, line.length());
+			return line.substring(start, pos);
+		}
+
+		//next double quoted string, unescaped, or null if the next thing isn't a quote
+		String quoted(){
+			skipSpace();
+			if (pos >= line.length() || line.charAt(pos) != '"'){
+				return null;
+			}
+			pos++;
+			final StringBuilder b = new StringBuilder();
+			while (pos < line.length() && line.charAt(pos) != '"'){
+				pos = append(b, pos);
+			}
+			pos++;
+			return b.toString();
+		}
+
+		boolean atRefList(){
+			skipSpace();
+			return atEnd() || line.charAt(pos) == '[';
+		}
+
+		//escaped DB:ID entries of a bracketed, comma separated dbxref list; quoted descriptions are dropped
+		List<String> refList(){
+			skipSpace();
+			if (pos >= line.length() || line.charAt(pos) != '['){
+				return Collections.emptyList();
+			}
+			pos++;
+			final List<String> result = new ArrayList<String>(1);
+			int start = pos;
+			boolean inDescription = false;
+			while (pos < line.length()){
+				final char ch = line.charAt(pos);
+				if (ch == '\\'){
+					pos += 2;
+					continue;
+				}
+				if (ch == '"'){
+					if (!inDescription){
+						addRef(result, line.substring(start, pos));
+						start = -1;   //rest of this entry is the description
+					}
+					inDescription = !inDescription;
+				}
+				else if (!inDescription && (ch == ',' || ch == ']')){
+					if (start >= 0){
+						addRef(result, line.substring(start, pos));
+					}
+					start = pos+1;
+					if (ch == ']'){
+						break;
+					}
+				}
+				pos++;
+			}
+			return result;
+		}
+
+		private static void addRef(List<String> refs, String entry){
+			final String ref = entry.trim();
+			if (ref.length() > 0){
+				refs.add(ref);
+			}
+		}
+
+		private boolean atEnd(){
+			return pos >= line.length() || line.charAt(pos) == '!' || line.charAt(pos) == '{';
+		}
+
+		private void skipSpace(){
+			while (pos < line.length() && Character.isWhitespace(line.charAt(pos))){
+				pos++;
+			}
+		}
+
+		//appends the (possibly escaped) character at i and returns the position after it
+		private int append(StringBuilder b, int i){
+			final char ch = line.charAt(i);
+			if (ch != '\\'){
+				b.append(ch);
+				return i+1;
+			}
+			if (i+1 < line.length()){
+				b.append(unescapedChar(line.charAt(i+1)));
+			}
+			return i+2;
+		}
+
+		static String unescape(String s){
+			if (s.indexOf('\\') < 0){
+				return s;
+			}
+			final Cursor c = new Cursor(s, 0);
+			final StringBuilder b = new StringBuilder(s.length());
+			while (c.pos < s.length()){
+				c.pos = c.append(b, c.pos);
+			}
+			return b.toString();
+		}
+
+		private static char unescapedChar(char ch){
+			switch (ch){
+			case 'n':
+				return '\n';
+			case 't':
+				return '\t';
+			case 'W':
+				return ' ';
+			default:
+				return ch;
+			}
+		}
+	}
+
+}
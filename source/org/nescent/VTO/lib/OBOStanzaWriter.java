@@ -0,0 +1,350 @@
+package org.nescent.VTO.lib;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.bbop.dataadapter.CancelledAdapterException;
+import org.obo.dataadapter.OBOConstants;
+import org.obo.dataadapter.OBOSerializationEngine;
+import org.obo.dataadapter.OBO_1_2_Serializer;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.IdentifiedObject;
+import org.obo.datamodel.Link;
+import org.obo.datamodel.Namespace;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.OBOProperty;
+import org.obo.datamodel.OBORestriction;
+import org.obo.datamodel.OBOSession;
+import org.obo.datamodel.ObsoletableObject;
+import org.obo.datamodel.PropertyValue;
+import org.obo.datamodel.Synonym;
+import org.obo.util.TermUtil;
+
+/**
+ * Writes a taxonomy session as an OBO 1.2 file one stanza at a time, without going through OBOSerializationEngine's
+ * filtered link databases and per-tag dispatch.  It covers what the taxonomy stores put in a session (id, name, alt_id,
+ * comment, synonyms with types and xrefs, xrefs, is_a, obsolete, replaced_by and consider, rank and extinct property values)
+ * and produces the same text as OBO_1_2_Serializer: stanzas, synonyms, xrefs and links are ordered with the serializer's
+ * default comparators and text is escaped with its escape methods.  The header is still written by the engine since it is
+ * only a few lines.  Sessions holding anything else should be saved with the serializer; canWrite() checks for this.
+ */
+class OBOStanzaWriter {
+
+	static final int BUFFERSIZE = 1 << 20;
+
+	//PrintStream.println, which the serializer uses, ends lines with this; stanza headers carry a literal '\n'
+	private static final String NL = System.getProperty("line.separator");
+
+	static final Logger logger = Logger.getLogger(OBOStanzaWriter.class.getName());
+
+	private final OBOSession session;
+	private final Namespace defaultNamespace;
+	private final List<OBOClass> stanzas = new ArrayList<OBOClass>();
+	private String unsupported = null;
+
+	OBOStanzaWriter(OBOSession s){
+		session = s;
+		defaultNamespace = s.getDefaultNamespace();
+		for (IdentifiedObject io : session.getObjects()){
+			if (io.isBuiltIn()){
+				continue;
+			}
+			if (!(io instanceof OBOClass) || TermUtil.isDangling(io)){
+				unsupported = "non-class object " + io.getID();
+				break;
+			}
+			final OBOClass c = (OBOClass)io;
+			if (!isTaxonStanza(c)){
+				unsupported = "term " + c.getID();
+				break;
+			}
+			stanzas.add(c);
+		}
+	}
+
+	/**
+	 * @return true if every object in the session is a term this writer can reproduce exactly
+	 */
+	boolean canWrite(){
+		if (unsupported != null){
+			logger.info("Session contains a " + unsupported + " using tags the stanza writer doesn't handle");
+		}
+		return unsupported == null;
+	}
+
+	/**
+	 * Writes the session to path, stanzas in the serializer's (ID) order
+	 * @param path
+	 * @throws IOException
+	 */
+	void write(String path) throws IOException{
+		if (!canWrite()){
+			throw new IllegalStateException("Session can not be written by the stanza writer");
+		}
+		Collections.sort(stanzas, idOrder());
+		final Writer out = open(path);
+		try {
+			for (OBOClass c : stanzas){
+				writeStanza(c, out);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Opens path and writes the session's header; stores that keep their terms outside the session pass
+	 * each term to writeStanza in ID order and close the writer themselves
+	 * @param path
+	 * @return buffered writer positioned after the header
+	 * @throws IOException
+	 */
+	Writer open(String path) throws IOException{
+		final Charset cs = Charset.defaultCharset();
+		final FileOutputStream fs = new FileOutputStream(path);
+		final FileChannel channel = fs.getChannel();
+		final Writer out = new BufferedWriter(Channels.newWriter(channel, cs.newEncoder(), BUFFERSIZE), BUFFERSIZE);
+		try {
+			out.write(header(cs));
+		}
+		catch (IOException e){
+			out.close();
+			throw e;
+		}
+		return out;
+	}
+
+	private String header(Charset cs) throws IOException{
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final PrintStream headerStream = new PrintStream(buffer, false, cs.name());
+		final OBOSerializationEngine engine = new OBOSerializationEngine();
+		final OBO_1_2_Serializer serializer = new OBO_1_2_Serializer();
+		serializer.setEngine(engine);
+		serializer.setOutputStream(headerStream);
+		try{
+			engine.writeHeader(session, session.getLinkDatabase(), serializer, new OBOSerializationEngine.FilteredPath(null, null, null));
+		}
+		catch (CancelledAdapterException e){
+			throw new IOException("Header serialization was cancelled");
+		}
+		headerStream.flush();
+		return buffer.toString(cs.name());
+	}
+
+	void writeStanza(OBOClass c, Writer out) throws IOException{
+		out.write("[Term]\n");
+		line(out, "id: ", c.getID());
+		if (c.getName() != null){
+			line(out, "name: ", OBO_1_2_Serializer.escape(c.getName()));
+		}
+		final Namespace ns = c.getNamespace();
+		if (ns != null && !ns.equals(defaultNamespace)){
+			line(out, "namespace: ", ns.getID());
+		}
+		final List<String> altIDs = sorted(c.getSecondaryIDs(), OBOConstants.DEFAULT_ID_COMPARATOR);
+		for (String altID : altIDs){
+			line(out, "alt_id: ", altID);
+		}
+		if (c.getComment() != null && c.getComment().length() > 0){
+			line(out, "comment: ", OBO_1_2_Serializer.escapeBlocktext(c.getComment()));
+		}
+		final List<Synonym> synonyms = sorted(c.getSynonyms(), OBOConstants.DEFAULT_RELATED_SYNONYM_COMPARATOR);
+		for (Synonym s : synonyms){
+			writeSynonym(s, out);
+		}
+		final List<Dbxref> xrefs = sorted(c.getDbxrefs(), OBOConstants.DEFAULT_DBXREF_COMPARATOR);
+		for (Dbxref d : xrefs){
+			out.write("xref: ");
+			writeDbxref(d, out);
+			out.write(NL);
+		}
+		final List<Link> parents = sorted(c.getParents(), OBOConstants.DEFAULT_LINK_COMPARATOR);
+		for (Link l : parents){
+			out.write("is_a: ");
+			out.write(l.getParent().getID());
+			if (l.getParent().getName() != null){
+				out.write(" ! ");
+				out.write(l.getParent().getName());
+			}
+			out.write(NL);
+		}
+		if (c.isObsolete()){
+			line(out, "is_obsolete: ", "true");
+		}
+		final List<ObsoletableObject> replacements = sorted(c.getReplacedBy(), OBOConstants.DEFAULT_OBSOLETE_COMPARATOR);
+		for (ObsoletableObject o : replacements){
+			line(out, "replaced_by: ", o.getID());
+		}
+		final List<ObsoletableObject> considers = sorted(c.getConsiderReplacements(), OBOConstants.DEFAULT_OBSOLETE_COMPARATOR);
+		for (ObsoletableObject o : considers){
+			line(out, "consider: ", o.getID());
+		}
+		for (PropertyValue pv : c.getPropertyValues()){
+			out.write(String.valueOf(pv.getProperty()));
+			line(out, ": ", OBO_1_2_Serializer.escape(pv.getValue()));
+		}
+		out.write(NL);
+	}
+
+	private void writeSynonym(Synonym s, Writer out) throws IOException{
+		out.write("synonym: \"");
+		out.write(OBO_1_2_Serializer.escapeQuoted(s.getText()));
+		out.write("\" ");
+		out.write(scopeString(s.getScope()));
+		if (s.getSynonymType() != null){
+			out.write(' ');
+			out.write(s.getSynonymType().getID());
+		}
+		out.write(" [");
+		boolean first = true;
+		final List<Dbxref> xrefs = sorted(s.getXrefs(), OBOConstants.DEFAULT_DBXREF_COMPARATOR);
+		for (Dbxref d : xrefs){
+			if (!first){
+				out.write(", ");
+			}
+			writeDbxref(d, out);
+			first = false;
+		}
+		out.write(']');
+		out.write(NL);
+	}
+
+	private void writeDbxref(Dbxref d, Writer out) throws IOException{
+		out.write(OBO_1_2_Serializer.escapeDbxref(d.getDatabase()));
+		out.write(':');
+		out.write(OBO_1_2_Serializer.escapeDbxref(d.getDatabaseID()));
+		if (d.getDesc() != null && d.getDesc().length() > 0){
+			out.write(" \"");
+			out.write(OBO_1_2_Serializer.escapeQuoted(d.getDesc()));
+			out.write('"');
+		}
+	}
+
+	private static void line(Writer out, String tag, String value) throws IOException{
+		out.write(tag);
+		out.write(value);
+		out.write(NL);
+	}
+
+	//same mapping as the serializer, which treats unknown scope as related
+	private static String scopeString(int scope){
+		switch (scope){
+		case Synonym.UNKNOWN_SCOPE:
+		case Synonym.RELATED_SYNONYM:
+			return "RELATED";
+		case Synonym.EXACT_SYNONYM:
+			return "EXACT";
+		case Synonym.BROAD_SYNONYM:
+			return "BROAD";
+		case Synonym.NARROW_SYNONYM:
+			return "NARROW";
+		default:
+			return "null";
+		}
+	}
+
+	//the serializer's comparator is declared raw
+	@SuppressWarnings("unchecked")
+	private static Comparator<? super IdentifiedObject> idOrder(){
+		return (Comparator<? super IdentifiedObject>)OBOConstants.DEFAULT_OBJECT_COMPARATOR;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> sorted(Collection<?> items, Comparator<?> comparator){
+		if (items == null || items.isEmpty()){
+			return Collections.emptyList();
+		}
+		final List<T> result = new ArrayList<T>((Collection<T>)items);
+		if (result.size() > 1){
+			Collections.sort(result, (Comparator<T>)comparator);
+		}
+		return result;
+	}
+
+	/**
+	 * @param c
+	 * @return true if c only carries tags this writer reproduces (no definitions, subsets, metadata, nested values or non is_a links)
+	 */
+	private boolean isTaxonStanza(OBOClass c){
+		if (c.isAnonymous() || c.getSubsets().size() > 0 || !c.getDefDbxrefs().isEmpty()){
+			return false;
+		}
+		if (c.getDefinition() != null && c.getDefinition().length() > 0){
+			return false;
+		}
+		if (c.getCreatedBy() != null || c.getCreationDate() != null || c.getModifiedBy() != null || c.getModificationDate() != null){
+			return false;
+		}
+		if (c.getIDExtension() != null || c.getNameExtension() != null || c.getNamespaceExtension() != null ||
+				c.getCommentExtension() != null || c.getObsoleteExtension() != null || c.getAnonymousExtension() != null){
+			return false;
+		}
+		for (Object id : c.getSecondaryIDs()){
+			if (c.getSecondaryIDExtension((String)id) != null){
+				return false;
+			}
+		}
+		for (Object o : c.getSynonyms()){
+			final Synonym s = (Synonym)o;
+			if (s.getNestedValue() != null || !simpleDbxrefs(s.getXrefs())){
+				return false;
+			}
+		}
+		if (!simpleDbxrefs(c.getDbxrefs())){
+			return false;
+		}
+		for (Object o : c.getReplacedBy()){
+			if (c.getReplacedByExtension((ObsoletableObject)o) != null){
+				return false;
+			}
+		}
+		for (Object o : c.getConsiderReplacements()){
+			if (c.getConsiderExtension((ObsoletableObject)o) != null){
+				return false;
+			}
+		}
+		for (Link l : c.getParents()){
+			if (!OBOProperty.IS_A.equals(l.getType()) || l.getNestedValue() != null || TermUtil.isImplied(l) || TermUtil.isIntersection(l)){
+				return false;
+			}
+			if (l.getParent() == null || TermUtil.isDangling(l.getParent())){
+				return false;
+			}
+			if (l.getNamespace() != null && !l.getNamespace().equals(c.getNamespace())){
+				return false;
+			}
+			if (l instanceof OBORestriction){
+				final OBORestriction r = (OBORestriction)l;
+				if (!r.isNecessarilyTrue() || r.isInverseNecessarilyTrue() || r.getCardinality() != null ||
+						r.getMaxCardinality() != null || r.getMinCardinality() != null || r.getNumberOfAdditionalArguments() > 0){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean simpleDbxrefs(Collection<?> refs){
+		for (Object o : refs){
+			if (((Dbxref)o).getNestedValue() != null){
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -16,6 +16,7 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.IdentifiedObject;
 import org.obo.datamodel.Link;
 import org.obo.datamodel.OBOClass;
 import org.obo.datamodel.OBOProperty;
@@ -53,8 +54,12 @@ public class OBOStore implements TaxonStore {
 	 */
 	private final OBOUtils u;
 
-	private int idCounter = 0;
 	private String idSuffix = ":%07d";
+	
+	//Per-prefix id allocation: the largest numeric suffix seen for each id prefix (including trimmed terms, whose ids may be reused)
+	private final Map<String,Integer> idHighWater = new HashMap<String,Integer>();
+	//next counter to hand out for each prefix passed to addTerm; derived from idHighWater and advanced as ids are added
+	private final Map<String,Integer> idCounters = new HashMap<String,Integer>();
 	final private String defaultFormat;
 	
 	//When taxa are trimmed, we want to preserve the id in case the name is reintroduced with a subsequent attach
@@ -77,11 +82,31 @@ public class OBOStore implements TaxonStore {
 		defaultPrefix = prefix;
 		defaultFormat = defaultPrefix + idSuffix;		
 		targetFile = fileSpec;
+		seedIDGenerator();
 	}
 
 	public String getDefaultPrefix(){
 		return defaultPrefix;
 	}
+
+	/**
+	 * @param v if true, term lookups check the store's name and id indexes against a full rebuild (slow, for debugging)
+	 */
+	public void setVerifyIndexes(boolean v){
+		u.setVerifyIndexes(v);
+	}
+
+	/**
+	 * @param path file or URL of a taxonomic rank ontology to use in place of the bundled vocabulary for stores created after this call; null restores the bundled one
+	 */
+	public static void setRankVocabularyPath(String path){
+		RankVocabulary.setOverridePath(path);
+	}
+	
+	//terms handed out by the store carry the utils so synonyms added through them are indexed
+	private Term wrap(final OBOClass c){
+		return new OBOTerm(c,u);
+	}
 	
 	/**
 	 * Initially this will build a fresh set of translated terms everytime - need to fix
@@ -91,7 +116,7 @@ public class OBOStore implements TaxonStore {
 		Collection<OBOClass> source = u.getTerms();   //getting this first allows pre-setting the set size
 		Collection<Term> result = new HashSet<Term>(source.size());
 		for (OBOClass oc : source){
-			result.add(new OBOTerm(oc));
+			result.add(wrap(oc));
 		}
 		return result;
 	}
@@ -108,7 +133,7 @@ public class OBOStore implements TaxonStore {
 			return null;
 		}
 		else {	
-			return new OBOTerm(u.lookupTermByID(termID));
+			return wrap(u.lookupTermByID(termID));
 		}
 	}
 
@@ -126,62 +151,117 @@ public class OBOStore implements TaxonStore {
 
 	/**
 	 * @param prefix specifies the prefix this store will be generating from, so only terms with that prefix are checked
-	 * side-effect: the class field idCounter is set to one more than the largest count found in any term id with the 
+	 * side-effect: the next id generated for prefix will be one more than the largest count found in any term id with the 
 	 * specified prefix.  Note that this needs to skip over the ids that are currently used and the ids that have been trimmed
-	 * but might be reused.
+	 * but might be reused.  The high-water marks are maintained as terms are added, so this no longer sweeps the session.
 	 */
 	@Override
 	public void updateIDGenerator(final String prefix){
 		if (prefix == null)
 			throw new RuntimeException("ID generator received a null prefix");
-		int maxCounter = -1;
-		maxCounter = classSweep(u.getTerms(), prefix,maxCounter);
-		maxCounter = classSweep(trimmedNames.values(),prefix,maxCounter);
-		idCounter = maxCounter+1;
+		idCounters.put(prefix, highWater(prefix)+1);
 	}
 	
+	/**
+	 * Recomputes the high-water marks from the session and the trimmed terms; obsolete classes count too, since
+	 * their ids must never be handed out again
+	 */
+	private void seedIDGenerator(){
+		idHighWater.clear();
+		idCounters.clear();
+		for (IdentifiedObject io : u.getSession().getObjects()){
+			if (io instanceof OBOClass){
+				recordID(io.getID());
+			}
+		}
+		for (OBOClass c : trimmedNames.values()){
+			recordID(c.getID());
+		}
+	}
 	
-	private int classSweep(final Collection<OBOClass> classCl, final String prefix, final int counter){
-		int result = counter;
-		for (OBOClass c : classCl){
-			final String id = c.getID();
-			if (id.startsWith(prefix)){
-				int colonIndex = id.indexOf(':');
-				String suffix = id.substring(colonIndex+1);
-				try{
-					int index = Integer.parseInt(suffix);
-					if (index > result)
-						result = index;
-				}
-				catch (NumberFormatException e){
-					//this really is safe to silently ignore...
-				}
+	/**
+	 * Notes the numeric suffix of an id that is now in use so the generator never hands it out again
+	 * @param id
+	 */
+	private void recordID(final String id){
+		final int colonIndex = id.indexOf(':');
+		if (colonIndex == -1){
+			return;
+		}
+		final int index;
+		try{
+			index = Integer.parseInt(id.substring(colonIndex+1));
+		}
+		catch (NumberFormatException e){
+			return;  //this really is safe to silently ignore...
+		}
+		final String idPrefix = id.substring(0,colonIndex);
+		final Integer oldMark = idHighWater.get(idPrefix);
+		if (oldMark == null || index > oldMark){
+			idHighWater.put(idPrefix, index);
+		}
+		for (Map.Entry<String,Integer> e : idCounters.entrySet()){
+			if (id.startsWith(e.getKey()) && index >= e.getValue()){
+				e.setValue(index+1);
+			}
+		}
+	}
+	
+	//ids are matched on prefix as a leading substring, as the original sweep did
+	private int highWater(final String prefix){
+		int result = -1;
+		for (Map.Entry<String,Integer> e : idHighWater.entrySet()){
+			if ((e.getKey() + ':').startsWith(prefix) && e.getValue() > result){
+				result = e.getValue();
 			}
 		}
 		return result;
 	}
 	
+	private String nextID(final String prefix){
+		Integer counter = idCounters.get(prefix);
+		if (counter == null){
+			counter = highWater(prefix)+1;
+		}
+		final String result = String.format(prefix+idSuffix,counter);
+		idCounters.put(prefix, counter+1);
+		return result;
+	}
+	
 	
 	/**
 	 * This will either reuse an id (from a trimmed tree) that matches a name or generate a fresh it using the default id prefix
 	 */
 	@Override
 	public Term addTerm(final String name, String prefix) {
-		OBOClass addedClass;
 		if (prefix == null){
 			throw new RuntimeException("Prefix supplied to addTerm was null");
 		}
-		if (trimmedNames.containsKey(name)){
-			final OBOClass oldClass = trimmedNames.get(name);
+		final OBOClass addedClass = u.makeDetachedTerm(newID(name, prefix), name);
+		restoreTrimmed(addedClass);
+		u.addDetachedTerm(addedClass);
+		//logger.info("add Term: " + addedClass.getName() +" " + addedClass.getID());
+		return wrap(addedClass);
+	}
+
+	//reuses the id of a trimmed term with the same name if it has the right prefix, otherwise generates one
+	private String newID(final String name, String prefix){
+		final OBOClass oldClass = trimmedNames.get(name);
+		if (oldClass != null){
 			String[] oldComponents = oldClass.getID().split(":");
 			if ((oldComponents.length > 1) && prefix.equals(oldComponents[0])){
-				addedClass = u.makeTerm(oldClass.getID(), name);
-			}
-			else { //wrong prefix, need new id
-				updateIDGenerator(prefix);
-				String newID = String.format(prefix+idSuffix,idCounter++);
-				addedClass = u.makeTerm(newID, name);
+				return oldClass.getID();
 			}
+		}
+		final String result = nextID(prefix);
+		recordID(result);
+		return result;
+	}
+
+	//a term reintroduced under a trimmed name gets the trimmed term's extinct flag and synonyms back; called before the term is indexed
+	private void restoreTrimmed(final OBOClass addedClass){
+		final OBOClass oldClass = trimmedNames.get(addedClass.getName());
+		if (oldClass != null){
 			if (u.isExtinct(oldClass)){
 				u.setExtinct(addedClass);
 			}
@@ -189,13 +269,6 @@ public class OBOStore implements TaxonStore {
 				addedClass.addSynonym(s);
 			}
 		}
-		else { 		// need to generate the ID
-			updateIDGenerator(prefix);
-			String newID = String.format(prefix+idSuffix,idCounter++);
-			addedClass = u.makeTerm(newID, name);
-		}
-		//logger.info("add Term: " + addedClass.getName() +" " + addedClass.getID());
-		return new OBOTerm(addedClass);
 	}
 
 
@@ -211,13 +284,59 @@ public class OBOStore implements TaxonStore {
 		if (idComponents.length < 2){
 			throw new IllegalArgumentException("Provided ID: " + ID + " is not valid OBO syntax");
 		}
-		if (idComponents[0].equalsIgnoreCase(defaultPrefix)){
-			int idIndex = Integer.parseInt(idComponents[1]);
-			if (idIndex > idCounter){
-				idCounter = idIndex+1;
+		recordID(ID);
+		return wrap(u.makeTerm(ID, name));
+	}
+
+	@Override
+	public TermBatch newBatch(){
+		return new TermBatch(this){
+			@Override
+			Term[] commitRecords(){
+				return commitBatch(this);
+			}
+		};
+	}
+
+	//each class is completed before it joins the session, so it is indexed once rather than after every change
+	private Term[] commitBatch(TermBatch batch){
+		final int size = batch.size();
+		final OBOClass[] added = new OBOClass[size];
+		for (int r = 0; r < size; r++){
+			final String id;
+			if (batch.getID(r) != null){
+				id = batch.getID(r);
+				recordID(id);
+			}
+			else {
+				id = newID(batch.getName(r), batch.getPrefix(r));
 			}
+			added[r] = u.makeDetachedTerm(id, batch.getName(r));
+			if (batch.getID(r) == null){
+				restoreTrimmed(added[r]);
+			}
+		}
+		for (int x = 0; x < batch.getXRefCount(); x++){
+			added[batch.getXRefRecord(x)].addDbxref(u.createDbxref(batch.getXRefDB(x), batch.getXRefID(x), null, Dbxref.ANALOG));
+		}
+		for (int s = 0; s < batch.getSynonymCount(); s++){
+			new OBOTerm(added[batch.getSynonymRecord(s)]).addSynonym(batch.getSynonym(s));   //checks for duplicates without indexing
+		}
+		final Term[] result = new Term[size];
+		for (int r = 0; r < size; r++){
+			if (batch.getRank(r) != null){
+				u.setRankFromName(added[r], batch.getRank(r));
+			}
+			if (batch.isExtinct(r)){
+				u.setExtinct(added[r]);
+			}
+			u.addDetachedTerm(added[r]);
+			result[r] = wrap(added[r]);
 		}
-		return new OBOTerm(u.makeTerm(ID, name));
+		for (int l = 0; l < batch.getLinkCount(); l++){
+			u.attachParent(added[batch.getLinkChild(l)], batch.getLinkParent(l, result).asOBOClass());
+		}
+		return result;
 	}
 
 	public void obsoleteTerm(Term term){
@@ -241,12 +360,22 @@ public class OBOStore implements TaxonStore {
 	public Term getTermbyName(final String termName) {
 		final OBOClass term = u.lookupTermByName(termName);
 		if (term != null)
-			return new OBOTerm(term);
+			return wrap(term);
 		else
 			return null;
 	}
 
 
+	public Map<String,Term> getTermsByNames(Collection<String> termNames){
+		final Map<String,OBOClass> found = u.lookupTermsByNames(termNames);
+		final Map<String,Term> result = new HashMap<String,Term>(found.size());
+		for (Map.Entry<String,OBOClass> e : found.entrySet()){
+			result.put(e.getKey(), wrap(e.getValue()));
+		}
+		return result;
+	}
+
+
 	/**
 	 * @param termName name to search the taxonomy for.
 	 * @return true if a term exists in the taxonomy with the specified name
@@ -319,6 +448,7 @@ public class OBOStore implements TaxonStore {
 		}
 		else{
 			removeClade(cladeRoot);
+			seedIDGenerator();
 			logger.info("Removed " + (trimmedNames.size()-initialsize) + " net nodes");
 		}
 	}
@@ -696,7 +826,7 @@ public class OBOStore implements TaxonStore {
 	@Override
 	public void addXRefToTerm(Term t, String dbName, String dbID) {
 		Dbxref newRef = u.createDbxref(dbName, dbID, null, Dbxref.ANALOG);   //not sure this is exactly right, but the short-form constructors in DbxrefImpl suggest it works 
-		t.asOBOClass().addDbxref(newRef);
+		u.addXRef(t.asOBOClass(), newRef);
 	}
 
 
@@ -704,10 +834,20 @@ public class OBOStore implements TaxonStore {
 	public Term getTermByXRef(String dbName, String dbID) {
 		final OBOClass term = u.lookupTermByXRef(dbName,dbID);
 		if (term != null)
-			return new OBOTerm(term);
+			return wrap(term);
 		else
 			return null;
 	}
+
+	@Override
+	public Map<String,Term> getTermsByXRefs(String dbName, Collection<String> dbIDs) {
+		final Map<String,OBOClass> found = u.lookupTermsByXRefs(dbName, dbIDs);
+		final Map<String,Term> result = new HashMap<String,Term>(found.size());
+		for (Map.Entry<String,OBOClass> e : found.entrySet()){
+			result.put(e.getKey(), wrap(e.getValue()));
+		}
+		return result;
+	}
 	
 	
 	@Override
@@ -720,7 +860,7 @@ public class OBOStore implements TaxonStore {
 			OBOClass oldTerm = trimmedNames.get(oldName);
 			if (u.lookupTermByID(oldTerm.getID()) == null){
 				OBOClass addedClass = u.makeTerm(oldTerm.getID(), oldName);
-				addedClass.setObsolete(true);
+				u.obsoleteClass(addedClass);
 				List<OBOClass> considerTerms = findSynonymOccurances(oldName);
 				for(OBOClass candidate : considerTerms){
 					addedClass.addConsiderReplacement(candidate);					
@@ -731,20 +871,19 @@ public class OBOStore implements TaxonStore {
 	}
 
 	
-	//sadly, brute force since the current interface doesn't capture the term with the matching synonym
 	private List<OBOClass> findSynonymOccurances(String oldName){
-		final List<OBOClass> result = new ArrayList<OBOClass>();
 		if (oldName == null){ //should never happen, but harmless here
-			return result;
-		}
-		for (OBOClass c : u.getTerms()){
-			Set <Synonym> synonyms = c.getSynonyms();
-			for (Synonym s : synonyms){
-				if (oldName.equals(s.getText())){
-					result.add(c);
-					break;
-				}
-			}
+			return new ArrayList<OBOClass>();
+		}
+		return u.lookupTermsBySynonym(oldName);
+	}
+
+	@Override
+	public Collection<Term> getTermsBySynonym(String text){
+		final List<OBOClass> holders = u.lookupTermsBySynonym(text);
+		final List<Term> result = new ArrayList<Term>(holders.size());
+		for (OBOClass c : holders){
+			result.add(wrap(c));
 		}
 		return result;
 	}
@@ -18,9 +18,15 @@ import org.semanticweb.owlapi.model.OWLIndividual;
 public class OBOTerm implements Term {
 	
 	private OBOClass term;
+	private final OBOUtils owner;  //session utilities that index this term; null if the term isn't held by a store
 
 	public OBOTerm(OBOClass cl) {
+		this(cl,null);
+	}
+
+	OBOTerm(OBOClass cl, OBOUtils u) {
 		term = cl;
+		owner = u;
 	}
 	
 
@@ -43,7 +49,12 @@ public class OBOTerm implements Term {
 				return;
 			}
 		}
-		term.addSynonym(s.asOBOSynonym());
+		if (owner != null){
+			owner.addSynonym(term, newSyn);
+		}
+		else {
+			term.addSynonym(newSyn);
+		}
 	}
 	
 	private boolean matchSynonyms(Synonym oldSyn, Synonym newSyn){
@@ -124,7 +135,7 @@ public class OBOTerm implements Term {
 			OBOProperty lType = l.getType();
 			if (OBOUtils.ISA_PROPERTY.equals(lType.getID())){
 				OBOClass child = (OBOClass)l.getChild();
-				results.add(new OBOTerm(child));
+				results.add(new OBOTerm(child,owner));
 			}
 		}
 		return results;
@@ -150,6 +161,15 @@ public class OBOTerm implements Term {
 	
 	
 
+	public Term getParent(){
+		for (Link l : asOBOClass().getParents()){
+			if (OBOUtils.ISA_PROPERTY.equals(l.getType().getID())){
+				return new OBOTerm((OBOClass)l.getParent(),owner);
+			}
+		}
+		return null;
+	}
+
 	public List<Term> getAncestors(){
 		List<Term> results = new ArrayList<Term>();
 		OBOClass parent = asOBOClass();
@@ -169,7 +189,7 @@ public class OBOTerm implements Term {
 				parent = null;
 			}
 			else{
-				results.add(new OBOTerm(parent));
+				results.add(new OBOTerm(parent,owner));
 			}
 		}
 		return results;
@@ -217,6 +237,9 @@ public class OBOTerm implements Term {
 		for (PropertyValue v : copy){
 			asOBOClass().removePropertyValue(v);
 		}
+		if (owner != null){
+			owner.forgetRank(term);
+		}
 	}
 
 	public void setComment(String s){
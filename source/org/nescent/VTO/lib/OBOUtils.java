@@ -3,8 +3,10 @@ package org.nescent.VTO.lib;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -48,6 +50,13 @@ class OBOUtils {
 
 	static final public String TRUE_VALUE = "\"true\" xsd:boolean";   //this should probably be some sort of XST:boolean expression
 
+	static final String COMMONNAME_TYPEID = "COMMONNAME";
+	static final String MISSPELLING_TYPEID = "MISSPELLING";
+	static final String NAMEUSAGE_TYPEID = "TAXONNAMEUSAGE";
+	static final String COMMONNAME_TYPENAME = "common name";
+	static final String MISSPELLING_TYPENAME = "misspelling";
+	static final String NAMEUSAGE_TYPENAME = "name with (author year)";
+
 
 	final private OBOSession theSession;
 	final private OBOProperty isaProperty;
@@ -59,19 +68,18 @@ class OBOUtils {
 	static final Logger logger = Logger.getLogger(OBOUtils.class.getName());
 	private ObjectFactory oboFactory = null; 
 
-	private Collection<OBOClass> terms;
-	private Map<String,OBOClass> termNames;
-	private Map<String,IdentifiedObject> termIDs;
-
-	private boolean dirtyTermSets = false;
+	//These indexes are maintained as terms are added, removed, renamed or obsoleted, so lookups never need to rebuild them
+	private final TermIndex termNames;
+	private final Map<String,IdentifiedObject> termIDs;
+	private final Map<String,TermIndex> termXRefs = new HashMap<String,TermIndex>();   //database -> (database id -> term)
+	private final Map<String,List<OBOClass>> termSynonyms = new HashMap<String,List<OBOClass>>();   //synonym text -> terms carrying it
 
+	//when set, every lookup checks the incremental indexes against a full rebuild from the session (slow, for debugging)
+	private boolean verifyIndexes = false;
 
-	private final Map<String,String> rankIDs = new HashMap<String,String>(60);   //rank name -> rankID (e.g., species->TAXRANK:0000006
 
-
-	//this ought to be changed to the appropriate OBO purl
-	static final String TAXON_RANK_URL = "https://phenoscape.svn.sourceforge.net/svnroot/phenoscape/trunk/vocab/taxonomic_rank.obo";
-	//static final String TAXON_RANK_URL = "file:///Users/peter/Projects/VTO/Data/taxonomic_rank.obo";
+	private final RankVocabulary rankVocabulary = RankVocabulary.getShared();   //rank name <-> rankID (e.g., species<->TAXRANK:0000006) <-> ordinal
+	private final Map<OBOClass,Integer> termRanks = new IdentityHashMap<OBOClass,Integer>();   //term -> rank ordinal, filled as ranks are set or first read
 
 	/**
 	 * Constructor for use by OBOStore where the session doesn't come from parsing a file
@@ -82,9 +90,9 @@ class OBOUtils {
 		isaProperty = lookupProperty(ISA_PROPERTY);		
 		hasRankProperty = (OBOProperty)theSession.getObjectFactory().createObject(RANK_PROPERTY, OBOClass.OBO_PROPERTY, false);
 		hasRankProperty.setName("has taxonomic rank");
-		commonNameType = theSession.getObjectFactory().createSynonymType("COMMONNAME", "common name", Synonym.RELATED_SYNONYM);
-		misspelledType = theSession.getObjectFactory().createSynonymType("MISSPELLING", "misspelling", Synonym.EXACT_SYNONYM);
-		nameUsageType = theSession.getObjectFactory().createSynonymType("TAXONNAMEUSAGE", "name with (author year)", Synonym.NARROW_SYNONYM);
+		commonNameType = theSession.getObjectFactory().createSynonymType(COMMONNAME_TYPEID, COMMONNAME_TYPENAME, Synonym.RELATED_SYNONYM);
+		misspelledType = theSession.getObjectFactory().createSynonymType(MISSPELLING_TYPEID, MISSPELLING_TYPENAME, Synonym.EXACT_SYNONYM);
+		nameUsageType = theSession.getObjectFactory().createSynonymType(NAMEUSAGE_TYPEID, NAMEUSAGE_TYPENAME, Synonym.NARROW_SYNONYM);
 		knownSynonymTypes = new HashSet<SynonymType>(3);
 		knownSynonymTypes.add(commonNameType);
 		knownSynonymTypes.add(misspelledType);
@@ -92,11 +100,12 @@ class OBOUtils {
 		theSession.addSynonymType(commonNameType);
 		theSession.addSynonymType(misspelledType);
 		theSession.addSynonymType(nameUsageType);
-		terms = TermUtil.getTerms(theSession);
-		termNames = getAllTermNamesHash(terms);
-		termIDs = getAllTermIDsHash(terms);
-		dirtyTermSets = false;
-		fillRankNames();
+		final Collection<OBOClass> terms = TermUtil.getTerms(theSession);
+		termNames = new TermIndex(terms.size());
+		termIDs = new HashMap<String,IdentifiedObject>(terms.size());
+		for (OBOClass term : terms){
+			indexTerm(term);
+		}
 	}
 
 	/**
@@ -126,9 +135,9 @@ class OBOUtils {
 			hasRankProperty.setName("has taxonomic rank");
 			//theSession.addObject(hasRankProperty);
 		}
-		commonNameType = theSession.getObjectFactory().createSynonymType("COMMONNAME", "common name", Synonym.RELATED_SYNONYM);
-		misspelledType = theSession.getObjectFactory().createSynonymType("MISSPELLING", "misspelling", Synonym.EXACT_SYNONYM);
-		nameUsageType = theSession.getObjectFactory().createSynonymType("TAXONNAMEUSAGE", "name with (author year)", Synonym.NARROW_SYNONYM);
+		commonNameType = theSession.getObjectFactory().createSynonymType(COMMONNAME_TYPEID, COMMONNAME_TYPENAME, Synonym.RELATED_SYNONYM);
+		misspelledType = theSession.getObjectFactory().createSynonymType(MISSPELLING_TYPEID, MISSPELLING_TYPENAME, Synonym.EXACT_SYNONYM);
+		nameUsageType = theSession.getObjectFactory().createSynonymType(NAMEUSAGE_TYPEID, NAMEUSAGE_TYPENAME, Synonym.NARROW_SYNONYM);
 		theSession.addSynonymType(commonNameType);
 		theSession.addSynonymType(misspelledType);
 		theSession.addSynonymType(nameUsageType);
@@ -136,11 +145,12 @@ class OBOUtils {
 		knownSynonymTypes.add(commonNameType);
 		knownSynonymTypes.add(misspelledType);
 		knownSynonymTypes.add(nameUsageType);
-		terms = TermUtil.getTerms(theSession);
-		termNames = getAllTermNamesHash(terms);
-		termIDs = getAllTermIDsHash(terms);
-		dirtyTermSets = false;
-		fillRankNames();
+		final Collection<OBOClass> terms = TermUtil.getTerms(theSession);
+		termNames = new TermIndex(terms.size());
+		termIDs = new HashMap<String,IdentifiedObject>(terms.size());
+		for (OBOClass term : terms){
+			indexTerm(term);
+		}
 	}
 
 
@@ -163,8 +173,7 @@ class OBOUtils {
 	 * 
 	 */
 	public boolean isEmpty(){
-		int termCount = TermUtil.getTerms(theSession).size();
-		return (termCount < 10);  
+		return (termIDs.size() < 10);  
 	}
 
 	/**
@@ -176,10 +185,32 @@ class OBOUtils {
 		OBOClass c = (OBOClass)oboFactory.createObject(id,OBOClass.OBO_CLASS, false);
 		c.setName(name);
 		theSession.addObject(c);
-		dirtyTermSets = true;
+		indexTerm(c);
+		return c;
+	}
+
+	/**
+	 * Makes a term from this session's factory without adding it to the session, for stores that only build
+	 * OBO objects when they are written out
+	 * @param id
+	 * @param name
+	 * @return the new class
+	 */
+	OBOClass makeDetachedTerm(String id, String name){
+		OBOClass c = (OBOClass)oboFactory.createObject(id,OBOClass.OBO_CLASS, false);
+		c.setName(name);
 		return c;
 	}
 
+	/**
+	 * Adds a term made with makeDetachedTerm to the session, indexing its name, cross references and synonyms
+	 * @param c
+	 */
+	void addDetachedTerm(OBOClass c){
+		theSession.addObject(c);
+		indexTerm(c);
+	}
+
 	/**
 	 * Simply wraps an existing OBO synomym in a synonym wrapper
 	 * @param s
@@ -243,7 +274,191 @@ class OBOUtils {
 	public void installTerm(IdentifiedObject newTerm,Map<String, IdentifiedObject> termIDs){
 		theSession.addObject(newTerm);
 		termIDs.put(newTerm.getID(), newTerm);
-		dirtyTermSets = true;
+		if (newTerm instanceof OBOClass){
+			indexTerm((OBOClass)newTerm);
+		}
+	}
+
+	/**
+	 * Changes the name of a term, keeping the name index consistent
+	 * @param c the term to rename
+	 * @param newName
+	 */
+	public void renameTerm(OBOClass c, String newName){
+		unindexName(c);
+		c.setName(newName);
+		if (!c.isObsolete()){
+			indexName(c);
+		}
+	}
+
+
+	/* Index maintenance */
+
+	private void indexTerm(OBOClass c){
+		if (TermUtil.isObsolete(c)){
+			return;
+		}
+		termIDs.put(c.getID(), c);
+		indexName(c);
+		for (Dbxref d : c.getDbxrefs()){
+			indexXRef(c, d);
+		}
+		for (Synonym syn : c.getSynonyms()){
+			indexSynonym(c, syn.getText());
+		}
+	}
+
+	private void unindexTerm(OBOClass c){
+		if (termIDs.get(c.getID()) == c){
+			termIDs.remove(c.getID());
+		}
+		unindexName(c);
+		for (Dbxref d : c.getDbxrefs()){
+			final TermIndex dbIndex = termXRefs.get(d.getDatabase());
+			if (dbIndex != null){
+				dbIndex.remove(d.getDatabaseID(), c);
+			}
+		}
+		for (Synonym syn : c.getSynonyms()){
+			final List<OBOClass> holders = termSynonyms.get(syn.getText());
+			if (holders != null){
+				holders.remove(c);
+				if (holders.isEmpty()){
+					termSynonyms.remove(syn.getText());
+				}
+			}
+		}
+	}
+
+	private void indexName(OBOClass c){
+		final String name = c.getName();
+		if (name == null) {
+			logger.error("Term " + c.getID() + " has null for name");
+			return;
+		}
+		termNames.add(name, c);
+	}
+
+	private void unindexName(OBOClass c){
+		final String name = c.getName();
+		if (name != null){
+			termNames.remove(name, c);
+		}
+	}
+
+	private void indexXRef(OBOClass c, Dbxref d){
+		if (d.getDatabase() == null || d.getDatabaseID() == null){
+			return;
+		}
+		TermIndex dbIndex = termXRefs.get(d.getDatabase());
+		if (dbIndex == null){
+			dbIndex = new TermIndex(1000);
+			termXRefs.put(d.getDatabase(), dbIndex);
+		}
+		dbIndex.add(d.getDatabaseID(), c);
+	}
+
+	private void indexSynonym(OBOClass c, String text){
+		if (text == null){
+			return;
+		}
+		List<OBOClass> holders = termSynonyms.get(text);
+		if (holders == null){
+			holders = new ArrayList<OBOClass>(1);
+			termSynonyms.put(text, holders);
+		}
+		if (!holders.contains(c)){
+			holders.add(c);
+		}
+	}
+
+	/**
+	 * Adds a synonym to a term and records its text in the synonym index
+	 * @param c
+	 * @param s
+	 */
+	public void addSynonym(OBOClass c, Synonym s){
+		c.addSynonym(s);
+		if (!c.isObsolete()){
+			indexSynonym(c, s.getText());
+		}
+	}
+
+	/**
+	 * Adds a cross reference to a term and records it in the cross reference index
+	 * @param c
+	 * @param d
+	 */
+	public void addXRef(OBOClass c, Dbxref d){
+		c.addDbxref(d);
+		if (!c.isObsolete()){
+			indexXRef(c, d);
+		}
+	}
+
+	void setVerifyIndexes(boolean v){
+		verifyIndexes = v;
+	}
+
+	/**
+	 * Compares the incrementally maintained name and id indexes against a fresh rebuild from the session
+	 * @return true if the indexes agree with the rebuild
+	 */
+	boolean checkIndexes(){
+		final Collection<OBOClass> terms = TermUtil.getTerms(theSession);
+		final Map<String,OBOClass> rebuiltNames = getAllTermNamesHash(terms);
+		final Map<String,IdentifiedObject> rebuiltIDs = getAllTermIDsHash(terms);
+		boolean result = true;
+		if (rebuiltIDs.size() != termIDs.size()){
+			logger.error("ID index holds " + termIDs.size() + " terms; rebuild found " + rebuiltIDs.size());
+			result = false;
+		}
+		for (Entry<String,IdentifiedObject> e : rebuiltIDs.entrySet()){
+			if (termIDs.get(e.getKey()) != e.getValue()){
+				logger.error("ID index mismatch for " + e.getKey());
+				result = false;
+			}
+		}
+		for (String name : rebuiltNames.keySet()){
+			final OBOClass indexed = termNames.get(name);
+			if (indexed == null || !name.equals(indexed.getName()) || !rebuiltIDs.containsKey(indexed.getID())){
+				logger.error("Name index mismatch for " + name);
+				result = false;
+			}
+		}
+		for (Entry<String,OBOClass> e : termNames.entrySet()){
+			if (!rebuiltNames.containsKey(e.getKey())){
+				logger.error("Name index holds " + e.getKey() + " which is no longer in the session");
+				result = false;
+			}
+		}
+		for (OBOClass item : terms){
+			for (Dbxref ref : item.getDbxrefs()){
+				final TermIndex dbIndex = termXRefs.get(ref.getDatabase());
+				final OBOClass holder = (dbIndex == null) ? null : dbIndex.get(ref.getDatabaseID());
+				if (holder == null || !rebuiltIDs.containsKey(holder.getID())){
+					logger.error("Cross reference index mismatch for " + ref.getDatabase() + ":" + ref.getDatabaseID());
+					result = false;
+				}
+			}
+		}
+		for (OBOClass item : terms){
+			for (Synonym syn : item.getSynonyms()){
+				final List<OBOClass> holders = termSynonyms.get(syn.getText());
+				if (holders == null || !holders.contains(item)){
+					logger.error("Synonym index mismatch for " + syn.getText() + " on " + item.getID());
+					result = false;
+				}
+			}
+		}
+		return result;
+	}
+
+	private void verify(){
+		if (verifyIndexes && !checkIndexes()){
+			throw new IllegalStateException("Incremental term indexes disagree with session contents");
+		}
 	}
 
 
@@ -294,6 +509,10 @@ class OBOUtils {
 	public void setOntologyTag(String ontologyStr){
 	}
 
+	OBOSession getSession(){
+		return theSession;
+	}
+
 	public OBOProperty getISAproperty() {
 		return isaProperty;
 	}
@@ -330,12 +549,7 @@ class OBOUtils {
 		if (termName == null){
 			throw new RuntimeException("termName is null");
 		}
-		if (dirtyTermSets){
-			terms = TermUtil.getTerms(theSession);
-			termNames = getAllTermNamesHash(terms);
-			termIDs = getAllTermIDsHash(terms);
-			dirtyTermSets = false;
-		}
+		verify();
 		OBOClass result;
 		result = termNames.get(termName);
 		if (result == null) {
@@ -343,7 +557,7 @@ class OBOUtils {
 				if (termName.equals(io.getName())){
 					logger.info("Term names (" + termName +") failed; Found matching object in sessions link database: " + io);
 					logger.info("Matching object is " + io.getType() + " and obsolete: " + ((ObsoletableObject) io).isObsolete());
-					termNames.put(termName, ((OBOClass)io));
+					termNames.cache(termName, ((OBOClass)io));
 					logger.info("check put " + termNames.get(termName));
 					return ((OBOClass)io);
 				}
@@ -356,31 +570,96 @@ class OBOUtils {
 		}
 	}
 
-	public OBOClass lookupTermByXRef(String dbName, String dbID) {
-		if (dirtyTermSets){
-			terms = TermUtil.getTerms(theSession);
-			termNames = getAllTermNamesHash(terms);
-			termIDs = getAllTermIDsHash(terms);
-			dirtyTermSets = false;
+	/**
+	 * Resolves many names as lookupTermByName does, but names missing from the index share one pass over the
+	 * session's link database instead of one pass each
+	 * @param names
+	 * @return map from each name found to its term
+	 */
+	public Map<String,OBOClass> lookupTermsByNames(Collection<String> names) {
+		verify();
+		final Map<String,OBOClass> result = new HashMap<String,OBOClass>(names.size());
+		final Set<String> missing = new HashSet<String>();
+		for (String termName : names){
+			if (termName == null){
+				throw new RuntimeException("termName is null");
+			}
+			final OBOClass c = termNames.get(termName);
+			if (c != null){
+				result.put(termName, c);
+			}
+			else {
+				missing.add(termName);
+			}
+		}
+		if (!missing.isEmpty()){
+			for (IdentifiedObject io : theSession.getLinkDatabase().getObjects()) {
+				if (io.getName() != null && missing.remove(io.getName())){    //first match wins, as in lookupTermByName
+					logger.info("Term names (" + io.getName() +") failed; Found matching object in sessions link database: " + io);
+					termNames.cache(io.getName(), ((OBOClass)io));
+					result.put(io.getName(), ((OBOClass)io));
+					if (missing.isEmpty()){
+						break;
+					}
+				}
+			}
 		}
-		terms = TermUtil.getTerms(theSession);
+		return result;
+	}
+
+	public OBOClass lookupTermByXRef(String dbName, String dbID) {
 		if (dbName == null){
 			throw new RuntimeException("lookupTermByXref received null for database");
 		}
 		if (dbID == null){
 			throw new RuntimeException("lookupTermByXref received null for dbID");
 		}
-		for (OBOClass item : terms){
-			for (Dbxref ref : item.getDbxrefs()){
-				if (dbName.equals(ref.getDatabase()) && dbID.equals(ref.getDatabaseID())){
-					return item;
+		verify();
+		final TermIndex dbIndex = termXRefs.get(dbName);
+		if (dbIndex == null){
+			return null;
+		}
+		return dbIndex.get(dbID);
+	}
+
+	/**
+	 * Bulk form of lookupTermByXRef for mergers resolving many ids from one database
+	 * @param dbName
+	 * @param dbIDs
+	 * @return map from each resolved id to its term; unresolved ids are absent
+	 */
+	public Map<String,OBOClass> lookupTermsByXRefs(String dbName, Collection<String> dbIDs) {
+		if (dbName == null){
+			throw new RuntimeException("lookupTermsByXrefs received null for database");
+		}
+		verify();
+		final Map<String,OBOClass> result = new HashMap<String,OBOClass>(dbIDs.size());
+		final TermIndex dbIndex = termXRefs.get(dbName);
+		if (dbIndex != null){
+			for (String dbID : dbIDs){
+				final OBOClass c = dbIndex.get(dbID);
+				if (c != null){
+					result.put(dbID, c);
 				}
 			}
 		}
-		return null;
+		return result;
 	}
 
 
+	/**
+	 * @param text
+	 * @return every (non-obsolete) term carrying a synonym with exactly this text; empty if none
+	 */
+	public List<OBOClass> lookupTermsBySynonym(String text){
+		verify();
+		final List<OBOClass> holders = termSynonyms.get(text);
+		if (holders == null){
+			return Collections.emptyList();
+		}
+		return new ArrayList<OBOClass>(holders);
+	}
+
 	public Map<String,String> getSynonyms(OBOClass term){
 		Map<String,String> result = new HashMap<String,String>();
 		for (Synonym s : term.getSynonyms()){
@@ -399,68 +678,81 @@ class OBOUtils {
 		return result;
 	}
 
-	/**
-	 * This fills the table that maps rank ids to names
-	 */
-	void fillRankNames(){
-		DefaultOBOParser parser = new DefaultOBOParser();
-		OBOParseEngine engine = new OBOParseEngine(parser);
-		engine.setPath(TAXON_RANK_URL);
-		try {
-			engine.parse();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (OBOParseException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		OBOSession rankSession = parser.getSession();
-		Collection<IdentifiedObject> rankObjects = rankSession.getObjects();
-		for(IdentifiedObject io : rankObjects){
-			rankIDs.put(io.getName(),io.getID());  // will pickup some extra terms (e.g., OBO:Term), but we can ignore those
-		}
-	}
-
-
 	public String getRankID(String name){
-		return rankIDs.get(name);
+		return rankVocabulary.idOf(rankVocabulary.ordinalOfName(name));
 	}
 
 
 	public String getRankName(String ID){
-		if (rankIDs.containsValue(ID)){
-			for (Entry<String,String> ent : rankIDs.entrySet()){
-				if (ent.getValue().equals(ID))
-					return ent.getKey();
-			}
-			return null;
-		}
-		return null;
+		return rankVocabulary.nameOf(rankVocabulary.ordinalOfID(ID));
 	}
 
 	public void setRankFromID(OBOClass cl, String rankID){
+		final Integer cached = termRanks.get(cl);
+		final boolean hadRank;
+		if (cached == null || cached == RankVocabulary.NO_RANK){
+			hadRank = (getRankPropertyValue(cl) != null);  //an uncached term, or one whose rank id is unknown, may still carry a rank
+		}
+		else {
+			hadRank = true;
+		}
 		PropertyValue rankProperty = createRankProperty(rankID);
 		cl.addPropertyValue(rankProperty);
+		if (hadRank){
+			termRanks.remove(cl);  //term now carries more than one rank; let the next read decide as before
+		}
+		else {
+			termRanks.put(cl, rankVocabulary.ordinalOfID(rankID));
+		}
 	}
 
 	public void setRankFromName(OBOClass cl, String rankName){
-		String rankID = rankIDs.get(rankName);
-		if (rankID != null)
-			setRankFromID(cl,rankID);
+		final int ordinal = rankVocabulary.ordinalOfName(rankName);
+		if (ordinal != RankVocabulary.NO_RANK)
+			setRankFromID(cl,rankVocabulary.idOf(ordinal));
+		else
+			rankVocabulary.reportUnknownName(rankName);
 	}
 
 
+	/**
+	 * @param term
+	 * @return ordinal of the term's rank in the rank vocabulary, or RankVocabulary.NO_RANK; the property values are only parsed the first time
+	 */
+	int getRankOrdinal(OBOClass term){
+		Integer ordinal = termRanks.get(term);
+		if (ordinal == null){
+			ordinal = rankVocabulary.ordinalOfID(getRankPropertyID(term));
+			termRanks.put(term, ordinal);
+		}
+		return ordinal;
+	}
 
 	public String getRankString(OBOClass term){
-		for (PropertyValue pv : term.getPropertyValues()){
+		return rankVocabulary.nameOf(getRankOrdinal(term));
+	}
+
+	/**
+	 * @param term
+	 * @return the rank id from the first has_rank property value on the term, or null
+	 */
+	private String getRankPropertyID(OBOClass term){
+		final PropertyValue pv = getRankPropertyValue(term);
+		if (pv == null){
+			return null;
+		}
+		final String propVal = pv.getValue();
+		return propVal.substring(propVal.indexOf(' ')+1);
+	}
+
+	private PropertyValue getRankPropertyValue(OBOClass cl){
+		for (PropertyValue pv : cl.getPropertyValues()){
 			if (PROPERTYVALUE_TAG.equals(pv.getProperty())){  // more checking
 				String propVal = pv.getValue();
 				int spacePos = propVal.indexOf(' ');
 				String propertyName = propVal.substring(0, spacePos);
 				if (RANK_PROPERTY.equals(propertyName)){
-					String rankName = getRankName(propVal.substring(spacePos+1));
-					return rankName;
+					return pv;
 				}
 			}
 		}
@@ -469,22 +761,20 @@ class OBOUtils {
 
 
 	public void removeRank(OBOClass cl){
-		PropertyValue rankPropertyValue = null;
-		for (PropertyValue pv : cl.getPropertyValues()){
-			if (PROPERTYVALUE_TAG.equals(pv.getProperty())){  // more checking
-				String propVal = pv.getValue();
-				int spacePos = propVal.indexOf(' ');
-				String propertyName = propVal.substring(0, spacePos);
-				if (RANK_PROPERTY.equals(propertyName)){
-					rankPropertyValue = pv;
-					break;
-				}
-			}
-		}
+		PropertyValue rankPropertyValue = getRankPropertyValue(cl);
 		if (rankPropertyValue != null){
 			cl.removePropertyValue(rankPropertyValue);
+			termRanks.put(cl, rankVocabulary.ordinalOfID(getRankPropertyID(cl)));
 		}
-	}	
+	}
+
+	/**
+	 * Drops the cached rank for a term whose property values were changed without going through this class
+	 * @param cl
+	 */
+	void forgetRank(OBOClass cl){
+		termRanks.remove(cl);
+	}
 
 	public String makeUnderScoreJoinedName(String rawString){
 		String[] components = rawString.split(" ");
@@ -504,7 +794,8 @@ class OBOUtils {
 
 	protected void removeNode(OBOClass target){
 		theSession.removeObject(target);	
-		dirtyTermSets=true;
+		unindexTerm(target);
+		termRanks.remove(target);
 	}
 
 	public List<String> countTerms(){
@@ -520,9 +811,9 @@ class OBOUtils {
 		SynonymType commonNameType = null;
 		SynonymType misspellingType = null;
 		for(SynonymType st : theSession.getSynonymTypes()){
-			if ("COMMONNAME".equals(st.getID()))
+			if (COMMONNAME_TYPEID.equals(st.getID()))
 				commonNameType = st;
-			if ("MISSPELLING".equals(st.getID()))
+			if (MISSPELLING_TYPEID.equals(st.getID()))
 				misspellingType = st;
 		}
 		Collection<OBOClass> terms = TermUtil.getTerms(theSession);
@@ -581,10 +872,30 @@ class OBOUtils {
 	/* Saving Methods */
 
 	/**
-	 * Saves the contents of the session as an obo format text file
+	 * Saves the contents of the session as an obo format text file, streaming the stanzas directly when
+	 * the session only holds taxonomy terms and falling back to the OBO-Edit serializer otherwise
 	 * @param OBODst specifies a local path for the obo file
 	 */
 	protected void saveOBOSession(String OBODst){
+		final OBOStanzaWriter writer = new OBOStanzaWriter(theSession);
+		if (writer.canWrite()){
+			try {
+				writer.write(OBODst);
+			} catch (IOException e) {
+				logger.error("An error occurred while writing the ontology to " + OBODst);
+				e.printStackTrace();
+			}
+		}
+		else {
+			serializeOBOSession(OBODst);
+		}
+	}
+
+	/**
+	 * Saves the contents of the session through the OBO-Edit serialization engine
+	 * @param OBODst specifies a local path for the obo file
+	 */
+	protected void serializeOBOSession(String OBODst){
 		OBO_1_2_Serializer serializer = new OBO_1_2_Serializer();
 		OBOSerializationEngine se = new OBOSerializationEngine();
 		try {
@@ -596,17 +907,16 @@ class OBOUtils {
 	}
 
 	public void obsoleteTerm(Term term) {
-		OBOClass c = term.asOBOClass();
+		obsoleteClass(term.asOBOClass());
+	}
+
+	public void obsoleteClass(OBOClass c) {
+		unindexTerm(c);
 		c.setObsolete(true);
 	}
 
 	public OBOClass lookupTermByID(String termID) {
-		if (dirtyTermSets){
-			terms = TermUtil.getTerms(theSession);
-			termNames = getAllTermNamesHash(terms);
-			termIDs = getAllTermIDsHash(terms);
-			dirtyTermSets = false;
-		}
+		verify();
 		return (OBOClass)termIDs.get(termID);
 	}
 
@@ -619,6 +929,14 @@ class OBOUtils {
 		return knownSynonymTypes.contains(t);
 	}
 
+	/**
+	 * @param typeID
+	 * @return true if typeID is the id of one of the synonym types every OBOUtils session defines
+	 */
+	static boolean isKnownSynonymTypeID(String typeID){
+		return COMMONNAME_TYPEID.equals(typeID) || MISSPELLING_TYPEID.equals(typeID) || NAMEUSAGE_TYPEID.equals(typeID);
+	}
+
 	public SynonymType lookupSynonymType(String name){
 		for (SynonymType st : knownSynonymTypes){
 			if (st.getName().equals(name)){
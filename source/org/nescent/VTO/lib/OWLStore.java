@@ -3,6 +3,7 @@ package org.nescent.VTO.lib;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.semanticweb.owlapi.model.OWLIndividual;
@@ -110,6 +111,21 @@ public class OWLStore implements TaxonStore {
 		return null;
 	}
 
+	@Override
+	public TermBatch newBatch() {
+		return new TermBatch(this);
+	}
+
+	@Override
+	public Map<String,Term> getTermsByNames(Collection<String> taxonNames) {
+		throw new RuntimeException("Not Implemented");
+	}
+
+	@Override
+	public Collection<Term> getTermsBySynonym(String text) {
+		throw new RuntimeException("Not Implemented");
+	}
+
 	@Override
 	public SynonymI makeSynonym(String syn) {
 		//throw new RuntimeException("Not Implemented");
@@ -206,6 +222,11 @@ public class OWLStore implements TaxonStore {
 		throw new RuntimeException("Not Implemented");
 	}
 
+	@Override
+	public Map<String,Term> getTermsByXRefs(String dbName, Collection<String> dbIDs) {
+		throw new RuntimeException("Not Implemented");
+	}
+
 	@Override
 	public void setExtinct(Term term) {
 		// TODO Auto-generated method stub
@@ -103,6 +103,12 @@ public class OWLTerm implements Term {
 		// TODO stub
 	}
 
+	@Override
+	public Term getParent() {
+		return null;
+		// TODO stub
+	}
+
 	@Override
 	public boolean isObsolete() {
 		// TODO Auto-generated method stub
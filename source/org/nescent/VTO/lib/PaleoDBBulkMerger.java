@@ -146,41 +146,39 @@ public class PaleoDBBulkMerger implements Merger{
 		
 
 		final int startingSize = target.getTerms().size();
-		final Set <String>newTerms = new HashSet<String>();
+		final TermBatch batch = target.newBatch();
 		for(String tName : taxonTree.keySet()){
 			if (!target.hasTermbyName(tName)){
 				final PBDBItem item = validTaxa.get(tName);
-				final Term newTerm = addTermWithPreservingIDcheck(prefix,tName,item.getId());
+				final int newRecord = addRecordWithPreservingIDcheck(batch,prefix,tName,item.getId());
 				if (item.isExtinct()){
-					target.setExtinct(newTerm);
+					batch.setExtinct(newRecord);
 				}
-				processRank(item.getRankName(),newTerm,target);
-				newTerms.add(tName);
-				//termDictionary.put(tName, newTerm);
+				processRank(item.getRankName(),newRecord,batch);
 			}
 			else{
 			}
 		}
 
 		for (String tName : taxonTree.keySet()){
-//			Term child = termDictionary.get(tName);
-//			Term parent = termDictionary.get(taxonTree.get(tName));
-			Term child = target.getTermbyName(tName);
-			if (child == null || child.asOBOClass() == null){
-				logger.warn("For name: " + tName + " term not found in target store");
+			final int child = batch.getRecord(tName);
+			if (child == TermBatch.NONE){
+				logger.info("For name tName " + tName + " newTerms does not contain " + tName);
 				continue;
 			}
-			Term parent = target.getTermbyName(taxonTree.get(tName));
-			if (parent == null){
-				parent = defaultParentTaxon;
-			}
-			if (!newTerms.contains(tName)){
-				logger.info("For name tName " + tName + " newTerms does not contain " + tName);
+			final int parentRecord = batch.getRecord(taxonTree.get(tName));
+			if (parentRecord != TermBatch.NONE){
+				batch.attachParent(child, parentRecord);
 			}
-			if (newTerms.contains(tName) && !parent.getChildren().contains(child)){
-				target.attachParent(child, parent);
+			else {
+				Term parent = target.getTermbyName(taxonTree.get(tName));
+				if (parent == null){
+					parent = defaultParentTaxon;
+				}
+				batch.attachParent(child, parent);
 			}
 		}
+		batch.commit();
 		final int endingSize = target.getTerms().size();
 		logger.info("Checkpoint 2; target contains " + endingSize);
 		int synCount = 0;
@@ -324,23 +322,23 @@ public class PaleoDBBulkMerger implements Merger{
 		taxonTree.remove(orphan);
 	}
 	
-	private void processRank(String rankStr,Term newTerm,TaxonStore target){
-		target.setRankFromName(newTerm, rankStr);
+	private void processRank(String rankStr,int newRecord,TermBatch batch){
+		batch.setRankFromName(newRecord, rankStr);
 		
 	}
 
-	private Term addTermWithPreservingIDcheck(String prefix, String attachment, int id){
-		Term newTerm;
+	private int addRecordWithPreservingIDcheck(TermBatch batch, String prefix, String attachment, int id){
+		int newRecord;
 		final String idStr = Integer.toString(id);
 		if (preserveIDs){
 			final String newid = prefix + ":" + idStr;
-			newTerm=target.addTermbyID(newid, attachment);
+			newRecord=batch.addTermbyID(newid, attachment);
 		}
 		else{
-			newTerm = target.addTerm(attachment, prefix);
-			target.addXRefToTerm(newTerm, PALEODBTAXONPREFIX,idStr);
+			newRecord = batch.addTerm(attachment, prefix);
+			batch.addXRef(newRecord, PALEODBTAXONPREFIX,idStr);
 		}
-		return newTerm;
+		return newRecord;
 	}
 
 
@@ -0,0 +1,173 @@
+package org.nescent.VTO.lib;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.obo.dataadapter.DefaultOBOParser;
+import org.obo.dataadapter.OBOParseEngine;
+import org.obo.dataadapter.OBOParseException;
+import org.obo.datamodel.IdentifiedObject;
+
+/**
+ * Bidirectional table of taxonomic ranks.  Each distinct rank ID gets a small ordinal, so a rank can be
+ * held as an int and turned back into its name or ID with an array read.  Names and IDs are interned.
+ * Instances are immutable; the shared table is parsed once per JVM from the bundled taxonomic_rank.obo
+ * resource, or from an override path when one is set.  Neither is read from the network unless the override
+ * is a URL.
+ */
+class RankVocabulary {
+
+	static final int NO_RANK = -1;
+
+	static final String RANK_RESOURCE = "taxonomic_rank.obo";   //bundled alongside this class
+	//upstream copy of the vocabulary; the update-rank-vocabulary target refreshes the bundled copy from it
+	static final String TAXON_RANK_URL = "https://phenoscape.svn.sourceforge.net/svnroot/phenoscape/trunk/vocab/taxonomic_rank.obo";
+
+	static final String NORANKNAME = "no rank";   //NCBI's name for a node without a rank
+
+	private static String overridePath = null;
+	private static RankVocabulary shared = null;
+
+	static final Logger logger = Logger.getLogger(RankVocabulary.class.getName());
+
+	private final String[] names;
+	private final String[] ids;
+	private final Map<String,Integer> nameOrdinals;
+	private final Map<String,Integer> idOrdinals;
+
+	private final Set<String> reportedNames = Collections.synchronizedSet(new HashSet<String>());
+
+	/**
+	 * @return the rank table shared by every OBOUtils in this JVM, loading it on first use
+	 */
+	static synchronized RankVocabulary getShared(){
+		if (shared == null){
+			final String path;
+			if (overridePath != null){
+				path = overridePath;
+			}
+			else {
+				final URL resource = RankVocabulary.class.getResource(RANK_RESOURCE);
+				if (resource == null){
+					throw new IllegalStateException("Taxonomic rank vocabulary " + RANK_RESOURCE + " is missing from the classpath");
+				}
+				path = resource.toString();
+			}
+			shared = new RankVocabulary(load(path));
+		}
+		return shared;
+	}
+
+	/**
+	 * Replaces the bundled vocabulary with one loaded from path (file or URL); takes effect for stores created afterwards
+	 * @param path null reverts to the bundled vocabulary
+	 */
+	static synchronized void setOverridePath(String path){
+		if (path == null ? overridePath != null : !path.equals(overridePath)){
+			overridePath = path;
+			shared = null;
+		}
+	}
+
+	private static Collection<IdentifiedObject> load(String path){
+		DefaultOBOParser parser = new DefaultOBOParser();
+		OBOParseEngine engine = new OBOParseEngine(parser);
+		engine.setPath(path);
+		try {
+			engine.parse();
+		} catch (IOException e) {
+			logger.error("An error occurred while reading the taxonomic rank vocabulary from: " + path);
+			e.printStackTrace();
+		} catch (OBOParseException e) {
+			logger.error("An error occurred while parsing the taxonomic rank vocabulary in: " + path);
+			e.printStackTrace();
+		}
+		return parser.getSession().getObjects();
+	}
+
+	/**
+	 * @param rankObjects objects loaded from the rank ontology; this will pickup some extra terms (e.g., OBO:Term), but we can ignore those
+	 */
+	RankVocabulary(Collection<IdentifiedObject> rankObjects){
+		final List<String> nameList = new ArrayList<String>(rankObjects.size());
+		final List<String> idList = new ArrayList<String>(rankObjects.size());
+		nameOrdinals = new HashMap<String,Integer>(rankObjects.size()*2);
+		idOrdinals = new HashMap<String,Integer>(rankObjects.size()*2);
+		for (IdentifiedObject io : rankObjects){
+			if (io.getID() == null || io.getName() == null){
+				continue;
+			}
+			final String id = io.getID().intern();
+			final String name = io.getName().intern();
+			Integer ordinal = idOrdinals.get(id);
+			if (ordinal == null){
+				ordinal = idList.size();
+				idList.add(id);
+				nameList.add(name);
+				idOrdinals.put(id, ordinal);
+			}
+			else {
+				nameList.set(ordinal, name);
+			}
+			nameOrdinals.put(name, ordinal);  //last object with a name wins, as the old name->ID map did
+		}
+		names = nameList.toArray(new String[nameList.size()]);
+		ids = idList.toArray(new String[idList.size()]);
+	}
+
+	/**
+	 * Logs, once per name, that a rank name is unknown, so terms given it get no rank
+	 * @param name
+	 */
+	void reportUnknownName(String name){
+		if (name != null && !NORANKNAME.equals(name) && reportedNames.add(name)){
+			logger.warn("Unknown taxonomic rank '" + name + "'; terms with this rank are left without one (the rankVocabulary attribute can supply a fuller vocabulary)");
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return ordinal of the rank with this name or NO_RANK (always for NCBI's "no rank")
+	 */
+	int ordinalOfName(String name){
+		if (name == null || NORANKNAME.equals(name)){
+			return NO_RANK;
+		}
+		final Integer ordinal = nameOrdinals.get(name);
+		return (ordinal == null) ? NO_RANK : ordinal;
+	}
+
+	/**
+	 * @param id
+	 * @return ordinal of the rank with this ID or NO_RANK
+	 */
+	int ordinalOfID(String id){
+		if (id == null){
+			return NO_RANK;
+		}
+		final Integer ordinal = idOrdinals.get(id);
+		return (ordinal == null) ? NO_RANK : ordinal;
+	}
+
+	String nameOf(int ordinal){
+		return (ordinal == NO_RANK) ? null : names[ordinal];
+	}
+
+	String idOf(int ordinal){
+		return (ordinal == NO_RANK) ? null : ids[ordinal];
+	}
+
+	int size(){
+		return ids.length;
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.nescent.VTO.lib;
+
+import java.util.Arrays;
+
+/**
+ * Assigns each distinct string a small int, so names, synonyms and cross reference ids can be held in
+ * int arrays.  Each string is stored once; the hash table is an open addressed int array, so there are
+ * no per-entry objects beyond the strings themselves.  Strings are never removed.
+ */
+class StringPool {
+
+	static final int NONE = -1;
+
+	private String[] strings;
+	private int[] hashes;
+	private int[] table;     //slot -> string index + 1, 0 for empty
+	private int count = 0;
+
+	StringPool(int initialSize){
+		strings = new String[Math.max(initialSize, 16)];
+		hashes = new int[strings.length];
+		table = new int[tableSizeFor(strings.length)];
+	}
+
+	/**
+	 * @param s
+	 * @return the index of s, adding it to the pool if it isn't already there; NONE for null
+	 */
+	int intern(String s){
+		if (s == null){
+			return NONE;
+		}
+		final int h = s.hashCode();
+		final int mask = table.length-1;
+		int slot = spread(h) & mask;
+		while (table[slot] != 0){
+			final int index = table[slot]-1;
+			if (hashes[index] == h && strings[index].equals(s)){
+				return index;
+			}
+			slot = (slot+1) & mask;
+		}
+		if (count == strings.length){
+			strings = Arrays.copyOf(strings, count*2);
+			hashes = Arrays.copyOf(hashes, count*2);
+		}
+		strings[count] = s;
+		hashes[count] = h;
+		table[slot] = count+1;
+		count++;
+		if (count*2 > table.length){
+			rehash();
+		}
+		return count-1;
+	}
+
+	/**
+	 * @param s
+	 * @return the index of s or NONE if it has never been interned
+	 */
+	int find(String s){
+		if (s == null){
+			return NONE;
+		}
+		final int h = s.hashCode();
+		final int mask = table.length-1;
+		int slot = spread(h) & mask;
+		while (table[slot] != 0){
+			final int index = table[slot]-1;
+			if (hashes[index] == h && strings[index].equals(s)){
+				return index;
+			}
+			slot = (slot+1) & mask;
+		}
+		return NONE;
+	}
+
+	String get(int index){
+		return (index == NONE) ? null : strings[index];
+	}
+
+	int size(){
+		return count;
+	}
+
+	private void rehash(){
+		table = new int[table.length*2];
+		final int mask = table.length-1;
+		for (int i = 0; i < count; i++){
+			int slot = spread(hashes[i]) & mask;
+			while (table[slot] != 0){
+				slot = (slot+1) & mask;
+			}
+			table[slot] = i+1;
+		}
+	}
+
+	static int spread(int h){
+		return h ^ (h >>> 16);
+	}
+
+	static int tableSizeFor(int n){
+		int result = 16;
+		while (result < n*2){
+			result <<= 1;
+		}
+		return result;
+	}
+
+}
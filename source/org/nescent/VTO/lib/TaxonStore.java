@@ -2,6 +2,7 @@ package org.nescent.VTO.lib;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.obo.datamodel.Synonym;
 
@@ -62,6 +63,20 @@ public interface TaxonStore {
 	public String getRankID(String rankName);
 	
 	public Term getTermbyName(String taxonName);
+
+	/**
+	 * Resolves many names at once, as getTermbyName does one
+	 * @param taxonNames
+	 * @return map from each name to the term getTermbyName would return; names with no term are absent
+	 */
+	public Map<String,Term> getTermsByNames(Collection<String> taxonNames);
+	
+	/**
+	 * 
+	 * @param text synonym text to search for (exact match)
+	 * @return every term carrying a synonym with this text; empty if there are none
+	 */
+	public Collection<Term> getTermsBySynonym(String text);
 	
 	/**
 	 * This just checks that a term exists, doesn't need to build anything
@@ -87,6 +102,13 @@ public interface TaxonStore {
 	public boolean isEmpty();
 
 	public Term addTermbyID(String ID, String name);
+
+	/**
+	 * Mergers adding many terms gather them in a batch and commit it, rather than calling addTerm, setRankFromName,
+	 * addXRefToTerm and attachParent for each one
+	 * @return an empty batch of term records for this store
+	 */
+	public TermBatch newBatch();
 	
 	//needs to be here as terms don't carry around their factories
 	public void addXRefToTerm(Term t, String dbName, String dbID);
@@ -108,6 +130,14 @@ public interface TaxonStore {
 
 	public Term getTermByXRef(String dbName, String dbID);
 
+	/**
+	 * Resolves many cross references from one database at once
+	 * @param dbName database prefix of the cross references (e.g., NCBITaxon)
+	 * @param dbIDs identifiers within dbName
+	 * @return map from each identifier to the term carrying it; identifiers with no term are absent
+	 */
+	public Map<String,Term> getTermsByXRefs(String dbName, Collection<String> dbIDs);
+
 	public String getRankString(Term term);
 	
 	public void setExtinct(Term term);
@@ -37,6 +37,11 @@ public interface Term {
 	void createAltID(String id);
 
 	public List<Term> getAncestors();
+
+	/**
+	 * @return the term's parent, the first of getAncestors, without building the rest of the lineage; null for a root
+	 */
+	public Term getParent();
 	
 	public boolean isObsolete();
 	
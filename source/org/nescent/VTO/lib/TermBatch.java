@@ -0,0 +1,359 @@
+package org.nescent.VTO.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Term records gathered by a merger and added to a TaxonStore in one step.  A record has a name, an optional id
+ * (otherwise one is generated from the record's prefix, as addTerm does), an optional rank, parents (other
+ * records in the batch or terms already in the store), cross references, synonyms, a comment and an extinct flag.
+ * Records are referred to by the int the add methods return.  Nothing reaches the store until commit, after which
+ * getTerm returns each record's term; until then hasName and the by name attachParent look for a name among the
+ * records before the store, as they would find it if each term had been added directly.
+ *
+ * Terms are created in record order, so generated ids follow the order records were added.  For each term the
+ * cross references and synonyms are added in the order given, then the rank and the extinct flag, and parents
+ * are attached, in the order given, once every record has its term.  Comments are set last.
+ *
+ * This class commits through the store's one term at a time methods; OBOStore and CompactStore return subclasses
+ * that build the terms directly and index each one once.
+ */
+public class TermBatch {
+
+	public static final int NONE = -1;
+
+	protected final TaxonStore store;
+
+	private int size = 0;
+	private String[] names = new String[64];
+	private String[] ids = new String[64];
+	private String[] prefixes = new String[64];
+	private String[] ranks = new String[64];
+	private final BitSet extinct = new BitSet();
+	private final Map<String,Integer> recordsByName = new HashMap<String,Integer>();
+	private final Map<Integer,String> comments = new HashMap<Integer,String>();
+
+	private int linkCount = 0;
+	private int[] linkChildren = new int[64];
+	private int[] linkParents = new int[64];    //a record, or NONE for a term in linkParentTerms
+	private final List<Term> linkParentTerms = new ArrayList<Term>();
+
+	private int xrefCount = 0;
+	private int[] xrefRecords = new int[64];
+	private String[] xrefDBs = new String[64];
+	private String[] xrefIDs = new String[64];
+
+	private int synonymCount = 0;
+	private int[] synonymRecords = new int[64];
+	private SynonymI[] synonyms = new SynonymI[64];
+
+	private Term[] terms = null;
+
+	/**
+	 * @param targetStore the store commit adds the terms to
+	 */
+	public TermBatch(TaxonStore targetStore){
+		store = targetStore;
+	}
+
+	/**
+	 * @param name
+	 * @param prefix the generated id's prefix
+	 * @return the new record
+	 */
+	public int addTerm(String name, String prefix){
+		if (prefix == null){
+			throw new RuntimeException("Prefix supplied to addTerm was null");
+		}
+		return addRecord(null, name, prefix);
+	}
+
+	/**
+	 * @param id the new term will have this id
+	 * @param name
+	 * @return the new record
+	 */
+	public int addTermbyID(String id, String name){
+		if (id.split(":").length < 2){
+			throw new IllegalArgumentException("Provided ID: " + id + " is not valid OBO syntax");
+		}
+		return addRecord(id, name, null);
+	}
+
+	private int addRecord(String id, String name, String prefix){
+		checkOpen();
+		if (size == names.length){
+			final int newSize = size*2;
+			names = Arrays.copyOf(names, newSize);
+			ids = Arrays.copyOf(ids, newSize);
+			prefixes = Arrays.copyOf(prefixes, newSize);
+			ranks = Arrays.copyOf(ranks, newSize);
+		}
+		final int record = size++;
+		names[record] = name;
+		ids[record] = id;
+		prefixes[record] = prefix;
+		ranks[record] = null;
+		if (!recordsByName.containsKey(name)){
+			recordsByName.put(name, record);
+		}
+		return record;
+	}
+
+	/**
+	 * @param name
+	 * @return the first record added with this name, or NONE
+	 */
+	public int getRecord(String name){
+		final Integer result = recordsByName.get(name);
+		return (result != null) ? result : NONE;
+	}
+
+	/**
+	 * @param name
+	 * @return true if a record or a term in the store has this name
+	 */
+	public boolean hasName(String name){
+		return recordsByName.containsKey(name) || store.getTermbyName(name) != null;
+	}
+
+	public void setRankFromName(int record, String rank){
+		checkRecord(record);
+		ranks[record] = rank;
+	}
+
+	public void setExtinct(int record){
+		checkRecord(record);
+		extinct.set(record);
+	}
+
+	/**
+	 * @param child
+	 * @param parent another record in this batch
+	 */
+	public void attachParent(int child, int parent){
+		checkRecord(parent);
+		addLink(child, parent, null);
+	}
+
+	/**
+	 * @param child
+	 * @param parent a term already in the store
+	 */
+	public void attachParent(int child, Term parent){
+		if (parent == null){
+			throw new IllegalArgumentException("Null parent supplied for record " + child);
+		}
+		addLink(child, NONE, parent);
+	}
+
+	/**
+	 * @param child
+	 * @param parentName the name of a record in this batch or, failing that, of a term in the store
+	 */
+	public void attachParent(int child, String parentName){
+		final int parentRecord = getRecord(parentName);
+		if (parentRecord != NONE){
+			attachParent(child, parentRecord);
+			return;
+		}
+		final Term parentTerm = store.getTermbyName(parentName);
+		if (parentTerm == null){
+			throw new IllegalArgumentException("No record or term named " + parentName);
+		}
+		attachParent(child, parentTerm);
+	}
+
+	private void addLink(int child, int parentRecord, Term parentTerm){
+		checkRecord(child);
+		if (linkCount == linkChildren.length){
+			final int newSize = linkCount*2;
+			linkChildren = Arrays.copyOf(linkChildren, newSize);
+			linkParents = Arrays.copyOf(linkParents, newSize);
+		}
+		linkChildren[linkCount] = child;
+		linkParents[linkCount] = parentRecord;
+		linkParentTerms.add(parentTerm);
+		linkCount++;
+	}
+
+	public void setComment(int record, String comment){
+		checkRecord(record);
+		comments.put(record, comment);
+	}
+
+	public void addXRef(int record, String dbName, String dbID){
+		checkRecord(record);
+		if (xrefCount == xrefRecords.length){
+			final int newSize = xrefCount*2;
+			xrefRecords = Arrays.copyOf(xrefRecords, newSize);
+			xrefDBs = Arrays.copyOf(xrefDBs, newSize);
+			xrefIDs = Arrays.copyOf(xrefIDs, newSize);
+		}
+		xrefRecords[xrefCount] = record;
+		xrefDBs[xrefCount] = dbName;
+		xrefIDs[xrefCount] = dbID;
+		xrefCount++;
+	}
+
+	/**
+	 * @param record
+	 * @param s made by the store's makeSynonym methods
+	 */
+	public void addSynonym(int record, SynonymI s){
+		checkRecord(record);
+		if (synonymCount == synonymRecords.length){
+			final int newSize = synonymCount*2;
+			synonymRecords = Arrays.copyOf(synonymRecords, newSize);
+			synonyms = Arrays.copyOf(synonyms, newSize);
+		}
+		synonymRecords[synonymCount] = record;
+		synonyms[synonymCount] = s;
+		synonymCount++;
+	}
+
+	/**
+	 * @return number of records
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Adds every record to the store; a batch can only be committed once
+	 */
+	public void commit(){
+		checkOpen();
+		terms = commitRecords();
+		for (Map.Entry<Integer,String> e : comments.entrySet()){
+			terms[e.getKey()].setComment(e.getValue());
+		}
+	}
+
+	/**
+	 * @param record
+	 * @return the record's term, once the batch is committed
+	 */
+	public Term getTerm(int record){
+		if (terms == null){
+			throw new IllegalStateException("Batch has not been committed");
+		}
+		return terms[record];
+	}
+
+	/**
+	 * Creates the terms through the store's own methods
+	 * @return the new terms, indexed by record
+	 */
+	Term[] commitRecords(){
+		final Term[] result = new Term[size];
+		for (int r = 0; r < size; r++){
+			result[r] = (ids[r] != null) ? store.addTermbyID(ids[r], names[r]) : store.addTerm(names[r], prefixes[r]);
+		}
+		for (int x = 0; x < xrefCount; x++){
+			store.addXRefToTerm(result[xrefRecords[x]], xrefDBs[x], xrefIDs[x]);
+		}
+		for (int s = 0; s < synonymCount; s++){
+			result[synonymRecords[s]].addSynonym(synonyms[s]);
+		}
+		for (int r = 0; r < size; r++){
+			if (ranks[r] != null){
+				store.setRankFromName(result[r], ranks[r]);
+			}
+			if (extinct.get(r)){
+				store.setExtinct(result[r]);
+			}
+		}
+		for (int l = 0; l < linkCount; l++){
+			store.attachParent(result[linkChildren[l]], getLinkParent(l, result));
+		}
+		return result;
+	}
+
+	/* Record contents, for the stores' commits */
+
+	String getName(int record){
+		return names[record];
+	}
+
+	//null if the id is to be generated
+	String getID(int record){
+		return ids[record];
+	}
+
+	String getPrefix(int record){
+		return prefixes[record];
+	}
+
+	String getRank(int record){
+		return ranks[record];
+	}
+
+	boolean isExtinct(int record){
+		return extinct.get(record);
+	}
+
+	int getLinkCount(){
+		return linkCount;
+	}
+
+	int getLinkChild(int l){
+		return linkChildren[l];
+	}
+
+	/**
+	 * @param l
+	 * @param created the terms made for this batch's records
+	 * @return the link's parent
+	 */
+	Term getLinkParent(int l, Term[] created){
+		final int parentRecord = linkParents[l];
+		return (parentRecord != NONE) ? created[parentRecord] : linkParentTerms.get(l);
+	}
+
+	int getXRefCount(){
+		return xrefCount;
+	}
+
+	int getXRefRecord(int x){
+		return xrefRecords[x];
+	}
+
+	String getXRefDB(int x){
+		return xrefDBs[x];
+	}
+
+	String getXRefID(int x){
+		return xrefIDs[x];
+	}
+
+	int getSynonymCount(){
+		return synonymCount;
+	}
+
+	int getSynonymRecord(int s){
+		return synonymRecords[s];
+	}
+
+	SynonymI getSynonym(int s){
+		return synonyms[s];
+	}
+
+	private void checkOpen(){
+		if (terms != null){
+			throw new IllegalStateException("Batch has already been committed");
+		}
+	}
+
+	private void checkRecord(int record){
+		checkOpen();
+		if (record < 0 || record >= size){
+			throw new IllegalArgumentException("No record " + record + " in this batch");
+		}
+	}
+
+}
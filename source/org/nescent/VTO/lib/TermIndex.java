@@ -0,0 +1,109 @@
+package org.nescent.VTO.lib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.obo.datamodel.OBOClass;
+
+/**
+ * Maps a key (name, xref id, etc.) to the term that currently holds it.  When more than one term
+ * carries the same key, the first one indexed is returned and the others are held back so one of
+ * them can be promoted if the holder is removed.  This keeps lookups constant time without rebuilding
+ * the index from the session.  Terms found outside the index are cached apart from the holders, so a live
+ * term indexed later takes the key from them.
+ */
+class TermIndex {
+
+	private final Map<String,OBOClass> holders;
+	private final Map<String,List<OBOClass>> shadowed = new HashMap<String,List<OBOClass>>();
+	private final Map<String,OBOClass> cached = new HashMap<String,OBOClass>();
+
+	TermIndex(int initialSize){
+		holders = new HashMap<String,OBOClass>(initialSize);
+	}
+
+	OBOClass get(String key){
+		final OBOClass result = holders.get(key);
+		return (result != null) ? result : cached.get(key);
+	}
+
+	boolean containsKey(String key){
+		return holders.containsKey(key) || cached.containsKey(key);
+	}
+
+	/**
+	 * @param key
+	 * @param c term to index under key; if another term already holds key, c is shadowed
+	 */
+	void add(String key, OBOClass c){
+		final OBOClass existing = holders.get(key);
+		if (existing == null){
+			holders.put(key, c);
+			cached.remove(key);
+		}
+		else if (existing != c){
+			List<OBOClass> shadows = shadowed.get(key);
+			if (shadows == null){
+				shadows = new ArrayList<OBOClass>(1);
+				shadowed.put(key, shadows);
+			}
+			if (!shadows.contains(c)){
+				shadows.add(c);
+			}
+		}
+	}
+
+	/**
+	 * This caches a term found outside the index (e.g., an obsolete term found in the link database); it is
+	 * returned until a term is indexed under key
+	 * @param key
+	 * @param c
+	 */
+	void cache(String key, OBOClass c){
+		cached.put(key, c);
+	}
+
+	/**
+	 * Removes c from key, promoting a shadowed term if c was the holder
+	 * @param key
+	 * @param c
+	 */
+	void remove(String key, OBOClass c){
+		if (cached.get(key) == c){
+			cached.remove(key);
+		}
+		final List<OBOClass> shadows = shadowed.get(key);
+		if (holders.get(key) == c){
+			if (shadows == null){
+				holders.remove(key);
+			}
+			else{
+				holders.put(key, shadows.remove(0));
+				if (shadows.isEmpty()){
+					shadowed.remove(key);
+				}
+			}
+		}
+		else if (shadows != null){
+			shadows.remove(c);
+			if (shadows.isEmpty()){
+				shadowed.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @return the indexed holders, without cached terms
+	 */
+	Set<Map.Entry<String,OBOClass>> entrySet(){
+		return holders.entrySet();
+	}
+
+	int size(){
+		return holders.size();
+	}
+
+}
@@ -1,10 +1,12 @@
 package org.nescent.VTO.lib;
 
 import java.io.File;
-import java.util.HashSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.nescent.VTO.Builder;
@@ -32,8 +34,6 @@ public class UnderscoreJoinedNamesMerger implements Merger, ColumnFormat {
 	private int matchCount;
 	private int unresolvedCount;
 
-	private Set<Item> resolvedItems = new HashSet<Item>();
-	
 	private File source;
 	private TaxonStore target;
 	private SynonymSource preserveSynonyms;
@@ -47,6 +47,13 @@ public class UnderscoreJoinedNamesMerger implements Merger, ColumnFormat {
 		reader = new ColumnReader(columnSeparator);
 	}
 
+	/**
+	 * @param n number of threads parsing the source; 1 reads it on the calling thread
+	 */
+	public void setParallelism(int n){
+		reader.setParallelism(n);
+	}
+
 	/* Metadata methods */
 	@Override
 	/**
@@ -111,145 +118,157 @@ public class UnderscoreJoinedNamesMerger implements Merger, ColumnFormat {
 
 	@Override
 	public void merge(String prefix) {
-		ItemList items = reader.processCatalog(source, true);
-		if (!items.hasColumn(KnownField.DELIMITEDNAME)){
+		if (!reader.hasColumn(KnownField.DELIMITEDNAME)){
 			throw new RuntimeException("No delimitedname column specified for joined name formatted file");
 		}
 		matchCount = 0;
 		unresolvedCount = 0;
-		mergeFirstPass(items,prefix);
-		mergeSecondPass(items,prefix);
+		final ColumnReader.CatalogIterator items;
+		try {
+			items = reader.readCatalog(source, true);
+		}
+		catch (IOException e) {
+			logger.error(e);
+			return;
+		}
+		final List<Item> unresolved = new ArrayList<Item>();
+		int itemCount = 0;
+		try {
+			while (items.hasNext()){
+				final Item item = items.next();
+				itemCount++;
+				if (!mergeFirstPass(item, prefix)){
+					unresolved.add(item);
+				}
+			}
+		}
+		finally {
+			items.close();
+		}
+		mergeSecondPass(unresolved, prefix);
+		logger.info("Final match total = " + matchCount);
+		logger.info("Unresolved count = " + (itemCount-matchCount));
+	}
+
+	/**
+	 * Looks for the item's name among the target's term names
+	 * @param item
+	 * @param prefix
+	 * @return true if the name was added as a synonym
+	 */
+	private boolean mergeFirstPass(Item item, String prefix){
+		String genusName = null;
+		String speciesName = null;
+		String subSpeciesName = null;
+		final String taxonName = item.getFieldValue(KnownField.DELIMITEDNAME);
+		String[] splitName = taxonName.split(nameSeparator);
+		if (splitName.length == 1 ){
+			genusName = splitName[0];
+		}
+		else if (splitName.length == 2){
+			speciesName = buildBinomial(splitName);
+		}
+		else {
+			speciesName = buildBinomial(splitName);
+			subSpeciesName = buildTrinomial(splitName);
+		}
+		if (subSpeciesName != null && target.getTermbyName(subSpeciesName) != null){
+			Term t = target.getTermbyName(subSpeciesName);
+			SynonymI s = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
+			t.addSynonym(s);
+			matchCount++;
+			//System.out.println("Found matching subspecies: \t" + subSpeciesName + " total is " + matchCount);
+			return true;
+		} 
+		else if (subSpeciesName != null && speciesName != null && target.getTermbyName(speciesName) != null){
+			Term t = target.getTermbyName(speciesName);
+			SynonymI s = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
+			t.addSynonym(s);
+			matchCount++;
+			//System.out.println("Matched subspecies to parent species: \t" + subSpeciesName + " total is " + matchCount);
+			return true;
+		}
+		else if	(speciesName != null && target.getTermbyName(speciesName) != null){
+			Term t = target.getTermbyName(speciesName);
+			SynonymI s = target.makeSynonymWithXref(speciesName, prefix, Integer.toString(namesCounter++));
+			t.addSynonym(s);
+			matchCount++;
+			//System.out.println("Found matching species: \t" + speciesName + " total is " + matchCount);
+			return true;
+		}
+		else if(genusName != null && target.getTermbyName(genusName) != null){
+			Term t = target.getTermbyName(genusName);
+			SynonymI s = target.makeSynonymWithXref(genusName, prefix, Integer.toString(namesCounter++));
+			t.addSynonym(s);
+			matchCount++;
+			//System.out.println("Found matching genus: \t" + genusName + " total is " + matchCount);
+			return true;
+		}
+		return false;
 	}
 	
-	private void mergeFirstPass(ItemList items, String prefix){
-		for(Item item : items.getContents()){
+	//Second pass over the items the first pass didn't resolve, looking for matches to synonyms
+	private void mergeSecondPass(List<Item> items, String prefix){
+		logger.info("Starting synonym search pass");
+		for(Item item : items){ 
 			String genusName = null;
 			String speciesName = null;
 			String subSpeciesName = null;
 			final String taxonName = item.getFieldValue(KnownField.DELIMITEDNAME);
-			String[] splitName = taxonName.split(nameSeparator);
+			final String[] splitName = taxonName.split(nameSeparator);
 			if (splitName.length == 1 ){
 				genusName = splitName[0];
 			}
 			else if (splitName.length == 2){
-				speciesName = buildBinomial(splitName);
+				speciesName =  buildBinomial(splitName);
 			}
 			else {
 				speciesName = buildBinomial(splitName);
 				subSpeciesName = buildTrinomial(splitName);
 			}
-			if (subSpeciesName != null && target.getTermbyName(subSpeciesName) != null){
-				Term t = target.getTermbyName(subSpeciesName);
-				SynonymI s = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
-				t.addSynonym(s);
-				matchCount++;
-				resolvedItems.add(item);
-				//System.out.println("Found matching subspecies: \t" + subSpeciesName + " total is " + matchCount);
-			} 
-			else if (subSpeciesName != null && speciesName != null && target.getTermbyName(speciesName) != null){
-				Term t = target.getTermbyName(speciesName);
-				SynonymI s = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
-				t.addSynonym(s);
-				matchCount++;
-				resolvedItems.add(item);
-				//System.out.println("Matched subspecies to parent species: \t" + subSpeciesName + " total is " + matchCount);
+			if (subSpeciesName != null){
+				for (Term t : findSynonymHolders(subSpeciesName, speciesName)){
+					SynonymI sn = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
+					t.addSynonym(sn);
+					matchCount++;
+				}
 			}
-			else if	(speciesName != null && target.getTermbyName(speciesName) != null){
-				Term t = target.getTermbyName(speciesName);
-				SynonymI s = target.makeSynonymWithXref(speciesName, prefix, Integer.toString(namesCounter++));
-				t.addSynonym(s);
-				matchCount++;
-				resolvedItems.add(item);
-				//System.out.println("Found matching species: \t" + speciesName + " total is " + matchCount);
+			else if	(speciesName != null){
+				for (Term t : findSynonymHolders(speciesName, null)){
+					SynonymI sn = target.makeSynonymWithXref(speciesName, prefix, Integer.toString(namesCounter++));
+					t.addSynonym(sn);
+					matchCount++;
+				}
 			}
-			else if(genusName != null && target.getTermbyName(genusName) != null){
-				Term t = target.getTermbyName(genusName);
-				SynonymI s = target.makeSynonymWithXref(genusName, prefix, Integer.toString(namesCounter++));
-				t.addSynonym(s);
-				matchCount++;
-				resolvedItems.add(item);
-				//System.out.println("Found matching genus: \t" + genusName + " total is " + matchCount);
+			else if(genusName != null){
+				for (Term t : findSynonymHolders(genusName, null)){
+					SynonymI sn = target.makeSynonymWithXref(genusName, prefix, Integer.toString(namesCounter++));
+					t.addSynonym(sn);
+					matchCount++;
+				}
 			}
 		}
 	}
-	
-	private void mergeSecondPass(ItemList items, String prefix){
-		//Second pass looking for matches to synonyms
-		logger.info("Starting synonym search pass");
-		for(Item item : items.getContents()){ 
-			if (!resolvedItems.contains(item)) {
-				String genusName = null;
-				String speciesName = null;
-				String subSpeciesName = null;
-				final String taxonName = item.getFieldValue(KnownField.DELIMITEDNAME);
-				final String[] splitName = taxonName.split(nameSeparator);
-				if (splitName.length == 1 ){
-					genusName = splitName[0];
-				}
-				else if (splitName.length == 2){
-					speciesName =  buildBinomial(splitName);
-				}
-				else {
-					speciesName = buildBinomial(splitName);
-					subSpeciesName = buildTrinomial(splitName);
-				}
-				if (subSpeciesName != null){
-					for (Term t : target.getTerms()){
-						for(SynonymI s : t.getSynonyms()){
-							String synText = s.getText();
-							if (subSpeciesName.equals(synText)){
-								SynonymI sn = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
-								t.addSynonym(sn);
-								matchCount++;
-								resolvedItems.add(item);
-								//System.out.println("Found matching subspecies synonym: \t" + t.getLabel() + " total is " + matchCount);
-								break;
-							}
-							else if (speciesName != null && speciesName.equals(synText)){
-								SynonymI sn = target.makeSynonymWithXref(subSpeciesName, prefix, Integer.toString(namesCounter++));
-								t.addSynonym(sn);
-								matchCount++;
-								resolvedItems.add(item);
-								//System.out.println("Matched subspecies to parent species synonym: \t" + t.getLabel() + " total is " + matchCount);
-								break;
-							}
-						}
-					}
-				}
-				else if	(speciesName != null){
-					for (Term t : target.getTerms()){
-						for(SynonymI s : t.getSynonyms()){
-							String synText = s.getText();
-							if (speciesName.equals(synText)){
-								SynonymI sn = target.makeSynonymWithXref(speciesName, prefix, Integer.toString(namesCounter++));
-								t.addSynonym(sn);
-								matchCount++;
-								resolvedItems.add(item);
-								//System.out.println("Found matching species synonym: \t" + t.getLabel() + " total is " + matchCount);
-								break;
-							}
-						}
-					}
-				}
-				else if(genusName != null){
-					for (Term t : target.getTerms()){
-						for(SynonymI s : t.getSynonyms()){
-							String synText = s.getText();
-							if (genusName.equals(synText)){
-								SynonymI sn = target.makeSynonymWithXref(genusName, prefix, Integer.toString(namesCounter++));
-								t.addSynonym(sn);
-								matchCount++;
-								resolvedItems.add(item);
-								//System.out.println("Found matching genus synonym: \t" + t.getLabel() + " total is " + matchCount);
-								break;
-							}
-						}
-					}
+
+	/**
+	 * 
+	 * @param name synonym text to look for
+	 * @param altName second synonym text (may be null); terms matching either name are returned once
+	 * @return terms in the target carrying a synonym matching name or altName
+	 */
+	private Collection<Term> findSynonymHolders(String name, String altName){
+		final Map<String,Term> result = new LinkedHashMap<String,Term>();
+		for (Term t : target.getTermsBySynonym(name)){
+			result.put(t.getID(), t);
+		}
+		if (altName != null){
+			for (Term t : target.getTermsBySynonym(altName)){
+				if (!result.containsKey(t.getID())){
+					result.put(t.getID(), t);
 				}
 			}
 		}
-		logger.info("Final match total = " + matchCount);
-		logger.info("Unresolved count = " + (items.getContents().size()-matchCount));
+		return result.values();
 	}
 
 	private String buildBinomial(final String[] components){
@@ -1,6 +1,10 @@
 package org.nescent.VTO.lib;
 
+import static org.junit.Assert.*;
+
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
@@ -103,5 +107,44 @@ public class TestColumnMerger {
 		testMergerTabFormat.attach("Amphibia","Amphibia","ATO");
 	}
 
+	@Test
+	public void testAttachRankOrder() throws IOException {
+		final File catalog = File.createTempFile("catalog", ".txt");
+		final File storeFile = File.createTempFile("columns", ".obo");
+		final FileWriter w = new FileWriter(catalog);
+		w.write("order\tfamily\tsubfamily\tgenus\tspecies\n" +
+				"Anura\tRanidae\t\tRana\ttemporaria\n" +
+				"Anura\tBufonidae\tBufoninae\tBufo\tbufo\n" +
+				"Anura\tRanidae\t\tRana\tarvalis\n" +
+				"Caudata\tSalamandridae\t\tSalamandra\tsalamandra\n");
+		w.close();
+		testStore = new OBOStore(storeFile.getAbsolutePath(), "TEST", "test-ns");
+		final Term amphibia = testStore.addTerm("Amphibia", "TEST");
+		testStore.attachParent(testStore.addTerm("Ranidae", "TEST"), amphibia);   //already known, so not added again
+		testMerger.setColumns(amphibiaColumns);
+		testMerger.setSource(catalog);
+		testMerger.setTarget(testStore);
+		testMerger.attach("Amphibia", "Amphibia", "TEST");
+		final String[] byRank = {"Caudata", "Bufonidae", "Bufoninae", "Rana", "Bufo", "Rana temporaria"};
+		for (int i = 1; i < byRank.length; i++){   //higher ranks get smaller ids
+			assertTrue(testStore.getTermbyName(byRank[i-1]).getID().compareTo(testStore.getTermbyName(byRank[i]).getID()) < 0);
+		}
+		assertTrue(hasChild(testStore.getTermbyName("Bufoninae"), "Bufo"));
+		assertTrue(hasChild(testStore.getTermbyName("Ranidae"), "Rana"));
+		assertTrue(hasChild(testStore.getTermbyName("Rana"), "Rana arvalis"));
+		assertTrue(hasChild(amphibia, "Caudata"));
+		assertEquals(1, testStore.getTermbyName("Ranidae").getChildren().size());
+		catalog.delete();
+		storeFile.delete();
+	}
+
+	private static boolean hasChild(Term t, String label){
+		for (Term child : t.getChildren()){
+			if (label.equals(child.getLabel())){
+				return true;
+			}
+		}
+		return false;
+	}
 
 }
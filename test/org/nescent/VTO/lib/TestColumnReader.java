@@ -3,13 +3,20 @@ package org.nescent.VTO.lib;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -75,4 +82,171 @@ public class TestColumnReader {
 		assertEquals(items.size(),7046);
 	}
 
+	@Test
+	public void testReadCatalog() throws IOException {
+		testReader = new ColumnReader("\t");
+		testReader.setColumns(amphibiaColumns);
+		final File f = File.createTempFile("catalog", ".txt");
+		final FileWriter w = new FileWriter(f);
+		w.write("order\tfamily\tsubfamily\tgenus\tspecies\n" +
+				"Anura\tRanidae\t\tRana\ttemporaria\n" +
+				"bad line\n" +
+				"Anura\tBufonidae\t\tBufo\tbufo\n");
+		w.close();
+		final ColumnReader.CatalogIterator items = testReader.readCatalog(f, true);
+		assertTrue(items.hasNext());
+		assertEquals("Rana", items.next().getName(KnownField.GENUS));
+		assertEquals("Bufonidae", items.next().getName(KnownField.FAMILY));   //the bad line is skipped
+		assertFalse(items.hasNext());
+		assertEquals(2, testReader.processCatalog(f, true).size());
+		final ColumnReader.CatalogIterator stopped = testReader.readCatalog(f, false);
+		assertEquals("order", stopped.next().getName(KnownField.ORDER));
+		stopped.close();
+		assertFalse(stopped.hasNext());
+		f.delete();
+	}
+
+	@Test
+	public void testReadCatalogNoFile() throws IOException {
+		testReader = new ColumnReader("\t");
+		testReader.setColumns(amphibiaColumns);
+		assertFalse(testReader.readCatalog(null, true).hasNext());
+		testReader.setParallelism(2);
+		assertFalse(testReader.readCatalog(null, true, false).hasNext());
+		assertEquals(0, testReader.processCatalog(null, true).size());
+	}
+
+	@Test
+	public void testQuotedFields() throws IOException {
+		testReader = new ColumnReader(",");
+		final List<ColumnType> columns = new ArrayList<ColumnType>(amphibiaColumns);
+		columns.add(new ColumnType("synonym"));
+		final ColumnType xref = new ColumnType("xref");
+		xref.setXrefTemplate("AmphibiaWeb:*xref");
+		columns.add(xref);
+		testReader.setColumns(columns);
+		final File f = File.createTempFile("catalog", ".csv");
+		final FileWriter w = new FileWriter(f);
+		w.write("order,family,subfamily,genus,species,synonym,xref\n" +
+				"Anura,Ranidae,,Rana,\"temporaria\",\"Rana muta, Rana fusca\", 42 \n" +
+				"Anura,\"Bufonidae \"\"true toads\"\"\",,Bufo,bufo\n");
+		w.close();
+		final ColumnReader.CatalogIterator items = testReader.readCatalog(f, true);
+		final Item rana = items.next();
+		assertEquals("temporaria", rana.getName(KnownField.SPECIES));
+		assertEquals(2, rana.getPlainSynonyms().size());
+		assertTrue(rana.getPlainSynonyms().contains("Rana fusca"));
+		assertTrue(rana.getTermXRefs().contains("AmphibiaWeb:42"));
+		assertEquals("Bufonidae \"true toads\"", items.next().getName(KnownField.FAMILY));
+		assertFalse(items.hasNext());
+		f.delete();
+	}
+
+	//lines of every kind of ending, with bad lines at known line numbers
+	private static File writeMixedCatalog() throws IOException {
+		final File f = File.createTempFile("catalog", ".txt");
+		final FileWriter w = new FileWriter(f);
+		w.write("order\tfamily\tsubfamily\tgenus\tspecies\n");
+		for (int i = 0; i < 200; i++){
+			if (i % 37 == 5){
+				w.write("bad line " + i + "\n");
+			}
+			else {
+				final String ending = (i % 3 == 0) ? "\r\n" : (i % 3 == 1) ? "\r" : "\n";
+				w.write("Anura\tFamily" + (i % 7) + "\t\tGenus" + (i / 10) + "\tspecies" + i + ending);
+			}
+		}
+		w.close();
+		return f;
+	}
+
+	private static List<String> species(Iterator<Item> items){
+		final List<String> result = new ArrayList<String>();
+		while (items.hasNext()){
+			result.add(items.next().getName(KnownField.SPECIES));
+		}
+		return result;
+	}
+
+	//collects the reader's bad line warnings
+	private static final class BadLines extends AppenderSkeleton {
+		final List<String> messages = new ArrayList<String>();
+
+		@Override
+		protected synchronized void append(LoggingEvent event) {
+			if (event.getRenderedMessage().startsWith("Bad line")){
+				messages.add(event.getRenderedMessage());
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean requiresLayout() {
+			return false;
+		}
+	}
+
+	@Test
+	public void testReadCatalogParallel() throws IOException {
+		final File f = writeMixedCatalog();
+		testReader = new ColumnReader("\t");
+		testReader.setColumns(amphibiaColumns);
+		final BadLines badLines = new BadLines();
+		ColumnReader.logger.addAppender(badLines);
+		try {
+			final List<String> expected = species(testReader.readCatalog(f, true));
+			assertEquals(194, expected.size());
+			assertEquals("species0", expected.get(0));
+			final List<String> expectedBadLines = new ArrayList<String>(badLines.messages);
+			assertEquals(6, expectedBadLines.size());
+			assertEquals("Bad line 7 of " + f.getName() + ": bad line 5", expectedBadLines.get(0));   //the header is line 1
+			testReader.setParallelism(3);
+			for (long chunkSize : new long[]{1, 64, 1000, 1 << 20}){
+				badLines.messages.clear();
+				assertEquals(expected, species(testReader.readCatalog(f, true, true, chunkSize)));
+				assertEquals(expectedBadLines, badLines.messages);
+				badLines.messages.clear();
+				final List<String> unordered = species(testReader.readCatalog(f, true, false, chunkSize));
+				assertEquals(new HashSet<String>(expected), new HashSet<String>(unordered));
+				assertEquals(expected.size(), unordered.size());
+				assertEquals(expectedBadLines, badLines.messages);
+			}
+			assertEquals(expected, species(testReader.readCatalog(f, true)));
+			final ColumnReader.CatalogIterator stopped = testReader.readCatalog(f, false, true, 64);
+			assertEquals("order", stopped.next().getName(KnownField.ORDER));
+			stopped.close();
+			assertFalse(stopped.hasNext());
+		}
+		finally {
+			ColumnReader.logger.removeAppender(badLines);
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testChunkRanges() throws IOException {
+		final File f = writeMixedCatalog();
+		final List<long[]> ranges = ColumnReader.chunkRanges(f, 100);
+		assertEquals(0, ranges.get(0)[0]);
+		assertEquals(f.length(), ranges.get(ranges.size()-1)[1]);
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			for (int i = 1; i < ranges.size(); i++){
+				final long start = ranges.get(i)[0];
+				assertEquals(ranges.get(i-1)[1], start);
+				raf.seek(start-1);
+				final int before = raf.read();
+				final int at = raf.read();
+				assertTrue(before == '\n' || (before == '\r' && at != '\n'));
+			}
+		}
+		finally {
+			raf.close();
+			f.delete();
+		}
+	}
+
 }
@@ -0,0 +1,89 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestColumnTokenizer {
+
+	private static String[] fields(ColumnTokenizer tokens){
+		final String[] result = new String[tokens.size()];
+		for (int i = 0; i < result.length; i++){
+			result[i] = tokens.get(i);
+		}
+		return result;
+	}
+
+	@Test
+	public void testPlainFields() {
+		final ColumnTokenizer tokens = new ColumnTokenizer("\t");
+		assertEquals(5, tokens.tokenize("Anura\tRanidae\t\tRana\ttemporaria"));
+		assertEquals(Arrays.asList("Anura", "Ranidae", "", "Rana", "temporaria"), Arrays.asList(fields(tokens)));
+		assertTrue(tokens.isEmpty(2));
+		assertSame("a line's unquoted fields are slices of it", tokens.getText(0), tokens.getText(4));
+		assertEquals(20, tokens.getStart(4));
+		assertEquals(2, tokens.tokenize("\tRanidae\t\t\t"));   //trailing empty fields are dropped, as by String.split
+		assertEquals("", tokens.get(0));
+		assertEquals(0, tokens.tokenize(""));
+		assertEquals(1, tokens.tokenize("Anura"));
+		try {
+			tokens.get(1);
+			fail("Expected an IndexOutOfBoundsException");
+		}
+		catch (IndexOutOfBoundsException e){
+			//expected
+		}
+	}
+
+	@Test
+	public void testQuotedFields() {
+		final ColumnTokenizer tokens = new ColumnTokenizer(",");
+		assertEquals(4, tokens.tokenize("Anura,\"Rana, Lithobates\",\"\",\"say \"\"frog\"\"\""));
+		assertEquals(Arrays.asList("Anura", "Rana, Lithobates", "", "say \"frog\""), Arrays.asList(fields(tokens)));
+		assertTrue(tokens.isEmpty(2));
+		assertEquals(2, tokens.tokenize("\"\"\"\",\"a\"b"));
+		assertEquals("\"", tokens.get(0));
+		assertEquals("ab", tokens.get(1));    //text after the closing quote is kept
+		assertEquals(2, tokens.tokenize("\"unclosed,quote"));
+		assertEquals("\"unclosed", tokens.get(0));
+		assertEquals(3, tokens.tokenize("a,  \"b\" ,c"));    //a quote after white space is an ordinary character
+		assertEquals("  \"b\" ", tokens.get(1));
+		assertEquals("\"b\"", tokens.getTrimmed(1));
+	}
+
+	@Test
+	public void testPipeDelimiter() {
+		final ColumnTokenizer tokens = new ColumnTokenizer("|");
+		assertEquals(3, tokens.tokenize("Aves|Corvidae|Corvus"));
+		assertEquals("Corvidae", tokens.get(1));
+	}
+
+	@Test
+	public void testRegexDelimiter() {
+		final ColumnTokenizer tokens = new ColumnTokenizer("\\s*;\\s*");
+		assertEquals(3, tokens.tokenize("Aves ; Corvidae;  \"Corvus\""));
+		assertEquals(Arrays.asList("Aves", "Corvidae", "\"Corvus\""), Arrays.asList(fields(tokens)));
+	}
+
+	@Test
+	public void testTrim() {
+		assertEquals("Rana", ColumnTokenizer.trim("\t Rana  ", 0, 8));
+		assertEquals("an", ColumnTokenizer.trim(" Rana ", 2, 4));
+		assertEquals("", ColumnTokenizer.trim("   ", 0, 3));
+	}
+
+	@Test
+	public void testExpandXrefTemplate() {
+		final ColumnType column = new ColumnType("xref");
+		assertEquals("123", column.expandXrefTemplate("id 123 ", 3, 6));
+		column.setXrefTemplate("NCBITaxon:*xref");
+		assertEquals("NCBITaxon:123", column.expandXrefTemplate("id 123 ", 3, 6));
+		column.setXrefTemplate("*xref:*xref");
+		assertEquals("123:123", column.expandXrefTemplate("123", 0, 3));
+		column.setXrefTemplate("FB:");
+		assertEquals("FB:", column.expandXrefTemplate("123", 0, 3));
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCompactStore extends TestTaxonStore {
+
+	private static final String COMPACTFILE = "TestCompactStore.obo";
+	private static final String OBOFILE = "TestCompactStoreReference.obo";
+
+	private OBOStore referenceStore;
+
+	@Override
+	protected TaxonStore makeStore() throws Exception {
+		return new CompactStore(COMPACTFILE, "TEST", "test-namespace");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		referenceStore = new OBOStore(OBOFILE, "TEST", "test-namespace");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		new File(COMPACTFILE).delete();
+		new File(OBOFILE).delete();
+	}
+
+	@Test
+	public void testTrimUnlinksClade() {
+		Term root = testStore.addTerm("Chordata", "TEST");
+		Term child = testStore.addTerm("Vertebrata", "TEST");
+		testStore.attachParent(child, root);
+		testStore.trim("Vertebrata");
+		assertTrue(root.getChildren().isEmpty());   //OBOStore leaves the trimmed clade's root linked from its parent
+	}
+
+	@Test
+	public void testLookups() {
+		for (TaxonStore s : Arrays.asList(testStore, referenceStore)){
+			Term danio = s.addTermbyID("TEST:0000001", "Danio rerio");
+			danio.addSynonym(s.makeSynonymWithXref("Brachydanio rerio", "NCBITaxon", "7955"));
+			danio.addSynonym(s.makeTypedSynonym("zebrafish", OBOUtils.COMMONNAME_TYPENAME));
+			danio.addSynonym(s.makeSynonym("zebrafish"));
+			s.addXRefToTerm(danio, "NCBITaxon", "7955");
+			assertEquals(3, danio.getSynonyms().size());
+			assertEquals(danio.getID(), s.getTermByXRef("NCBITaxon", "7955").getID());   //OBOTerm has no equals
+			assertEquals(1, s.getTermsBySynonym("zebrafish").size());
+			assertEquals(danio.getID(), s.getTermsBySynonym("zebrafish").iterator().next().getID());
+			s.setRankFromName(danio, "species");
+			assertEquals("species", s.getRankString(danio));
+			s.obsoleteTerm(danio);
+			assertTrue(danio.isObsolete());
+			assertNull(s.getTerm("TEST:0000001"));
+			assertNull(s.getTermByXRef("NCBITaxon", "7955"));
+			assertEquals(danio.getID(), s.getTermbyName("Danio rerio").getID());   //obsolete terms are found by name
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("NCBITaxon:7955")), testStore.getTermbyName("Danio rerio").getCrossReferences());
+	}
+
+	/**
+	 * Builds the same taxonomy in both stores and checks the saved files match
+	 */
+	@Test
+	public void testSaveStore() throws IOException {
+		for (TaxonStore s : Arrays.asList(testStore, referenceStore)){
+			Term root = s.addTerm("Chordata", "TEST");
+			Term vertebrata = s.addTerm("Vertebrata", "TEST");
+			s.attachParent(vertebrata, root);
+			Term fishes = s.addTerm("Actinopterygii", "TEST");
+			s.attachParent(fishes, vertebrata);
+			s.setRankFromName(fishes, "class");
+			s.addXRefToTerm(fishes, "NCBITaxon", "7898");
+			Term danio = s.addTermbyID("TEST:0000100", "Danio rerio");
+			s.attachParent(danio, fishes);
+			s.setRankFromName(danio, "species");
+			danio.addSynonym(s.makeSynonymWithXref("Brachydanio rerio", "NCBITaxon", "7955"));
+			danio.addSynonym(s.makeTypedSynonym("zebrafish", OBOUtils.COMMONNAME_TYPENAME));
+			danio.createAltID("TEST:0000099");
+			danio.setComment("model organism");
+			Term fossil = s.addTerm("Dorudon atrox", "TEST");
+			s.attachParent(fossil, vertebrata);
+			s.setExtinct(fossil);
+			s.trim("Dorudon atrox");
+			vertebrata.addSynonym(s.makeSynonym("Dorudon atrox"));
+			s.processObsoletes();
+			s.saveStore();
+			assertEquals(4, s.getTerms().size() - ((s == referenceStore) ? 5 : 0));   //OBO sessions include 5 builtin classes
+		}
+		assertEquals(readUndatedLines(new File(OBOFILE)), readUndatedLines(new File(COMPACTFILE)));
+		assertEquals(referenceStore.countTerms().subList(1, 6), testStore.countTerms().subList(1, 6));
+	}
+
+	//the header date has minute resolution, so it's dropped before comparing files
+	static List<String> readUndatedLines(File f) throws IOException{
+		final List<String> result = new ArrayList<String>();
+		final BufferedReader r = new BufferedReader(new FileReader(f));
+		try {
+			String line = r.readLine();
+			while (line != null){
+				if (!line.startsWith("date:")){
+					result.add(line);
+				}
+				line = r.readLine();
+			}
+		}
+		finally {
+			r.close();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestITISExport {
+
+	//Brachydanio (163344) and Eugnathichthys (163343) are synonyms of Danio (163699); 999999 isn't a unit, so its
+	//synonym record is unresolved.  Salmonidae holds a second Danio (600001).
+	static final String EXPORT =
+			"[TA]|12|Hamilton, 1822|1822|\n" +
+			"[TT]|5|140|Family |100|100|1996-06-13 14:51:08|\n" +
+			unit(161061, "Actinopterygii", "", "valid", 0, 60) +
+			unit(163342, "Cyprinidae", "", "valid", 161061, 140) +
+			unit(163699, "Danio", "", "valid", 163342, 180) +
+			unit(163344, "Brachydanio", "", "invalid", 163342, 180) +
+			unit(163700, "Danio", "rerio", "valid", 163699, 220) +
+			"[CM]|17|some note|\n" +
+			unit(163701, "Danio", "rerio rerio", "valid", 163700, 230) +
+			unit(163343, "Eugnathichthys", "", "not accepted", 163342, 180) +
+			unit(600000, "Salmonidae", "", "accepted", 161061, 140) +
+			unit(600001, "Danio", "", "accepted", 600000, 180) +
+			unit(180000, "Mammalia", "", "valid", 0, 60) +
+			synonym(163344, 163699) +
+			synonym(163343, 163699) +
+			synonym(163343, 999999) +
+			unit(180000, "Mammalia", "", "valid", 0, 60).trim();   //a repeated TSN replaces the earlier unit; no final newline
+
+	private File exportFile;
+
+	@Before
+	public void setUp() throws Exception {
+		exportFile = File.createTempFile("itis", ".txt");
+		TestNCBITaxdump.write(exportFile, EXPORT);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		exportFile.delete();
+	}
+
+	//name2 may hold both the species and subspecies epithets, which end up joined with spaces either way
+	static String unit(int tsn, String name1, String name2, String usage, int parentTSN, int rankID){
+		return "[TU]|" + tsn + "||" + name1 + "||" + name2 + "||||||" + usage + "||TWG standards met||||1996-06-13 14:51:08|" +
+				parentTSN + "|0|0|5|" + rankID + "|2007-04-18 00:00:00|N|\n";
+	}
+
+	static String synonym(int synonymTSN, int acceptedTSN){
+		return "[SY]|1|" + synonymTSN + "|" + acceptedTSN + "|2003-04-17 00:00:00|\n";
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		final ITISExport export = ITISExport.read(exportFile, false);
+		assertEquals(10, export.size());
+		final int danio = export.unitForTSN(163699);
+		assertEquals("Danio", export.getName(danio));
+		assertEquals(163699, export.getTSN(danio));
+		assertEquals("genus", export.getRank(danio));
+		final int species = export.unitForTSN(163700);
+		assertEquals("Danio rerio", export.getName(species));
+		assertEquals("species", export.getRank(species));
+		assertEquals(danio, export.getParent(species));
+		final int family = export.unitForTSN(163342);
+		assertEquals("family", export.getRank(family));    //from the [TT] record
+		assertEquals(1, export.getChildren(family).length);   //Brachydanio and Eugnathichthys aren't accepted
+		assertFalse(export.isAccepted(export.unitForTSN(163343)));
+		assertEquals(ITISExport.NONE, export.getParent(export.unitForTSN(163343)));
+		assertTrue(export.isAccepted(export.unitForTSN(600000)));
+		assertEquals(ITISExport.NONE, export.getParent(export.unitForTSN(161061)));
+		assertEquals(ITISExport.NONE, export.unitForTSN(999999));
+		assertEquals(ITISExport.NONE, export.unitForTSN(12));    //author records aren't units
+		assertNull(export.getAuthor(12));
+	}
+
+	@Test
+	public void testSynonyms() throws IOException {
+		final ITISExport export = ITISExport.read(exportFile, false);
+		assertEquals(2, export.getSynonymCount());
+		assertEquals(1, export.getUnresolvedCount());
+		final int danio = export.unitForTSN(163699);
+		assertTrue(export.hasSynonyms(danio));
+		final int[] synonyms = export.getSynonyms(danio);
+		assertEquals(2, synonyms.length);
+		assertEquals("Brachydanio", export.getName(synonyms[0]));   //in synonym record order
+		assertEquals("Eugnathichthys", export.getName(synonyms[1]));
+		assertFalse(export.hasSynonyms(export.unitForTSN(163700)));
+		assertEquals(0, export.getSynonyms(export.unitForTSN(163700)).length);
+	}
+
+	@Test
+	public void testAuthors() throws IOException {
+		final ITISExport export = ITISExport.read(exportFile, true);
+		assertEquals("Hamilton, 1822", export.getAuthor(12));
+		assertNull(export.getAuthor(13));
+		assertEquals(10, export.size());
+	}
+
+	@Test
+	public void testReadSubtree() throws IOException {
+		final ITISExport export = ITISExport.readSubtree(exportFile, "Cyprinidae");
+		assertEquals(6, export.size());    //the family, Danio, its species and subspecies, and Danio's two synonyms
+		final int root = export.getRoot();
+		assertEquals(163342, export.getTSN(root));
+		assertEquals("Cyprinidae", export.getName(root));
+		assertEquals(ITISExport.NONE, export.getParent(root));   //the parent wasn't read
+		assertEquals(ITISExport.NONE, export.unitForTSN(600001));
+		assertEquals(ITISExport.NONE, export.unitForTSN(180000));
+		final int[] children = export.getChildren(root);
+		assertEquals(1, children.length);
+		assertEquals("Danio", export.getName(children[0]));
+		assertEquals(2, export.getSynonyms(children[0]).length);
+		assertEquals("Danio rerio rerio", export.getName(export.unitForTSN(163701)));
+		assertEquals("subspecies", export.getRank(export.unitForTSN(163701)));
+		assertEquals(0, export.getUnresolvedCount());    //the pair naming 999999 is outside the subtree
+		final ITISExport missing = ITISExport.readSubtree(exportFile, "Dani");
+		assertEquals(ITISExport.NONE, missing.getRoot());
+		assertEquals(0, missing.size());
+	}
+
+}
@@ -2,35 +2,104 @@ package org.nescent.VTO.lib;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.obo.datamodel.Dbxref;
 
 
 //target class may be should be @deprecated?
 public class TestITISMerger {
 	
 	private ITISMerger testMerger;
+	private File testFile;
+	private File exportFile;
 	private TaxonStore testStore;
 
 	@Before
 	public void setUp() throws Exception {
 		testMerger = new ITISMerger();
-		testStore = new OBOStore(null,null,null);
+		testFile = File.createTempFile("itis", ".obo");
+		testStore = new OBOStore(testFile.getAbsolutePath(),"TEST","test-ns");
+		exportFile = File.createTempFile("itis", ".txt");
+		TestNCBITaxdump.write(exportFile, TestITISExport.EXPORT);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		testFile.delete();
+		exportFile.delete();
+	}
+
+	private static boolean hasChild(Term t, String label){
+		for (Term child : t.getChildren()){
+			if (label.equals(child.getLabel())){
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Test
 	public void testMerge() {
-		fail("Not yet implemented");
+		final Term accepted = testStore.addTerm("Danio", "TEST");
+		final Term other = testStore.addTerm("Danio rerio", "TEST");
+		testMerger.setSource(exportFile);
+		testMerger.setTarget(testStore);
+		testMerger.merge("ITIS");
+		assertEquals(2, accepted.getSynonyms().size());
+		for (SynonymI s : accepted.getSynonyms()){
+			assertTrue("Brachydanio".equals(s.getText()) || "Eugnathichthys".equals(s.getText()));
+			final Dbxref x = s.asOBOSynonym().getXrefs().iterator().next();
+			assertEquals("ITIS", x.getDatabase());
+			assertEquals("163699", x.getDatabaseID());   //the accepted unit's TSN
+		}
+		assertTrue(other.getSynonyms().isEmpty());
 	}
 
 	@Test
 	public void testCanAttach() {
-		fail("Not yet implemented");
+		assertTrue(testMerger.canAttach());
 	}
 
 	@Test
 	public void testAttach() {
-		fail("Not yet implemented");
+		testMerger.setSource(exportFile);
+		testMerger.setTarget(testStore);
+		testMerger.attach("Vertebrata", "Actinopterygii", "TEST");
+		assertEquals(7, testStore.getTerms().size() - 5);   //Vertebrata, the class, two families, two genera and a species
+		final Term root = testStore.getTermbyName("Actinopterygii");
+		assertTrue(hasChild(testStore.getTermbyName("Vertebrata"), "Actinopterygii"));
+		assertEquals("class", testStore.getRankString(root));
+		final Term danio = testStore.getTermByXRef("ITIS", "163699");
+		assertEquals("Danio", danio.getLabel());
+		assertEquals("genus", testStore.getRankString(danio));
+		assertEquals(2, danio.getSynonyms().size());
+		final Term homonym = testStore.getTermByXRef("ITIS", "600001");
+		assertEquals("Danio (Salmonidae)", homonym.getLabel());
+		final Term species = testStore.getTermbyName("Danio rerio");
+		assertEquals("species", testStore.getRankString(species));
+		assertTrue(hasChild(danio, "Danio rerio"));
+		assertFalse(hasChild(homonym, "Danio rerio"));
+		assertEquals(1, species.getSynonyms().size());   //the subspecies
+		assertEquals("Danio rerio rerio", species.getSynonyms().iterator().next().getText());
+		assertNull(testStore.getTermbyName("Mammalia"));
+	}
+
+	@Test
+	public void testAttachHomonymInTarget() {
+		testStore.addTerm("Danio (Salmonidae)", "TEST");
+		testMerger.setSource(exportFile);
+		testMerger.setTarget(testStore);
+		try {
+			testMerger.attach("Vertebrata", "Actinopterygii", "TEST");
+			fail("Expected the suffixed homonym to clash with the target's term");
+		}
+		catch (RuntimeException e){
+			assertTrue(e.getMessage().startsWith("Unresolvable duplication"));
+		}
 	}
 
 }
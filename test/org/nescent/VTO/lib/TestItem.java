@@ -7,53 +7,122 @@ import org.junit.Test;
 
 public class TestItem {
 
+	private Item testItem;
+
 	@Before
 	public void setUp() throws Exception {
+		testItem = new Item();
+		testItem.putName(KnownField.FAMILY, "Ranidae");
+		testItem.putName(KnownField.GENUS, "Rana");
+		testItem.putName(KnownField.SPECIES, "temporaria");
 	}
 
 	@Test
 	public void testItem() {
-		fail("Not yet implemented");
+		final Item empty = new Item();
+		assertNull(empty.getName(KnownField.GENUS));
+		assertTrue(empty.getPlainSynonyms().isEmpty());
+		assertTrue(empty.getSynonym_xrefs().isEmpty());
+		assertTrue(empty.getVernacularNames().isEmpty());
+		assertTrue(empty.getTermXRefs().isEmpty());
+		assertNull(empty.getComment());
+		assertEquals("Item is empty", empty.toString());
 	}
 
 	@Test
 	public void testPutName() {
-		fail("Not yet implemented");
+		testItem.putName(KnownField.GENUS, "Lithobates");
+		assertEquals("Lithobates", testItem.getName(KnownField.GENUS));
+		testItem.putName(KnownField.DELIMITEDNAME, "Rana_temporaria");
+		assertEquals("Rana_temporaria", testItem.getFieldValue(KnownField.DELIMITEDNAME));
 	}
 
 	@Test
 	public void testHasColumn() {
-		fail("Not yet implemented");
+		assertTrue(testItem.hasColumn(KnownField.GENUS));
+		assertFalse(testItem.hasColumn(KnownField.ORDER));
+		testItem.putName(KnownField.ORDER, null);
+		assertTrue(testItem.hasColumn(KnownField.ORDER));
+		try {
+			testItem.hasColumn(KnownField.XREF);
+			fail("Expected an IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e){
+			//expected
+		}
 	}
 
 	@Test
 	public void testGetName() {
-		fail("Not yet implemented");
+		assertEquals("Ranidae", testItem.getName(KnownField.FAMILY));
+		assertNull(testItem.getName(KnownField.SUBFAMILY));
+		try {
+			testItem.getName(KnownField.COMMENT);
+			fail("Expected an IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e){
+			//expected
+		}
 	}
 
 	@Test
 	public void testGetFieldValue() {
-		fail("Not yet implemented");
+		assertEquals("temporaria", testItem.getFieldValue(KnownField.SPECIES));
+		assertNull(testItem.getFieldValue(KnownField.DELIMITEDNAME));
 	}
 
 	@Test
 	public void testAddSynonym() {
-		fail("Not yet implemented");
+		testItem.addPlainSynonym("Rana fusca");
+		testItem.addPlainSynonym("Rana muta");
+		testItem.addPlainSynonym("Rana fusca");
+		assertEquals(2, testItem.getPlainSynonyms().size());
+		testItem.addVernacularWithXref("common frog", "AmphibiaWeb:1");
+		assertTrue(testItem.getVernacularNames().contains("common frog"));
+		assertTrue(testItem.getVernacularFromSource("AmphibiaWeb:1").contains("common frog"));
+		testItem.addXref("NCBITaxon:8407");
+		assertTrue(testItem.getTermXRefs().contains("NCBITaxon:8407"));
 	}
 
 	@Test
 	public void testGetSynonymSources() {
-		fail("Not yet implemented");
+		assertTrue(testItem.getSynonym_xrefs().isEmpty());
+		testItem.addSynonymWithXref("Rana fusca", "FB:1");
+		testItem.addSynonymWithXref("Rana muta", "FB:1");
+		testItem.addSynonymWithXref("Rana alpina", "FB:2");
+		assertEquals(2, testItem.getSynonym_xrefs().size());
 	}
 
 	@Test
 	public void testGetSynonymsForSource() {
-		fail("Not yet implemented");
+		assertTrue(testItem.getSynonymsFromSource("FB:1").isEmpty());
+		testItem.addSynonymWithXref("Rana fusca", "FB:1");
+		testItem.addSynonymWithXref("Rana muta", "FB:1");
+		assertEquals(2, testItem.getSynonymsFromSource("FB:1").size());
+		assertTrue(testItem.getSynonymsFromSource("FB:2").isEmpty());
+	}
+
+	@Test
+	public void testInternHigherNames() {
+		final StringPool pool = new StringPool(16);
+		final Item other = new Item();
+		other.putName(KnownField.FAMILY, new String("Ranidae"));
+		other.putName(KnownField.SPECIES, new String("temporaria"));
+		testItem.internHigherNames(pool);
+		other.internHigherNames(pool);
+		assertSame(testItem.getName(KnownField.FAMILY), other.getName(KnownField.FAMILY));
+		assertNotSame(testItem.getName(KnownField.SPECIES), other.getName(KnownField.SPECIES));
+		assertEquals(2, pool.size());   //family and genus
 	}
 
 	@Test
 	public void testToString() {
-		fail("Not yet implemented");
+		testItem.addPlainSynonym("Rana fusca");
+		testItem.addXref("NCBITaxon:8407");
+		final String s = testItem.toString();
+		assertTrue(s.contains("GENUS: Rana"));
+		assertTrue(s.contains("Synonyms: :Rana fusca"));
+		assertTrue(s.contains("xrefs: NCBITaxon:8407"));
 	}
 
 }
@@ -3,26 +3,126 @@ package org.nescent.VTO.lib;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.nescent.VTO.Builder;
 
 
 public class TestNCBIMerger {
 
+	private static final String NODELINESUFFIX = "\t|\t\t|\t10\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|\n";
+
+	private static final String OLDNODES =
+			node(7742, 1, "no rank") + node(7898, 7742, "class") + node(7956, 7898, "genus") + node(7955, 7956, "species") +
+			node(7960, 7956, "species") + node(7961, 7956, "species") + node(7962, 7956, "species") + node(7964, 7956, "species");
+
+	private static final String OLDNAMES =
+			name(7742, "Vertebrata") + name(7898, "Actinopterygii") + name(7956, "Danio") + name(7955, "Danio rerio") +
+			name(7960, "Danio albolineatus") + name(7961, "Danio kyathit") + name(7962, "Danio roseus") + name(7964, "Danio dangila");
+
+	//7955 moves to a new genus, 7960 is merged into 7961, 7962 is renumbered 7963, 7964 is deleted and 7999 is new
+	private static final String NEWNODES =
+			node(7742, 1, "no rank") + node(7898, 7742, "class") + node(7956, 7898, "genus") + node(7957, 7898, "genus") +
+			node(7955, 7957, "species") + node(7961, 7956, "species") + node(7963, 7956, "species") + node(7999, 7956, "species");
+
+	private static final String NEWNAMES =
+			name(7742, "Vertebrata") + name(7898, "Actinopterygii") + name(7956, "Danio") + name(7957, "Brachydanio") +
+			name(7955, "Danio rerio") + name(7961, "Danio kyathit") + name(7963, "Danio roseus") + name(7999, "Danio novus");
+
+	private static final String MERGED = "7960\t|\t7961\t|\n7962\t|\t7963\t|\n";
+	private static final String DELNODES = "7964\t|\n";
+
 	private NCBIMerger testMerger;
 	private File testFile;
 	private TaxonStore testStore;
 
+	private File oldDump;
+	private File newDump;
+
 	@Before
 	public void setUp() throws Exception {
 		testMerger = new NCBIMerger();
-		testStore = new OBOStore(null,null,null);
+		testFile = File.createTempFile("ncbi", ".obo");
+		testStore = new OBOStore(testFile.getAbsolutePath(),"TEST","test-ns");
+		oldDump = dumpDir(OLDNODES, OLDNAMES);
+		newDump = dumpDir(NEWNODES, NEWNAMES);
+		TestNCBITaxdump.write(new File(newDump, NCBITaxdump.MERGEDFILENAME), MERGED);
+		TestNCBITaxdump.write(new File(newDump, NCBITaxdump.DELNODESFILENAME), DELNODES);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		NCBIMerger.clearCache();
+		testFile.delete();
+		for (File dir : new File[]{oldDump, newDump}){
+			for (File f : dir.listFiles()){
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	private static String node(int taxID, int parentID, String rank){
+		return taxID + "\t|\t" + parentID + "\t|\t" + rank + NODELINESUFFIX;
+	}
+
+	private static String name(int taxID, String name){
+		return taxID + "\t|\t" + name + "\t|\t\t|\tscientific name\t|\n";
+	}
+
+	private static File dumpDir(String nodes, String names) throws IOException{
+		final File result = File.createTempFile("taxdump", "");
+		result.delete();
+		result.mkdir();
+		TestNCBITaxdump.write(new File(result, NCBITaxdump.NODESFILENAME), nodes);
+		TestNCBITaxdump.write(new File(result, NCBITaxdump.NAMESFILENAME), names);
+		return result;
+	}
+
+	//obsolete terms can still be found by name, but aren't in the tree
+	private void assertRetired(String name){
+		final Term t = testStore.getTermbyName(name);
+		if (t != null){
+			assertTrue(t.isObsolete());
+			assertTrue(t.getAncestors().isEmpty());
+		}
+	}
+
+	private String parentName(Term t){
+		return t.getAncestors().get(0).getLabel();
+	}
+
+	private static boolean hasSynonym(Term t, String text){
+		for (SynonymI syn : t.getSynonyms()){
+			if (text.equals(syn.getText())){
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Test
-	public void testMerge() {
-		fail("Not yet implemented");
+	public void testMerge() throws IOException {
+		final String synonyms = "7898\t|\tActinopteri\t|\t\t|\tsynonym\t|\n" + "7956\t|\tBrachydanio\t|\t\t|\tsynonym\t|\n" +
+				"7955\t|\tBrachydanio rerio\t|\t\t|\tsynonym\t|\n";
+		TestNCBITaxdump.write(new File(oldDump, NCBITaxdump.NAMESFILENAME), OLDNAMES + synonyms);
+		final Term rayFinned = testStore.addTerm("Ray-finned fishes", "TEST");
+		testStore.addXRefToTerm(rayFinned, "NCBITaxon", "7898");
+		final Term homonym = testStore.addTerm("Actinopterygii", "TEST");    //the xref match is preferred to the name
+		final Term danio = testStore.addTerm("Danio", "TEST");    //no xref, so found by name
+		final int termCount = testStore.getTerms().size();
+		testMerger.setSource(oldDump);
+		testMerger.setTarget(testStore);
+		testMerger.merge("TEST");
+		assertTrue(hasSynonym(rayFinned, "Actinopteri"));
+		assertTrue(homonym.getSynonyms().isEmpty());
+		assertTrue(hasSynonym(danio, "Brachydanio"));
+		assertEquals(termCount, testStore.getTerms().size());    //merge only adds synonyms
+		assertNull(testStore.getTermbyName("Danio rerio"));
+		assertTrue(testStore.getTermsBySynonym("Brachydanio rerio").isEmpty());    //Danio rerio has no term, so its synonym is dropped
 	}
 
 	@Test
@@ -35,4 +135,68 @@ public class TestNCBIMerger {
 		fail("Not yet implemented");
 	}
 
+	@Test
+	public void testDeepLineage() throws IOException {
+		final int depth = 20000;    //deeper than a recursive build's stack allows
+		final StringBuilder nodes = new StringBuilder(node(1, 1, "no rank"));
+		final StringBuilder names = new StringBuilder(name(1, "Taxon 1"));
+		for (int i = 2; i <= depth; i++){
+			nodes.append(node(i, i-1, "no rank"));
+			names.append(name(i, "Taxon " + i));
+		}
+		final File chain = dumpDir(nodes.toString(), names.toString());
+		try {
+			final TaxonStore store = new CompactStore(testFile.getAbsolutePath(), "TEST", "test-ns");
+			testMerger.setSource(chain);
+			testMerger.setTarget(store);
+			testMerger.attach("Life", "Taxon 1", "TEST");
+			final Term deepest = store.getTermbyName("Taxon " + depth);
+			assertEquals("Taxon " + (depth-1), parentName(deepest));
+			assertEquals(Integer.toString(depth), deepest.getID().substring("TEST:".length()).replaceFirst("^0+", ""));
+		}
+		finally {
+			for (File f : chain.listFiles()){
+				f.delete();
+			}
+			chain.delete();
+		}
+	}
+
+	@Test
+	public void testBreadthFirstIDs() {
+		testMerger.setSource(newDump);
+		testMerger.setTarget(testStore);
+		testMerger.attach("Chordata", "Vertebrata", "TEST");
+		final String brachydanioID = testStore.getTermbyName("Brachydanio").getID();
+		for (String species : new String[]{"Danio kyathit", "Danio roseus", "Danio novus"}){
+			final Term t = testStore.getTermbyName(species);
+			assertEquals("Danio", parentName(t));
+			assertTrue(brachydanioID.compareTo(t.getID()) < 0);    //both genera are numbered before any species
+		}
+	}
+
+	@Test
+	public void testUpdate() {
+		testMerger.setSource(oldDump);
+		testMerger.setTarget(testStore);
+		testMerger.attach("Chordata", "Vertebrata", "TEST");
+		final String danioID = testStore.getTermbyName("Danio").getID();
+
+		final NCBIMerger updater = new NCBIMerger();
+		updater.setSource(newDump);
+		updater.setTarget(testStore);
+		updater.setSubAction(Builder.UPDATESUBACTION);
+		updater.merge("TEST");
+
+		assertEquals("Actinopterygii", parentName(testStore.getTermbyName("Brachydanio")));
+		assertEquals("Brachydanio", parentName(testStore.getTermbyName("Danio rerio")));
+		assertEquals("Danio", parentName(testStore.getTermbyName("Danio novus")));
+		assertEquals(danioID, testStore.getTermbyName("Danio").getID());    //unchanged terms are kept
+		assertRetired("Danio albolineatus");     //merged into Danio kyathit
+		assertTrue(hasSynonym(testStore.getTermByXRef("NCBITaxon", "7961"), "Danio albolineatus"));
+		assertEquals("Danio roseus", testStore.getTermByXRef("NCBITaxon", "7963").getLabel());
+		assertRetired("Danio dangila");    //deleted
+		assertNull(testStore.getTermByXRef("NCBITaxon", "7964"));
+	}
+
 }
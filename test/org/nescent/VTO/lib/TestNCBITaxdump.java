@@ -0,0 +1,153 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNCBITaxdump {
+
+	private static final String NODES =
+			"1\t|\t1\t|\tno rank\t|\t\t|\t8\t|\t0\t|\t1\t|\t0\t|\t1\t|\t0\t|\t0\t|\t0\t|\t\t|\n" +
+			"7742\t|\t1\t|\tno rank\t|\t\t|\t10\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|\n" +
+			"7898\t|\t7742\t|\tclass\t|\t\t|\t10\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|\n" +
+			"7955\t|\t7956\t|\tspecies\t|\tDR\t|\t10\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|\r\n" +
+			"7956\t|\t7898\t|\tgenus\t|\t\t|\t10\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|\n" +
+			"9606\t|\t7742\t|\tspecies\t|\tHS\t|\t5\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|";  //no final newline
+
+	private static final String NAMES =
+			"1\t|\troot\t|\t\t|\tscientific name\t|\n" +
+			"7742\t|\tVertebrata\t|\tVertebrata <vertebrates>\t|\tscientific name\t|\n" +
+			"7898\t|\tActinopterygii\t|\t\t|\tscientific name\t|\n" +
+			"7955\t|\t Danio rerio\t|\t\t|\tScientific Name\t|\n" +
+			"7955\t|\tBrachydanio rerio\t|\t\t|\tsynonym\t|\n" +
+			"7955\t|\tBrachydanio rerio\t|\t\t|\tsynonym\t|\n" +
+			"7955\t|\tzebrafish\t|\t\t|\tgenbank common name\t|\n" +
+			"7956\t|\tDanio\t|\t\t|\tscientific name\t|\n" +
+			"9606\t|\tHomo sapiens\t|\t\t|\tscientific name\t|\n";
+
+	private File dumpDir;
+
+	@Before
+	public void setUp() throws Exception {
+		dumpDir = File.createTempFile("taxdump", "");
+		dumpDir.delete();
+		dumpDir.mkdir();
+		writeDump(dumpDir);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		new File(dumpDir, NCBITaxdump.NODESFILENAME).delete();
+		new File(dumpDir, NCBITaxdump.NAMESFILENAME).delete();
+		dumpDir.delete();
+	}
+
+	static void writeDump(File dir) throws IOException{
+		write(new File(dir, NCBITaxdump.NODESFILENAME), NODES);
+		write(new File(dir, NCBITaxdump.NAMESFILENAME), NAMES);
+	}
+
+	static void write(File f, String contents) throws IOException{
+		final FileWriter w = new FileWriter(f);
+		w.write(contents);
+		w.close();
+	}
+
+	//every accessor agrees, node by node
+	static void assertSameDump(NCBITaxdump expected, NCBITaxdump actual){
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getNameCount(), actual.getNameCount());
+		assertEquals(expected.getSynonymNodeCount(), actual.getSynonymNodeCount());
+		for (int node = 0; node < expected.size(); node++){
+			assertEquals(expected.getTaxID(node), actual.getTaxID(node));
+			assertEquals(expected.getParent(node), actual.getParent(node));
+			assertEquals(expected.getRank(node), actual.getRank(node));
+			assertEquals(expected.getName(node), actual.getName(node));
+			assertEquals(expected.getSynonyms(node), actual.getSynonyms(node));
+			assertTrue(Arrays.equals(expected.getChildren(node), actual.getChildren(node)));
+			if (expected.getName(node) != null){
+				assertEquals(expected.nodeForName(expected.getName(node)), actual.nodeForName(actual.getName(node)));
+			}
+		}
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		final NCBITaxdump dump = NCBITaxdump.read(dumpDir, new int[]{10});
+		assertEquals(4, dump.size());
+		assertEquals(NCBITaxdump.NONE, dump.nodeForTaxID(1));     //division 8
+		assertEquals(NCBITaxdump.NONE, dump.nodeForTaxID(9606));  //division 5
+		final int danio = dump.nodeForTaxID(7955);
+		assertEquals("Danio rerio", dump.getName(danio));
+		assertEquals("species", dump.getRank(danio));
+		assertEquals(danio, dump.nodeForName("Danio rerio"));
+		assertEquals(Arrays.asList("Brachydanio rerio"), dump.getSynonyms(danio));
+		assertEquals(1, dump.getSynonymNodeCount());
+		final int genus = dump.nodeForName("Danio");
+		assertEquals(genus, dump.getParent(danio));
+		assertEquals(7956, dump.getTaxID(genus));
+		final int vertebrata = dump.nodeForName("Vertebrata");
+		assertEquals(NCBITaxdump.NONE, dump.getParent(vertebrata));   //parent is out of scope
+		assertEquals(1, dump.getChildren(vertebrata).length);
+		assertEquals("no rank", dump.getRank(vertebrata));
+	}
+
+	@Test
+	public void testDivisions() throws IOException {
+		final NCBITaxdump dump = NCBITaxdump.read(dumpDir, new int[]{5, 10});
+		assertEquals(5, dump.size());
+		final int[] children = dump.getChildren(dump.nodeForName("Vertebrata"));
+		assertEquals(2, children.length);
+		assertEquals(7898, dump.getTaxID(children[0]));    //children are kept in taxid order
+		assertEquals(9606, dump.getTaxID(children[1]));
+		assertEquals("Homo sapiens", dump.getName(children[1]));
+	}
+
+	@Test
+	public void testChunkRanges() throws IOException {
+		final File nodes = new File(dumpDir, NCBITaxdump.NODESFILENAME);
+		final List<long[]> ranges = NCBITaxdump.chunkRanges(nodes, 4, 1);
+		assertTrue(ranges.size() > 1);
+		long expectedStart = 0;
+		for (long[] range : ranges){
+			assertEquals(expectedStart, range[0]);
+			assertTrue(range[1] == nodes.length() || NODES.charAt((int)range[1]-1) == '\n');   //pieces end on line boundaries
+			expectedStart = range[1];
+		}
+		assertEquals(nodes.length(), expectedStart);
+	}
+
+	@Test
+	public void testReadParallel() throws IOException {
+		final NCBITaxdump sequential = NCBITaxdump.read(dumpDir, new int[]{5, 10});
+		final NCBITaxdump parallel = new NCBITaxdump(new int[]{5, 10});
+		parallel.readParallel(dumpDir, 3, 1);    //one line per chunk
+		assertSameDump(sequential, parallel);
+		assertEquals(NCBITaxdump.NONE, parallel.nodeForTaxID(1));     //division 8 is filtered after the merge
+	}
+
+	@Test
+	public void testReadSubtree() throws IOException {
+		for (int parallelism : new int[]{1, 2}){
+			final NCBITaxdump dump = NCBITaxdump.readSubtree(dumpDir, new int[]{5, 10}, "Actinopterygii", "Vertebrata", parallelism);
+			assertEquals(4, dump.size());    //the clade and the attachment node
+			assertEquals(NCBITaxdump.NONE, dump.nodeForTaxID(9606));
+			assertEquals(4, dump.getNameCount());
+			final int root = dump.nodeForName("Actinopterygii");
+			assertEquals(1, dump.getChildren(root).length);
+			assertEquals(Arrays.asList("Brachydanio rerio"), dump.getSynonyms(dump.nodeForName("Danio rerio")));
+			assertEquals(1, dump.getChildren(dump.nodeForName("Vertebrata")).length);   //only the root is kept under it
+		}
+		assertEquals(0, NCBITaxdump.readSubtree(dumpDir, new int[]{5}, "Actinopterygii", null, 1).size());   //root out of scope
+		assertEquals(6, NCBITaxdump.readSubtree(dumpDir, null, "root", null, 1).size());    //every division
+	}
+
+}
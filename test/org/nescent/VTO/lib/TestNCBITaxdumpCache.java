@@ -0,0 +1,98 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNCBITaxdumpCache {
+
+	private static final int[] DIVISIONS = {5, 10};
+
+	//7956 and 7898 share a name; the later line in names.dmp (7898) is the one found by name
+	private static final String HOMONYMNAMES =
+			"7742\t|\tVertebrata\t|\t\t|\tscientific name\t|\n" +
+			"7956\t|\tDanio\t|\t\t|\tscientific name\t|\n" +
+			"7898\t|\tDanio\t|\t\t|\tscientific name\t|\n" +
+			"7955\t|\tDanio rerio\t|\t\t|\tscientific name\t|\n";
+
+	private File dumpDir;
+	private File snapshotDir;
+
+	@Before
+	public void setUp() throws Exception {
+		dumpDir = tempDir("taxdump");
+		snapshotDir = tempDir("snapshots");
+		TestNCBITaxdump.writeDump(dumpDir);
+		NCBITaxdumpCache.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		NCBITaxdumpCache.clear();
+		for (File dir : new File[]{dumpDir, snapshotDir}){
+			for (File f : dir.listFiles()){
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	private File tempDir(String prefix) throws IOException{
+		final File result = File.createTempFile(prefix, "");
+		result.delete();
+		result.mkdir();
+		return result;
+	}
+
+	@Test
+	public void testReuse() throws IOException {
+		final NCBITaxdump first = NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, null);
+		assertSame(first, NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, null));
+		assertNotSame(first, NCBITaxdumpCache.read(dumpDir, new int[]{10}, 1, null));   //another scope is another dump
+		final NCBITaxdump subtree = NCBITaxdumpCache.readSubtree(dumpDir, DIVISIONS, "Actinopterygii", "Vertebrata", 1, null);
+		TestNCBITaxdump.assertSameDump(NCBITaxdump.readSubtree(dumpDir, DIVISIONS, "Actinopterygii", "Vertebrata", 1), subtree);
+		assertEquals(0, snapshotDir.list().length);
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		final NCBITaxdump parsed = NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, snapshotDir);
+		assertTrue(NCBITaxdumpCache.snapshotFile(snapshotDir, dumpDir, DIVISIONS).exists());
+		NCBITaxdumpCache.clear();
+		final NCBITaxdump loaded = NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, snapshotDir);
+		assertNotSame(parsed, loaded);
+		TestNCBITaxdump.assertSameDump(parsed, loaded);
+		NCBITaxdumpCache.clear();
+		final NCBITaxdump subtree = NCBITaxdumpCache.readSubtree(dumpDir, DIVISIONS, "Actinopterygii", "Vertebrata", 1, snapshotDir);
+		TestNCBITaxdump.assertSameDump(NCBITaxdump.readSubtree(dumpDir, DIVISIONS, "Actinopterygii", "Vertebrata", 1), subtree);
+	}
+
+	@Test
+	public void testStaleSnapshot() throws IOException {
+		NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, snapshotDir);
+		NCBITaxdumpCache.clear();
+		TestNCBITaxdump.write(new File(dumpDir, NCBITaxdump.NAMESFILENAME), HOMONYMNAMES);
+		final NCBITaxdump reread = NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, snapshotDir);
+		assertEquals(NCBITaxdump.NONE, reread.nodeForName("Homo sapiens"));   //not from the old snapshot
+		assertEquals(7898, reread.getTaxID(reread.nodeForName("Danio")));
+	}
+
+	@Test
+	public void testHomonymsInSnapshot() throws IOException {
+		TestNCBITaxdump.write(new File(dumpDir, NCBITaxdump.NAMESFILENAME), HOMONYMNAMES);
+		final NCBITaxdump parsed = NCBITaxdump.read(dumpDir, DIVISIONS);
+		NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, snapshotDir);
+		NCBITaxdumpCache.clear();
+		TestNCBITaxdump.assertSameDump(parsed, NCBITaxdumpCache.read(dumpDir, DIVISIONS, 1, snapshotDir));
+		NCBITaxdumpCache.clear();
+		final NCBITaxdump subtree = NCBITaxdumpCache.readSubtree(dumpDir, DIVISIONS, "Danio", null, 1, snapshotDir);
+		assertEquals(3, subtree.size());    //under 7898, not 7956
+		TestNCBITaxdump.assertSameDump(NCBITaxdump.readSubtree(dumpDir, DIVISIONS, "Danio", null, 1), subtree);
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.Synonym;
+
+public class TestOBOStanzaReader {
+
+	private static final String TESTOBO =
+		"format-version: 1.2\n" +
+		"synonymtypedef: COMMONNAME \"common name\" RELATED\n" +
+		"default-namespace: test-taxonomy\n" +
+		"\n" +
+		"[Term]\n" +
+		"id: TEST:0000001\n" +
+		"name: Danio rerio ! a comment\n" +
+		"synonym: \"zebra \\\"danio\\\"\" RELATED COMMONNAME [ITIS:163699 \"a, description\", NCBITaxon:7955]\n" +
+		"synonym: \"Brachydanio rerio\" EXACT []\n" +
+		"exact_synonym: \"Danio frankei\" [NCBITaxon:7955]\n" +
+		"xref: NCBITaxon:7955 {source=\"test\"}\n" +
+		"is_a: TEST:0000000 ! Cyprinidae\n" +
+		"property_value: has_rank TAXRANK:0000006\n" +
+		"\n" +
+		"[Typedef]\n" +
+		"id: part_of\n" +
+		"name: part of\n" +
+		"\n" +
+		"[Term]\n" +
+		"id: TEST:0000002\n" +
+		"name: Obsoleted\n" +
+		"is_obsolete: true\n";
+
+	@Test
+	public void testNext() throws IOException {
+		OBOStanzaReader r = new OBOStanzaReader(new StringReader(TESTOBO));
+		assertEquals("common name", r.getSynonymTypeName("COMMONNAME"));
+		OBOStanzaReader.Stanza s = r.next();
+		assertEquals("TEST:0000001", s.getID());
+		assertEquals("Danio rerio", s.getName());
+		assertEquals("TAXRANK:0000006", s.getRankID());
+		assertFalse(s.isObsolete());
+		assertEquals(3, s.getSynonyms().size());
+		OBOStanzaReader.StanzaSynonym common = s.getSynonyms().get(0);
+		assertEquals("zebra \"danio\"", common.getText());
+		assertEquals("COMMONNAME", common.getTypeID());
+		assertEquals("common name", common.getTypeName());
+		assertEquals(2, common.getXrefs().size());
+		assertEquals("ITIS", common.getXrefs().get(0).getDatabase());
+		assertEquals("163699", common.getXrefs().get(0).getDatabaseID());
+		assertEquals("7955", common.getXrefs().get(1).getDatabaseID());
+		assertNull(s.getSynonyms().get(1).getTypeID());
+		assertTrue(s.getSynonyms().get(1).getXrefs().isEmpty());
+		assertEquals("NCBITaxon", s.getSynonyms().get(2).getXrefs().get(0).getDatabase());
+		assertEquals(1, s.getXrefs().size());
+		assertEquals("7955", s.getXrefs().get(0).getDatabaseID());
+		s = r.next();
+		assertEquals("TEST:0000002", s.getID());
+		assertTrue(s.isObsolete());
+		assertNull(r.next());
+		r.close();
+	}
+
+	@Test
+	public void testReadsSavedSession() throws IOException {
+		OBOUtils u = new OBOUtils();
+		u.setNameSpace("test-taxonomy", "");
+		OBOClass root = u.makeTerm("TEST:0000001", "Cyprinidae");
+		u.setRankFromName(root, "family");
+		OBOClass species = u.makeTerm("TEST:0000002", "Danio rerio");
+		u.attachParent(species, root);
+		u.addXRef(species, u.createDbxref("NCBITaxon", "7955", null, Dbxref.ANALOG));
+		u.addSynonym(species, u.makeSynonymWithXref("Brachydanio rerio", "NCBITaxon", "7955"));
+		u.addSynonym(species, u.makeSynonymWithType("zebra {fish} \\ !", u.getCommonNameType()));
+		u.addSynonym(species, u.makeSynonym("tab\tand\nnewline"));
+		File f = File.createTempFile("reader", ".obo");
+		f.deleteOnExit();
+		u.saveOBOSession(f.getPath());
+
+		OBOUtils parsed = new OBOUtils(f.getPath());
+		OBOStanzaReader r = new OBOStanzaReader(f);
+		int count = 0;
+		OBOStanzaReader.Stanza s = r.next();
+		while (s != null){
+			OBOClass c = parsed.lookupTermByID(s.getID());
+			assertEquals(c.getName(), s.getName());
+			assertEquals(parsed.getRankID(parsed.getRankString(c)), s.getRankID());
+			Map<String,String> parsedSynonyms = new HashMap<String,String>();
+			for (Synonym syn : c.getSynonyms()){
+				parsedSynonyms.put(syn.getText(), syn.getSynonymType() == null ? null : syn.getSynonymType().getName());
+			}
+			assertEquals(parsedSynonyms.size(), s.getSynonyms().size());
+			for (OBOStanzaReader.StanzaSynonym syn : s.getSynonyms()){
+				assertTrue(parsedSynonyms.containsKey(syn.getText()));
+				assertEquals(parsedSynonyms.get(syn.getText()), syn.getTypeName());
+			}
+			assertEquals(c.getDbxrefs().size(), s.getXrefs().size());
+			count++;
+			s = r.next();
+		}
+		r.close();
+		assertEquals(2, count);
+	}
+
+}
@@ -2,13 +2,15 @@ package org.nescent.VTO.lib;
 
 import static org.junit.Assert.*;
 
-import org.junit.Before;
 import org.junit.Test;
 
-public class TestOBOStore {
+public class TestOBOStore extends TestTaxonStore {
 
-	@Before
-	public void setUp() throws Exception {
+	@Override
+	protected TaxonStore makeStore() throws Exception {
+		final OBOStore result = new OBOStore("TestOBOStore.obo", "TEST", "test-namespace");
+		result.setVerifyIndexes(true);
+		return result;
 	}
 
 	@Test
@@ -21,11 +23,6 @@ public class TestOBOStore {
 		fail("Not yet implemented");
 	}
 
-	@Test
-	public void testIsEmpty() {
-		fail("Not yet implemented");
-	}
-
 	@Test
 	public void testGetTerm() {
 		fail("Not yet implemented");
@@ -36,16 +33,6 @@ public class TestOBOStore {
 		fail("Not yet implemented");
 	}
 
-	@Test
-	public void testAddTerm() {
-		fail("Not yet implemented");
-	}
-
-	@Test
-	public void testAddTermbyID() {
-		fail("Not yet implemented");
-	}
-
 	@Test
 	public void testGetRankID() {
 		fail("Not yet implemented");
@@ -2,13 +2,30 @@ package org.nescent.VTO.lib;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.IdentifiedObject;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.impl.OBOClassImpl;
 
 public class TestOBOUtils {
 
+	private OBOUtils testUtils;
+
 	@Before
 	public void setUp() throws Exception {
+		testUtils = new OBOUtils();
 	}
 
 	@Test
@@ -33,7 +50,10 @@ public class TestOBOUtils {
 
 	@Test
 	public void testMakeTerm() {
-		fail("Not yet implemented");
+		OBOClass c = testUtils.makeTerm("TEST:0000001", "Chordata");
+		assertNotNull(c);
+		assertSame(c, testUtils.lookupTermByID("TEST:0000001"));
+		assertSame(c, testUtils.lookupTermByName("Chordata"));
 	}
 
 	@Test
@@ -82,13 +102,150 @@ public class TestOBOUtils {
 	}
 
 	@Test
-	public void testSaveOBOSession() {
-		fail("Not yet implemented");
+	public void testSaveOBOSession() throws IOException {
+		testUtils.setNameSpace("test-taxonomy", "");
+		OBOClass root = testUtils.makeTerm("TEST:0000001", "Cypriniformes");
+		testUtils.setRankFromName(root, "order");
+		OBOClass species = testUtils.makeTerm("TEST:0000002", "Danio rerio");
+		testUtils.attachParent(species, root);
+		testUtils.setRankFromName(species, "species");
+		testUtils.addXRef(species, testUtils.createDbxref("NCBITaxon", "7955", null, Dbxref.ANALOG));
+		testUtils.addSynonym(species, testUtils.makeSynonymWithXref("Brachydanio rerio", "NCBITaxon", "7955"));
+		testUtils.addSynonym(species, testUtils.makeSynonymWithType("zebrafish \"danio\"", testUtils.getCommonNameType()));
+		OBOClass fossil = testUtils.makeTerm("TEST:0000003", "Fossilus extinctus");
+		testUtils.attachParent(fossil, root);
+		testUtils.setExtinct(fossil);
+		OBOClass old = testUtils.makeTerm("TEST:0000000", "Obsoleted");
+		testUtils.attachParent(old, root);
+		testUtils.obsoleteClass(old);
+		old.addConsiderReplacement(species);
+		File streamed = File.createTempFile("streamed", ".obo");
+		File serialized = File.createTempFile("serialized", ".obo");
+		streamed.deleteOnExit();
+		serialized.deleteOnExit();
+		assertTrue(new OBOStanzaWriter(testUtils.getSession()).canWrite());
+		testUtils.saveOBOSession(streamed.getPath());
+		testUtils.serializeOBOSession(serialized.getPath());
+		List<String> streamedLines = readUndatedLines(streamed);
+		assertTrue(streamedLines.contains("synonym: \"Brachydanio rerio\" RELATED [NCBITaxon:7955]"));
+		assertEquals(readUndatedLines(serialized), streamedLines);
+	}
+
+	//the header date has minute resolution, so it's dropped before comparing files
+	private List<String> readUndatedLines(File f) throws IOException{
+		final List<String> result = new ArrayList<String>();
+		final BufferedReader r = new BufferedReader(new FileReader(f));
+		try {
+			String line = r.readLine();
+			while (line != null){
+				if (!line.startsWith("date:")){
+					result.add(line);
+				}
+				line = r.readLine();
+			}
+		}
+		finally {
+			r.close();
+		}
+		return result;
 	}
 
 	@Test
 	public void testLookupTermByName() {
-		fail("Not yet implemented");
+		testUtils.setVerifyIndexes(true);
+		OBOClass first = testUtils.makeTerm("TEST:0000001", "Aves");
+		OBOClass second = testUtils.makeTerm("TEST:0000002", "Aves");
+		OBOClass third = testUtils.makeTerm("TEST:0000003", "Reptilia");
+		assertSame(first, testUtils.lookupTermByName("Aves"));
+		testUtils.removeNode(first);
+		assertSame(second, testUtils.lookupTermByName("Aves"));
+		assertNull(testUtils.lookupTermByID("TEST:0000001"));
+		testUtils.renameTerm(third, "Sauropsida");
+		assertSame(third, testUtils.lookupTermByName("Sauropsida"));
+		assertNull(testUtils.lookupTermByName("Reptilia"));
+		testUtils.obsoleteClass(second);
+		assertNull(testUtils.lookupTermByID("TEST:0000002"));
+		assertTrue(testUtils.checkIndexes());
+		assertSame(second, testUtils.lookupTermByName("Aves"));    //found in the link database and cached
+		OBOClass fourth = testUtils.makeTerm("TEST:0000004", "Aves");
+		assertSame(fourth, testUtils.lookupTermByName("Aves"));    //a live term replaces the cached obsolete one
+		assertTrue(testUtils.checkIndexes());
+	}
+
+	@Test
+	public void testLookupTermByXRef() {
+		testUtils.setVerifyIndexes(true);
+		OBOClass c1 = testUtils.makeTerm("TEST:0000001", "Testudines");
+		OBOClass c2 = testUtils.makeTerm("TEST:0000002", "Cryptodira");
+		testUtils.addXRef(c1, testUtils.createDbxref("NCBITaxon", "8459", null, Dbxref.ANALOG));
+		testUtils.addXRef(c2, testUtils.createDbxref("NCBITaxon", "8464", null, Dbxref.ANALOG));
+		assertSame(c1, testUtils.lookupTermByXRef("NCBITaxon", "8459"));
+		assertNull(testUtils.lookupTermByXRef("PaleoDBTaxon", "8459"));
+		Map<String,OBOClass> found = testUtils.lookupTermsByXRefs("NCBITaxon", Arrays.asList("8459","8464","1"));
+		assertEquals(2, found.size());
+		assertSame(c2, found.get("8464"));
+		testUtils.removeNode(c2);
+		assertNull(testUtils.lookupTermByXRef("NCBITaxon", "8464"));
+	}
+
+	@Test
+	public void testGetRankString() {
+		OBOClass c = testUtils.makeTerm("TEST:0000001", "Homo sapiens");
+		assertNull(testUtils.getRankString(c));
+		assertEquals("TAXRANK:0000005", testUtils.getRankID("genus"));
+		testUtils.setRankFromName(c, "species");
+		assertEquals("species", testUtils.getRankString(c));
+		testUtils.removeRank(c);
+		assertNull(testUtils.getRankString(c));
+		testUtils.setRankFromID(c, "TAXRANK:0000005");
+		assertEquals("genus", testUtils.getRankString(c));
+	}
+
+	@Test
+	public void testSetRankOnUncachedTerm() {
+		OBOClass c = testUtils.makeTerm("TEST:0000001", "Homo");
+		c.addPropertyValue(testUtils.createRankProperty("TAXRANK:0000005"));   //a rank the cache hasn't seen, as read from a file
+		testUtils.setRankFromID(c, "TAXRANK:0000006");
+		assertEquals("genus", testUtils.getRankString(c));   //the first rank property still decides
+	}
+
+	@Test
+	public void testRankVocabulary() {
+		List<IdentifiedObject> ranks = new ArrayList<IdentifiedObject>();
+		ranks.add(new OBOClassImpl("genus", "TAXRANK:0000005"));
+		ranks.add(new OBOClassImpl("species", "TAXRANK:0000006"));
+		RankVocabulary v = new RankVocabulary(ranks);
+		assertEquals(2, v.size());
+		int species = v.ordinalOfName("species");
+		assertEquals(species, v.ordinalOfID("TAXRANK:0000006"));
+		assertEquals("TAXRANK:0000006", v.idOf(species));
+		assertEquals("genus", v.nameOf(v.ordinalOfID("TAXRANK:0000005")));
+		assertEquals(RankVocabulary.NO_RANK, v.ordinalOfName("superspecies"));
+		assertNull(v.nameOf(v.ordinalOfID("TAXRANK:9999999")));
+	}
+
+	@Test
+	public void testRankVocabularyOverride() throws IOException {
+		final File f = File.createTempFile("ranks", ".obo");
+		final FileWriter w = new FileWriter(f);
+		w.write("format-version: 1.2\n\n" +
+				"[Term]\nid: TAXRANK:0000005\nname: genus\n\n" +
+				"[Term]\nid: TAXRANK:0000017\nname: kingdom\n\n" +
+				"[Term]\nid: TAXRANK:0000025\nname: tribe\n");
+		w.close();
+		try {
+			RankVocabulary.setOverridePath(f.getAbsolutePath());
+			final RankVocabulary v = RankVocabulary.getShared();
+			assertEquals("TAXRANK:0000017", v.idOf(v.ordinalOfName("kingdom")));
+			assertEquals("tribe", v.nameOf(v.ordinalOfID("TAXRANK:0000025")));
+			assertEquals(RankVocabulary.NO_RANK, v.ordinalOfName("species"));
+			assertEquals(RankVocabulary.NO_RANK, v.ordinalOfName(RankVocabulary.NORANKNAME));
+		}
+		finally {
+			RankVocabulary.setOverridePath(null);
+			f.delete();
+		}
+		assertEquals("TAXRANK:0000006", RankVocabulary.getShared().idOf(RankVocabulary.getShared().ordinalOfName("species")));
 	}
 
 }
@@ -0,0 +1,121 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Behavior every TaxonStore shares; TestOBOStore and TestCompactStore run these against their own store
+ */
+public abstract class TestTaxonStore {
+
+	protected TaxonStore testStore;
+
+	/**
+	 * @return a new, empty store generating TEST ids
+	 */
+	protected abstract TaxonStore makeStore() throws Exception;
+
+	@Before
+	public void setUpStore() throws Exception {
+		testStore = makeStore();
+	}
+
+	@Test
+	public void testAddTerm() {
+		Term root = testStore.addTerm("Chordata", "TEST");
+		assertEquals("TEST:0000000", root.getID());
+		Term child = testStore.addTerm("Vertebrata", "TEST");
+		testStore.attachParent(child, root);
+		assertEquals("TEST:0000001", child.getID());
+		assertEquals("OTHER:0000000", testStore.addTerm("Craniata", "OTHER").getID());
+		testStore.trim("Vertebrata");
+		assertNull(testStore.getTermbyName("Vertebrata"));
+		assertEquals("TEST:0000002", testStore.addTerm("Amphibia", "TEST").getID());
+		assertEquals("TEST:0000001", testStore.addTerm("Vertebrata", "TEST").getID());  //trimmed ids are reused
+	}
+
+	@Test
+	public void testAddTermbyID() {
+		testStore.addTermbyID("TEST:0000041", "Aves");
+		assertEquals("TEST:0000042", testStore.addTerm("Reptilia", "TEST").getID());
+		testStore.updateIDGenerator("TEST");
+		assertEquals("TEST:0000043", testStore.addTerm("Mammalia", "TEST").getID());
+		assertEquals("Aves", testStore.getTerm("TEST:0000041").getLabel());
+		testStore.addTermbyID("GBIF:12", "Testudines");   //not a generated id
+		assertEquals("Testudines", testStore.getTerm("GBIF:12").getLabel());
+		assertNull(testStore.getTerm("GBIF:0000012"));
+	}
+
+	@Test
+	public void testObsoleteIDsNotReused() {
+		Term root = testStore.addTerm("Chordata", "TEST");
+		Term child = testStore.addTerm("Vertebrata", "TEST");
+		testStore.attachParent(child, root);
+		Term obsolete = testStore.addTerm("Aves", "TEST");
+		assertEquals("TEST:0000002", obsolete.getID());
+		testStore.obsoleteTerm(obsolete);
+		testStore.trim("Vertebrata");     //reseeds the id generator
+		assertEquals("TEST:0000003", testStore.addTerm("Amphibia", "TEST").getID());
+	}
+
+	@Test
+	public void testGetTermsBySynonym() {
+		Term root = testStore.addTerm("Testudines", "TEST");
+		Term child = testStore.addTerm("Cryptodira", "TEST");
+		testStore.attachParent(child, root);
+		root.addSynonym(testStore.makeSynonym("Chelonia"));
+		testStore.getTermbyName("Cryptodira").addSynonym(testStore.makeSynonymWithXref("Chelonia", "NCBITaxon", "8464"));
+		assertEquals(2, testStore.getTermsBySynonym("Chelonia").size());
+		assertTrue(testStore.getTermsBySynonym("Testudinata").isEmpty());
+		testStore.trim("Cryptodira");
+		assertEquals(1, testStore.getTermsBySynonym("Chelonia").size());
+		assertEquals("Testudines", testStore.getTermsBySynonym("Chelonia").iterator().next().getLabel());
+	}
+
+	@Test
+	public void testIsEmpty() {
+		assertTrue(testStore.isEmpty());
+		for (int i = 0; i < 4; i++){
+			testStore.addTerm("Taxon " + i, "TEST");
+		}
+		assertTrue(testStore.isEmpty());    //a few terms still leave room for an attach to add a root
+		testStore.addTerm("Taxon 4", "TEST");
+		assertFalse(testStore.isEmpty());
+		testStore.obsoleteTerm(testStore.getTermbyName("Taxon 4"));
+		assertTrue(testStore.isEmpty());
+	}
+
+	@Test
+	public void testMultipleParents() {
+		Term a = testStore.addTerm("A", "TEST");
+		Term b = testStore.addTerm("B", "TEST");
+		Term c = testStore.addTerm("C", "TEST");
+		testStore.attachParent(c, a);
+		testStore.attachParent(c, b);
+		assertEquals(Arrays.asList("A"), labels(c.getAncestors()));
+		assertEquals("A", c.getParent().getLabel());
+		assertNull(a.getParent());
+		assertEquals(Arrays.asList("C"), labels(b.getChildren()));
+		c.removeParent(a);
+		assertTrue(a.getChildren().isEmpty());
+		assertEquals(Arrays.asList("B"), labels(c.getAncestors()));
+		assertEquals("B", c.getParent().getLabel());
+	}
+
+	//OBOTerm has no equals, so terms are compared by label
+	static List<String> labels(Collection<Term> terms){
+		final List<String> result = new ArrayList<String>();
+		for (Term t : terms){
+			result.add(t.getLabel());
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.nescent.VTO.lib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTermBatch {
+
+	private static final String OBOFILE = "TestTermBatch.obo";
+	private static final String COMPACTFILE = "TestTermBatchCompact.obo";
+	private static final String REFERENCEFILE = "TestTermBatchReference.obo";
+
+	private OBOStore oboStore;
+	private CompactStore compactStore;
+	private OBOStore referenceStore;
+
+	@Before
+	public void setUp() throws Exception {
+		oboStore = new OBOStore(OBOFILE, "TEST", "test-namespace");
+		compactStore = new CompactStore(COMPACTFILE, "TEST", "test-namespace");
+		referenceStore = new OBOStore(REFERENCEFILE, "TEST", "test-namespace");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		new File(OBOFILE).delete();
+		new File(COMPACTFILE).delete();
+		new File(REFERENCEFILE).delete();
+	}
+
+	//records for a small clade under the store's Life term; returns Danio rerio's record
+	private int fillBatch(TaxonStore s, TermBatch batch){
+		final Term life = s.getTermbyName("Life");
+		final int order = batch.addTerm("Cypriniformes", "TEST");
+		batch.setRankFromName(order, "order");
+		batch.attachParent(order, life);
+		final int genus = batch.addTerm("Danio", "TEST");
+		batch.setRankFromName(genus, "genus");
+		batch.attachParent(genus, order);
+		final int species = batch.addTermbyID("ZFIN:0000100", "Danio rerio");
+		batch.setRankFromName(species, "species");
+		batch.attachParent(species, "Danio");
+		batch.addXRef(species, "NCBITaxon", "7955");
+		batch.addSynonym(species, s.makeSynonymWithXref("Brachydanio rerio", "NCBITaxon", "7955"));
+		batch.addSynonym(species, s.makeSynonymWithXref("Brachydanio rerio", "NCBITaxon", "7955"));   //duplicates are dropped
+		batch.addSynonym(species, s.makeTypedSynonym("zebrafish", OBOUtils.COMMONNAME_TYPENAME));
+		batch.setComment(species, "model organism");
+		final int fossil = batch.addTerm("Fossilus", "TEST");
+		batch.setExtinct(fossil);
+		batch.attachParent(fossil, order);
+		batch.attachParent(fossil, life);
+		return species;
+	}
+
+	@Test
+	public void testCommit() {
+		for (TaxonStore s : Arrays.<TaxonStore>asList(oboStore, compactStore)){
+			s.addTerm("Life", "TEST");
+			final TermBatch batch = s.newBatch();
+			final int species = fillBatch(s, batch);
+			assertNull(s.getTermbyName("Cypriniformes"));   //nothing is added before the commit
+			batch.commit();
+			final Term danio = batch.getTerm(species);
+			assertEquals("ZFIN:0000100", danio.getID());
+			assertEquals("TEST:0000001", s.getTermbyName("Cypriniformes").getID());   //generated in record order
+			assertEquals("TEST:0000002", s.getTermbyName("Danio").getID());
+			assertEquals("TEST:0000003", s.getTermbyName("Fossilus").getID());
+			assertEquals("ZFIN:0000100", s.getTermByXRef("NCBITaxon", "7955").getID());
+			assertEquals("species", s.getRankString(danio));
+			assertEquals("Danio rerio", s.getTermbyName("Danio").getChildren().iterator().next().getLabel());
+			assertTrue(s.getTermbyName("Fossilus").isExtinct());
+			assertEquals(2, s.getTermbyName("Life").getChildren().size());
+			assertEquals(2, danio.getSynonyms().size());
+		}
+	}
+
+	/**
+	 * The stores' own commits save the same file as adding each record through the store's methods
+	 */
+	@Test
+	public void testSameAsTermByTerm() throws IOException {
+		for (TaxonStore s : Arrays.<TaxonStore>asList(oboStore, compactStore, referenceStore)){
+			s.addTerm("Life", "TEST");
+			final TermBatch batch = (s == referenceStore) ? new TermBatch(s) : s.newBatch();
+			fillBatch(s, batch);
+			batch.commit();
+			s.saveStore();
+		}
+		final File reference = new File(REFERENCEFILE);
+		assertEquals(TestCompactStore.readUndatedLines(reference), TestCompactStore.readUndatedLines(new File(OBOFILE)));
+		assertEquals(TestCompactStore.readUndatedLines(reference), TestCompactStore.readUndatedLines(new File(COMPACTFILE)));
+	}
+
+	@Test
+	public void testNames() {
+		oboStore.addTerm("Life", "TEST");
+		final TermBatch batch = oboStore.newBatch();
+		final int first = batch.addTerm("Danio", "TEST");
+		batch.addTerm("Danio", "TEST");
+		assertEquals(first, batch.getRecord("Danio"));
+		assertEquals(TermBatch.NONE, batch.getRecord("Life"));
+		assertTrue(batch.hasName("Life"));
+		assertFalse(batch.hasName("Cyprinus"));
+		try {
+			batch.attachParent(first, "Cyprinus");
+			fail("unknown parent name accepted");
+		}
+		catch (IllegalArgumentException e){
+		}
+	}
+
+	@Test
+	public void testCommitOnce() {
+		final TermBatch batch = compactStore.newBatch();
+		batch.addTerm("Life", "TEST");
+		try {
+			batch.getTerm(0);
+			fail("term available before commit");
+		}
+		catch (IllegalStateException e){
+		}
+		batch.commit();
+		try {
+			batch.commit();
+			fail("batch committed twice");
+		}
+		catch (IllegalStateException e){
+		}
+		assertEquals(1, compactStore.getTerms().size());
+	}
+
+}
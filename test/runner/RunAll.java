@@ -9,18 +9,25 @@ import org.nescent.VTO.lib.TestCoLDBMerger;
 import org.nescent.VTO.lib.TestCoLMerger;
 import org.nescent.VTO.lib.TestColumnMerger;
 import org.nescent.VTO.lib.TestColumnReader;
+import org.nescent.VTO.lib.TestColumnTokenizer;
+import org.nescent.VTO.lib.TestCompactStore;
 import org.nescent.VTO.lib.TestIOCMerger;
+import org.nescent.VTO.lib.TestITISExport;
 import org.nescent.VTO.lib.TestITISMerger;
 import org.nescent.VTO.lib.TestItem;
 import org.nescent.VTO.lib.TestItemList;
 import org.nescent.VTO.lib.TestNCBIMerger;
+import org.nescent.VTO.lib.TestNCBITaxdump;
+import org.nescent.VTO.lib.TestNCBITaxdumpCache;
 import org.nescent.VTO.lib.TestOBOMerger;
+import org.nescent.VTO.lib.TestOBOStanzaReader;
 import org.nescent.VTO.lib.TestOBOStore;
 import org.nescent.VTO.lib.TestOBOSynonym;
 import org.nescent.VTO.lib.TestOBOTerm;
 import org.nescent.VTO.lib.TestOBOUtils;
 import org.nescent.VTO.lib.TestPBDBItem;
 import org.nescent.VTO.lib.TestPaleoDBBulkMerger;
+import org.nescent.VTO.lib.TestTermBatch;
 import org.nescent.VTO.lib.TestUnderscoreJoinedNamesMerger;
 
 
@@ -41,12 +48,18 @@ public class RunAll {
 		testOneClass(TestCoLMerger.class);
 		testOneClass(TestColumnMerger.class);
 		testOneClass(TestColumnReader.class);
+		testOneClass(TestColumnTokenizer.class);
+		testOneClass(TestCompactStore.class);
 		testOneClass(TestIOCMerger.class);
 		testOneClass(TestItem.class);
 		testOneClass(TestItemList.class);
+		testOneClass(TestITISExport.class);
 		testOneClass(TestITISMerger.class);
 		testOneClass(TestNCBIMerger.class);
+		testOneClass(TestNCBITaxdump.class);
+		testOneClass(TestNCBITaxdumpCache.class);
 		testOneClass(TestOBOMerger.class);
+		testOneClass(TestOBOStanzaReader.class);
 		testOneClass(TestOBOStore.class);
 		testOneClass(TestOBOSynonym.class);
 		testOneClass(TestOBOTerm.class);
@@ -54,6 +67,7 @@ public class RunAll {
 		testOneClass(TestUnderscoreJoinedNamesMerger.class);
 		testOneClass(TestPBDBItem.class);
 		testOneClass(TestPaleoDBBulkMerger.class);
+		testOneClass(TestTermBatch.class);
 		
 		System.out.println("Total time = " + ((double)(System.nanoTime()-startTime))/1E9 + " sec");
 	}